@@ -101,6 +101,8 @@ public class DatabaseAccessKeyProxy implements AccessKey {
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setActive for " + this.delegate );
       throw new AuthException( e );
+    } finally {
+      AccessKeys.invalidate( this.delegate.getAccessKey( ) );
     }
   }
   
@@ -120,6 +122,8 @@ public class DatabaseAccessKeyProxy implements AccessKey {
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setKey for " + this.delegate );
       throw new AuthException( e );
+    } finally {
+      AccessKeys.invalidate( this.delegate.getAccessKey( ) );
     }
   }
   
@@ -365,6 +365,8 @@ public class DatabaseAccountProxy implements Account {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to delete user: " + userName + " in " + accountName );
       throw new AuthException( AuthException.NO_SUCH_USER, e );
+    } finally {
+      AccessKeys.invalidateAll( );
     }
   }
 
@@ -321,6 +321,8 @@ public class DatabaseAuthProvider implements AccountProvider {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to delete account " + accountName );
       throw new AuthException( AuthException.NO_SUCH_ACCOUNT, e );
+    } finally {
+      AccessKeys.invalidateAll( );
     }
   }
 
@@ -232,6 +232,8 @@ public class DatabaseUserProxy implements User {
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setEnabled for " + this.delegate );
       throw new AuthException( e );
+    } finally {
+      AccessKeys.invalidateAll( );
     }
   }
 
@@ -462,6 +464,8 @@ public class DatabaseUserProxy implements User {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to get delete key " + keyId );
       throw new AuthException( e );
+    } finally {
+      AccessKeys.invalidate( keyId );
     }
   }
 
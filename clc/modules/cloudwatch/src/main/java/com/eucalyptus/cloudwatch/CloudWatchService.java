@@ -40,7 +40,11 @@ import org.apache.log4j.Logger;
 import com.eucalyptus.auth.Permissions;
 import com.eucalyptus.auth.policy.PolicySpec;
 import com.eucalyptus.auth.principal.Principals;
+import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics;
 import com.eucalyptus.cloudwatch.domain.DBCleanupService;
+import com.eucalyptus.cloudwatch.domain.MetricDataRetentionService;
+import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricCache;
 import com.eucalyptus.cloudwatch.domain.alarms.AlarmEntity;
 import com.eucalyptus.cloudwatch.domain.alarms.AlarmEntity.ComparisonOperator;
 import com.eucalyptus.cloudwatch.domain.alarms.AlarmEntity.StateValue;
@@ -66,6 +70,7 @@ import com.eucalyptus.context.Context;
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Exceptions;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.util.OwnerFullName;
 import com.eucalyptus.util.Wrappers;
 import com.google.common.collect.Collections2;
@@ -77,6 +82,9 @@ public class CloudWatchService {
   @ConfigurableField(initial = "false", description = "Set this to true to stop cloud watch alarm evaluation and new alarm/metric data entry")
   public static volatile Boolean DISABLE_CLOUDWATCH_SERVICE = false;
 
+  @ConfigurableField(initial = "true", description = "Set this to false to stop publishing cloud watch service metrics to the Eucalyptus/CloudWatch namespace")
+  public static volatile Boolean PUBLISH_INTERNAL_METRICS = true;
+
   static {
     // TODO: make this configurable
     ExecutorService fixedThreadPool = Executors.newFixedThreadPool(5);
@@ -88,6 +96,21 @@ public class CloudWatchService {
         .newSingleThreadScheduledExecutor();
     dbCleanupService.scheduleAtFixedRate(new DBCleanupService(), 0, 1,
         TimeUnit.DAYS);
+    dbCleanupService.scheduleAtFixedRate(new MetricDataRetentionService(), 0, 1,
+        TimeUnit.HOURS);
+    Mbeans.register(CloudWatchInternalMetrics.getInstance());
+    ScheduledExecutorService internalMetricsService = Executors
+        .newSingleThreadScheduledExecutor();
+    internalMetricsService.scheduleAtFixedRate(new CloudWatchInternalMetrics.Publisher(),
+        1, 1, TimeUnit.MINUTES);
+    internalMetricsService.scheduleAtFixedRate(new AbsoluteMetricCache.WriteBehind(),
+        1, 1, TimeUnit.MINUTES);
+    OrderedShutdown.registerPreShutdownHook(new Runnable() {
+      @Override
+      public void run() {
+        AbsoluteMetricCache.getInstance().write();
+      }
+    });
   }
 
   private static final Logger LOG = Logger.getLogger(CloudWatchService.class);
@@ -171,7 +194,12 @@ public class CloudWatchService {
       if (metricType == MetricType.System && !isUserAccountAdmin) {
         throw new InvalidParameterValueException("The value AWS/ for parameter Namespace is invalid.");
       }
-      MetricDataQueue.getInstance().insertMetricData(ownerFullName.getAccountNumber(), namespace, metricData, metricType);
+      if (CloudWatchInternalMetrics.NAMESPACE.equals(namespace) && !isUserAccountAdmin) {
+        throw new InvalidParameterValueException("The value " + namespace + " for parameter Namespace is invalid.");
+      }
+      if (!MetricDataQueue.getInstance().insertMetricData(ownerFullName.getAccountNumber(), namespace, metricData, metricType)) {
+        throw new ThrottlingException("Rate exceeded");
+      }
     } catch (Exception ex) {
       handleException(ex);
     }
@@ -0,0 +1,138 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.Table;
+
+import org.hibernate.jdbc.Work;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * JDBC batch insert of new entities with dimensions.
+ *
+ * Rows are written directly rather than through the session, so identifiers,
+ * version and timestamps are assigned here as the persistence layer would on
+ * persist.  Subclasses provide the entity specific columns.
+ */
+public abstract class BatchInsertWork<T extends AbstractPersistentWithDimensions> implements Work {
+  private static final int BATCH_SIZE = 1000;
+  private final String tableName;
+  private final Collection<? extends T> entities;
+  private int rowCount = 0;
+
+  protected BatchInsertWork(Class<?> entityClass, Collection<? extends T> entities) {
+    this(tableName(entityClass), entities);
+  }
+
+  /**
+   * Insert into the given table, which must have the columns of the entity table.
+   */
+  protected BatchInsertWork(String tableName, Collection<? extends T> entities) {
+    this.tableName = tableName;
+    this.entities = entities;
+  }
+
+  private static String tableName(Class<?> entityClass) {
+    Table table = entityClass.getAnnotation(Table.class);
+    if (table == null || Strings.isNullOrEmpty(table.name())) {
+      throw new IllegalArgumentException("No table for " + entityClass);
+    }
+    return table.name();
+  }
+
+  /**
+   * The entity specific column names, in the order they are bound.
+   */
+  protected abstract List<String> getColumns();
+
+  /**
+   * Bind the entity specific columns starting at the given parameter index.
+   */
+  protected abstract void bind(PreparedStatement statement, int index, T entity) throws SQLException;
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public void execute(Connection connection) throws SQLException {
+    if (entities.isEmpty()) return;
+    List<String> columns = Lists.newArrayList("id", "version", "creation_timestamp",
+        "last_update_timestamp", "metadata_perm_uuid");
+    for (int dimNum = 1; dimNum <= AbstractPersistentWithDimensions.MAX_DIM_NUM; dimNum++) {
+      columns.add("dim_" + dimNum + "_name");
+      columns.add("dim_" + dimNum + "_value");
+    }
+    columns.addAll(getColumns());
+    String sql = "INSERT INTO " + tableName + " (" + Joiner.on(", ").join(columns) + ") VALUES (" +
+        Joiner.on(", ").join(Collections.nCopies(columns.size(), "?")) + ")";
+    PreparedStatement statement = connection.prepareStatement(sql);
+    try {
+      int pending = 0;
+      for (T entity : entities) {
+        // timestamps and natural id are set on the entity so callers can refer to the row
+        entity.updateTimeStamps();
+        int index = 1;
+        statement.setString(index++, UUID.randomUUID().toString().replace("-", ""));
+        statement.setInt(index++, 0);
+        statement.setTimestamp(index++, new Timestamp(entity.getCreationTimestamp().getTime()));
+        statement.setTimestamp(index++, new Timestamp(entity.getLastUpdateTimestamp().getTime()));
+        statement.setString(index++, entity.getNaturalId());
+        Iterator<DimensionEntity> dimensions = entity.getDimensions().iterator();
+        for (int dimNum = 1; dimNum <= AbstractPersistentWithDimensions.MAX_DIM_NUM; dimNum++) {
+          if (dimensions.hasNext()) {
+            DimensionEntity dimension = dimensions.next();
+            statement.setString(index++, dimension.getName());
+            statement.setString(index++, dimension.getValue());
+          } else {
+            statement.setNull(index++, Types.VARCHAR);
+            statement.setNull(index++, Types.VARCHAR);
+          }
+        }
+        bind(statement, index, entity);
+        statement.addBatch();
+        rowCount++;
+        if (++pending == BATCH_SIZE) {
+          statement.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        statement.executeBatch();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.auth.Accounts;
+import com.eucalyptus.auth.principal.Account;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.cloudwatch.CloudWatch;
+import com.eucalyptus.cloudwatch.CloudWatchService;
+import com.eucalyptus.cloudwatch.Dimension;
+import com.eucalyptus.cloudwatch.Dimensions;
+import com.eucalyptus.cloudwatch.MetricDatum;
+import com.eucalyptus.cloudwatch.StatisticSet;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataQueue;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.component.Topology;
+import com.eucalyptus.util.LatencyHistogram;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Metrics for the cloud watch service itself.
+ *
+ * Exported via JMX and, when enabled, published every minute to the
+ * reserved Eucalyptus/CloudWatch namespace of the eucalyptus account.
+ */
+public class CloudWatchInternalMetrics {
+  private static final Logger LOG = Logger.getLogger(CloudWatchInternalMetrics.class);
+  public static final String NAMESPACE = "Eucalyptus/CloudWatch";
+
+  public enum Stage { Absolute, Convert, Aggregate, Write }
+
+  private static final CloudWatchInternalMetrics instance = new CloudWatchInternalMetrics();
+
+  private final Map<Stage, LatencyHistogram> stageLatencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+  private final LatencyHistogram flushLag = new LatencyHistogram();
+  private final LatencyHistogram alarmEvaluationLag = new LatencyHistogram();
+  private final LatencyHistogram alarmEvaluationDuration = new LatencyHistogram();
+
+  private CloudWatchInternalMetrics() {
+    for (Stage stage : Stage.values()) {
+      stageLatencies.put(stage, new LatencyHistogram());
+    }
+  }
+
+  public static CloudWatchInternalMetrics getInstance() {
+    return instance;
+  }
+
+  public static void recordStage(Stage stage, long millis) {
+    instance.stageLatencies.get(stage).record(millis);
+  }
+
+  /**
+   * Record the time from metric data leaving the queue until it is written.
+   */
+  public static void recordFlushLag(long millis) {
+    instance.flushLag.record(millis);
+  }
+
+  /**
+   * Record an alarm evaluation.
+   *
+   * @param lagMillis Time from dispatch to completion of the evaluation
+   * @param durationMillis Time taken for the evaluation
+   */
+  public static void recordAlarmEvaluation(long lagMillis, long durationMillis) {
+    instance.alarmEvaluationLag.record(lagMillis);
+    instance.alarmEvaluationDuration.record(durationMillis);
+  }
+
+  public int getQueueDepth() {
+    return MetricDataQueue.getQueueDepth();
+  }
+
+  public long getDroppedCount() {
+    return MetricDataQueue.getDroppedCount();
+  }
+
+  public long getWrittenCount() {
+    return MetricDataQueue.getWrittenCount();
+  }
+
+  public double getAbsoluteStageMeanMillis() {
+    return stageLatencies.get(Stage.Absolute).snapshot().getMeanMillis();
+  }
+
+  public long getAbsoluteStageP99Millis() {
+    return stageLatencies.get(Stage.Absolute).snapshot().getPercentileMillis(99);
+  }
+
+  public double getConvertStageMeanMillis() {
+    return stageLatencies.get(Stage.Convert).snapshot().getMeanMillis();
+  }
+
+  public long getConvertStageP99Millis() {
+    return stageLatencies.get(Stage.Convert).snapshot().getPercentileMillis(99);
+  }
+
+  public double getAggregateStageMeanMillis() {
+    return stageLatencies.get(Stage.Aggregate).snapshot().getMeanMillis();
+  }
+
+  public long getAggregateStageP99Millis() {
+    return stageLatencies.get(Stage.Aggregate).snapshot().getPercentileMillis(99);
+  }
+
+  public double getWriteStageMeanMillis() {
+    return stageLatencies.get(Stage.Write).snapshot().getMeanMillis();
+  }
+
+  public long getWriteStageP99Millis() {
+    return stageLatencies.get(Stage.Write).snapshot().getPercentileMillis(99);
+  }
+
+  public double getFlushLagMeanMillis() {
+    return flushLag.snapshot().getMeanMillis();
+  }
+
+  public long getFlushLagP99Millis() {
+    return flushLag.snapshot().getPercentileMillis(99);
+  }
+
+  public long getFlushLagMaxMillis() {
+    return flushLag.snapshot().getMaxMillis();
+  }
+
+  public long getAlarmEvaluationCount() {
+    return alarmEvaluationDuration.snapshot().getCount();
+  }
+
+  public double getAlarmEvaluationLagMeanMillis() {
+    return alarmEvaluationLag.snapshot().getMeanMillis();
+  }
+
+  public long getAlarmEvaluationLagP99Millis() {
+    return alarmEvaluationLag.snapshot().getPercentileMillis(99);
+  }
+
+  public double getAlarmEvaluationDurationMeanMillis() {
+    return alarmEvaluationDuration.snapshot().getMeanMillis();
+  }
+
+  public long getAlarmEvaluationDurationP99Millis() {
+    return alarmEvaluationDuration.snapshot().getPercentileMillis(99);
+  }
+
+  @Override
+  public String toString() {
+    return "CloudWatch service metrics";
+  }
+
+  /**
+   * Publishes the metrics for each interval (run) to the reserved namespace.
+   */
+  public static class Publisher implements Runnable {
+    private final Map<Stage, LatencyHistogram.Snapshot> lastStageSnapshots = Maps.newEnumMap(Stage.class);
+    private LatencyHistogram.Snapshot lastFlushLag = instance.flushLag.snapshot();
+    private LatencyHistogram.Snapshot lastAlarmEvaluationLag = instance.alarmEvaluationLag.snapshot();
+    private LatencyHistogram.Snapshot lastAlarmEvaluationDuration = instance.alarmEvaluationDuration.snapshot();
+    private long lastDroppedCount = MetricDataQueue.getDroppedCount();
+    private long lastWrittenCount = MetricDataQueue.getWrittenCount();
+    private String accountId;
+
+    public Publisher() {
+      for (Stage stage : Stage.values()) {
+        lastStageSnapshots.put(stage, instance.stageLatencies.get(stage).snapshot());
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<MetricDatum> data = collect(new Date());
+        if (CloudWatchService.PUBLISH_INTERNAL_METRICS && !CloudWatchService.DISABLE_CLOUDWATCH_SERVICE &&
+            Bootstrap.isOperational() && Topology.isEnabledLocally(CloudWatch.class)) {
+          if (accountId == null) {
+            accountId = Accounts.lookupAccountByName(Account.SYSTEM_ACCOUNT).getAccountNumber();
+          }
+          MetricDataQueue.getInstance().insertMetricData(accountId, NAMESPACE, data, MetricType.Custom);
+        }
+      } catch (Exception ex) {
+        LOG.error("Error publishing cloud watch service metrics", ex);
+      }
+    }
+
+    /**
+     * Take the metric data for the interval since the last collection.
+     */
+    public List<MetricDatum> collect(Date now) {
+      List<MetricDatum> data = Lists.newArrayList();
+      // intervals are always taken so published values cover a single run
+      for (Stage stage : Stage.values()) {
+        LatencyHistogram.Snapshot snapshot = instance.stageLatencies.get(stage).snapshot();
+        addLatency(data, "StageLatency", new Dimension("Stage", stage.name()),
+            snapshot.minus(lastStageSnapshots.get(stage)), now);
+        lastStageSnapshots.put(stage, snapshot);
+      }
+      LatencyHistogram.Snapshot flushLagSnapshot = instance.flushLag.snapshot();
+      addLatency(data, "FlushLag", null, flushLagSnapshot.minus(lastFlushLag), now);
+      lastFlushLag = flushLagSnapshot;
+      LatencyHistogram.Snapshot alarmLagSnapshot = instance.alarmEvaluationLag.snapshot();
+      addLatency(data, "AlarmEvaluationLag", null, alarmLagSnapshot.minus(lastAlarmEvaluationLag), now);
+      lastAlarmEvaluationLag = alarmLagSnapshot;
+      LatencyHistogram.Snapshot alarmDurationSnapshot = instance.alarmEvaluationDuration.snapshot();
+      addLatency(data, "AlarmEvaluationDuration", null, alarmDurationSnapshot.minus(lastAlarmEvaluationDuration), now);
+      lastAlarmEvaluationDuration = alarmDurationSnapshot;
+      long droppedCount = MetricDataQueue.getDroppedCount();
+      data.add(value("DroppedItems", (double) (droppedCount - lastDroppedCount), Units.Count, now));
+      lastDroppedCount = droppedCount;
+      long writtenCount = MetricDataQueue.getWrittenCount();
+      data.add(value("WrittenItems", (double) (writtenCount - lastWrittenCount), Units.Count, now));
+      lastWrittenCount = writtenCount;
+      data.add(value("QueueDepth", (double) MetricDataQueue.getQueueDepth(), Units.Count, now));
+      return data;
+    }
+
+    private static void addLatency(List<MetricDatum> data, String metricName, Dimension dimension,
+        LatencyHistogram.Snapshot interval, Date timestamp) {
+      if (interval.getCount() == 0) return;
+      MetricDatum datum = new MetricDatum();
+      datum.setMetricName(metricName);
+      Dimensions dimensions = new Dimensions();
+      if (dimension != null) {
+        dimensions.setMember(Lists.newArrayList(dimension));
+      }
+      datum.setDimensions(dimensions);
+      StatisticSet statisticSet = new StatisticSet();
+      statisticSet.setSampleCount((double) interval.getCount());
+      statisticSet.setSum((double) interval.getTotalMillis());
+      statisticSet.setMinimum((double) interval.getMinMillis());
+      statisticSet.setMaximum((double) interval.getMaxMillis());
+      datum.setStatisticValues(statisticSet);
+      datum.setUnit(Units.Milliseconds.toString());
+      datum.setTimestamp(timestamp);
+      data.add(datum);
+    }
+
+    private static MetricDatum value(String metricName, Double value, Units units, Date timestamp) {
+      MetricDatum datum = new MetricDatum();
+      datum.setMetricName(metricName);
+      datum.setDimensions(new Dimensions());
+      datum.setValue(value);
+      datum.setUnit(units.toString());
+      datum.setTimestamp(timestamp);
+      return datum;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain;
+
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataPartitions;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataPartitions.RetentionReport;
+import com.eucalyptus.records.Logs;
+
+/**
+ * Creates metric data partitions for the retention window and drops expired
+ * partitions, a limited number per run so that any backlog is worked through
+ * incrementally.
+ */
+public class MetricDataRetentionService implements Runnable {
+  private static final Logger LOG = Logger.getLogger(MetricDataRetentionService.class);
+  private static volatile RetentionReport lastReport = null;
+
+  public MetricDataRetentionService() {
+  }
+
+  public static RetentionReport getLastReport() {
+    return lastReport;
+  }
+
+  @Override
+  public void run() {
+    Date twoWeeksAgo = new Date(System.currentTimeMillis() - 2 * 7 * 24 * 60 * 60 * 1000L);
+    try {
+      MetricDataPartitions.ensurePartitionsSince(twoWeeksAgo);
+      RetentionReport report = MetricDataPartitions.dropPartitionsBefore(twoWeeksAgo,
+          MetricDataPartitions.MAX_PARTITIONS_PER_RUN);
+      lastReport = report;
+      if (report.getPartitions() > 0) {
+        LOG.info("Metric data retention " + report);
+      }
+    } catch (Exception ex) {
+      LOG.error(ex);
+      Logs.extreme().error(ex, ex);
+    }
+  }
+}
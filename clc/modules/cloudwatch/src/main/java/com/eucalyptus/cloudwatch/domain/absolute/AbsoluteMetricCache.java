@@ -0,0 +1,415 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.absolute;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.persistence.EntityTransaction;
+import javax.persistence.Table;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
+
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.records.Logs;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Last values of absolute metrics, shared across MetricDataQueue flushes.
+ *
+ * Values for a namespace and dimension name (e.g. AWS/EC2 InstanceId) are
+ * loaded from the database on first use.  Updated values are held until
+ * written behind to the database, which happens once per interval (see
+ * WriteBehind) and on shutdown using JDBC batches.  Values are updated in
+ * place so callers updating values must hold the cache lock while doing so.
+ * Values not yet written when the cache is invalidated are lost, the next
+ * difference for the metric then covers a longer period (or is discarded if
+ * that period is too long).
+ */
+public class AbsoluteMetricCache {
+  private static final Logger LOG = Logger.getLogger(AbsoluteMetricCache.class);
+  private static final long MAX_ENTRIES = 200000L;
+  private static final long WRITE_BEHIND_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+  private static final int BATCH_SIZE = 1000;
+
+  private static final AbsoluteMetricCache instance = new AbsoluteMetricCache();
+
+  private final AtomicBoolean evicted = new AtomicBoolean(false);
+  private final Cache<AbsoluteMetricCacheKey, AbsoluteMetricHistory> entries = CacheBuilder.newBuilder()
+      .maximumSize(MAX_ENTRIES)
+      .removalListener(new RemovalListener<AbsoluteMetricCacheKey, AbsoluteMetricHistory>() {
+        @Override
+        public void onRemoval(RemovalNotification<AbsoluteMetricCacheKey, AbsoluteMetricHistory> notification) {
+          if (notification.getCause() == RemovalCause.SIZE) {
+            // loaded groups are no longer complete, check the database on a miss
+            evicted.set(true);
+          }
+        }
+      })
+      .build();
+  private final ConcurrentMap<AbsoluteMetricCacheKey, AbsoluteMetricHistory> dirty =
+      new ConcurrentHashMap<AbsoluteMetricCacheKey, AbsoluteMetricHistory>();
+  private final Set<AbsoluteMetricLoadCacheKey> loaded =
+      Sets.newSetFromMap(new ConcurrentHashMap<AbsoluteMetricLoadCacheKey, Boolean>());
+  private volatile long lastWrite = System.currentTimeMillis();
+
+  public static AbsoluteMetricCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Ensure values for the namespace and dimension name are loaded.
+   */
+  public void load(String namespace, String dimensionName, String dimensionValue) {
+    AbsoluteMetricLoadCacheKey loadKey = new AbsoluteMetricLoadCacheKey(namespace, dimensionName);
+    if (!loaded.contains(loadKey)) {
+      EntityTransaction db = Entities.get(AbsoluteMetricHistory.class);
+      try {
+        Criteria criteria = Entities.createCriteria(AbsoluteMetricHistory.class)
+            .add( Restrictions.eq( "namespace", namespace ) )
+            .add( Restrictions.eq( "dimensionName", dimensionName ) )
+            .setReadOnly( true );
+        List<AbsoluteMetricHistory> list = (List<AbsoluteMetricHistory>) criteria.list();
+        db.commit();
+        for (AbsoluteMetricHistory item: list) {
+          // values updated since the query was run are newer than the database
+          entries.asMap().putIfAbsent(new AbsoluteMetricCacheKey(item), item);
+        }
+        loaded.add(loadKey);
+      } catch (RuntimeException ex) {
+        Logs.extreme().error(ex, ex);
+        throw ex;
+      } finally {
+        if (db.isActive())
+          db.rollback();
+      }
+    }
+  }
+
+  public AbsoluteMetricHistory lookup(String namespace, String metricName,
+      String dimensionName, String dimensionValue) {
+    AbsoluteMetricCacheKey key = new AbsoluteMetricCacheKey(namespace, metricName, dimensionName, dimensionValue);
+    AbsoluteMetricHistory history = entries.getIfPresent(key);
+    if (history == null) {
+      history = dirty.get(key);
+      if (history == null && evicted.get()) {
+        history = lookupInDatabase(key);
+      }
+      if (history != null) {
+        entries.put(key, history);
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Add or update a value, the value is written to the database later.
+   */
+  public void put(String namespace, String metricName, String dimensionName,
+      String dimensionValue, AbsoluteMetricHistory lastEntity) {
+    AbsoluteMetricCacheKey key = new AbsoluteMetricCacheKey(namespace, metricName, dimensionName, dimensionValue);
+    entries.put(key, lastEntity);
+    dirty.put(key, lastEntity);
+  }
+
+  /**
+   * Write updated values to the database if the write behind interval has passed.
+   */
+  public void writeIfDue() {
+    if (System.currentTimeMillis() - lastWrite >= WRITE_BEHIND_INTERVAL_MILLIS) {
+      write();
+    }
+  }
+
+  /**
+   * Write updated values to the database.
+   */
+  public synchronized void write() {
+    lastWrite = System.currentTimeMillis();
+    if (dirty.isEmpty()) return;
+    List<AbsoluteMetricHistory> histories = Lists.newArrayList();
+    for (Iterator<AbsoluteMetricHistory> iter = dirty.values().iterator(); iter.hasNext(); ) {
+      histories.add(iter.next());
+      iter.remove();
+    }
+    EntityTransaction db = Entities.get(AbsoluteMetricHistory.class);
+    try {
+      Entities.doWork(AbsoluteMetricHistory.class, new WriteBehindWork(histories));
+      db.commit();
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      LOG.warn("Error writing absolute metric history, will retry: " + ex.getMessage());
+      for (AbsoluteMetricHistory history : histories) {
+        dirty.putIfAbsent(new AbsoluteMetricCacheKey(history), history);
+      }
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  /**
+   * Remove values last updated before the given date, as for a database purge.
+   *
+   * Expired values that are not yet written are discarded too, otherwise the
+   * next write would restore them.  Values are only removed if not replaced
+   * while expiring.
+   */
+  public synchronized void expireBefore(Date before) {
+    expireBefore(entries.asMap(), before);
+    expireBefore(dirty, before);
+  }
+
+  private static void expireBefore(ConcurrentMap<AbsoluteMetricCacheKey, AbsoluteMetricHistory> histories, Date before) {
+    for (Map.Entry<AbsoluteMetricCacheKey, AbsoluteMetricHistory> entry : histories.entrySet()) {
+      if (entry.getValue().getTimestamp().before(before)) {
+        histories.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Discard all values, values are reloaded from the database on use.
+   */
+  public synchronized void invalidate() {
+    loaded.clear();
+    dirty.clear();
+    entries.invalidateAll();
+    evicted.set(false);
+  }
+
+  private static AbsoluteMetricHistory lookupInDatabase(AbsoluteMetricCacheKey key) {
+    EntityTransaction db = Entities.get(AbsoluteMetricHistory.class);
+    try {
+      Criteria criteria = Entities.createCriteria(AbsoluteMetricHistory.class)
+          .add( Restrictions.eq( "namespace", key.getNamespace() ) )
+          .add( Restrictions.eq( "metricName", key.getMetricName() ) )
+          .add( Restrictions.eq( "dimensionName", key.getDimensionName() ) )
+          .add( Restrictions.eq( "dimensionValue", key.getDimensionValue() ) )
+          .setReadOnly( true );
+      List<AbsoluteMetricHistory> list = (List<AbsoluteMetricHistory>) criteria.list();
+      db.commit();
+      return list.isEmpty() ? null : list.get(0);
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  /**
+   * Periodic write behind, so updated values are written even when no
+   * further metric data arrives.
+   */
+  public static class WriteBehind implements Runnable {
+    @Override
+    public void run() {
+      try {
+        getInstance().writeIfDue();
+      } catch (Exception ex) {
+        LOG.error(ex, ex);
+      }
+    }
+  }
+
+  /**
+   * Updates existing rows by natural id, rows that are new (or were purged)
+   * are inserted.
+   */
+  private static class WriteBehindWork implements Work {
+    private final Collection<AbsoluteMetricHistory> histories;
+
+    private WriteBehindWork(Collection<AbsoluteMetricHistory> histories) {
+      this.histories = histories;
+    }
+
+    @Override
+    public void execute(Connection connection) throws SQLException {
+      String tableName = AbsoluteMetricHistory.class.getAnnotation(Table.class).name();
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      List<AbsoluteMetricHistory> inserts = Lists.newArrayList();
+      List<AbsoluteMetricHistory> updates = Lists.newArrayList();
+      for (AbsoluteMetricHistory history : histories) {
+        (history.getNaturalId() == null ? inserts : updates).add(history);
+      }
+      PreparedStatement update = connection.prepareStatement("UPDATE " + tableName +
+          " SET version = version + 1, last_update_timestamp = ?, timestamp = ?, last_metric_value = ?" +
+          " WHERE metadata_perm_uuid = ?");
+      try {
+        for (List<AbsoluteMetricHistory> batch : Lists.partition(updates, BATCH_SIZE)) {
+          for (AbsoluteMetricHistory history : batch) {
+            update.setTimestamp(1, now);
+            update.setTimestamp(2, new Timestamp(history.getTimestamp().getTime()));
+            update.setDouble(3, history.getLastMetricValue());
+            update.setString(4, history.getNaturalId());
+            update.addBatch();
+          }
+          int[] counts = update.executeBatch();
+          for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+              inserts.add(batch.get(i));
+            }
+          }
+        }
+      } finally {
+        update.close();
+      }
+      PreparedStatement insert = connection.prepareStatement("INSERT INTO " + tableName +
+          " (id, version, creation_timestamp, last_update_timestamp, metadata_perm_uuid, namespace," +
+          " metric_name, dimension_name, dimension_value, timestamp, last_metric_value)" +
+          " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+      try {
+        for (List<AbsoluteMetricHistory> batch : Lists.partition(inserts, BATCH_SIZE)) {
+          for (AbsoluteMetricHistory history : batch) {
+            history.updateTimeStamps();
+            int index = 1;
+            insert.setString(index++, UUID.randomUUID().toString().replace("-", ""));
+            insert.setInt(index++, 0);
+            insert.setTimestamp(index++, new Timestamp(history.getCreationTimestamp().getTime()));
+            insert.setTimestamp(index++, now);
+            insert.setString(index++, history.getNaturalId());
+            insert.setString(index++, history.getNamespace());
+            insert.setString(index++, history.getMetricName());
+            insert.setString(index++, history.getDimensionName());
+            insert.setString(index++, history.getDimensionValue());
+            insert.setTimestamp(index++, new Timestamp(history.getTimestamp().getTime()));
+            insert.setDouble(index++, history.getLastMetricValue());
+            insert.addBatch();
+          }
+          insert.executeBatch();
+        }
+      } finally {
+        insert.close();
+      }
+    }
+  }
+
+  public static class AbsoluteMetricLoadCacheKey {
+    private final String namespace;
+    private final String dimensionName;
+
+    private AbsoluteMetricLoadCacheKey(String namespace, String dimensionName) {
+      this.namespace = namespace;
+      this.dimensionName = dimensionName;
+    }
+
+    public String getNamespace() {
+      return namespace;
+    }
+
+    public String getDimensionName() {
+      return dimensionName;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(namespace, dimensionName);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      AbsoluteMetricLoadCacheKey other = (AbsoluteMetricLoadCacheKey) obj;
+      return Objects.equal(namespace, other.namespace) &&
+          Objects.equal(dimensionName, other.dimensionName);
+    }
+  }
+
+  public static class AbsoluteMetricCacheKey {
+    private final String namespace;
+    private final String metricName;
+    private final String dimensionName;
+    private final String dimensionValue;
+
+    public AbsoluteMetricCacheKey(String namespace, String metricName,
+        String dimensionName, String dimensionValue) {
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.dimensionName = dimensionName;
+      this.dimensionValue = dimensionValue;
+    }
+
+    public AbsoluteMetricCacheKey(AbsoluteMetricHistory item) {
+      this(item.getNamespace(), item.getMetricName(), item.getDimensionName(), item.getDimensionValue());
+    }
+
+    public String getNamespace() {
+      return namespace;
+    }
+
+    public String getMetricName() {
+      return metricName;
+    }
+
+    public String getDimensionName() {
+      return dimensionName;
+    }
+
+    public String getDimensionValue() {
+      return dimensionValue;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(namespace, metricName, dimensionName, dimensionValue);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      AbsoluteMetricCacheKey other = (AbsoluteMetricCacheKey) obj;
+      return Objects.equal(namespace, other.namespace) &&
+          Objects.equal(metricName, other.metricName) &&
+          Objects.equal(dimensionName, other.dimensionName) &&
+          Objects.equal(dimensionValue, other.dimensionValue);
+    }
+  }
+}
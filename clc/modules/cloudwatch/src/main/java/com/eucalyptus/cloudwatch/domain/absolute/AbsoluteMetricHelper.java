@@ -32,8 +32,6 @@ import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
 
-import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataQueue.AbsoluteMetricCache;
-import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataQueue.AbsoluteMetricCacheKey;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
 
@@ -69,7 +67,6 @@ public class AbsoluteMetricHelper {
       lastEntity.setDimensionValue(dimensionValue);
       lastEntity.setTimestamp(newTimestamp);
       lastEntity.setLastMetricValue(newMetricValue);
-      Entities.persist(lastEntity);
       cache.put(namespace, metricName, dimensionName, dimensionValue, lastEntity);
       returnValue =  null;
     } else {
@@ -91,10 +88,12 @@ public class AbsoluteMetricHelper {
         LOG.trace("too much time has passed, (" + elapsedTimeInMillis + " ms), starting over");
         lastEntity.setTimestamp(newTimestamp);
         lastEntity.setLastMetricValue(newMetricValue);
+        cache.put(namespace, metricName, dimensionName, dimensionValue, lastEntity);
         returnValue = null;
       } else if (elapsedTimeInMillis > 0) { 
         lastEntity.setTimestamp(newTimestamp);
         lastEntity.setLastMetricValue(newMetricValue);
+        cache.put(namespace, metricName, dimensionName, dimensionValue, lastEntity);
         if (valueDifference < -TOLERANCE) { // value has gone "down" (or down more than the TOLERANCE)
           // if the value difference is negative (i.e. has gone down, the assumption is that the NC has restarted, and the new
           // value started from some time in the past.  Best thing to do here is either assume it is a first point again, or
@@ -204,6 +203,7 @@ public class AbsoluteMetricHelper {
       criteria.put("before", before);
       Entities.deleteAllMatching(AbsoluteMetricHistory.class, "WHERE timestamp < :before", criteria);
       db.commit();
+      AbsoluteMetricCache.getInstance().expireBefore(before);
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
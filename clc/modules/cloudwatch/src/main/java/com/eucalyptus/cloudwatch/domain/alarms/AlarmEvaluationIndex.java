@@ -0,0 +1,203 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.alarms;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tracks which alarms need to be evaluated.
+ *
+ * Alarms are indexed by the metric (account, namespace, metric name, dimension
+ * hash) they watch.  The MetricDataQueue write stage reports the metrics it
+ * has written and only alarms whose metric changed, whose configuration or
+ * state changed, or that have not been evaluated for a period (so that the
+ * evaluation window slides and insufficient data is detected) are evaluated.
+ *
+ * An alarm that is due while its previous evaluation is still in flight is
+ * marked as having a pending change, and its metric is reported as changed
+ * again when that evaluation completes so the new data is not missed.
+ */
+public class AlarmEvaluationIndex {
+  private static final Set<MetricKey> changedMetrics = Sets.newSetFromMap(new ConcurrentHashMap<MetricKey, Boolean>());
+  private static final ConcurrentMap<AlarmKey, AlarmEvaluationState> alarmStates = new ConcurrentHashMap<AlarmKey, AlarmEvaluationState>();
+
+  /**
+   * Record that data was written for the given metrics.
+   */
+  public static void metricsChanged(Collection<MetricEntity> entities) {
+    for (MetricEntity me : entities) {
+      changedMetrics.add(new MetricKey(me.getAccountId(), me.getNamespace(),
+          me.getMetricName(), me.getDimensionHash()));
+    }
+  }
+
+  /**
+   * Select the alarms that are due for evaluation.
+   *
+   * @param alarmEntities All alarms, alarms not present are removed from the index
+   * @return The due alarms, each must be passed to evaluated(...) once evaluation completes
+   */
+  static Collection<AlarmEntity> dueForEvaluation(Collection<AlarmEntity> alarmEntities, Date now) {
+    Set<MetricKey> changed = Sets.newHashSet();
+    for (MetricKey metricKey : changedMetrics) {
+      changedMetrics.remove(metricKey);
+      changed.add(metricKey);
+    }
+    Map<AlarmKey, AlarmEntity> due = Maps.newLinkedHashMap();
+    Set<AlarmKey> present = Sets.newHashSet();
+    for (AlarmEntity alarmEntity : alarmEntities) {
+      AlarmKey alarmKey = new AlarmKey(alarmEntity.getAccountId(), alarmEntity.getAlarmName());
+      present.add(alarmKey);
+      AlarmEvaluationState state = alarmStates.get(alarmKey);
+      if (state == null || state.isConfigurationChanged(alarmEntity)) {
+        AlarmEvaluationState newState = new AlarmEvaluationState(alarmEntity);
+        if (state != null && state.inFlight.get()) {
+          newState.inFlight.set(true);
+        }
+        alarmStates.put(alarmKey, newState);
+        state = newState;
+      } else if (!state.isDue(changed, now)) {
+        continue;
+      }
+      state.changePending = true;
+      if (state.inFlight.compareAndSet(false, true)) {
+        state.changePending = false;
+        due.put(alarmKey, alarmEntity);
+      }
+    }
+    alarmStates.keySet().retainAll(present);
+    return due.values();
+  }
+
+  /**
+   * Record completion of an evaluation started by dueForEvaluation(...)
+   */
+  static void evaluated(String accountId, String alarmName, Date evaluationTime) {
+    AlarmEvaluationState state = alarmStates.get(new AlarmKey(accountId, alarmName));
+    if (state != null) {
+      state.lastEvaluated = evaluationTime.getTime();
+      state.inFlight.set(false);
+      if (state.changePending) {
+        // the completed evaluation may not have seen data that arrived while it was in flight
+        state.changePending = false;
+        changedMetrics.add(state.metricKey);
+      }
+    }
+  }
+
+  private static final class AlarmEvaluationState {
+    private final MetricKey metricKey;
+    private final Date configurationUpdated;
+    private final Date stateUpdated;
+    private final long periodMillis;
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
+    private volatile boolean changePending = false;
+    private volatile long lastEvaluated = 0L;
+
+    private AlarmEvaluationState(AlarmEntity alarmEntity) {
+      this.metricKey = new MetricKey(alarmEntity.getAccountId(), alarmEntity.getNamespace(),
+          alarmEntity.getMetricName(), MetricManager.hash(alarmEntity.getDimensionMap()));
+      this.configurationUpdated = alarmEntity.getAlarmConfigurationUpdatedTimestamp();
+      this.stateUpdated = alarmEntity.getStateUpdatedTimestamp();
+      this.periodMillis = 1000L * alarmEntity.getPeriod();
+    }
+
+    private boolean isConfigurationChanged(AlarmEntity alarmEntity) {
+      return !Objects.equal(configurationUpdated, alarmEntity.getAlarmConfigurationUpdatedTimestamp()) ||
+          !Objects.equal(stateUpdated, alarmEntity.getStateUpdatedTimestamp());
+    }
+
+    private boolean isDue(Set<MetricKey> changed, Date now) {
+      // evaluations are minute aligned so allow some slack on the period timeout
+      return changed.contains(metricKey) ||
+          now.getTime() - lastEvaluated >= periodMillis - 30000L;
+    }
+  }
+
+  private static final class AlarmKey {
+    private final String accountId;
+    private final String alarmName;
+
+    private AlarmKey(String accountId, String alarmName) {
+      this.accountId = accountId;
+      this.alarmName = alarmName;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(accountId, alarmName);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      AlarmKey other = (AlarmKey) obj;
+      return Objects.equal(accountId, other.accountId) &&
+          Objects.equal(alarmName, other.alarmName);
+    }
+  }
+
+  private static final class MetricKey {
+    private final String accountId;
+    private final String namespace;
+    private final String metricName;
+    private final String dimensionHash;
+
+    private MetricKey(String accountId, String namespace, String metricName, String dimensionHash) {
+      this.accountId = accountId;
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.dimensionHash = dimensionHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(accountId, namespace, metricName, dimensionHash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      MetricKey other = (MetricKey) obj;
+      return Objects.equal(accountId, other.accountId) &&
+          Objects.equal(namespace, other.namespace) &&
+          Objects.equal(metricName, other.metricName) &&
+          Objects.equal(dimensionHash, other.dimensionHash);
+    }
+  }
+}
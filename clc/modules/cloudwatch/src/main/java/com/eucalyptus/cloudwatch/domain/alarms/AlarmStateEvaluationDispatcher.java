@@ -19,8 +19,11 @@
  ************************************************************************/
 package com.eucalyptus.cloudwatch.domain.alarms;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.persistence.EntityTransaction;
 
@@ -30,9 +33,10 @@ import org.hibernate.Criteria;
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.cloudwatch.CloudWatch;
 import com.eucalyptus.cloudwatch.CloudWatchService;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics;
 import com.eucalyptus.component.Topology;
 import com.eucalyptus.entities.Entities;
-import com.eucalyptus.records.Logs;
+import com.google.common.collect.Lists;
 
 public class AlarmStateEvaluationDispatcher implements Runnable {
   private static final Logger LOG = Logger.getLogger(AlarmStateEvaluationDispatcher.class);
@@ -48,21 +52,48 @@ public class AlarmStateEvaluationDispatcher implements Runnable {
     if (!CloudWatchService.DISABLE_CLOUDWATCH_SERVICE && Bootstrap.isOperational( ) && Topology.isEnabledLocally( CloudWatch.class )) {
       LOG.debug("Kicking off AlarmStateEvaluationDispatcher");
       EntityTransaction db = Entities.get(AlarmEntity.class);
+      List<AlarmEntity> due = Collections.emptyList();
+      int submitted = 0;
       try {
         Criteria criteria = Entities.createCriteria(AlarmEntity.class);
         List<AlarmEntity> results = (List<AlarmEntity>) criteria.list();
-        for (AlarmEntity alarmEntity: results) {
+        due = Lists.newArrayList(AlarmEvaluationIndex.dueForEvaluation(results, new Date()));
+        for (AlarmEntity alarmEntity: due) {
           LOG.debug("Submitting job for " + alarmEntity.getAlarmName());
-          executorService.submit(new AlarmStateEvaluationWorker(alarmEntity.getAccountId(), alarmEntity.getAlarmName()));
+          submit(alarmEntity.getAccountId(), alarmEntity.getAlarmName());
+          submitted++;
         }
         db.commit();
+      } catch (RejectedExecutionException ex) {
+        LOG.warn("Alarm evaluation rejected, " + (due.size() - submitted) + " alarm(s) will be retried next pass");
       } catch (RuntimeException ex) {
-        Logs.extreme().error(ex, ex); // TODO the exception will be swallowed...
-        throw ex;
+        // do not rethrow, the scheduled task would not run again
+        LOG.error(ex, ex);
       } finally {
+        // alarms that were not submitted are no longer in flight and are due next pass
+        for (AlarmEntity alarmEntity : due.subList(submitted, due.size())) {
+          AlarmEvaluationIndex.evaluated(alarmEntity.getAccountId(), alarmEntity.getAlarmName(), new Date(0L));
+        }
         if (db.isActive())
           db.rollback();
       }
     }
   }
+
+  private void submit(final String accountId, final String alarmName) {
+    final long submitted = System.currentTimeMillis();
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.currentTimeMillis();
+        try {
+          new AlarmStateEvaluationWorker(accountId, alarmName).run();
+        } finally {
+          long end = System.currentTimeMillis();
+          CloudWatchInternalMetrics.recordAlarmEvaluation(end - submitted, end - start);
+          AlarmEvaluationIndex.evaluated(accountId, alarmName, new Date(end));
+        }
+      }
+    });
+  }
 }
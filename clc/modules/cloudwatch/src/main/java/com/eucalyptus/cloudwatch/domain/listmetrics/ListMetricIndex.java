@@ -0,0 +1,328 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.listmetrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityTransaction;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Restrictions;
+
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.records.Logs;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Memory resident index of list metrics, per account.
+ *
+ * Accounts are loaded from the database on first use and then maintained by
+ * ListMetricManager as metrics are written or purged.  Metrics are ordered as
+ * for a database query (creation timestamp, natural id) so next tokens are
+ * interchangeable with those from the database.  Natural ids are compared as
+ * strings, which matches the database collation only for canonical (lower
+ * case) UUIDs, so an account with any other natural id is not indexed.
+ * Queries that cannot be answered from the index return null and callers
+ * should use the database.
+ *
+ * Listed metrics are copies, the indexed entities are never handed out.
+ */
+public class ListMetricIndex {
+  private static final Logger LOG = Logger.getLogger(ListMetricIndex.class);
+  private static final int MAX_METRICS_PER_ACCOUNT = 100000;
+  private static final Pattern NATURAL_ID_PATTERN =
+      Pattern.compile( "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}" );
+
+  private static final ListMetricIndex instance = new ListMetricIndex();
+
+  private final ConcurrentMap<String, AccountIndex> accounts = new ConcurrentHashMap<String, AccountIndex>();
+
+  public static ListMetricIndex getInstance() {
+    return instance;
+  }
+
+  /**
+   * Record committed metrics as written (inserted or seen) at the given time.
+   */
+  public void metricsWritten(Collection<ListMetric> metrics, Date lastUpdate) {
+    for (ListMetric metric : metrics) {
+      if (metric.getNaturalId() == null || metric.getCreationTimestamp() == null) continue;
+      AccountIndex index = accounts.get(metric.getAccountId());
+      if (index != null) { // accounts not indexed are loaded from the database on use
+        index.put(metric, lastUpdate.getTime());
+      }
+    }
+  }
+
+  /**
+   * Remove metrics last updated before the given date, as for a database purge.
+   */
+  public void metricsDeleted(Date before) {
+    for (AccountIndex index : accounts.values()) {
+      index.deleteBefore(before.getTime());
+    }
+  }
+
+  /**
+   * Discard the index, accounts will be reloaded from the database on use.
+   */
+  public void invalidate() {
+    for (AccountIndex index : accounts.values()) {
+      index.invalidate();
+    }
+    accounts.clear();
+  }
+
+  /**
+   * List metrics from the index.
+   *
+   * @return The metrics or null if the index cannot answer the query
+   * @see ListMetricManager#listMetrics
+   */
+  public List<ListMetric> listMetrics(String accountId, String metricName,
+      String namespace, Map<String, String> dimensionMap, Date after,
+      Date before, Integer maxRecords, String nextToken) {
+    if (accountId == null) return null;
+    AccountIndex index = accounts.get(accountId);
+    if (index == null) {
+      index = load(accountId);
+    }
+    return index == null ? null :
+      index.list(metricName, namespace, dimensionMap, after, before, maxRecords, nextToken);
+  }
+
+  private AccountIndex load(String accountId) {
+    AccountIndex index = new AccountIndex();
+    AccountIndex existing = accounts.putIfAbsent(accountId, index);
+    if (existing != null) {
+      return existing;
+    }
+    // metrics committed from here on are added to the (loading) index by
+    // metricsWritten so the query below only needs to see earlier commits
+    List<ListMetric> metrics;
+    EntityTransaction db = Entities.get(ListMetric.class);
+    try {
+      Criteria criteria = Entities.createCriteria(ListMetric.class)
+          .add( Restrictions.eq( "accountId" , accountId ) )
+          .setReadOnly( true );
+      metrics = (List<ListMetric>) criteria.list();
+      db.commit();
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      accounts.remove(accountId, index);
+      return null;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+    return load(accountId, index, metrics);
+  }
+
+  AccountIndex load(String accountId, AccountIndex index, Collection<ListMetric> metrics) {
+    if (!index.loaded(metrics)) {
+      if (!index.databaseOnly) {
+        accounts.remove(accountId, index);
+      } // else keep to avoid reloading, queries for the account use the database
+      return null;
+    }
+    return index;
+  }
+
+  AccountIndex newAccountIndex(String accountId) {
+    AccountIndex index = new AccountIndex();
+    accounts.put(accountId, index);
+    return index;
+  }
+
+  static final class AccountIndex {
+    private final NavigableMap<EntryKey, Entry> entries = new TreeMap<EntryKey, Entry>();
+    private final Map<String, Entry> entriesByNaturalId = Maps.newHashMap();
+    private boolean loaded = false;
+    private boolean valid = true;
+    private volatile boolean databaseOnly = false;
+
+    synchronized void put(ListMetric metric, long lastUpdate) {
+      if (!valid) return;
+      Entry entry = entriesByNaturalId.get(metric.getNaturalId());
+      if (entry == null) {
+        if (!NATURAL_ID_PATTERN.matcher(metric.getNaturalId()).matches()) {
+          LOG.warn("Metric natural id not orderable in index, using database: " + metric.getNaturalId());
+          databaseOnly = true;
+          invalidate();
+          return;
+        }
+        entry = new Entry(copy(metric), lastUpdate);
+        entries.put(entry.key, entry);
+        entriesByNaturalId.put(metric.getNaturalId(), entry);
+        if (entries.size() > MAX_METRICS_PER_ACCOUNT) {
+          LOG.warn("Too many metrics to index for account, using database");
+          databaseOnly = true;
+          invalidate();
+        }
+      } else if (entry.lastUpdate < lastUpdate) {
+        entry.lastUpdate = lastUpdate;
+      }
+    }
+
+    synchronized boolean loaded(Collection<ListMetric> metrics) {
+      if (!valid) return false;
+      for (ListMetric metric : metrics) {
+        if (metric.getNaturalId() == null || metric.getCreationTimestamp() == null) continue;
+        if (!entriesByNaturalId.containsKey(metric.getNaturalId())) {
+          put(metric, metric.getLastUpdateTimestamp() == null ? 0L : metric.getLastUpdateTimestamp().getTime());
+        }
+      }
+      loaded = valid;
+      return valid;
+    }
+
+    synchronized void deleteBefore(long before) {
+      if (!loaded) {
+        // a loading index may have read rows that are now deleted
+        invalidate();
+        return;
+      }
+      for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext(); ) {
+        Entry entry = iter.next();
+        if (entry.lastUpdate < before) {
+          iter.remove();
+          entriesByNaturalId.remove(entry.key.naturalId);
+        }
+      }
+    }
+
+    synchronized void invalidate() {
+      valid = false;
+      loaded = false;
+      entries.clear();
+      entriesByNaturalId.clear();
+    }
+
+    synchronized List<ListMetric> list(String metricName, String namespace,
+        Map<String, String> dimensionMap, Date after, Date before,
+        Integer maxRecords, String nextToken) {
+      if (!loaded) return null;
+      Collection<Entry> candidates = entries.values();
+      if (nextToken != null) {
+        Entry tokenEntry = entriesByNaturalId.get(nextToken);
+        if (tokenEntry == null) return null; // unknown or invalid, let the database decide
+        candidates = entries.tailMap(tokenEntry.key, false).values();
+      }
+      List<ListMetric> results = Lists.newArrayList();
+      for (Entry entry : candidates) {
+        if (maxRecords != null && results.size() >= maxRecords) break;
+        if (entry.matches(metricName, namespace, dimensionMap, after, before)) {
+          results.add(copy(entry.metric));
+        }
+      }
+      return results;
+    }
+  }
+
+  private static ListMetric copy(ListMetric metric) {
+    ListMetric copy = new ListMetric();
+    copy.setNaturalId(metric.getNaturalId());
+    copy.setCreationTimestamp(metric.getCreationTimestamp());
+    copy.setLastUpdateTimestamp(metric.getLastUpdateTimestamp());
+    copy.setAccountId(metric.getAccountId());
+    copy.setNamespace(metric.getNamespace());
+    copy.setMetricName(metric.getMetricName());
+    copy.setMetricType(metric.getMetricType());
+    copy.setDimensions(metric.getDimensions());
+    return copy;
+  }
+
+  private static final class Entry {
+    private final EntryKey key;
+    private final ListMetric metric;
+    private final Map<String, String> dimensionMap;
+    private long lastUpdate;
+
+    private Entry(ListMetric metric, long lastUpdate) {
+      this.key = new EntryKey(metric.getCreationTimestamp().getTime(), metric.getNaturalId());
+      this.metric = metric;
+      this.dimensionMap = Collections.unmodifiableMap(metric.getDimensionMap());
+      this.lastUpdate = lastUpdate;
+    }
+
+    private boolean matches(String metricName, String namespace,
+        Map<String, String> filterDimensionMap, Date after, Date before) {
+      if (metricName != null && !metricName.equals(metric.getMetricName())) return false;
+      if (namespace != null && !namespace.equals(metric.getNamespace())) return false;
+      if (before != null && lastUpdate > before.getTime()) return false;
+      if (after != null && lastUpdate < after.getTime()) return false;
+      if (filterDimensionMap != null) {
+        for (Map.Entry<String, String> filter : filterDimensionMap.entrySet()) {
+          // a filter without a value matches nothing, as for the database query
+          String value = dimensionMap.get(filter.getKey());
+          if (value == null || !value.equals(filter.getValue())) return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class EntryKey implements Comparable<EntryKey> {
+    private final long creationTime;
+    private final String naturalId;
+
+    private EntryKey(long creationTime, String naturalId) {
+      this.creationTime = creationTime;
+      this.naturalId = naturalId;
+    }
+
+    @Override
+    public int compareTo(EntryKey other) {
+      if (creationTime != other.creationTime) {
+        return creationTime < other.creationTime ? -1 : 1;
+      }
+      return naturalId.compareTo(other.naturalId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(creationTime, naturalId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      EntryKey other = (EntryKey) obj;
+      return creationTime == other.creationTime &&
+          Objects.equal(naturalId, other.naturalId);
+    }
+  }
+}
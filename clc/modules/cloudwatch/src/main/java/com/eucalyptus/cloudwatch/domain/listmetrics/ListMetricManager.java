@@ -19,6 +19,10 @@
  ************************************************************************/
 package com.eucalyptus.cloudwatch.domain.listmetrics;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -32,13 +36,16 @@ import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 import javax.persistence.EntityTransaction;
+import javax.persistence.Table;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 
 import com.eucalyptus.cloudwatch.CloudWatchException;
+import com.eucalyptus.cloudwatch.domain.BatchInsertWork;
 import com.eucalyptus.cloudwatch.domain.DimensionEntity;
 import com.eucalyptus.cloudwatch.domain.NextTokenUtils;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
@@ -46,6 +53,7 @@ import com.eucalyptus.cloudwatch.domain.metricdata.SimpleMetricEntity;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -55,8 +63,9 @@ public class ListMetricManager {
   public static void addMetric(String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType) {
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
-      addMetric(db, accountId, metricName, namespace, dimensionMap, metricType);
+      List<ListMetric> writtenMetrics = addMetric(db, accountId, metricName, namespace, dimensionMap, metricType);
       db.commit();
+      ListMetricIndex.getInstance().metricsWritten(writtenMetrics, new Date());
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -109,8 +118,9 @@ public class ListMetricManager {
     }
     return metrics;
   }
-  private static void addMetric(EntityTransaction db, String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType) {
+  private static List<ListMetric> addMetric(EntityTransaction db, String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType) {
     List<ListMetric> foldedMetrics = foldMetric(accountId, metricName, namespace, dimensionMap, metricType);
+    List<ListMetric> writtenMetrics = Lists.newArrayList();
     for (ListMetric metric: foldedMetrics) {
       Criteria criteria = Entities.createCriteria(ListMetric.class)
           .add( Restrictions.eq( "accountId" , metric.getAccountId() ) )
@@ -132,10 +142,12 @@ public class ListMetricManager {
       ListMetric inDbMetric = (ListMetric) criteria.uniqueResult();
       if (inDbMetric != null) {
         inDbMetric.setVersion(1 + inDbMetric.getVersion());
+        writtenMetrics.add(inDbMetric);
       } else {
-        Entities.persist(metric);
+        writtenMetrics.add(Entities.persist(metric));
       }
     }
+    return writtenMetrics;
   }
   
   public static void deleteAllMetrics() {
@@ -143,6 +155,7 @@ public class ListMetricManager {
     try {
       Entities.deleteAll(ListMetric.class);
       db.commit();
+      ListMetricIndex.getInstance().invalidate();
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -163,6 +176,7 @@ public class ListMetricManager {
       criteria.put("before", before);
       Entities.deleteAllMatching(ListMetric.class, "WHERE lastUpdateTimestamp < :before", criteria);
       db.commit();
+      ListMetricIndex.getInstance().metricsDeleted(before);
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -188,6 +202,11 @@ public class ListMetricManager {
     if (dimensionMap != null && dimensionMap.size() > ListMetric.MAX_DIM_NUM) {
       throw new IllegalArgumentException("Too many dimensions " + dimensionMap.size());
     }
+    List<ListMetric> indexResult = ListMetricIndex.getInstance().listMetrics(accountId,
+        metricName, namespace, dimensionMap, after, before, maxRecords, nextToken);
+    if (indexResult != null) {
+      return indexResult;
+    }
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
       Date nextTokenCreatedTime = NextTokenUtils.getNextTokenCreatedTime(nextToken, ListMetric.class, false);
@@ -250,6 +269,8 @@ public class ListMetricManager {
       HashMap<ListMetricCacheKey, ListMetric> cache = Maps.newHashMap();
       Collection<ListMetricCacheKey> cacheKeys = prune(dataBatch);
       List<ListMetric> foldedMetrics = Lists.newArrayList();
+      List<ListMetric> newMetrics = Lists.newArrayList();
+      Map<String, ListMetric> seenMetrics = Maps.newLinkedHashMap();
       for (ListMetricCacheKey cacheKey:cacheKeys) {
         foldedMetrics.addAll(foldMetric(cacheKey.getLoadKey().getAccountId(), 
             cacheKey.getMetricName(), cacheKey.getLoadKey().getNamespace(), 
@@ -262,7 +283,8 @@ public class ListMetricManager {
         if (!loadedKeys.contains(loadKey)) {
           Criteria criteria = Entities.createCriteria(ListMetric.class)
               .add( Restrictions.eq( "accountId" , metric.getAccountId() ) )
-              .add( Restrictions.eq( "namespace" , metric.getNamespace() ) );
+              .add( Restrictions.eq( "namespace" , metric.getNamespace() ) )
+              .setReadOnly( true );
           List<ListMetric> results = (List<ListMetric>) criteria.list();
           for (ListMetric result: results) {
             ListMetricCacheKey key = new ListMetricCacheKey();
@@ -282,13 +304,20 @@ public class ListMetricManager {
         key.setMetricType(metric.getMetricType());
         ListMetric inDbMetric = cache.get(key);
         if (inDbMetric != null) {
-          inDbMetric.setVersion(1 + inDbMetric.getVersion());
+          if (inDbMetric.getNaturalId() != null) {
+            seenMetrics.put(inDbMetric.getNaturalId(), inDbMetric);
+          }
         } else {
           cache.put(key, metric);
-          Entities.persist(metric);
+          newMetrics.add(metric);
         }
       }
+      Date now = new Date();
+      Entities.doWork(ListMetric.class, new ListMetricBatchInsert(newMetrics));
+      Entities.doWork(ListMetric.class, new ListMetricBatchUpdateSeen(seenMetrics.keySet(), now));
       db.commit();
+      ListMetricIndex.getInstance().metricsWritten(newMetrics, now);
+      ListMetricIndex.getInstance().metricsWritten(seenMetrics.values(), now);
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -299,6 +328,68 @@ public class ListMetricManager {
   }
 
 
+  private static class ListMetricBatchInsert extends BatchInsertWork<ListMetric> {
+    private static final List<String> COLUMNS = ImmutableList.of("account_id", "namespace",
+        "metric_name", "metric_type");
+
+    private ListMetricBatchInsert(Collection<ListMetric> entities) {
+      super(ListMetric.class, entities);
+    }
+
+    @Override
+    protected List<String> getColumns() {
+      return COLUMNS;
+    }
+
+    @Override
+    protected void bind(PreparedStatement statement, int index, ListMetric entity) throws SQLException {
+      statement.setString(index++, entity.getAccountId());
+      statement.setString(index++, entity.getNamespace());
+      statement.setString(index++, entity.getMetricName());
+      statement.setString(index++, entity.getMetricType().name());
+    }
+  }
+
+  /**
+   * Marks existing metrics as seen (the last update timestamp is used for retention)
+   */
+  private static class ListMetricBatchUpdateSeen implements Work {
+    private static final int BATCH_SIZE = 1000;
+    private final Collection<String> naturalIds;
+    private final Date lastUpdate;
+
+    private ListMetricBatchUpdateSeen(Collection<String> naturalIds, Date lastUpdate) {
+      this.naturalIds = naturalIds;
+      this.lastUpdate = lastUpdate;
+    }
+
+    @Override
+    public void execute(Connection connection) throws SQLException {
+      if (naturalIds.isEmpty()) return;
+      Timestamp now = new Timestamp(lastUpdate.getTime());
+      PreparedStatement statement = connection.prepareStatement("UPDATE " +
+          ListMetric.class.getAnnotation(Table.class).name() +
+          " SET version = version + 1, last_update_timestamp = ? WHERE metadata_perm_uuid = ?");
+      try {
+        int pending = 0;
+        for (String naturalId : naturalIds) {
+          statement.setTimestamp(1, now);
+          statement.setString(2, naturalId);
+          statement.addBatch();
+          if (++pending == BATCH_SIZE) {
+            statement.executeBatch();
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          statement.executeBatch();
+        }
+      } finally {
+        statement.close();
+      }
+    }
+  }
+
   private static Collection<ListMetricCacheKey> prune(
       List<SimpleMetricEntity> dataBatch) {
     Collection<ListMetricCacheKey> returnValue = new LinkedHashSet<ListMetricCacheKey>();
@@ -113,6 +113,18 @@ public class GetMetricStatisticsAggregationKey {
     this.dimensionHash = dimensionHash;
   }
 
+  public GetMetricStatisticsAggregationKey(String accountId, String namespace,
+      String metricName, Units units, MetricType metricType, Date timestamp,
+      String dimensionHash) {
+    this.accountId = accountId;
+    this.namespace = namespace;
+    this.metricName = metricName;
+    this.units = units;
+    this.metricType = metricType;
+    this.timestamp = timestamp;
+    this.dimensionHash = dimensionHash;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
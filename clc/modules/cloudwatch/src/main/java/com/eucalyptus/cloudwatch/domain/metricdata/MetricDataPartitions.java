@@ -0,0 +1,337 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityTransaction;
+import javax.persistence.Table;
+
+import org.apache.log4j.Logger;
+import org.hibernate.jdbc.Work;
+
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.records.Logs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Daily partitions for the metric data shard tables.
+ *
+ * Each shard table is the parent of per day tables (PostgreSQL inheritance)
+ * named [shard table]_p[yyyyMMdd] with a check constraint on the timestamp.
+ * Queries against the shard table include its partitions, batch inserts are
+ * written directly to the partition for the day and retention drops whole
+ * partitions rather than deleting rows.
+ *
+ * Partitions copy the indexes of the shard table, so unique constraints (id,
+ * natural id) are enforced per partition only, PostgreSQL cannot enforce them
+ * across an inheritance hierarchy.  Rows are inserted with random UUIDs for
+ * both (see BatchInsertWork) and are never updated so this is not relied on,
+ * but the shard tables must not be given unique constraints that are expected
+ * to hold across days.
+ */
+public class MetricDataPartitions {
+  private static final Logger LOG = Logger.getLogger(MetricDataPartitions.class);
+  /**
+   * Partitions to drop per retention run, one day for every shard.
+   */
+  public static final int MAX_PARTITIONS_PER_RUN = 32;
+  private static final String PARTITION_INFIX = "_p";
+  private static final String DAY_FORMAT = "yyyyMMdd";
+  private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+  private static final Pattern PARTITION_SUFFIX = Pattern.compile(PARTITION_INFIX + "(\\d{8})$");
+
+  private static final Set<String> knownPartitions = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * Group entities by the day partition they belong to.
+   *
+   * @return Map of partition day (start) to entities
+   */
+  static Map<Date, List<MetricEntity>> partition(Collection<MetricEntity> entities) {
+    Map<Date, List<MetricEntity>> entitiesByDay = Maps.newTreeMap();
+    for (MetricEntity entity : entities) {
+      Date day = dayStart(entity.getTimestamp());
+      List<MetricEntity> dayEntities = entitiesByDay.get(day);
+      if (dayEntities == null) {
+        dayEntities = Lists.newArrayList();
+        entitiesByDay.put(day, dayEntities);
+      }
+      dayEntities.add(entity);
+    }
+    return entitiesByDay;
+  }
+
+  static String partitionTableName(Class<?> entityClass, Date day) {
+    return tableName(entityClass) + PARTITION_INFIX + new SimpleDateFormat(DAY_FORMAT).format(day);
+  }
+
+  /**
+   * Create any partitions that do not yet exist for the given days.
+   *
+   * Partitions are created in their own transaction so that they are
+   * available to concurrent writers regardless of the outcome of the insert.
+   */
+  static void ensurePartitions(final Class<?> entityClass, Collection<Date> days) {
+    final List<Date> missingDays = Lists.newArrayList();
+    for (Date day : days) {
+      if (!knownPartitions.contains(partitionTableName(entityClass, day))) {
+        missingDays.add(day);
+      }
+    }
+    if (missingDays.isEmpty()) return;
+    EntityTransaction db = Entities.get(entityClass);
+    try {
+      Entities.doWork(entityClass, new Work() {
+        @Override
+        public void execute(Connection connection) throws SQLException {
+          String parent = tableName(entityClass);
+          SimpleDateFormat timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+          Statement statement = connection.createStatement();
+          try {
+            for (Date day : missingDays) {
+              statement.execute("CREATE TABLE IF NOT EXISTS " + partitionTableName(entityClass, day) +
+                  " (LIKE " + parent + " INCLUDING DEFAULTS INCLUDING INDEXES," +
+                  " CHECK (timestamp >= '" + timestampFormat.format(day) + "'" +
+                  " AND timestamp < '" + timestampFormat.format(nextDay(day)) + "'))" +
+                  " INHERITS (" + parent + ")");
+            }
+          } finally {
+            statement.close();
+          }
+        }
+      });
+      db.commit();
+      for (Date day : missingDays) {
+        knownPartitions.add(partitionTableName(entityClass, day));
+      }
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  /**
+   * Create any missing partitions from the day containing the given date up
+   * to and including tomorrow.
+   *
+   * Data may be put with timestamps anywhere in the retention window, creating
+   * the partitions in advance means they exist on every active database rather
+   * than being created on demand while a database is unavailable.
+   */
+  public static void ensurePartitionsSince(Date since) {
+    List<Date> days = Lists.newArrayList();
+    Date end = nextDay(dayStart(new Date()));
+    for (Date day = dayStart(since); !day.after(end); day = nextDay(day)) {
+      days.add(day);
+    }
+    for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+      ensurePartitions(c, days);
+    }
+  }
+
+  /**
+   * Drop partitions containing only data from before the given date.
+   *
+   * Each partition is dropped in its own transaction so retention never holds
+   * long running locks, at most maxPartitions are dropped per call.
+   *
+   * @return What was reclaimed
+   */
+  public static RetentionReport dropPartitionsBefore(Date before, int maxPartitions) {
+    RetentionReport report = new RetentionReport();
+    for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+      for (Partition partition : listPartitions(c)) {
+        if (nextDay(partition.day).after(before)) continue;
+        if (report.getPartitions() >= maxPartitions) {
+          report.incomplete = true;
+          return report;
+        }
+        dropPartition(c, partition);
+        report.partitions++;
+        report.rows += partition.estimatedRows;
+        report.bytes += partition.bytes;
+      }
+    }
+    return report;
+  }
+
+  private static List<Partition> listPartitions(final Class<?> entityClass) {
+    final List<Partition> partitions = Lists.newArrayList();
+    EntityTransaction db = Entities.get(entityClass);
+    try {
+      Entities.doWork(entityClass, new Work() {
+        @Override
+        public void execute(Connection connection) throws SQLException {
+          PreparedStatement statement = connection.prepareStatement(
+              "SELECT c.relname, c.reltuples, pg_total_relation_size(c.oid)" +
+              " FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid" +
+              " JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?" +
+              " ORDER BY c.relname");
+          try {
+            statement.setString(1, tableName(entityClass));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+              String name = resultSet.getString(1);
+              Matcher matcher = PARTITION_SUFFIX.matcher(name);
+              if (!matcher.find()) continue;
+              try {
+                partitions.add(new Partition(name, new SimpleDateFormat(DAY_FORMAT).parse(matcher.group(1)),
+                    Math.max(0L, (long) resultSet.getFloat(2)), resultSet.getLong(3)));
+              } catch (ParseException ex) {
+                LOG.warn("Ignoring table with invalid partition name " + name);
+              }
+            }
+            resultSet.close();
+          } finally {
+            statement.close();
+          }
+        }
+      });
+      db.commit();
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+    return partitions;
+  }
+
+  private static void dropPartition(final Class<?> entityClass, final Partition partition) {
+    EntityTransaction db = Entities.get(entityClass);
+    try {
+      Entities.doWork(entityClass, new Work() {
+        @Override
+        public void execute(Connection connection) throws SQLException {
+          Statement statement = connection.createStatement();
+          try {
+            statement.execute("DROP TABLE IF EXISTS " + partition.name);
+          } finally {
+            statement.close();
+          }
+        }
+      });
+      db.commit();
+      knownPartitions.remove(partition.name);
+      LOG.debug("Dropped metric data partition " + partition.name);
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
+  static String tableName(Class<?> entityClass) {
+    return entityClass.getAnnotation(Table.class).name();
+  }
+
+  static Date dayStart(Date timestamp) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime(timestamp);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    return calendar.getTime();
+  }
+
+  static Date nextDay(Date day) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime(day);
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    return calendar.getTime();
+  }
+
+  /**
+   * Summary of a retention run.
+   */
+  public static class RetentionReport {
+    private int partitions;
+    private long rows;
+    private long bytes;
+    private boolean incomplete;
+
+    public int getPartitions() {
+      return partitions;
+    }
+
+    /**
+     * Estimated number of rows removed (from table statistics)
+     */
+    public long getRows() {
+      return rows;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * True if the partition limit was reached before all expired partitions were dropped
+     */
+    public boolean isIncomplete() {
+      return incomplete;
+    }
+
+    @Override
+    public String toString() {
+      return "dropped " + partitions + " partitions, ~" + rows + " rows, " +
+          (bytes / (1024 * 1024)) + "MB reclaimed" + (incomplete ? " (more pending)" : "");
+    }
+  }
+
+  private static final class Partition {
+    private final String name;
+    private final Date day;
+    private final long estimatedRows;
+    private final long bytes;
+
+    private Partition(String name, Date day, long estimatedRows, long bytes) {
+      this.name = name;
+      this.day = day;
+      this.estimatedRows = estimatedRows;
+      this.bytes = bytes;
+    }
+  }
+}
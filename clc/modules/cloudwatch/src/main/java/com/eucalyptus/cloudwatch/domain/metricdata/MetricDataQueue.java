@@ -24,43 +24,71 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import javax.persistence.EntityTransaction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
-import org.hibernate.Criteria;
-import org.hibernate.criterion.Restrictions;
 
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.cloudwatch.CloudWatch;
 import com.eucalyptus.cloudwatch.Dimension;
 import com.eucalyptus.cloudwatch.Dimensions;
 import com.eucalyptus.cloudwatch.MetricDatum;
 import com.eucalyptus.cloudwatch.StatisticSet;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics.Stage;
+import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricCache;
 import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHelper;
-import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHistory;
+import com.eucalyptus.cloudwatch.domain.alarms.AlarmEvaluationIndex;
 import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHelper.MetricDifferenceInfo;
+import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricIndex;
 import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricManager;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
-import com.eucalyptus.entities.Entities;
+import com.eucalyptus.component.Topology;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.Exceptions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Multimap;
 
 public class MetricDataQueue {
   private static final Logger LOG = Logger.getLogger(MetricDataQueue.class);
-  final static LinkedBlockingQueue<MetricQueueItem> dataQueue = new LinkedBlockingQueue<MetricQueueItem>();
-
-  private static final ScheduledExecutorService dataFlushTimer = Executors
-      .newSingleThreadScheduledExecutor();
+  private static final int MAX_QUEUE_SIZE = 250000;
+  private static final int MAX_BATCH_SIZE = 15000;
+  private static final long MAX_BATCH_WAIT_MILLIS = 5000L;
+  private static final long DROP_LOG_INTERVAL_MILLIS = 60000L;
+  private static final int MAX_PENDING_BATCHES = 2;
+  private static final int NUM_SHARD_WRITERS = 8;
+  private static final long COVERAGE_CHECK_INTERVAL_MILLIS = 60000L;
+
+  final static LinkedBlockingQueue<MetricQueueItem> dataQueue = new LinkedBlockingQueue<MetricQueueItem>(MAX_QUEUE_SIZE);
+
+  // Hand off between pipeline stages, bounded so that a slow stage pushes back on the previous one
+  private static final BlockingQueue<List<MetricQueueItem>> drainedBatches =
+      new ArrayBlockingQueue<List<MetricQueueItem>>(MAX_PENDING_BATCHES);
+  private static final BlockingQueue<PreparedBatch> preparedBatches =
+      new ArrayBlockingQueue<PreparedBatch>(MAX_PENDING_BATCHES);
+
+  private static final ExecutorService shardWriters = Executors.newFixedThreadPool(NUM_SHARD_WRITERS,
+      new PipelineThreadFactory("ShardWriter"));
+
+  private static final AtomicLong droppedCount = new AtomicLong();
+  private static final AtomicLong lastDropLogMillis = new AtomicLong();
+  private static final AtomicLong writtenCount = new AtomicLong();
+  private static final AtomicLong lastFlushLagMillis = new AtomicLong();
+  private static final AtomicLong lastFlushTimeMillis = new AtomicLong();
 
   private static MetricDataQueue singleton = getInstance();
 
@@ -72,48 +100,255 @@ public class MetricDataQueue {
     return singleton;
   }
 
-  private void queue(Supplier<MetricQueueItem> metriMetaDataSupplier) {
-    final MetricQueueItem metricData = metriMetaDataSupplier.get();
-    dataQueue.offer(metricData);
+  private boolean queue(Supplier<MetricQueueItem> metriMetaDataSupplier) {
+    // never block the request thread, capacity is checked before a batch is accepted
+    return dataQueue.offer(metriMetaDataSupplier.get());
+  }
+
+  private static void rejected(int count) {
+    long totalDropped = droppedCount.addAndGet(count);
+    long now = System.currentTimeMillis();
+    long lastLogged = lastDropLogMillis.get();
+    if (now - lastLogged >= DROP_LOG_INTERVAL_MILLIS && lastDropLogMillis.compareAndSet(lastLogged, now)) {
+      LOG.warn("Metric data queue full, rejected batch of "+count+" datum(s) (total rejected="+totalDropped+")");
+    }
+  }
+
+  /**
+   * Number of items waiting to be drained from the metric data queue.
+   */
+  public static int getQueueDepth() {
+    return dataQueue.size();
+  }
+
+  /**
+   * Number of items rejected because the metric data queue was full.
+   */
+  public static long getDroppedCount() {
+    return droppedCount.get();
   }
 
-  private static Runnable safeRunner = new Runnable() {
+  /**
+   * Number of aggregated items written to the metric tables.
+   */
+  public static long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  /**
+   * Time between the last batch being drained from the queue and it being committed.
+   */
+  public static long getLastFlushLagMillis() {
+    return lastFlushLagMillis.get();
+  }
+
+  /**
+   * Time the last batch was committed, 0 if no batch has been written.
+   */
+  public static long getLastFlushTimeMillis() {
+    return lastFlushTimeMillis.get();
+  }
+
+  /**
+   * Stage 1: continuously drain the queue, a batch is handed off when it is
+   * full or when its first item has waited the maximum batch time.
+   */
+  private static Runnable drainRunner = new Runnable() {
     @Override
     public void run() {
-      long before = System.currentTimeMillis();
-      try {
-        List<MetricQueueItem> dataBatch = Lists.newArrayList();
-        dataQueue.drainTo(dataBatch, 15000);
-        LOG.debug("Timing:dataBatch.size()="+dataBatch.size());
-        long t1 = System.currentTimeMillis();
-        dataBatch = dealWithAbsoluteMetrics(dataBatch);
-        long t2 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.dealWithAbsoluteMetrics():time="+(t2-t1));
-        List<SimpleMetricEntity> simpleDataBatch = convertToSimpleDataBatch(dataBatch);
-        long t3 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.convertToSimpleDataBatch():time="+(t3-t2));
-        simpleDataBatch = aggregate(simpleDataBatch);
-        long t4 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.aggregate():time="+(t4-t3));
-        MetricManager.addMetricBatch(simpleDataBatch);
-        long t5 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.MetricManager.addMetricBatch():time="+(t5-t4));
-        ListMetricManager.addMetricBatch(simpleDataBatch);
-        long t6 = System.currentTimeMillis();
-        LOG.debug("Timing:ListMetricManager.addMetricBatch:time="+(t6-t5));
-      } catch (Throwable ex) {
-        LOG.debug("error");
-        ex.printStackTrace();
-        LOG.error(ex,ex);
-      } finally {
-        long after = System.currentTimeMillis();
-        LOG.debug("Timing:time="+(after-before));
+      long lastCoverageCheck = 0L;
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          if (System.currentTimeMillis() - lastCoverageCheck > COVERAGE_CHECK_INTERVAL_MILLIS) {
+            lastCoverageCheck = System.currentTimeMillis();
+            checkCachedCoverage();
+          }
+          MetricQueueItem first = dataQueue.poll(COVERAGE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+          if (first == null) continue;
+          List<MetricQueueItem> dataBatch = Lists.newArrayListWithCapacity(MAX_BATCH_SIZE);
+          dataBatch.add(first);
+          long deadline = System.currentTimeMillis() + MAX_BATCH_WAIT_MILLIS;
+          while (dataBatch.size() < MAX_BATCH_SIZE) {
+            dataQueue.drainTo(dataBatch, MAX_BATCH_SIZE - dataBatch.size());
+            long remaining = deadline - System.currentTimeMillis();
+            if (dataBatch.size() >= MAX_BATCH_SIZE || remaining <= 0) break;
+            MetricQueueItem next = dataQueue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null) break;
+            dataBatch.add(next);
+          }
+          LOG.debug("Timing:dataBatch.size()="+dataBatch.size()+",queueDepth="+dataQueue.size());
+          drainedBatches.put(dataBatch);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+          LOG.error(ex,ex);
+        }
+      }
+    }
+  };
+
+  /**
+   * Stage 2: absolute metric handling, conversion and aggregation.  Absolute
+   * metric handling depends on the previous data point so this stage is serial.
+   */
+  private static Runnable prepareRunner = new Runnable() {
+    @Override
+    public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          List<MetricQueueItem> dataBatch = drainedBatches.take();
+          long before = System.currentTimeMillis();
+          try {
+            dataBatch = dealWithAbsoluteMetrics(dataBatch);
+            long t2 = System.currentTimeMillis();
+            LOG.debug("Timing:dataBatch.dealWithAbsoluteMetrics():time="+(t2-before));
+            CloudWatchInternalMetrics.recordStage(Stage.Absolute, t2-before);
+            List<SimpleMetricEntity> simpleDataBatch = convertToSimpleDataBatch(dataBatch);
+            long t3 = System.currentTimeMillis();
+            LOG.debug("Timing:dataBatch.convertToSimpleDataBatch():time="+(t3-t2));
+            CloudWatchInternalMetrics.recordStage(Stage.Convert, t3-t2);
+            simpleDataBatch = aggregate(simpleDataBatch);
+            long t4 = System.currentTimeMillis();
+            LOG.debug("Timing:dataBatch.aggregate():time="+(t4-t3));
+            CloudWatchInternalMetrics.recordStage(Stage.Aggregate, t4-t3);
+            preparedBatches.put(new PreparedBatch(before, simpleDataBatch));
+          } catch (InterruptedException ex) {
+            throw ex;
+          } catch (Throwable ex) {
+            LOG.error(ex,ex);
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
       }
     }
   };
 
+  /**
+   * Stage 3: write the batch, each metric table shard commits in parallel
+   * along with the list metrics update.
+   */
+  private static Runnable writeRunner = new Runnable() {
+    @Override
+    public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          PreparedBatch batch = preparedBatches.take();
+          long t4 = System.currentTimeMillis();
+          try {
+            writeSharded(batch.getSimpleDataBatch());
+            long t5 = System.currentTimeMillis();
+            LOG.debug("Timing:dataBatch.writeSharded():time="+(t5-t4));
+            CloudWatchInternalMetrics.recordStage(Stage.Write, t5-t4);
+            writtenCount.addAndGet(batch.getSimpleDataBatch().size());
+            lastFlushLagMillis.set(t5 - batch.getDrainedTimeMillis());
+            CloudWatchInternalMetrics.recordFlushLag(t5 - batch.getDrainedTimeMillis());
+            lastFlushTimeMillis.set(t5);
+          } catch (InterruptedException ex) {
+            throw ex;
+          } catch (Throwable ex) {
+            LOG.error(ex,ex);
+          } finally {
+            LOG.debug("Timing:time="+(System.currentTimeMillis()-batch.getDrainedTimeMillis()));
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  };
+
+  /**
+   * Metric data is only written through the locally enabled service, while not
+   * enabled other hosts may write data the rollup store will not see.
+   */
+  private static void checkCachedCoverage() {
+    try {
+      if (!Bootstrap.isOperational() || !Topology.isEnabledLocally(CloudWatch.class)) {
+        MetricRollupStore.getInstance().invalidate();
+        ListMetricIndex.getInstance().invalidate();
+        AbsoluteMetricCache.getInstance().invalidate();
+      }
+    } catch (Exception ex) {
+      MetricRollupStore.getInstance().invalidate();
+      ListMetricIndex.getInstance().invalidate();
+      AbsoluteMetricCache.getInstance().invalidate();
+      Logs.extreme().error(ex, ex);
+    }
+  }
+
+  private static void writeSharded(final List<SimpleMetricEntity> simpleDataBatch) throws InterruptedException {
+    final Multimap<Class, MetricEntity> shards = MetricManager.makeShardedMetricBatch(simpleDataBatch);
+    List<Future<?>> futures = Lists.newArrayList();
+    for (final Class c : shards.keySet()) {
+      futures.add(shardWriters.submit(new Runnable() {
+        @Override
+        public void run() {
+          MetricManager.addMetricShard(c, shards.get(c));
+          MetricRollupStore.getInstance().addAll(shards.get(c));
+          AlarmEvaluationIndex.metricsChanged(shards.get(c));
+        }
+      }));
+    }
+    futures.add(shardWriters.submit(new Runnable() {
+      @Override
+      public void run() {
+        ListMetricManager.addMetricBatch(simpleDataBatch);
+      }
+    }));
+    Throwable failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException ex) {
+        failure = ex.getCause();
+        LOG.error(failure, failure);
+      }
+    }
+    if (failure != null) {
+      throw Exceptions.toUndeclared(failure);
+    }
+  }
+
   static {
-    dataFlushTimer.scheduleAtFixedRate(safeRunner, 0, 1, TimeUnit.MINUTES);
+    startPipelineThread(drainRunner, "Drain");
+    startPipelineThread(prepareRunner, "Prepare");
+    startPipelineThread(writeRunner, "Write");
+  }
+
+  private static void startPipelineThread(Runnable runnable, String stage) {
+    new PipelineThreadFactory(stage).newThread(runnable).start();
+  }
+
+  private static class PreparedBatch {
+    private final long drainedTimeMillis;
+    private final List<SimpleMetricEntity> simpleDataBatch;
+
+    private PreparedBatch(long drainedTimeMillis, List<SimpleMetricEntity> simpleDataBatch) {
+      this.drainedTimeMillis = drainedTimeMillis;
+      this.simpleDataBatch = simpleDataBatch;
+    }
+    public long getDrainedTimeMillis() {
+      return drainedTimeMillis;
+    }
+    public List<SimpleMetricEntity> getSimpleDataBatch() {
+      return simpleDataBatch;
+    }
+  }
+
+  private static class PipelineThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    private final String stage;
+
+    private PipelineThreadFactory(String stage) {
+      this.stage = stage;
+    }
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "MetricDataQueue." + stage + "-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 
   public static List<SimpleMetricEntity> aggregate(List<SimpleMetricEntity> dataBatch) {
@@ -144,7 +379,8 @@ public class MetricDataQueue {
       
       metricMetadata.setMetricName(datum.getMetricName());
       metricMetadata.setNamespace(item.getNamespace());
-      final ArrayList<Dimension> dimensions = datum.getDimensions().getMember(); 
+      final ArrayList<Dimension> dimensions = datum.getDimensions() == null ?
+          null : datum.getDimensions().getMember();
       metricMetadata.setDimensionMap(makeDimensionMap(dimensions));
       metricMetadata.setMetricType(item.getMetricType());
       metricMetadata.setUnits(Units.fromValue(datum.getUnit())); 
@@ -174,93 +410,90 @@ public class MetricDataQueue {
   protected static List<MetricQueueItem> dealWithAbsoluteMetrics(
       List<MetricQueueItem> dataBatch) {
     List<MetricQueueItem> dataToInsert = new ArrayList<MetricQueueItem>(); 
-    EntityTransaction db = Entities.get(AbsoluteMetricHistory.class);
-    try {
-      AbsoluteMetricCache cache = new AbsoluteMetricCache(db);
-      // Some points do not actually go in.  If a data point represents an absolute value, the first one does not go in.
-      // Also, some data points are added while we go through the list (derived metrics)
-
-      for (final MetricQueueItem item : dataBatch) {
-        String accountId = item.getAccountId();
-        String nameSpace = item.getNamespace();
-        MetricDatum datum = item.getMetricDatum();
-        MetricType metricType = item.getMetricType();
-        // Deal with the absolute metrics
-        // CPUUtilization
-        // VolumeReadOps
-        // VolumeWriteOps
-        // VolumeConsumedReadWriteOps
-        // VolumeReadBytes
-        // VolumeWriteBytes
-        // VolumeTotalReadTime
-        // VolumeTotalWriteTime
-        // VolumeTotalReadWriteTime (used to calculate VolumeIdleTime)
-        // DiskReadOps
-        // DiskWriteOps
-        // DiskReadBytes
-        // DiskWriteBytes
-        // NetworkIn 
-        // NetworkOut
-
-        if ("AWS/EBS".equals(nameSpace) && metricType == MetricType.System) {
-          String volumeId = null;
-          if ((datum.getDimensions() != null) && (datum.getDimensions().getMember() != null)) {
-            for (Dimension dimension: datum.getDimensions().getMember()) {
-              if ("VolumeId".equals(dimension.getName())) {
-                volumeId = dimension.getValue();
-                cache.load(nameSpace, "VolumeId", volumeId);
+    AbsoluteMetricCache cache = AbsoluteMetricCache.getInstance();
+    // values are updated in place, exclude the timed write behind
+    synchronized (cache) {
+      try {
+        // Some points do not actually go in.  If a data point represents an absolute value, the first one does not go in.
+        // Also, some data points are added while we go through the list (derived metrics)
+
+        for (final MetricQueueItem item : dataBatch) {
+          String accountId = item.getAccountId();
+          String nameSpace = item.getNamespace();
+          MetricDatum datum = item.getMetricDatum();
+          MetricType metricType = item.getMetricType();
+          // Deal with the absolute metrics
+          // CPUUtilization
+          // VolumeReadOps
+          // VolumeWriteOps
+          // VolumeConsumedReadWriteOps
+          // VolumeReadBytes
+          // VolumeWriteBytes
+          // VolumeTotalReadTime
+          // VolumeTotalWriteTime
+          // VolumeTotalReadWriteTime (used to calculate VolumeIdleTime)
+          // DiskReadOps
+          // DiskWriteOps
+          // DiskReadBytes
+          // DiskWriteBytes
+          // NetworkIn 
+          // NetworkOut
+
+          if ("AWS/EBS".equals(nameSpace) && metricType == MetricType.System) {
+            String volumeId = null;
+            if ((datum.getDimensions() != null) && (datum.getDimensions().getMember() != null)) {
+              for (Dimension dimension: datum.getDimensions().getMember()) {
+                if ("VolumeId".equals(dimension.getName())) {
+                  volumeId = dimension.getValue();
+                  cache.load(nameSpace, "VolumeId", volumeId);
+                }
               }
             }
+            if (EBS_ABSOLUTE_METRICS.containsKey(datum.getMetricName())) {
+              // we check if the point below is a 'first' point, or maybe a point in the past.  Either case reject it.
+              if (!adjustAbsoluteVolumeStatisticSet(cache, datum, datum.getMetricName(), EBS_ABSOLUTE_METRICS.get(datum.getMetricName()), volumeId)) continue; 
+            }
+            // special cases
+            // 1) VolumeThroughputPercentage -- this is 100% for provisioned volumes, and we need to insert a
+            //                                  data point for every timestamp that a volume event occurs.
+            //                                  To make sure we don't duplicate the effort, we choose one event at random, VolumeReadOps,
+            //                                  and create this new metric arbitrarily
+            if ("VolumeReadOps".equals(datum.getMetricName())) { // special case
+              dataToInsert.add(createVolumeThroughputMetric(accountId, nameSpace, metricType, datum));
+            }
+            // 2) VolumeIdleTime -- we piggy back off of the metric we don't need VolumeTotalReadWriteTime, and convert it to VolumeIdleTime
+            if ("VolumeTotalReadWriteTime".equals(datum.getMetricName())) {
+              convertVolumeTotalReadWriteTimeToVolumeIdleTime(datum);
+            }
+            // 3) VolumeQueueLength -- this one comes in essentially correct, but we don't have a time duration for it, so we piggy back off
+            //                         the absolute metric framework
+            if ("VolumeQueueLength".equals(datum.getMetricName())) {
+              if (!adjustAbsoluteVolumeQueueLengthStatisticSet(cache, datum, volumeId)) continue;
+            }
           }
-          if (EBS_ABSOLUTE_METRICS.containsKey(datum.getMetricName())) {
-            // we check if the point below is a 'first' point, or maybe a point in the past.  Either case reject it.
-            if (!adjustAbsoluteVolumeStatisticSet(cache, datum, datum.getMetricName(), EBS_ABSOLUTE_METRICS.get(datum.getMetricName()), volumeId)) continue; 
-          }
-          // special cases
-          // 1) VolumeThroughputPercentage -- this is 100% for provisioned volumes, and we need to insert a
-          //                                  data point for every timestamp that a volume event occurs.
-          //                                  To make sure we don't duplicate the effort, we choose one event at random, VolumeReadOps,
-          //                                  and create this new metric arbitrarily
-          if ("VolumeReadOps".equals(datum.getMetricName())) { // special case
-            dataToInsert.add(createVolumeThroughputMetric(accountId, nameSpace, metricType, datum));
-          }
-          // 2) VolumeIdleTime -- we piggy back off of the metric we don't need VolumeTotalReadWriteTime, and convert it to VolumeIdleTime
-          if ("VolumeTotalReadWriteTime".equals(datum.getMetricName())) {
-            convertVolumeTotalReadWriteTimeToVolumeIdleTime(datum);
-          }
-          // 3) VolumeQueueLength -- this one comes in essentially correct, but we don't have a time duration for it, so we piggy back off
-          //                         the absolute metric framework
-          if ("VolumeQueueLength".equals(datum.getMetricName())) {
-            if (!adjustAbsoluteVolumeQueueLengthStatisticSet(cache, datum, volumeId)) continue;
-          }
-        }
         
-        if ("AWS/EC2".equals(nameSpace) && metricType == MetricType.System) {
-          String instanceId = null;
-          if ((datum.getDimensions() != null) && (datum.getDimensions().getMember() != null)) {
-            for (Dimension dimension: datum.getDimensions().getMember()) {
-              if ("InstanceId".equals(dimension.getName())) {
-                instanceId = dimension.getValue();
-                cache.load(nameSpace, "InstanceId", instanceId);
+          if ("AWS/EC2".equals(nameSpace) && metricType == MetricType.System) {
+            String instanceId = null;
+            if ((datum.getDimensions() != null) && (datum.getDimensions().getMember() != null)) {
+              for (Dimension dimension: datum.getDimensions().getMember()) {
+                if ("InstanceId".equals(dimension.getName())) {
+                  instanceId = dimension.getValue();
+                  cache.load(nameSpace, "InstanceId", instanceId);
+                }
               }
             }
-          }
-          if (EC2_ABSOLUTE_METRICS.containsKey(datum.getMetricName())) {
-            if (!adjustAbsoluteInstanceStatisticSet(cache, datum, datum.getMetricName(), EC2_ABSOLUTE_METRICS.get(datum.getMetricName()), instanceId)) continue; 
-          } else if ("CPUUtilizationMSAbsolute".equals(datum.getMetricName())) { // special case
-            // we check if the point below is a 'first' point, or maybe a point in the past.  Either case reject it.
-            if (!adjustAbsoluteInstanceCPUStatisticSet(cache, datum, "CPUUtilizationMSAbsolute", "CPUUtilization", instanceId)) continue;
-          } 
-        }        
-        dataToInsert.add(item); // this data point is ok
+            if (EC2_ABSOLUTE_METRICS.containsKey(datum.getMetricName())) {
+              if (!adjustAbsoluteInstanceStatisticSet(cache, datum, datum.getMetricName(), EC2_ABSOLUTE_METRICS.get(datum.getMetricName()), instanceId)) continue; 
+            } else if ("CPUUtilizationMSAbsolute".equals(datum.getMetricName())) { // special case
+              // we check if the point below is a 'first' point, or maybe a point in the past.  Either case reject it.
+              if (!adjustAbsoluteInstanceCPUStatisticSet(cache, datum, "CPUUtilizationMSAbsolute", "CPUUtilization", instanceId)) continue;
+            } 
+          }        
+          dataToInsert.add(item); // this data point is ok
+        }
+      } finally {
+        cache.writeIfDue();
       }
-      db.commit();
-    } catch (RuntimeException ex) {
-      Logs.extreme().error(ex, ex);
-      throw ex;
-    } finally {
-      if (db.isActive())
-        db.rollback();
     }
     return dataToInsert;
   }
@@ -287,7 +520,12 @@ public class MetricDataQueue {
       .put("NetworkOutAbsolute", "NetworkOut") 
       .build();
 
-  public void insertMetricData(final String ownerAccountId, final String nameSpace,
+  /**
+   * Queue a batch of metric data, the batch is accepted or rejected as a whole.
+   *
+   * @return false if the batch was rejected because the queue is full
+   */
+  public boolean insertMetricData(final String ownerAccountId, final String nameSpace,
       final List<MetricDatum> metricDatum, final MetricType metricType) {
     // Some points do not actually go in.  If a data point represents an absolute value, the first one does not go in.
     // Also, some data points are added while we go through the list (derived metrics)
@@ -295,18 +533,29 @@ public class MetricDataQueue {
 
     for (final MetricDatum datum : metricDatum) {
       scrub(datum, now);
-      queue(new Supplier<MetricQueueItem>() {
-        @Override
-        public MetricQueueItem get() {
-          MetricQueueItem metricMetadata = new MetricQueueItem();
-          metricMetadata.setAccountId(ownerAccountId);
-          metricMetadata.setMetricDatum(datum);
-          metricMetadata.setNamespace(nameSpace);
-          metricMetadata.setMetricType(metricType);
-          return metricMetadata;
-        }
-      });
     }
+    // producers check capacity and queue under one lock so a batch is never half queued,
+    // the queue is only drained concurrently which can only add capacity
+    synchronized (dataQueue) {
+      if (dataQueue.remainingCapacity() < metricDatum.size()) {
+        rejected(metricDatum.size());
+        return false;
+      }
+      for (final MetricDatum datum : metricDatum) {
+        queue(new Supplier<MetricQueueItem>() {
+          @Override
+          public MetricQueueItem get() {
+            MetricQueueItem metricMetadata = new MetricQueueItem();
+            metricMetadata.setAccountId(ownerAccountId);
+            metricMetadata.setMetricDatum(datum);
+            metricMetadata.setNamespace(nameSpace);
+            metricMetadata.setMetricType(metricType);
+            return metricMetadata;
+          }
+        });
+      }
+    }
+    return true;
   }
 
   private static boolean adjustAbsoluteVolumeQueueLengthStatisticSet(AbsoluteMetricCache cache,
@@ -366,11 +615,13 @@ public class MetricDataQueue {
     // use the same dimensions as current metric
     Dimensions vtpDimensions = new Dimensions();
     ArrayList<Dimension> vtpDimensionsMember = new ArrayList<Dimension>();
-    for (Dimension dimension: datum.getDimensions().getMember()) {
-      Dimension vtpDimension = new Dimension();
-      vtpDimension.setName(dimension.getName());
-      vtpDimension.setValue(dimension.getValue());
-      vtpDimensionsMember.add(vtpDimension);
+    if ((datum.getDimensions() != null) && (datum.getDimensions().getMember() != null)) {
+      for (Dimension dimension: datum.getDimensions().getMember()) {
+        Dimension vtpDimension = new Dimension();
+        vtpDimension.setName(dimension.getName());
+        vtpDimension.setValue(dimension.getValue());
+        vtpDimensionsMember.add(vtpDimension);
+      }
     }
     vtpDimensions.setMember(vtpDimensionsMember);
     vtpDatum.setDimensions(vtpDimensions);
@@ -456,189 +707,11 @@ public class MetricDataQueue {
   private static Map<String, String> makeDimensionMap(
       ArrayList<Dimension> dimensions) {
     Map<String,String> returnValue = Maps.newTreeMap();
-    for (Dimension dimension: dimensions) {
-      returnValue.put(dimension.getName(), dimension.getValue());
-    }
-    return returnValue;
-  }
-
-  public static class AbsoluteMetricCache {
-    private EntityTransaction db;
-    private Set<AbsoluteMetricLoadCacheKey> loaded = Sets.newHashSet();
-    private Map<AbsoluteMetricCacheKey, AbsoluteMetricHistory> cacheMap = Maps.newHashMap();
-    public AbsoluteMetricCache(EntityTransaction db) {
-      this.db = db;
-    }
-
-    public void load(String namespace, String dimensionName, String dimensionValue) {
-      AbsoluteMetricLoadCacheKey loadKey = new AbsoluteMetricLoadCacheKey(namespace, dimensionName);
-      if (!loaded.contains(loadKey)) {
-        Criteria criteria = Entities.createCriteria(AbsoluteMetricHistory.class)
-            .add( Restrictions.eq( "namespace", namespace ) )
-            .add( Restrictions.eq( "dimensionName", dimensionName ) );
-//            .add( Restrictions.eq( "dimensionValue", dimensionValue ) );
-        List<AbsoluteMetricHistory> list = (List<AbsoluteMetricHistory>) criteria.list();
-        for (AbsoluteMetricHistory item: list) {
-          cacheMap.put(new AbsoluteMetricCacheKey(item), item);
-        }
-        loaded.add(loadKey);
+    if (dimensions != null) {
+      for (Dimension dimension: dimensions) {
+        returnValue.put(dimension.getName(), dimension.getValue());
       }
     }
-
-    public AbsoluteMetricHistory lookup(String namespace, String metricName,
-        String dimensionName, String dimensionValue) {
-      return cacheMap.get(new AbsoluteMetricCacheKey(namespace, metricName, dimensionName, dimensionValue));
-    }
-
-    public void put(String namespace, String metricName, String dimensionName,
-        String dimensionValue, AbsoluteMetricHistory lastEntity) {
-      cacheMap.put(new AbsoluteMetricCacheKey(namespace, metricName, dimensionName, dimensionValue), lastEntity);
-    }
-    
-  }
-  public static class AbsoluteMetricLoadCacheKey {
-    private String namespace;
-    private String dimensionName;
-
-    public String getNamespace() {
-      return namespace;
-    }
-    public void setNamespace(String namespace) {
-      this.namespace = namespace;
-    }
-    public String getDimensionName() {
-      return dimensionName;
-    }
-    public void setDimensionName(String dimensionName) {
-      this.dimensionName = dimensionName;
-    }
-    private AbsoluteMetricLoadCacheKey(String namespace, String dimensionName) {
-      super();
-      this.namespace = namespace;
-      this.dimensionName = dimensionName;
-    }
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result
-          + ((dimensionName == null) ? 0 : dimensionName.hashCode());
-      result = prime * result
-          + ((namespace == null) ? 0 : namespace.hashCode());
-      return result;
-    }
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      AbsoluteMetricLoadCacheKey other = (AbsoluteMetricLoadCacheKey) obj;
-      if (dimensionName == null) {
-        if (other.dimensionName != null)
-          return false;
-      } else if (!dimensionName.equals(other.dimensionName))
-        return false;
-      if (namespace == null) {
-        if (other.namespace != null)
-          return false;
-      } else if (!namespace.equals(other.namespace))
-        return false;
-      return true;
-    }
-    
-  }
-  public static class AbsoluteMetricCacheKey {
-    private String namespace;
-    private String metricName;
-    private String dimensionName;
-    private String dimensionValue;
-    public String getNamespace() {
-      return namespace;
-    }
-    public void setNamespace(String namespace) {
-      this.namespace = namespace;
-    }
-    public String getMetricName() {
-      return metricName;
-    }
-    public void setMetricName(String metricName) {
-      this.metricName = metricName;
-    }
-    public String getDimensionName() {
-      return dimensionName;
-    }
-    public void setDimensionName(String dimensionName) {
-      this.dimensionName = dimensionName;
-    }
-    public String getDimensionValue() {
-      return dimensionValue;
-    }
-    public void setDimensionValue(String dimensionValue) {
-      this.dimensionValue = dimensionValue;
-    }
-    public AbsoluteMetricCacheKey(String namespace, String metricName,
-        String dimensionName, String dimensionValue) {
-      super();
-      this.namespace = namespace;
-      this.metricName = metricName;
-      this.dimensionName = dimensionName;
-      this.dimensionValue = dimensionValue;
-    }
-    public AbsoluteMetricCacheKey(AbsoluteMetricHistory item) {
-      super();
-      this.namespace = item.getNamespace();
-      this.metricName = item.getMetricName();
-      this.dimensionName = item.getDimensionName();
-      this.dimensionValue = item.getDimensionValue();
-    }
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result
-          + ((dimensionName == null) ? 0 : dimensionName.hashCode());
-      result = prime * result
-          + ((dimensionValue == null) ? 0 : dimensionValue.hashCode());
-      result = prime * result
-          + ((metricName == null) ? 0 : metricName.hashCode());
-      result = prime * result
-          + ((namespace == null) ? 0 : namespace.hashCode());
-      return result;
-    }
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      AbsoluteMetricCacheKey other = (AbsoluteMetricCacheKey) obj;
-      if (dimensionName == null) {
-        if (other.dimensionName != null)
-          return false;
-      } else if (!dimensionName.equals(other.dimensionName))
-        return false;
-      if (dimensionValue == null) {
-        if (other.dimensionValue != null)
-          return false;
-      } else if (!dimensionValue.equals(other.dimensionValue))
-        return false;
-      if (metricName == null) {
-        if (other.metricName != null)
-          return false;
-      } else if (!metricName.equals(other.metricName))
-        return false;
-      if (namespace == null) {
-        if (other.namespace != null)
-          return false;
-      } else if (!namespace.equals(other.namespace))
-        return false;
-      return true;
-    }
+    return returnValue;
   }
-  
 }
@@ -19,8 +19,13 @@
  ************************************************************************/
 package com.eucalyptus.cloudwatch.domain.metricdata;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -38,14 +43,19 @@ import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 
+import com.eucalyptus.cloudwatch.domain.BatchInsertWork;
 import com.eucalyptus.cloudwatch.domain.DimensionEntity;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
 import com.eucalyptus.cloudwatch.hashing.HashUtils;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -53,6 +63,13 @@ import com.google.common.collect.Sets;
 
 public class MetricManager {
 	public static final Logger LOG = Logger.getLogger(MetricManager.class);
+  private static final long MAX_CACHED_DIMENSION_SETS = 50000L;
+  // canonical dimension map -> dimension permutation hashes
+  private static final Cache<Map<String, String>, List<String>> systemDimensionHashCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DIMENSION_SETS).build();
+  private static final Cache<Map<String, String>, List<String>> customDimensionHashCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DIMENSION_SETS).build();
+
   public static void addMetric(String accountId, 
       String metricName, String namespace, Map<String, String> dimensionMap,
       MetricType metricType, Units units, Date timestamp, Double sampleSize,
@@ -94,16 +111,9 @@ public class MetricManager {
       d.setValue(entry.getValue());
       dimensions.add(d);
     }
-    Set<Set<DimensionEntity>> permutations = null;
-    if (simpleMetricEntity.getMetricType() == MetricType.System) {
-      permutations = Sets.powerSet(dimensions);
-    } else {
-      permutations = Sets.newHashSet();
-      permutations.add(dimensions);
-    }
     ArrayList<MetricEntity> returnValue = new ArrayList<MetricEntity>();
-    for (Set<DimensionEntity> dimensionsPermutation : permutations) {
-      String dimensionHash = hash(dimensionsPermutation);
+    for (String dimensionHash : dimensionHashes(simpleMetricEntity.getDimensionMap(), dimensions,
+        simpleMetricEntity.getMetricType())) {
       MetricEntity metric = MetricEntityFactory.getNewMetricEntity(simpleMetricEntity.getMetricType(),
           dimensionHash);
       metric.setAccountId(simpleMetricEntity.getAccountId());
@@ -123,21 +133,63 @@ public class MetricManager {
     return returnValue;
   }
 
+  /**
+   * Hashes for each dimension permutation a datum is stored under, all
+   * permutations for system metrics or just the full set for custom metrics.
+   */
+  private static List<String> dimensionHashes(Map<String, String> dimensionMap,
+      TreeSet<DimensionEntity> dimensions, MetricType metricType) {
+    Cache<Map<String, String>, List<String>> cache = (metricType == MetricType.System) ?
+        systemDimensionHashCache : customDimensionHashCache;
+    List<String> hashes = cache.getIfPresent(dimensionMap);
+    if (hashes == null) {
+      Set<Set<DimensionEntity>> permutations = null;
+      if (metricType == MetricType.System) {
+        permutations = Sets.powerSet(dimensions);
+      } else {
+        permutations = Sets.newHashSet();
+        permutations.add(dimensions);
+      }
+      List<String> permutationHashes = Lists.newArrayListWithCapacity(permutations.size());
+      for (Set<DimensionEntity> dimensionsPermutation : permutations) {
+        permutationHashes.add(hash(dimensionsPermutation));
+      }
+      hashes = Collections.unmodifiableList(permutationHashes);
+      cache.put(Collections.unmodifiableMap(new TreeMap<String, String>(dimensionMap)), hashes);
+    }
+    return hashes;
+  }
+
   private static void addManyMetrics(Multimap<Class, MetricEntity> metricMap) {
     for (Class c : metricMap.keySet()) {
-      EntityTransaction db = Entities.get(c);
-      try {
-        for (MetricEntity me : metricMap.get(c)) {
-          Entities.persist(me);
-        }
-        db.commit();
-      } catch (RuntimeException ex) {
-        Logs.extreme().error(ex, ex);
-        throw ex;
-      } finally {
-        if (db.isActive())
-          db.rollback();
+      addMetricShard(c, metricMap.get(c));
+    }
+  }
+
+  /**
+   * Persist the entities for a single shard (entity class) in one transaction
+   * using JDBC batches.  Shards are independent tables so distinct shards may
+   * be written concurrently.  Rows are written to the daily partitions of the
+   * shard table.
+   *
+   * @see MetricDataPartitions
+   */
+  public static void addMetricShard(Class c, Collection<MetricEntity> entities) {
+    Map<Date, List<MetricEntity>> entitiesByDay = MetricDataPartitions.partition(entities);
+    MetricDataPartitions.ensurePartitions(c, entitiesByDay.keySet());
+    EntityTransaction db = Entities.get(c);
+    try {
+      for (Map.Entry<Date, List<MetricEntity>> entry : entitiesByDay.entrySet()) {
+        Entities.doWork(c, new MetricEntityBatchInsert(
+            MetricDataPartitions.partitionTableName(c, entry.getKey()), entry.getValue()));
       }
+      db.commit();
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
     }
   }
 
@@ -148,7 +200,7 @@ public class MetricManager {
     }
     StringBuilder sb = new StringBuilder();
     for (Map.Entry<String, String> entry : sortedDimensionMap.entrySet()) {
-      sb.append(entry.getKey() + "|" + entry.getValue() + "|");
+      sb.append(entry.getKey()).append('|').append(entry.getValue()).append('|');
     }
     return HashUtils.hash(sb.toString());
   }
@@ -156,7 +208,7 @@ public class MetricManager {
   public static String hash(Collection<DimensionEntity> dimensions) {
     StringBuilder sb = new StringBuilder();
     for (DimensionEntity dimension : dimensions) {
-      sb.append(dimension.getName() + "|" + dimension.getValue() + "|");
+      sb.append(dimension.getName()).append('|').append(dimension.getValue()).append('|');
     }
     return HashUtils.hash(sb.toString());
   }
@@ -170,6 +222,7 @@ public class MetricManager {
   }
 
   public static void deleteAllMetrics() {
+    MetricRollupStore.getInstance().invalidate();
     for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
       EntityTransaction db = Entities.get(c);
       try {
@@ -186,18 +239,30 @@ public class MetricManager {
   }
 
   /**
-   * Delete all metrics before a certain date
-   * 
-   * @param before
-   *          the date to delete before (inclusive)
+   * Delete metric data before a certain date from the shard tables themselves.
+   *
+   * Rows in partitions are not deleted, expired partitions are dropped by the
+   * MetricDataRetentionService.
+   *
+   * @param before the date to delete before
    */
-  public static void deleteMetrics(Date before) {
-    for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+  public static void deleteMetrics(final Date before) {
+    for (final Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
       EntityTransaction db = Entities.get(c);
       try {
-        Map<String, Date> criteria = new HashMap<String, Date>();
-        criteria.put("before", before);
-        Entities.deleteAllMatching(c, "WHERE timestamp < :before", criteria);
+        Entities.doWork(c, new Work() {
+          @Override
+          public void execute(Connection connection) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement("DELETE FROM ONLY " +
+                MetricDataPartitions.tableName(c) + " WHERE timestamp < ?");
+            try {
+              statement.setTimestamp(1, new Timestamp(before.getTime()));
+              statement.executeUpdate();
+            } finally {
+              statement.close();
+            }
+          }
+        });
         db.commit();
       } catch (RuntimeException ex) {
         Logs.extreme().error(ex, ex);
@@ -259,6 +324,11 @@ public class MetricManager {
       throw new IllegalArgumentException("namespace must not be null");
     }
     String hash = hash(dimensions);
+    Collection<MetricStatistics> recentStatistics = MetricRollupStore.getInstance().getMetricStatistics(
+        accountId, metricName, namespace, dimensions, hash, metricType, units, startTime, endTime, period);
+    if (recentStatistics != null) {
+      return recentStatistics;
+    }
     Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(metricType, hash);
     Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap = new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE);
     EntityTransaction db = Entities.get(metricEntityClass);
@@ -334,12 +404,52 @@ public class MetricManager {
   }
 
   public static void addMetricBatch(List<SimpleMetricEntity> dataBatch) {
+    addManyMetrics(makeShardedMetricBatch(dataBatch));
+  }
+
+  /**
+   * Validate, fold and hash a batch, grouping the resulting entities by
+   * the shard (entity class) they are stored in.
+   *
+   * @see #addMetricShard(Class, Collection)
+   */
+  public static Multimap<Class, MetricEntity> makeShardedMetricBatch(List<SimpleMetricEntity> dataBatch) {
     ArrayList<MetricEntity> metricEntities = new ArrayList<MetricEntity>();
     for (SimpleMetricEntity simpleMetricEntity: dataBatch) {
       validateMetricQueueItem(simpleMetricEntity);
       metricEntities.addAll(foldAndHash(simpleMetricEntity));
     }
-    addManyMetrics(makeMetricMap(metricEntities));
+    return makeMetricMap(metricEntities);
+  }
+
+  private static class MetricEntityBatchInsert extends BatchInsertWork<MetricEntity> {
+    private static final List<String> COLUMNS = ImmutableList.of("account_id", "namespace",
+        "metric_name", "dimension_hash", "units", "metric_type", "timestamp", "sample_size",
+        "sample_max", "sample_min", "sample_sum");
+
+    private MetricEntityBatchInsert(String tableName, Collection<MetricEntity> entities) {
+      super(tableName, entities);
+    }
+
+    @Override
+    protected List<String> getColumns() {
+      return COLUMNS;
+    }
+
+    @Override
+    protected void bind(PreparedStatement statement, int index, MetricEntity entity) throws SQLException {
+      statement.setString(index++, entity.getAccountId());
+      statement.setString(index++, entity.getNamespace());
+      statement.setString(index++, entity.getMetricName());
+      statement.setString(index++, entity.getDimensionHash());
+      statement.setString(index++, entity.getUnits().name());
+      statement.setString(index++, entity.getMetricType().name());
+      statement.setTimestamp(index++, new Timestamp(entity.getTimestamp().getTime()));
+      statement.setDouble(index++, entity.getSampleSize());
+      statement.setDouble(index++, entity.getSampleMax());
+      statement.setDouble(index++, entity.getSampleMin());
+      statement.setDouble(index++, entity.getSampleSum());
+    }
   }
 
   private static void validateMetricQueueItem(SimpleMetricEntity simpleMetricEntity) {
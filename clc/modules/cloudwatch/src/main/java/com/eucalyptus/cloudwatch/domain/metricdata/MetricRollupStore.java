@@ -0,0 +1,286 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+
+/**
+ * Memory resident per minute rollup of recently written metric data.
+ *
+ * Each series (account, namespace, metric, type, dimension hash) keeps a ring
+ * of minute buckets holding min/max/sum/count in primitive arrays.  The store
+ * is populated from the MetricDataQueue write stage after data is committed and
+ * can answer GetMetricStatistics for minute aligned windows it fully covers,
+ * callers fall back to the database when it cannot (null result).
+ *
+ * Coverage is tracked per series, a series covers the minutes after it was
+ * created so a series that was evicted and later recreated only answers for
+ * new data.  Series that are not present are never answered for.
+ */
+public class MetricRollupStore {
+  private static final Logger LOG = Logger.getLogger(MetricRollupStore.class);
+  static final int RETAINED_MINUTES = 60;
+  // allow for producers with clocks slightly ahead of ours
+  static final int FUTURE_MINUTES = 5;
+  private static final int RING_SIZE = RETAINED_MINUTES + FUTURE_MINUTES;
+  // each series holds ~2.6KB per units, so ~26MB when full
+  private static final long MAX_SERIES = 10000L;
+  private static final long MILLIS_PER_MINUTE = 60000L;
+
+  private static final MetricRollupStore instance = new MetricRollupStore();
+
+  // first minute for which the store may hold everything that was written
+  private final AtomicLong coveredSinceMinute = new AtomicLong(currentMinute() + 1);
+  // latest minute that was written but not retained as it was too far in the future
+  private final AtomicLong latestRejectedFutureMinute = new AtomicLong(Long.MIN_VALUE);
+
+  private final Cache<SeriesKey, Series> seriesCache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_SERIES)
+      .expireAfterAccess(RING_SIZE, TimeUnit.MINUTES)
+      .build();
+
+  public static MetricRollupStore getInstance() {
+    return instance;
+  }
+
+  /**
+   * Add committed metric entities to the store.
+   */
+  public void addAll(Collection<MetricEntity> entities) {
+    long nowMinute = currentMinute();
+    for (MetricEntity me : entities) {
+      if (me.getTimestamp() == null || me.getUnits() == null) continue;
+      long minute = me.getTimestamp().getTime() / MILLIS_PER_MINUTE;
+      if (minute > nowMinute + FUTURE_MINUTES) {
+        advanceRejectedFuture(minute);
+        continue;
+      } else if (minute <= nowMinute - RETAINED_MINUTES) {
+        continue; // outside the window, only in the database
+      }
+      final SeriesKey key = new SeriesKey(me.getAccountId(), me.getNamespace(),
+          me.getMetricName(), me.getMetricType(), me.getDimensionHash());
+      try {
+        Series series = seriesCache.get(key, new Callable<Series>() {
+          @Override
+          public Series call() {
+            // earlier data for the series may have been evicted or written before the store started
+            return new Series(currentMinute() + 1);
+          }
+        });
+        series.add(me.getUnits(), minute, me.getSampleMin(), me.getSampleMax(),
+            me.getSampleSum(), me.getSampleSize());
+      } catch (ExecutionException ex) {
+        LOG.error(ex, ex);
+      }
+    }
+  }
+
+  /**
+   * Get statistics from the store.
+   *
+   * @return The statistics or null if the requested window is not covered by the store
+   */
+  public Collection<MetricStatistics> getMetricStatistics(String accountId,
+      String metricName, String namespace, Collection<DimensionEntity> dimensions,
+      String dimensionHash, MetricType metricType, Units units, Date startTime,
+      Date endTime, Integer period) {
+    if (startTime.getTime() % MILLIS_PER_MINUTE != 0 || endTime.getTime() % MILLIS_PER_MINUTE != 0) {
+      return null; // buckets hold whole minutes, partial minutes are only answered by the database
+    }
+    long nowMinute = currentMinute();
+    long startMinute = startTime.getTime() / MILLIS_PER_MINUTE;
+    long endMinute = endTime.getTime() / MILLIS_PER_MINUTE; // exclusive
+    if (startMinute < coveredSinceMinute.get() ||
+        startMinute <= nowMinute - RETAINED_MINUTES ||
+        endMinute > nowMinute + FUTURE_MINUTES + 1 ||
+        latestRejectedFutureMinute.get() >= startMinute) {
+      return null;
+    }
+    Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap =
+        new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE);
+    Series series = seriesCache.getIfPresent(new SeriesKey(accountId, namespace, metricName, metricType, dimensionHash));
+    if (series == null || startMinute < series.coveredSinceMinute) {
+      return null;
+    }
+    series.collect(aggregationMap, accountId, metricName, namespace, dimensions,
+        dimensionHash, metricType, units, startTime, startMinute, endMinute, period);
+    return Lists.newArrayList(aggregationMap.values());
+  }
+
+  /**
+   * Discard all data, the store will only answer for minutes after this call.
+   */
+  public void invalidate() {
+    advanceCoverage(currentMinute() + 1);
+    seriesCache.invalidateAll();
+  }
+
+  private void advanceCoverage(long minute) {
+    long current;
+    while ((current = coveredSinceMinute.get()) < minute) {
+      if (coveredSinceMinute.compareAndSet(current, minute)) break;
+    }
+  }
+
+  private void advanceRejectedFuture(long minute) {
+    long current;
+    while ((current = latestRejectedFutureMinute.get()) < minute) {
+      if (latestRejectedFutureMinute.compareAndSet(current, minute)) break;
+    }
+  }
+
+  private static long currentMinute() {
+    return System.currentTimeMillis() / MILLIS_PER_MINUTE;
+  }
+
+  private static final class Series {
+    private final long coveredSinceMinute;
+    private final Map<Units, MinuteBuckets> bucketsByUnits = new EnumMap<Units, MinuteBuckets>(Units.class);
+
+    Series(long coveredSinceMinute) {
+      this.coveredSinceMinute = coveredSinceMinute;
+    }
+
+    synchronized void add(Units units, long minute, double min, double max, double sum, double count) {
+      MinuteBuckets buckets = bucketsByUnits.get(units);
+      if (buckets == null) {
+        buckets = new MinuteBuckets();
+        bucketsByUnits.put(units, buckets);
+      }
+      buckets.add(minute, min, max, sum, count);
+    }
+
+    synchronized void collect(Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap,
+        String accountId, String metricName, String namespace, Collection<DimensionEntity> dimensions,
+        String dimensionHash, MetricType metricType, Units units, Date startTime,
+        long startMinute, long endMinute, Integer period) {
+      for (Map.Entry<Units, MinuteBuckets> entry : bucketsByUnits.entrySet()) {
+        if (units != null && units != entry.getKey()) continue;
+        MinuteBuckets buckets = entry.getValue();
+        for (long minute = startMinute; minute < endMinute; minute++) {
+          int slot = buckets.slotFor(minute);
+          if (slot < 0) continue;
+          Date periodStart = MetricManager.getPeriodStart(new Date(minute * MILLIS_PER_MINUTE), startTime, period);
+          GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(accountId,
+              namespace, metricName, entry.getKey(), metricType, periodStart, dimensionHash);
+          MetricStatistics totalSoFar = aggregationMap.get(key);
+          if (totalSoFar == null) {
+            aggregationMap.put(key, new MetricStatistics(accountId, namespace, metricName,
+                entry.getKey(), metricType, periodStart, buckets.count[slot], buckets.max[slot],
+                buckets.min[slot], buckets.sum[slot], dimensions));
+          } else {
+            totalSoFar.setSampleMax(Math.max(buckets.max[slot], totalSoFar.getSampleMax()));
+            totalSoFar.setSampleMin(Math.min(buckets.min[slot], totalSoFar.getSampleMin()));
+            totalSoFar.setSampleSize(totalSoFar.getSampleSize() + buckets.count[slot]);
+            totalSoFar.setSampleSum(totalSoFar.getSampleSum() + buckets.sum[slot]);
+          }
+        }
+      }
+    }
+  }
+
+  private static final class MinuteBuckets {
+    private final long[] minutes = new long[RING_SIZE];
+    private final double[] min = new double[RING_SIZE];
+    private final double[] max = new double[RING_SIZE];
+    private final double[] sum = new double[RING_SIZE];
+    private final double[] count = new double[RING_SIZE];
+
+    MinuteBuckets() {
+      Arrays.fill(minutes, Long.MIN_VALUE);
+    }
+
+    void add(long minute, double sampleMin, double sampleMax, double sampleSum, double sampleCount) {
+      int slot = (int) (minute % RING_SIZE);
+      if (minutes[slot] == minute) {
+        min[slot] = Math.min(min[slot], sampleMin);
+        max[slot] = Math.max(max[slot], sampleMax);
+        sum[slot] += sampleSum;
+        count[slot] += sampleCount;
+      } else if (minutes[slot] < minute) {
+        minutes[slot] = minute;
+        min[slot] = sampleMin;
+        max[slot] = sampleMax;
+        sum[slot] = sampleSum;
+        count[slot] = sampleCount;
+      } // else older than the retained window
+    }
+
+    int slotFor(long minute) {
+      int slot = (int) (minute % RING_SIZE);
+      return minutes[slot] == minute ? slot : -1;
+    }
+  }
+
+  private static final class SeriesKey {
+    private final String accountId;
+    private final String namespace;
+    private final String metricName;
+    private final MetricType metricType;
+    private final String dimensionHash;
+
+    SeriesKey(String accountId, String namespace, String metricName,
+        MetricType metricType, String dimensionHash) {
+      this.accountId = accountId;
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.metricType = metricType;
+      this.dimensionHash = dimensionHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(accountId, namespace, metricName, metricType, dimensionHash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      SeriesKey other = (SeriesKey) obj;
+      return Objects.equal(accountId, other.accountId) &&
+          Objects.equal(namespace, other.namespace) &&
+          Objects.equal(metricName, other.metricName) &&
+          metricType == other.metricType &&
+          Objects.equal(dimensionHash, other.dimensionHash);
+    }
+  }
+}
@@ -150,6 +150,23 @@ public class MetricStatistics {
     this.dimensions = dimensions;
   }
 
+  public MetricStatistics(String accountId, String namespace, String metricName,
+      Units units, MetricType metricType, Date timestamp, Double sampleSize,
+      Double sampleMax, Double sampleMin, Double sampleSum,
+      Collection<DimensionEntity> dimensions) {
+    this.accountId = accountId;
+    this.namespace = namespace;
+    this.metricName = metricName;
+    this.units = units;
+    this.metricType = metricType;
+    this.timestamp = timestamp;
+    this.sampleSize = sampleSize;
+    this.sampleMax = sampleMax;
+    this.sampleMin = sampleMin;
+    this.sampleSum = sampleSum;
+    this.dimensions = dimensions;
+  }
+
   public MetricStatistics(MetricEntity me, Date startTime, Integer period, Collection<DimensionEntity> dimensions) {
     this.accountId = me.getAccountId();
     this.namespace = me.getNamespace();
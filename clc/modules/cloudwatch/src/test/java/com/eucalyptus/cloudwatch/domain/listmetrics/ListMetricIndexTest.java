@@ -0,0 +1,124 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.listmetrics;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class ListMetricIndexTest {
+
+  @Test
+  public void testPagination() {
+    ListMetricIndex index = new ListMetricIndex();
+    List<ListMetric> metrics = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      metrics.add(metric("metric" + i, ImmutableMap.of("InstanceId", "i-" + i)));
+    }
+    index.load("account1", index.newAccountIndex("account1"), metrics);
+
+    List<ListMetric> firstPage = index.listMetrics("account1", null, null, null, null, null, 3, null);
+    assertNotNull(firstPage);
+    assertEquals(3, firstPage.size());
+    List<ListMetric> secondPage = index.listMetrics("account1", null, null, null, null, null, 3,
+        firstPage.get(2).getNaturalId());
+    assertNotNull(secondPage);
+    assertEquals(2, secondPage.size());
+    assertTrue(Collections.disjoint(naturalIds(firstPage), naturalIds(secondPage)));
+    assertNull("Unknown token", index.listMetrics("account1", null, null, null, null, null, 3, "unknown"));
+  }
+
+  @Test
+  public void testFilterAndPurge() {
+    ListMetricIndex index = new ListMetricIndex();
+    ListMetric m1 = metric("metric1", ImmutableMap.of("InstanceId", "i-1", "ImageId", "emi-1"));
+    ListMetric m2 = metric("metric1", ImmutableMap.of("InstanceId", "i-2"));
+    index.load("account1", index.newAccountIndex("account1"), Lists.newArrayList(m1, m2));
+
+    Map<String, String> filter = ImmutableMap.of("ImageId", "emi-1");
+    List<ListMetric> result = index.listMetrics("account1", "metric1", "namespace1", filter, null, null, null, null);
+    assertEquals(naturalIds(Lists.newArrayList(m1)), naturalIds(result));
+
+    index.metricsWritten(Lists.newArrayList(m2), new Date(System.currentTimeMillis() + 60000L));
+    index.metricsDeleted(new Date(System.currentTimeMillis() + 1000L));
+    result = index.listMetrics("account1", null, null, null, null, null, null, null);
+    assertEquals(naturalIds(Lists.newArrayList(m2)), naturalIds(result));
+  }
+
+  @Test
+  public void testResultsAreCopies() {
+    ListMetricIndex index = new ListMetricIndex();
+    ListMetric m1 = metric("metric1", ImmutableMap.of("InstanceId", "i-1"));
+    index.load("account1", index.newAccountIndex("account1"), Lists.newArrayList(m1));
+
+    List<ListMetric> result = index.listMetrics("account1", null, null, null, null, null, null, null);
+    assertEquals(1, result.size());
+    assertNotSame(m1, result.get(0));
+    result.get(0).setMetricName("changed");
+    m1.setMetricName("changed");
+    result = index.listMetrics("account1", null, null, null, null, null, null, null);
+    assertEquals("metric1", result.get(0).getMetricName());
+    assertEquals(m1.getNaturalId(), result.get(0).getNaturalId());
+    assertEquals(m1.getDimensionMap(), result.get(0).getDimensionMap());
+  }
+
+  @Test
+  public void testNonCanonicalNaturalIdUsesDatabase() {
+    ListMetricIndex index = new ListMetricIndex();
+    ListMetric m1 = metric("metric1", ImmutableMap.of("InstanceId", "i-1"));
+    ListMetric m2 = metric("metric2", ImmutableMap.of("InstanceId", "i-2"));
+    m2.setNaturalId(m2.getNaturalId().toUpperCase());
+    assertNull(index.load("account1", index.newAccountIndex("account1"), Lists.newArrayList(m1, m2)));
+    assertNull(index.listMetrics("account1", null, null, null, null, null, null, null));
+  }
+
+  private static List<String> naturalIds(List<ListMetric> metrics) {
+    List<String> naturalIds = Lists.newArrayList();
+    for (ListMetric metric : metrics) {
+      naturalIds.add(metric.getNaturalId());
+    }
+    return naturalIds;
+  }
+
+  private static ListMetric metric(String metricName, Map<String, String> dimensionMap) {
+    ListMetric metric = new ListMetric();
+    metric.setAccountId("account1");
+    metric.setNamespace("namespace1");
+    metric.setMetricName(metricName);
+    metric.setMetricType(MetricType.Custom);
+    List<DimensionEntity> dimensions = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : dimensionMap.entrySet()) {
+      dimensions.add(new DimensionEntity(entry.getKey(), entry.getValue()));
+    }
+    metric.setDimensions(dimensions);
+    metric.updateTimeStamps();
+    return metric;
+  }
+}
@@ -0,0 +1,67 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.google.common.collect.Lists;
+
+public class MetricDataPartitionsTest {
+
+  @Test
+  public void testPartitionByDay() {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(2013, Calendar.MARCH, 10, 23, 59, 59);
+    Date lateDay = calendar.getTime();
+    calendar.set(2013, Calendar.MARCH, 11, 0, 0, 0);
+    Date nextDayStart = calendar.getTime();
+
+    Map<Date, List<MetricEntity>> entitiesByDay = MetricDataPartitions.partition(
+        Lists.newArrayList(entity(lateDay), entity(nextDayStart), entity(nextDayStart)));
+    assertEquals(2, entitiesByDay.size());
+    assertEquals(1, entitiesByDay.get(MetricDataPartitions.dayStart(lateDay)).size());
+    assertEquals(2, entitiesByDay.get(MetricDataPartitions.dayStart(nextDayStart)).size());
+    assertEquals(MetricDataPartitions.dayStart(nextDayStart),
+        MetricDataPartitions.nextDay(MetricDataPartitions.dayStart(lateDay)));
+  }
+
+  @Test
+  public void testPartitionTableName() {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(2013, Calendar.MARCH, 10, 12, 0, 0);
+    Date day = MetricDataPartitions.dayStart(calendar.getTime());
+    assertEquals("custom_metric_data_0_p20130310",
+        MetricDataPartitions.partitionTableName(MetricEntityFactory.CustomMetricEntity0.class, day));
+  }
+
+  private static MetricEntity entity(Date timestamp) {
+    MetricEntity me = MetricEntityFactory.getNewMetricEntity(MetricType.Custom, "0");
+    me.setTimestamp(timestamp);
+    return me;
+  }
+}
@@ -0,0 +1,95 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.MetricDatum;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics;
+import com.eucalyptus.cloudwatch.domain.CloudWatchInternalMetrics.Stage;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.google.common.collect.Lists;
+
+public class MetricDataQueueTest {
+
+  @Test
+  public void testInternalMetrics() {
+    CloudWatchInternalMetrics.Publisher publisher = new CloudWatchInternalMetrics.Publisher();
+    CloudWatchInternalMetrics.recordStage(Stage.Write, 10L);
+    CloudWatchInternalMetrics.recordFlushLag(20L);
+    List<MetricDatum> data = publisher.collect(new Date());
+    for (MetricDatum datum : data) {
+      assertNotNull("Dimensions for " + datum.getMetricName(), datum.getDimensions());
+    }
+
+    List<SimpleMetricEntity> entities = MetricDataQueue.aggregate(MetricDataQueue.convertToSimpleDataBatch(
+        MetricDataQueue.dealWithAbsoluteMetrics(items(CloudWatchInternalMetrics.NAMESPACE, MetricType.Custom, data))));
+    assertEquals(data.size(), entities.size());
+    boolean foundStageLatency = false;
+    boolean foundFlushLag = false;
+    for (SimpleMetricEntity entity : entities) {
+      if ("StageLatency".equals(entity.getMetricName())) {
+        foundStageLatency = true;
+        assertEquals("Write", entity.getDimensionMap().get("Stage"));
+      } else if ("FlushLag".equals(entity.getMetricName())) {
+        foundFlushLag = true;
+        assertTrue(entity.getDimensionMap().isEmpty());
+      }
+    }
+    assertTrue(foundStageLatency);
+    assertTrue(foundFlushLag);
+  }
+
+  @Test
+  public void testNoDimensions() {
+    MetricDatum datum = new MetricDatum();
+    datum.setMetricName("VolumeReadOps");
+    datum.setValue(1.0);
+    datum.setUnit(Units.Count.toString());
+    datum.setTimestamp(new Date());
+
+    List<MetricQueueItem> items = MetricDataQueue.dealWithAbsoluteMetrics(
+        items("AWS/EBS", MetricType.System, Lists.newArrayList(datum)));
+    assertEquals("Volume throughput metric added", 2, items.size());
+    List<SimpleMetricEntity> entities = MetricDataQueue.convertToSimpleDataBatch(items);
+    for (SimpleMetricEntity entity : entities) {
+      assertTrue(entity.getDimensionMap().isEmpty());
+    }
+  }
+
+  private static List<MetricQueueItem> items(String namespace, MetricType metricType, List<MetricDatum> data) {
+    List<MetricQueueItem> items = Lists.newArrayList();
+    for (MetricDatum datum : data) {
+      MetricQueueItem item = new MetricQueueItem();
+      item.setAccountId("account1");
+      item.setNamespace(namespace);
+      item.setMetricType(metricType);
+      item.setMetricDatum(datum);
+      items.add(item);
+    }
+    return items;
+  }
+}
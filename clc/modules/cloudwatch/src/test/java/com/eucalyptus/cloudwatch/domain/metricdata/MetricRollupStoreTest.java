@@ -0,0 +1,124 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+
+public class MetricRollupStoreTest {
+
+  private static final double TOLERANCE = 0.000000001;
+  private static final String HASH = MetricManager.hash(new TreeSet<DimensionEntity>());
+
+  @Test
+  public void testAggregatesByPeriod() {
+    MetricRollupStore store = new MetricRollupStore();
+    // the store only covers minutes after it was created
+    long start = MetricManager.stripSeconds(new Date()).getTime() + 60000L;
+    List<MetricEntity> entities = new ArrayList<MetricEntity>();
+    for (int i = 0; i < 4; i++) {
+      entities.add(entity(new Date(start + i * 60000L), (double) i));
+      entities.add(entity(new Date(start + i * 60000L), (double) i + 10));
+    }
+    store.addAll(entities);
+
+    Collection<MetricStatistics> stats = store.getMetricStatistics("account1",
+        "metric1", "namespace1", new TreeSet<DimensionEntity>(), HASH,
+        MetricType.Custom, null, new Date(start), new Date(start + 4 * 60000L), 120);
+    assertNotNull(stats);
+    assertEquals(2, stats.size());
+    MetricStatistics first = stats.iterator().next();
+    assertEquals(start, first.getTimestamp().getTime());
+    assertEquals(0.0, first.getSampleMin(), TOLERANCE);
+    assertEquals(11.0, first.getSampleMax(), TOLERANCE);
+    assertEquals(4.0, first.getSampleSize(), TOLERANCE);
+    assertEquals(22.0, first.getSampleSum(), TOLERANCE);
+  }
+
+  @Test
+  public void testUncoveredWindow() {
+    MetricRollupStore store = new MetricRollupStore();
+    long now = MetricManager.stripSeconds(new Date()).getTime();
+    assertNull(store.getMetricStatistics("account1", "metric1", "namespace1",
+        new TreeSet<DimensionEntity>(), HASH, MetricType.Custom, null,
+        new Date(now - 60 * 60000L), new Date(now), 60));
+  }
+
+  @Test
+  public void testSeriesCoverage() {
+    MetricRollupStore store = new MetricRollupStore();
+    long now = MetricManager.stripSeconds(new Date()).getTime();
+    List<MetricEntity> entities = new ArrayList<MetricEntity>();
+    entities.add(entity(new Date(now), 1.0));
+    store.addAll(entities);
+    // the series was created this minute so earlier data may be missing
+    assertNull(store.getMetricStatistics("account1", "metric1", "namespace1",
+        new TreeSet<DimensionEntity>(), HASH, MetricType.Custom, null,
+        new Date(now), new Date(now + 60000L), 60));
+    // series with no data in the store are answered from the database
+    assertNull(store.getMetricStatistics("account1", "metric2", "namespace1",
+        new TreeSet<DimensionEntity>(), HASH, MetricType.Custom, null,
+        new Date(now + 60000L), new Date(now + 120000L), 60));
+  }
+
+  @Test
+  public void testUnalignedWindow() {
+    MetricRollupStore store = new MetricRollupStore();
+    long start = MetricManager.stripSeconds(new Date()).getTime() + 60000L;
+    List<MetricEntity> entities = new ArrayList<MetricEntity>();
+    entities.add(entity(new Date(start), 1.0));
+    entities.add(entity(new Date(start + 60000L), 2.0));
+    store.addAll(entities);
+    // partial minutes are answered from the database
+    assertNull(store.getMetricStatistics("account1", "metric1", "namespace1",
+        new TreeSet<DimensionEntity>(), HASH, MetricType.Custom, null,
+        new Date(start + 30000L), new Date(start + 120000L), 60));
+    assertNull(store.getMetricStatistics("account1", "metric1", "namespace1",
+        new TreeSet<DimensionEntity>(), HASH, MetricType.Custom, null,
+        new Date(start), new Date(start + 90000L), 60));
+  }
+
+  private static MetricEntity entity(Date timestamp, double value) {
+    MetricEntity me = MetricEntityFactory.getNewMetricEntity(MetricType.Custom, HASH);
+    me.setAccountId("account1");
+    me.setMetricName("metric1");
+    me.setNamespace("namespace1");
+    me.setMetricType(MetricType.Custom);
+    me.setDimensionHash(HASH);
+    me.setUnits(Units.None);
+    me.setTimestamp(timestamp);
+    me.setSampleMin(value);
+    me.setSampleMax(value);
+    me.setSampleSum(value);
+    me.setSampleSize(1.0);
+    return me;
+  }
+}
@@ -0,0 +1,38 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.hashing;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HashUtilsTest {
+
+  @Test
+  public void testHash() {
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", HashUtils.hash("abc"));
+    assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", HashUtils.hash(""));
+  }
+
+  @Test
+  public void testToHexString() {
+    assertEquals("00010f10ff7f80", HashUtils.toHexString(new byte[]{0, 1, 15, 16, -1, 127, -128}));
+  }
+}
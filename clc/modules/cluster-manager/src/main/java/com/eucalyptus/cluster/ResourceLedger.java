@@ -0,0 +1,201 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicReference;
+import com.eucalyptus.cloud.util.NotEnoughResourcesException;
+import com.eucalyptus.cluster.ResourceState.VmTypeAvailability;
+import com.eucalyptus.vmtypes.VmType;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import edu.ucsb.eucalyptus.msgs.ResourceType;
+
+/**
+ * Capacity ledger for the instance types of a cluster.
+ *
+ * Reserving instances of one type also reduces the capacity of the other types
+ * (they share node resources) so the availability of all types is held in one
+ * immutable, versioned snapshot that is replaced using compare-and-set.
+ * Reservations, token completions and resource updates retry against the
+ * latest snapshot rather than locking, so concurrent allocations for a cluster
+ * do not serialize on a monitor.
+ *
+ * The snapshot also tracks the number of outstanding (reserved but not yet
+ * redeemed) instances which is subtracted from the availability reported by
+ * the cluster when updating.
+ */
+class ResourceLedger {
+  private final VmType[]                   types;
+  private final Map<String, Integer>       typeIndexes;
+  private final AtomicReference<Capacity> capacity;
+
+  ResourceLedger( final Iterable<VmType> vmTypes ) {
+    final NavigableMap<String, VmType> typesByName = Maps.newTreeMap( );
+    for ( final VmType type : vmTypes ) {
+      if ( !typesByName.containsKey( type.getName( ) ) ) {
+        typesByName.put( type.getName( ), type );
+      }
+    }
+    final ImmutableMap.Builder<String, Integer> indexBuilder = ImmutableMap.builder( );
+    int index = 0;
+    for ( final String typeName : typesByName.keySet( ) ) {
+      indexBuilder.put( typeName, index++ );
+    }
+    this.types = typesByName.values( ).toArray( new VmType[ index ] );
+    this.typeIndexes = indexBuilder.build( );
+    this.capacity = new AtomicReference<Capacity>( new Capacity( 0L, 0, new int[ index ], new int[ index ] ) );
+  }
+
+  /**
+   * Reserve between minAmount and maxAmount instances of the given type.
+   *
+   * @return The number of instances reserved, these are outstanding until released
+   * @throws NotEnoughResourcesException If fewer than minAmount instances are available
+   */
+  int reserve( final String vmTypeName, final int minAmount, final int maxAmount ) throws NotEnoughResourcesException {
+    final Integer index = this.typeIndexes.get( vmTypeName );
+    if ( index == null ) {
+      throw new NotEnoughResourcesException( "Not enough resources (unknown instance type " + vmTypeName + "): vm instances." );
+    }
+    Capacity current;
+    Capacity next;
+    int quantity;
+    do {
+      current = this.capacity.get( );
+      final int available = current.available[ index ];
+      if ( available < minAmount ) {
+        throw new NotEnoughResourcesException( "Not enough resources (" + available + " < " + minAmount + ": vm instances." );
+      }
+      quantity = Math.min( maxAmount, available );
+      next = current.reserve( index, quantity );
+    } while ( !this.capacity.compareAndSet( current, next ) );
+    return quantity;
+  }
+
+  /**
+   * Release outstanding instances that were redeemed, released or expired.
+   */
+  void release( final int amount ) {
+    Capacity current;
+    do {
+      current = this.capacity.get( );
+    } while ( amount != 0 && !this.capacity.compareAndSet( current, current.release( amount ) ) );
+  }
+
+  /**
+   * Update availability from a cluster resource report.
+   *
+   * Types that are not reported are unchanged.
+   *
+   * @return The snapshot that was replaced
+   */
+  Capacity update( final List<ResourceType> resources ) {
+    Capacity current;
+    Capacity next;
+    do {
+      current = this.capacity.get( );
+      final int[] available = current.available.clone( );
+      final int[] max = current.max.clone( );
+      for ( final ResourceType resource : resources ) {
+        final Integer index = this.typeIndexes.get( resource.getInstanceType( ).getName( ) );
+        if ( index == null ) continue;
+        available[ index ] = Math.max( 0, resource.getAvailableInstances( ) - current.outstanding );
+        max[ index ] = resource.getMaxInstances( );
+      }
+      next = new Capacity( current.version + 1, current.outstanding, available, max );
+    } while ( !this.capacity.compareAndSet( current, next ) );
+    return current;
+  }
+
+  Capacity capacity( ) {
+    return this.capacity.get( );
+  }
+
+  /**
+   * Availability of the given type in the current snapshot.
+   *
+   * @return The availability or null if the type is not known
+   */
+  VmTypeAvailability availability( final String vmTypeName ) {
+    return this.capacity.get( ).availability( vmTypeName );
+  }
+
+  final class Capacity {
+    private final long  version;
+    private final int   outstanding;
+    private final int[] available;
+    private final int[] max;
+
+    private Capacity( final long version, final int outstanding, final int[] available, final int[] max ) {
+      this.version = version;
+      this.outstanding = outstanding;
+      this.available = available;
+      this.max = max;
+    }
+
+    long getVersion( ) {
+      return this.version;
+    }
+
+    int getOutstanding( ) {
+      return this.outstanding;
+    }
+
+    VmTypeAvailability availability( final String vmTypeName ) {
+      final Integer index = typeIndexes.get( vmTypeName );
+      return index == null ?
+          null :
+          new VmTypeAvailability( types[ index ], this.max[ index ], this.available[ index ] );
+    }
+
+    /**
+     * Types with no more availability than the reserved type lose the reserved
+     * quantity, types with more availability are capped at what remains for the
+     * reserved type.
+     */
+    private Capacity reserve( final int index, final int quantity ) {
+      final int remaining = this.available[ index ] - quantity;
+      final int[] nextAvailable = new int[ this.available.length ];
+      for ( int i = 0; i < nextAvailable.length; i++ ) {
+        nextAvailable[ i ] = this.available[ i ] <= this.available[ index ] ?
+            Math.max( 0, this.available[ i ] - quantity ) :
+            remaining;
+      }
+      return new Capacity( this.version + 1, this.outstanding + quantity, nextAvailable, this.max );
+    }
+
+    private Capacity release( final int amount ) {
+      return new Capacity( this.version + 1, Math.max( 0, this.outstanding - amount ), this.available, this.max );
+    }
+
+    @Override
+    public String toString( ) {
+      final StringBuilder builder = new StringBuilder( );
+      builder.append( "version=" ).append( this.version ).append( ":outstanding=" ).append( this.outstanding );
+      for ( int i = 0; i < types.length; i++ ) {
+        builder.append( String.format( ":%s:%d/%d", types[ i ].getName( ), this.available[ i ], this.max[ i ] ) );
+      }
+      return builder.toString( );
+    }
+  }
+}
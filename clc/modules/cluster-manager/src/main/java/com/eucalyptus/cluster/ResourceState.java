@@ -66,12 +66,9 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.NavigableSet;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import com.eucalyptus.cloud.ResourceToken;
 import com.eucalyptus.cloud.run.Allocations.Allocation;
@@ -91,11 +88,11 @@ import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
 
 public class ResourceState {
   private static Logger                                      LOG = Logger.getLogger( ResourceState.class );
-  private ConcurrentNavigableMap<String, VmTypeAvailability> typeMap;
+  private final ResourceLedger                               ledger;
   private NavigableSet<ResourceToken>                        pendingTokens;
   private NavigableSet<ResourceToken>                        submittedTokens;
   private NavigableSet<ResourceToken>                        redeemedTokens;
-  private int                                                virtualTimer;
+  private final AtomicInteger                                virtualTimer = new AtomicInteger( );
   private String                                             clusterName;
   public static class NoSuchTokenException extends Exception {
 
@@ -106,12 +103,12 @@ public class ResourceState {
   }
 
   public ResourceState( String clusterName ) {
+    this( clusterName, VmTypes.list( ) );
+  }
+
+  ResourceState( String clusterName, Iterable<VmType> vmTypes ) {
     this.clusterName = clusterName;
-    this.typeMap = new ConcurrentSkipListMap<String, VmTypeAvailability>( );
-    
-    for ( VmType v : VmTypes.list( ) )
-      this.typeMap.putIfAbsent( v.getName( ), new VmTypeAvailability( v, 0, 0 ) );
-    
+    this.ledger = new ResourceLedger( vmTypes );
     this.pendingTokens = new ConcurrentSkipListSet<ResourceToken>( );
     this.submittedTokens = new ConcurrentSkipListSet<ResourceToken>( );
     this.redeemedTokens = new ConcurrentSkipListSet<ResourceToken>( );
@@ -127,35 +124,14 @@ public class ResourceState {
     } );
   }
   
-  public synchronized List<ResourceToken> requestResourceAllocation( Allocation allocInfo, int minAmount, int maxAmount ) throws NotEnoughResourcesException {
-    VmTypeAvailability vmTypeStatus = this.typeMap.get( allocInfo.getVmType( ).getName( ) );
-    Integer available = vmTypeStatus.getAvailable( );
-    NavigableSet<VmTypeAvailability> sorted = this.sorted( );
-    LOG.debug( LogUtil.header( "BEFORE ALLOCATE" ) );
-    LOG.debug( sorted );
-    //:: if not enough, then bail out :://
-    Integer quantity = minAmount;
-    if ( vmTypeStatus.getAvailable( ) < minAmount ) {
-      throw new NotEnoughResourcesException( "Not enough resources (" + available + " < " + minAmount + ": vm instances." );
-    } else {
-      quantity = ( maxAmount < available
-                                        ? maxAmount
-                                        : available );
+  public List<ResourceToken> requestResourceAllocation( Allocation allocInfo, int minAmount, int maxAmount ) throws NotEnoughResourcesException {
+    //:: reserve against the ledger, fails if not enough :://
+    final int quantity = this.ledger.reserve( allocInfo.getVmType( ).getName( ), minAmount, maxAmount );
+    if ( LOG.isDebugEnabled( ) ) {
+      LOG.debug( LogUtil.header( "AFTER ALLOCATE" ) );
+      LOG.debug( "Resource information for " + this.clusterName + ": " + this.ledger.capacity( ) );
     }
-    
-    Set<VmTypeAvailability> tailSet = sorted.tailSet( vmTypeStatus );
-    Set<VmTypeAvailability> headSet = sorted.headSet( vmTypeStatus );
-    LOG.debug( LogUtil.header( "DURING ALLOCATE" ) );
-    LOG.debug( LogUtil.subheader( "TAILSET: \n" + tailSet ) );
-    LOG.debug( LogUtil.subheader( "HEADSET: \n" + headSet ) );
-    //:: decrement available resources across the "active" partition :://
-    for ( VmTypeAvailability v : tailSet )
-      v.decrement( quantity );
-    for ( VmTypeAvailability v : headSet )
-      v.setAvailable( vmTypeStatus.getAvailable( ) );
-    LOG.debug( LogUtil.header( "AFTER ALLOCATE" ) );
-    LOG.debug( sorted );
-    int seqNumber = this.virtualTimer++;
+    int seqNumber = this.virtualTimer.getAndIncrement( );
     List<ResourceToken> tokenList = Lists.newArrayList( );
     for ( int i = 0; i < quantity; i++ ) {
       try {
@@ -171,17 +147,26 @@ public class ResourceState {
         }
       }
     }
+    //:: reserved instances without a pending token are no longer outstanding :://
+    int issued = 0;
+    for ( ResourceToken token : tokenList ) {
+      if ( this.pendingTokens.contains( token ) ) issued += token.getAmount( );
+    }
+    this.ledger.release( quantity - issued );
     return tokenList;
   }
   
-  public synchronized void releaseToken( ResourceToken token ) {
+  public void releaseToken( ResourceToken token ) {
     LOG.debug( EventType.TOKEN_RELEASED.name( ) + ": " + token.toString( ) );
-    this.pendingTokens.remove( token );
-    this.submittedTokens.remove( token );
+    boolean outstanding = this.pendingTokens.remove( token );
+    outstanding |= this.submittedTokens.remove( token );
     this.redeemedTokens.remove( token );
+    if ( outstanding ) {
+      this.ledger.release( token.getAmount( ) );
+    }
   }
   
-  public synchronized void submitToken( ResourceToken token ) throws NoSuchTokenException {
+  public void submitToken( ResourceToken token ) throws NoSuchTokenException {
     LOG.debug( EventType.TOKEN_SUBMITTED.name( ) + ": " + token.toString( ) );
     if ( this.pendingTokens.remove( token ) ) {
       this.submittedTokens.add( token );
@@ -190,10 +175,11 @@ public class ResourceState {
     }
   }
   
-  public synchronized void redeemToken( ResourceToken token ) throws NoSuchTokenException {
+  public void redeemToken( ResourceToken token ) throws NoSuchTokenException {
     LOG.debug( EventType.TOKEN_REDEEMED.name( ) + ": " + token.toString( ) );
     if ( this.submittedTokens.remove( token ) || this.pendingTokens.remove( token ) ) {
       this.redeemedTokens.add( token );
+      this.ledger.release( token.getAmount( ) );
     } else {
       LOG.error(
         "Failed to find token: "
@@ -204,15 +190,14 @@ public class ResourceState {
     }
   }
 
-  public synchronized boolean isPending( final ResourceToken token ) {
+  public boolean isPending( final ResourceToken token ) {
     return this.pendingTokens.contains( token );
   }
 
-  public synchronized void update( List<ResourceType> rscUpdate ) {
+  public void update( List<ResourceType> rscUpdate ) {
     long expiryAge = System.currentTimeMillis( ) - TimeUnit.MINUTES.toMillis( getExpiryMinutes( 15 ) );
     expirePendingTokens( expiryAge );
 
-    int outstandingCount = 0;
     int pending = 0, submitted = 0, redeemed = 0;
     for ( ResourceToken t : this.pendingTokens )
       pending += t.getAmount( );
@@ -220,24 +205,13 @@ public class ResourceState {
       submitted += t.getAmount( );
     for ( ResourceToken t : this.redeemedTokens )
       redeemed += t.getAmount( );
-    outstandingCount = pending + submitted;
     EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName,
-                      String.format( "outstanding=%d:pending=%d:submitted=%d:redeemed=%d", outstandingCount, pending, submitted, redeemed ) ).info( );
+                      String.format( "outstanding=%d:pending=%d:submitted=%d:redeemed=%d", this.ledger.capacity( ).getOutstanding( ), pending, submitted, redeemed ) ).info( );
     this.redeemedTokens.clear( );
     
-    StringBuilder before = new StringBuilder( );
-    StringBuilder after = new StringBuilder( );
-    for ( ResourceType rsc : rscUpdate ) {
-      VmTypeAvailability vmAvailable = this.typeMap.get( rsc.getInstanceType( ).getName( ) );
-      if ( vmAvailable == null ) continue;
-      before.append( String.format( ":%s:%d/%d", vmAvailable.getType( ).getName( ), vmAvailable.getAvailable( ), vmAvailable.getMax( ) ) );
-      vmAvailable.setAvailable( rsc.getAvailableInstances( ) );
-      vmAvailable.decrement( outstandingCount );
-      vmAvailable.setMax( rsc.getMaxInstances( ) );
-      after.append( String.format( ":%s:%d/%d", vmAvailable.getType( ).getName( ), vmAvailable.getAvailable( ), vmAvailable.getMax( ) ) );
-    }
-    EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName, "ANTE" + before.toString( ) ).info( );
-    EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName, "POST" + after.toString( ) ).info( );
+    final ResourceLedger.Capacity before = this.ledger.update( rscUpdate );
+    EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName, "ANTE:" + before ).info( );
+    EventRecord.here( ResourceState.class, EventType.CLUSTER_STATE_UPDATE, this.clusterName, "POST:" + this.ledger.capacity( ) ).info( );
   }
 
   private int getExpiryMinutes( final int defaultValue ) {
@@ -253,24 +227,19 @@ public class ResourceState {
   private void expirePendingTokens( final long expireBefore ) {
     final Date oldestDate = new Date( expireBefore );
     for ( final ResourceToken token : pendingTokens ) {
-      if ( token.getCreationTime( ).before( oldestDate ) ) {
+      if ( token.getCreationTime( ).before( oldestDate ) && pendingTokens.remove( token ) ) {
         LOG.error( "Expiring pending token: " + token );
-        pendingTokens.remove( token );
+        this.ledger.release( token.getAmount( ) );
       }
     }
   }
 
-  private NavigableSet<VmTypeAvailability> sorted( ) {
-    NavigableSet<VmTypeAvailability> available = new TreeSet<VmTypeAvailability>( );
-    for ( String typeName : this.typeMap.keySet( ) )
-      available.add( this.typeMap.get( typeName ) );
-    available.add( VmTypeAvailability.ZERO );
-    LOG.debug( "Resource information for " + this.clusterName );
-    return available;
-  }
-  
+  /**
+   * Availability from the current capacity snapshot, later allocations or
+   * updates are not reflected in the returned value.
+   */
   public VmTypeAvailability getAvailability( String vmTypeName ) {
-    return this.typeMap.get( vmTypeName );
+    return this.ledger.availability( vmTypeName );
   }
   
   public static ResourceComparator getComparator( VmTypeInfo vmTypeInfo ) {
@@ -1,18 +1,17 @@
 package com.eucalyptus.cluster.callback;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
-
-import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -31,7 +30,7 @@ import com.eucalyptus.component.ComponentIds;
 import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.ServiceConfigurations;
 import com.eucalyptus.entities.Transactions;
-import com.eucalyptus.reporting.event.InstanceUsageEvent;
+import com.eucalyptus.records.Logs;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.async.AsyncRequests;
 import com.eucalyptus.vm.VmInstance;
@@ -39,13 +38,14 @@ import com.eucalyptus.vm.VmInstanceTag;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmInstance.VmState;
 import com.google.common.base.Function;
-import com.google.common.base.Supplier;
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 import edu.ucsb.eucalyptus.msgs.DescribeSensorsResponse;
@@ -58,39 +58,202 @@ import edu.ucsb.eucalyptus.msgs.SensorsResourceType;
 public class CloudWatchHelper {
 
   private InstanceInfoProvider instanceInfoProvider;
+  private final SensorState sensorState;
   public CloudWatchHelper(InstanceInfoProvider instanceInfoProvider) {
     this.instanceInfoProvider = instanceInfoProvider;
-
+    this.sensorState = SensorState.getInstance();
   }
   private static final Logger LOG = Logger.getLogger(CloudWatchHelper.class);
   private static final String RESOURCE_TYPE_INSTANCE = "instance";
+  private static final Ordering<MetricDimensionsValuesType> TIMESTAMP_ORDERING =
+      Ordering.<Date>natural().nullsFirst().onResultOf(GetTimestamp.INSTANCE);
+  /**
+   * Read and write values for a combined disk metric, keyed by dimension and time.
+   */
   private static class DiskReadWriteMetricTypeCache {
     
-    private Map<String, MetricDimensionsValuesType> eventMap = Maps.newConcurrentMap();
-    private String mapKey(SensorsResourceType sensorData,
-        MetricDimensionsType dimensionType, MetricDimensionsValuesType value) {
+    private final Map<DiskReadWriteKey, Double> valueMap = Maps.newHashMap();
 
-      String SEPARATOR = "|";
-      // sensor data should include resource Uuid and resource name
-      String resourceUUID = (sensorData != null) ? sensorData.getResourceUuid() : null;
-      String resourceName = (sensorData != null) ? sensorData.getResourceName() : null;
-      // dimension type should include dimension name
-      String dimensionName = (dimensionType != null) ? dimensionType.getDimensionName() : null;
-      // value should include timestamp
-      String valueTimestampStr = (value != null && value.getTimestamp() != null) ? value.getTimestamp().toString() : null;
-      return resourceUUID + SEPARATOR + resourceName + SEPARATOR + dimensionName + SEPARATOR + valueTimestampStr;
-      
-      
+    public void putValue(String dimensionName, long timestamp, double value) {
+      valueMap.put(new DiskReadWriteKey(dimensionName, timestamp), value);
     }
-    public void putEventInCache(SensorsResourceType sensorData,
-        MetricDimensionsType dimensionType, MetricDimensionsValuesType value) {
-      eventMap.put(mapKey(sensorData, dimensionType, value), value);
+
+    public Double getValue(String dimensionName, long timestamp) {
+      return valueMap.get(new DiskReadWriteKey(dimensionName, timestamp));
     }
 
-    public MetricDimensionsValuesType getEventFromCache(
-        SensorsResourceType sensorData, MetricDimensionsType dimensionType,
-        MetricDimensionsValuesType value) {
-      return eventMap.get(mapKey(sensorData, dimensionType, value));
+    public void expireBefore(long timestamp) {
+      for (Iterator<DiskReadWriteKey> keyIterator = valueMap.keySet().iterator(); keyIterator.hasNext(); ) {
+        if (keyIterator.next().timestamp < timestamp) {
+          keyIterator.remove();
+        }
+      }
+    }
+  }
+
+  private static final class DiskReadWriteKey {
+    private final String dimensionName;
+    private final long timestamp;
+    private DiskReadWriteKey(String dimensionName, long timestamp) {
+      this.dimensionName = dimensionName;
+      this.timestamp = timestamp;
+    }
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result
+          + ((dimensionName == null) ? 0 : dimensionName.hashCode());
+      result = prime * result + (int) (timestamp ^ (timestamp >>> 32));
+      return result;
+    }
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      DiskReadWriteKey other = (DiskReadWriteKey) obj;
+      if (dimensionName == null) {
+        if (other.dimensionName != null)
+          return false;
+      } else if (!dimensionName.equals(other.dimensionName))
+        return false;
+      return timestamp == other.timestamp;
+    }
+  }
+
+  /**
+   * Sensor state retained across DescribeSensors polls.
+   *
+   * The CC reports the last historySize values of each counter on every poll
+   * so consecutive responses overlap. The latest timestamp sent is tracked per
+   * instance, metric and dimension so that only newer values are sent on to
+   * CloudWatch, timestamps are only recorded once the values are sent (see
+   * SensorMetricData). Read/write values for combined disk metrics are also
+   * retained so halves reported in different polls are still combined.
+   */
+  private static final class SensorState {
+    private static final SensorState instance = new SensorState();
+    private final ConcurrentMap<String, InstanceSensorState> instanceStates = Maps.newConcurrentMap();
+
+    private static SensorState getInstance() {
+      return instance;
+    }
+
+    private InstanceSensorState forInstance(String instanceUuid) {
+      InstanceSensorState state = instanceStates.get(instanceUuid);
+      if (state == null) {
+        InstanceSensorState newState = new InstanceSensorState();
+        state = Objects.firstNonNull(instanceStates.putIfAbsent(instanceUuid, newState), newState);
+      }
+      return state;
+    }
+
+    private void retainInstances(Set<String> instanceUuids) {
+      instanceStates.keySet().retainAll(instanceUuids);
+    }
+  }
+
+  /**
+   * Per instance sensor state, callers must synchronize on the state.
+   */
+  private static final class InstanceSensorState {
+    private static final long READ_WRITE_RETENTION_MS = TimeUnit.MINUTES.toMillis(30);
+    private final Map<String, Long> latestTimestamps = Maps.newHashMap();
+    private final Map<String, DiskReadWriteMetricTypeCache> readWriteCaches = Maps.newHashMap();
+    private long latestTimestamp = Long.MIN_VALUE;
+
+    private static String key(String metricName, String dimensionName) {
+      return metricName + "|" + dimensionName;
+    }
+
+    private long getLatestTimestamp(String metricName, String dimensionName) {
+      Long timestamp = latestTimestamps.get(key(metricName, dimensionName));
+      return timestamp == null ? Long.MIN_VALUE : timestamp;
+    }
+
+    private void advanceLatestTimestamp(String key, long timestamp) {
+      Long current = latestTimestamps.get(key);
+      if (current == null || current < timestamp) {
+        latestTimestamps.put(key, timestamp);
+      }
+      latestTimestamp = Math.max(latestTimestamp, timestamp);
+    }
+
+    private DiskReadWriteMetricTypeCache getReadWriteCache(String metricName) {
+      DiskReadWriteMetricTypeCache cache = readWriteCaches.get(metricName);
+      if (cache == null) {
+        cache = new DiskReadWriteMetricTypeCache();
+        readWriteCaches.put(metricName, cache);
+      }
+      return cache;
+    }
+
+    private void expireReadWriteValues() {
+      if (latestTimestamp != Long.MIN_VALUE) {
+        for (DiskReadWriteMetricTypeCache cache : readWriteCaches.values()) {
+          cache.expireBefore(latestTimestamp - READ_WRITE_RETENTION_MS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Latest timestamps collected for an instance, not yet recorded as sent.
+   */
+  private static final class PendingTimestamps {
+    private final InstanceSensorState state;
+    private final Map<String, Long> latestTimestamps = Maps.newHashMap();
+
+    private PendingTimestamps(InstanceSensorState state) {
+      this.state = state;
+    }
+
+    private void put(String metricName, String dimensionName, long timestamp) {
+      latestTimestamps.put(InstanceSensorState.key(metricName, dimensionName), timestamp);
+    }
+
+    private void commit() {
+      synchronized (state) {
+        for (Map.Entry<String, Long> entry : latestTimestamps.entrySet()) {
+          state.advanceLatestTimestamp(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Metric data collected from a DescribeSensors response.
+   *
+   * The collected timestamps for an instance are recorded as sent only when
+   * all the data for the instance owner was sent, otherwise the values are
+   * collected again from the (overlapping) values in the next response.
+   */
+  public static final class SensorMetricData {
+    private final List<PutMetricDataType> putMetricDataList;
+    private final Map<String, List<PendingTimestamps>> pendingTimestampsByUserId;
+
+    private SensorMetricData(List<PutMetricDataType> putMetricDataList,
+        Map<String, List<PendingTimestamps>> pendingTimestampsByUserId) {
+      this.putMetricDataList = putMetricDataList;
+      this.pendingTimestampsByUserId = pendingTimestampsByUserId;
+    }
+
+    public List<PutMetricDataType> getPutMetricDataList() {
+      return putMetricDataList;
+    }
+
+    /**
+     * Record the collected timestamps as sent, except for the given users.
+     */
+    public void commit(Set<String> failedUserIds) {
+      for (Map.Entry<String, List<PendingTimestamps>> entry : pendingTimestampsByUserId.entrySet()) {
+        if (failedUserIds.contains(entry.getKey())) continue;
+        for (PendingTimestamps pendingTimestamps : entry.getValue()) {
+          pendingTimestamps.commit();
+        }
+      }
     }
   }
 
@@ -214,78 +377,17 @@ public class CloudWatchHelper {
       }
     }
 
-    public Collection<Supplier<InstanceUsageEvent>> getMetrics() {
-      ArrayList<Supplier<InstanceUsageEvent>> suppliers = Lists.newArrayList();
-      for (final EC2DiskMetricCacheValue value: cacheMap.values()) {
-        suppliers.add(new Supplier<InstanceUsageEvent>() {
-          @Override
-          public InstanceUsageEvent get() {
-            return new InstanceUsageEvent(
-              value.getResourceUuid(),
-              value.getResourceName(),
-              value.getMetricName(),
-              0L, // TODO: deal with sequence numbers?
-              "Ephemeral",
-              value.getValue(),
-              value.getTimeStamp());
-          }
-        });
-      }
-      return suppliers;
-    }
-    
-  }
-
-  private Supplier<InstanceUsageEvent> combineReadWriteDiskMetric(String readMetricName, String writeMetricName,
-      ConcurrentMap<String, DiskReadWriteMetricTypeCache> metricCacheMap,
-      String combinedMetricName, MetricsResourceType metricType,
-      SensorsResourceType sensorData, MetricDimensionsType dimensionType,
-      MetricDimensionsValuesType thisValueType) throws Exception {
-    metricCacheMap.putIfAbsent(readMetricName, new DiskReadWriteMetricTypeCache());
-    metricCacheMap.putIfAbsent(writeMetricName, new DiskReadWriteMetricTypeCache());
-    
-    String matchingMetricName = null;
-    String otherMetricName = null;
-    if (metricType.getMetricName().equals(readMetricName)) {
-      matchingMetricName = readMetricName;
-      otherMetricName = writeMetricName;
-    } else if (metricType.getMetricName().equals(writeMetricName)) {
-      matchingMetricName = writeMetricName;
-      otherMetricName = readMetricName;
-    }
-    if (matchingMetricName != null && otherMetricName != null) {
-      metricCacheMap.get(matchingMetricName).putEventInCache(sensorData, dimensionType, thisValueType);
-      MetricDimensionsValuesType otherValueType = metricCacheMap.get(otherMetricName).getEventFromCache(sensorData, dimensionType, thisValueType);
-      if (otherValueType != null) {
-        return createDiskOpsCacheSupplier(
-          sensorData, 
-        combinedMetricName, 
-        dimensionType,
-        thisValueType.getValue() + otherValueType.getValue(),
-        thisValueType.getTimestamp().getTime());
-      }
+    public List<EC2DiskMetricCacheValue> getMetrics() {
+      List<EC2DiskMetricCacheValue> values = Lists.newArrayList(cacheMap.values());
+      Collections.sort(values, Ordering.natural().onResultOf(new Function<EC2DiskMetricCacheValue, Long>() {
+        @Override
+        public Long apply(EC2DiskMetricCacheValue value) {
+          return value.getTimeStamp();
+        }
+      }));
+      return values;
     }
-    return null;
-  }
-
-  private Supplier<InstanceUsageEvent> createDiskOpsCacheSupplier(
-      final SensorsResourceType sensorData, final String combinedMetricName,
-      final MetricDimensionsType dimensionType, final Double value,
-      final Long usageTimeStamp) {
     
-    return new Supplier<InstanceUsageEvent>(){
-      @Override
-      public InstanceUsageEvent get() {
-        return new InstanceUsageEvent(
-            sensorData.getResourceUuid(),
-            sensorData.getResourceName(),
-            combinedMetricName,
-            dimensionType.getSequenceNum(),
-            dimensionType.getDimensionName(),
-            value,
-            usageTimeStamp);
-      }
-    };
   }
 
   private static final Set<String> EC2_DISK_METRICS = ImmutableSet.of(
@@ -357,30 +459,24 @@ public class CloudWatchHelper {
     CPUUtilization
   }
 
+  private static final Map<String, String> UNITS = buildUnits();
+
+  private static Map<String, String> buildUnits() {
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (Bytes metricType : Bytes.values()) builder.put(metricType.name(), "Bytes");
+    for (Count metricType : Count.values()) builder.put(metricType.name(), "Count");
+    for (Seconds metricType : Seconds.values()) builder.put(metricType.name(), "Seconds");
+    for (Percent metricType : Percent.values()) builder.put(metricType.name(), "Percent");
+    return builder.build();
+  }
+
   private String containsUnitType(final String metricType) {
-    //TODO:KEN find cleaner method of finding the metric type
-    try {
-      Enum.valueOf(Bytes.class, metricType);
-      return "Bytes";
-    } catch (IllegalArgumentException ex1) {
-      try {
-        Enum.valueOf(Count.class, metricType);
-        return "Count";
-      } catch (IllegalArgumentException ex2) {
-        try {
-          Enum.valueOf(Seconds.class, metricType);
-          return "Seconds";
-        } catch (IllegalArgumentException ex4) {
-          try {
-            Enum.valueOf(Percent.class, metricType);
-            return "Percent";
-          } catch (IllegalArgumentException ex5) {
-            throw new NoSuchElementException(
-                "Unknown system unit type : " + metricType);
-          }
-        }
-      }
+    final String unitType = UNITS.get(metricType);
+    if (unitType == null) {
+      throw new NoSuchElementException(
+          "Unknown system unit type : " + metricType);
     }
+    return unitType;
   }
 
   public static ServiceConfiguration createServiceConfiguration() {
@@ -397,6 +493,27 @@ public class CloudWatchHelper {
     }
   }
 
+  /**
+   * Send collected metric data and record what was sent.
+   *
+   * Once a send fails for a user no further data is sent for that user, all
+   * their data is collected again on the next poll.
+   */
+  public void sendMetricData(ServiceConfiguration serviceConfiguration, SensorMetricData sensorMetricData) {
+    final Set<String> failedUserIds = Sets.newHashSet();
+    for (PutMetricDataType putMetricData : sensorMetricData.getPutMetricDataList()) {
+      if (failedUserIds.contains(putMetricData.getEffectiveUserId())) continue;
+      try {
+        sendSystemMetric(serviceConfiguration, putMetricData);
+      } catch (Exception ex) {
+        failedUserIds.add(putMetricData.getEffectiveUserId());
+        LOG.warn("Unable to send metric data to cloud watch, will retry: " + ex.getMessage());
+        Logs.extreme().error(ex, ex);
+      }
+    }
+    sensorMetricData.commit(failedUserIds);
+  }
+
   public interface InstanceInfoProvider {
     public Iterable<String> getRunningInstanceUUIDList();
     public String getAutoscalingGroupName(String instanceId);
@@ -466,120 +583,212 @@ public class CloudWatchHelper {
     }
     
   }
-  public List<PutMetricDataType> collectMetricData(DescribeSensorsResponse msg) throws Exception {
-    ArrayList<PutMetricDataType> putMetricDataList = new ArrayList<PutMetricDataType>();
-    final Iterable<String> uuidList = instanceInfoProvider.getRunningInstanceUUIDList();
 
-    // cloudwatch metric caches
-    final ConcurrentMap<String, DiskReadWriteMetricTypeCache> metricCacheMap = Maps.newConcurrentMap();
-    
-    final EC2DiskMetricCache ec2DiskMetricCache = new EC2DiskMetricCache();
+  /**
+   * Collect metric data for sensor values not yet sent to CloudWatch.
+   *
+   * Values at or before the latest timestamp already sent for an
+   * instance/metric/dimension are skipped, the returned requests hold up to 20
+   * datums each, grouped by user and namespace.
+   */
+  public SensorMetricData collectMetricData(DescribeSensorsResponse msg) throws Exception {
+    final Set<String> uuids = ImmutableSet.copyOf(instanceInfoProvider.getRunningInstanceUUIDList());
+    final Map<UserIdAndNamespace, List<MetricDatum>> metricDataMap = Maps.newLinkedHashMap();
+    final Map<String, List<PendingTimestamps>> pendingTimestampsByUserId = Maps.newHashMap();
 
     for (final SensorsResourceType sensorData : msg.getSensorsResources()) {
       if (!RESOURCE_TYPE_INSTANCE.equals(sensorData.getResourceType()) ||
-          !Iterables.contains(uuidList, sensorData.getResourceUuid()))
+          !uuids.contains(sensorData.getResourceUuid()))
         continue;
-      
-      for (final MetricsResourceType metricType : sensorData.getMetrics()) {
-        for (final MetricCounterType counterType : metricType.getCounters()) {
-          for (final MetricDimensionsType dimensionType : counterType.getDimensions()) {
-            // find and fire most recent value for metric/dimension
-            final List<MetricDimensionsValuesType> values =
-                Lists.newArrayList(stripMilliseconds(dimensionType.getValues()));;
-
-            //CloudWatch use case of metric data
-            // best to enter older data first...
-            Collections.sort(values, Ordering.natural().onResultOf(GetTimestamp.INSTANCE));
-            if(!values.isEmpty()) {
-
-              for (MetricDimensionsValuesType value : values) {
-                LOG.trace("ResourceUUID: " + sensorData.getResourceUuid());
-                LOG.trace("ResourceName: " + sensorData.getResourceName());
-                LOG.trace("Metric: " + metricType.getMetricName());
-                LOG.trace("Dimension: " + dimensionType.getDimensionName());
-                LOG.trace("Timestamp: " + value.getTimestamp());
-                LOG.trace("Value: " + value.getValue());
-                final Long currentTimeStamp = value.getTimestamp().getTime();
-                final Double currentValue = value.getValue();
-                if (currentValue == null) {
-                  LOG.debug("Event received with null 'value', skipping for cloudwatch");
-                  continue;
-                }
-                boolean hasEc2DiskMetricName = EC2_DISK_METRICS.contains(metricType.getMetricName().replace("Volume", "Disk"));
-                // Let's try only creating "zero" points for timestamps from disks
-                if (hasEc2DiskMetricName) {
-                  ec2DiskMetricCache.initializeMetrics(sensorData.getResourceUuid(), sensorData.getResourceName(), currentTimeStamp); // Put a place holder in in case we don't have any non-EBS volumes
-                }
-                boolean isEbsMetric = dimensionType.getDimensionName().startsWith("vol-");
-                boolean isEc2DiskMetric = !isEbsMetric && hasEc2DiskMetricName;
-                
-                if (isEbsMetric || !isEc2DiskMetric) {
-                  addToPutMetricDataList(putMetricDataList, 
-                    new Supplier<InstanceUsageEvent>() {
-                    @Override
-                    public InstanceUsageEvent get() {
-                      return new InstanceUsageEvent(
-                        sensorData.getResourceUuid(),
-                        sensorData.getResourceName(),
-                        metricType.getMetricName(),
-                        dimensionType.getSequenceNum(),
-                        dimensionType.getDimensionName(),
-                        currentValue,
-                        currentTimeStamp);
-                    }
-                  });
-
-                  if (isEbsMetric) {
-                    // special case to calculate VolumeConsumedReadWriteOps
-                    // As it is (VolumeThroughputPercentage / 100) * (VolumeReadOps + VolumeWriteOps), and we are hard coding
-                    // VolumeThroughputPercentage as 100%, we will just use VolumeReadOps + VolumeWriteOps
-                
-                    // And just in case VolumeReadOps is called DiskReadOps we do both cases...
-                    addToPutMetricDataList(putMetricDataList, combineReadWriteDiskMetric("DiskReadOps", "DiskWriteOps", metricCacheMap, "DiskConsumedReadWriteOps", metricType, sensorData, dimensionType, value));
-                    addToPutMetricDataList(putMetricDataList, combineReadWriteDiskMetric("VolumeReadOps", "VolumeWriteOps", metricCacheMap, "VolumeConsumedReadWriteOps", metricType, sensorData, dimensionType, value));
-
-                    // Also need VolumeTotalReadWriteTime to compute VolumeIdleTime
-                    addToPutMetricDataList(putMetricDataList, combineReadWriteDiskMetric("VolumeTotalReadTime", "VolumeTotalWriteTime", metricCacheMap, "VolumeTotalReadWriteTime", metricType, sensorData, dimensionType, value));
-                  }
-                } else {
-                  // see if it is a volume metric
-                  String metricName = metricType.getMetricName().replace("Volume", "Disk"); 
-                    ec2DiskMetricCache.addToMetric(sensorData.getResourceUuid(), sensorData.getResourceName(), metricName, currentValue, currentTimeStamp);
-                }
+
+      final InstanceMetricTarget target;
+      try {
+        target = lookupInstanceMetricTarget(sensorData.getResourceUuid());
+      } catch (Exception ex) {
+        LOG.debug("Unable to find instance details for " + sensorData.getResourceUuid(), ex);
+        continue;
+      }
+      if (target == null) {
+        LOG.trace("Instance : " + sensorData.getResourceUuid() + " monitoring is not enabled");
+        continue;
+      }
+
+      final InstanceSensorState state = sensorState.forInstance(sensorData.getResourceUuid());
+      final PendingTimestamps pendingTimestamps = new PendingTimestamps(state);
+      synchronized (state) {
+        collectInstanceMetricData(metricDataMap, target, state, pendingTimestamps, sensorData);
+        state.expireReadWriteValues();
+      }
+      List<PendingTimestamps> userPendingTimestamps = pendingTimestampsByUserId.get(target.userId);
+      if (userPendingTimestamps == null) {
+        userPendingTimestamps = Lists.newArrayList();
+        pendingTimestampsByUserId.put(target.userId, userPendingTimestamps);
+      }
+      userPendingTimestamps.add(pendingTimestamps);
+    }
+    sensorState.retainInstances(uuids);
+    return new SensorMetricData(toPutMetricDataList(metricDataMap), pendingTimestampsByUserId);
+  }
+
+  private void collectInstanceMetricData(Map<UserIdAndNamespace, List<MetricDatum>> metricDataMap,
+      InstanceMetricTarget target, InstanceSensorState state, PendingTimestamps pendingTimestamps,
+      SensorsResourceType sensorData) {
+    // sums ephemeral disk values by timestamp for the values in this response
+    final EC2DiskMetricCache ec2DiskMetricCache = new EC2DiskMetricCache();
+
+    for (final MetricsResourceType metricType : sensorData.getMetrics()) {
+      final String metricName = metricType.getMetricName();
+      final boolean hasEc2DiskMetricName = EC2_DISK_METRICS.contains(metricName.replace("Volume", "Disk"));
+      for (final MetricCounterType counterType : metricType.getCounters()) {
+        for (final MetricDimensionsType dimensionType : counterType.getDimensions()) {
+          final String dimensionName = dimensionType.getDimensionName();
+          if (dimensionName == null) {
+            LOG.debug("Event does not contain a dimension");
+            continue;
+          }
+          final boolean isEbsMetric = dimensionName.startsWith("vol-");
+          final boolean isEc2DiskMetric = !isEbsMetric && hasEc2DiskMetricName;
+
+          //CloudWatch use case of metric data
+          // best to enter older data first...
+          List<MetricDimensionsValuesType> values = dimensionType.getValues();
+          if (!TIMESTAMP_ORDERING.isOrdered(values)) {
+            values = TIMESTAMP_ORDERING.sortedCopy(values);
+          }
+
+          final long sentTimestamp = state.getLatestTimestamp(metricName, dimensionName);
+          long latestTimestamp = sentTimestamp;
+          for (final MetricDimensionsValuesType value : values) {
+            if (value.getTimestamp() == null) continue;
+            // round down to the lowest second
+            final long currentTimeStamp = (value.getTimestamp().getTime() / 1000L) * 1000L;
+            if (currentTimeStamp <= sentTimestamp) continue; // sent with an earlier poll
+            latestTimestamp = Math.max(latestTimestamp, currentTimeStamp);
+            final Double currentValue = value.getValue();
+            if (currentValue == null) {
+              LOG.debug("Event received with null 'value', skipping for cloudwatch");
+              continue;
+            }
+            if (LOG.isTraceEnabled()) {
+              LOG.trace("ResourceUUID: " + sensorData.getResourceUuid() +
+                  " ResourceName: " + sensorData.getResourceName() +
+                  " Metric: " + metricName + " Dimension: " + dimensionName +
+                  " Timestamp: " + value.getTimestamp() + " Value: " + currentValue);
+            }
+
+            // Let's try only creating "zero" points for timestamps from disks
+            if (hasEc2DiskMetricName) {
+              ec2DiskMetricCache.initializeMetrics(sensorData.getResourceUuid(), sensorData.getResourceName(), currentTimeStamp); // Put a place holder in in case we don't have any non-EBS volumes
+            }
+
+            if (isEbsMetric || !isEc2DiskMetric) {
+              addMetricDatum(metricDataMap, target, metricName, dimensionName, currentValue, currentTimeStamp);
+
+              if (isEbsMetric) {
+                // special case to calculate VolumeConsumedReadWriteOps
+                // As it is (VolumeThroughputPercentage / 100) * (VolumeReadOps + VolumeWriteOps), and we are hard coding
+                // VolumeThroughputPercentage as 100%, we will just use VolumeReadOps + VolumeWriteOps
+
+                // And just in case VolumeReadOps is called DiskReadOps we do both cases...
+                combineReadWriteDiskMetric(metricDataMap, target, state, "DiskReadOps", "DiskWriteOps", "DiskConsumedReadWriteOps", metricName, dimensionName, currentValue, currentTimeStamp);
+                combineReadWriteDiskMetric(metricDataMap, target, state, "VolumeReadOps", "VolumeWriteOps", "VolumeConsumedReadWriteOps", metricName, dimensionName, currentValue, currentTimeStamp);
+
+                // Also need VolumeTotalReadWriteTime to compute VolumeIdleTime
+                combineReadWriteDiskMetric(metricDataMap, target, state, "VolumeTotalReadTime", "VolumeTotalWriteTime", "VolumeTotalReadWriteTime", metricName, dimensionName, currentValue, currentTimeStamp);
               }
+            } else {
+              // see if it is a volume metric
+              ec2DiskMetricCache.addToMetric(sensorData.getResourceUuid(), sensorData.getResourceName(), metricName.replace("Volume", "Disk"), currentValue, currentTimeStamp);
             }
           }
+          if (latestTimestamp != sentTimestamp) {
+            pendingTimestamps.put(metricName, dimensionName, latestTimestamp);
+          }
         }
       }
     }
-    Collection<Supplier<InstanceUsageEvent>> ec2DiskMetrics = ec2DiskMetricCache.getMetrics();
-    List<Supplier<InstanceUsageEvent>> ec2DiskMetricsSorted = Lists.newArrayList(ec2DiskMetrics);
-    Collections.sort(ec2DiskMetricsSorted, Ordering.natural().onResultOf(new Function<Supplier<InstanceUsageEvent>, Long>() {
-      @Override
-      @Nullable
-      public Long apply(@Nullable Supplier<InstanceUsageEvent> supplier) {
-        return supplier.get().getValueTimestamp();
-      }}));
-    for (Supplier<InstanceUsageEvent> ec2DiskMetric: ec2DiskMetricsSorted) {
-      try {
-        addToPutMetricDataList(putMetricDataList, ec2DiskMetric);
-      } catch (Exception ex) {
-        LOG.debug("Unable to add system metric " +ec2DiskMetric, ex);
+
+    for (EC2DiskMetricCacheValue ec2DiskMetric : ec2DiskMetricCache.getMetrics()) {
+      addMetricDatum(metricDataMap, target, ec2DiskMetric.getMetricName(), "Ephemeral", ec2DiskMetric.getValue(), ec2DiskMetric.getTimeStamp());
+    }
+  }
+
+  private void combineReadWriteDiskMetric(Map<UserIdAndNamespace, List<MetricDatum>> metricDataMap,
+      InstanceMetricTarget target, InstanceSensorState state, String readMetricName, String writeMetricName,
+      String combinedMetricName, String metricName, String dimensionName, double value, long timestamp) {
+    final String otherMetricName;
+    if (metricName.equals(readMetricName)) {
+      otherMetricName = writeMetricName;
+    } else if (metricName.equals(writeMetricName)) {
+      otherMetricName = readMetricName;
+    } else {
+      return;
+    }
+    state.getReadWriteCache(metricName).putValue(dimensionName, timestamp, value);
+    final Double otherValue = state.getReadWriteCache(otherMetricName).getValue(dimensionName, timestamp);
+    if (otherValue != null) {
+      addMetricDatum(metricDataMap, target, combinedMetricName, dimensionName, value + otherValue, timestamp);
+    }
+  }
+
+  /**
+   * Instance details used for all metric data for an instance in a response.
+   *
+   * @return The target or null if monitoring is not enabled for the instance
+   */
+  private InstanceMetricTarget lookupInstanceMetricTarget(String instanceUuid) throws Exception {
+    if (!instanceUuid.equals(instanceInfoProvider.getInstanceId(instanceUuid))
+        || !instanceInfoProvider.getMonitoring(instanceUuid)) {
+      return null;
+    }
+    ArrayList<Dimension> dimArray = Lists.newArrayList();
+    // get autoscaling group name if it exists
+    try {
+      String autoscalingGroupName = instanceInfoProvider.getAutoscalingGroupName(instanceUuid);
+      if (autoscalingGroupName != null) {
+        dimArray.add(dimension("AutoScalingGroupName", autoscalingGroupName));
       }
+    } catch (Exception ex) {
+      ; // no autoscaling group, don't bother adding
+    }
+    dimArray.add(dimension("InstanceId", instanceInfoProvider.getInstanceId(instanceUuid)));
+    dimArray.add(dimension("ImageId", instanceInfoProvider.getImageId(instanceUuid)));
+    dimArray.add(dimension("InstanceType", instanceInfoProvider.getVmTypeDisplayName(instanceUuid)));
+    Dimensions instanceDimensions = new Dimensions();
+    instanceDimensions.setMember(dimArray);
+    return new InstanceMetricTarget(instanceInfoProvider.getEffectiveUserId(instanceUuid), instanceDimensions);
+  }
+
+  private static Dimension dimension(String name, String value) {
+    Dimension dimension = new Dimension();
+    dimension.setName(name);
+    dimension.setValue(value);
+    return dimension;
+  }
+
+  /**
+   * Effective user and dimensions for an instance, the dimensions are shared
+   * by all the datums for the instance.
+   */
+  private static final class InstanceMetricTarget {
+    private final String userId;
+    private final Dimensions instanceDimensions;
+    private final Map<String, Dimensions> volumeDimensions = Maps.newHashMap();
+
+    private InstanceMetricTarget(String userId, Dimensions instanceDimensions) {
+      this.userId = userId;
+      this.instanceDimensions = instanceDimensions;
     }
-    return putMetricDataList;
-  }  
 
-  private List<MetricDimensionsValuesType> stripMilliseconds(ArrayList<MetricDimensionsValuesType> values) {
-    List<MetricDimensionsValuesType> newValues = new ArrayList<MetricDimensionsValuesType>();
-    for (MetricDimensionsValuesType value: values) {
-      MetricDimensionsValuesType newValue = new MetricDimensionsValuesType();
-      // round down to the lowest second
-      newValue.setTimestamp(value.getTimestamp() != null ? new Date((value.getTimestamp().getTime() / 1000L) * 1000L) : null);
-      newValue.setValue(value.getValue());
-      newValues.add(newValue);
+    private Dimensions getVolumeDimensions(String volumeId) {
+      Dimensions dimensions = volumeDimensions.get(volumeId);
+      if (dimensions == null) {
+        dimensions = new Dimensions();
+        dimensions.setMember(Lists.newArrayList(dimension("VolumeId", volumeId)));
+        volumeDimensions.put(volumeId, dimensions);
+      }
+      return dimensions;
     }
-    return newValues;
   }
 
   private static class UserIdAndNamespace {
@@ -628,9 +837,9 @@ public class CloudWatchHelper {
     }
     
   }
+
   public static List<PutMetricDataType> consolidatePutMetricDataList(
       List<PutMetricDataType> putMetricDataList) {
-    int MAX_PUT_METRIC_DATA_ITEMS = 20;
     LinkedHashMap<UserIdAndNamespace, List<MetricDatum>> metricDataMap = new LinkedHashMap<UserIdAndNamespace, List<MetricDatum>>();
     for (PutMetricDataType putMetricData: putMetricDataList) {
       UserIdAndNamespace userIdAndNamespace = new UserIdAndNamespace(putMetricData.getEffectiveUserId(), putMetricData.getNamespace());
@@ -639,6 +848,12 @@ public class CloudWatchHelper {
       }
       metricDataMap.get(userIdAndNamespace).addAll(putMetricData.getMetricData().getMember());
     }
+    return toPutMetricDataList(metricDataMap);
+  }
+
+  private static List<PutMetricDataType> toPutMetricDataList(
+      Map<UserIdAndNamespace, List<MetricDatum>> metricDataMap) {
+    int MAX_PUT_METRIC_DATA_ITEMS = 20;
     ArrayList<PutMetricDataType> retVal = new ArrayList<PutMetricDataType>();
     for (Map.Entry<UserIdAndNamespace, List<MetricDatum>> metricDataEntry: metricDataMap.entrySet()) {
       for (int i = 0; i < metricDataEntry.getValue().size(); i += MAX_PUT_METRIC_DATA_ITEMS) {
@@ -656,102 +871,51 @@ public class CloudWatchHelper {
     return retVal;
   }
 
-  private void addToPutMetricDataList(List<PutMetricDataType> putMetricDataList, Supplier<InstanceUsageEvent> cloudWatchSupplier) throws Exception {
-    if (cloudWatchSupplier == null) return;
-    InstanceUsageEvent event = null;
-    event = cloudWatchSupplier.get();
-    LOG.trace(event);
-
-    if (!instanceInfoProvider.getInstanceId(event.getInstanceId()).equals(event.getInstanceId())
-        || !instanceInfoProvider.getMonitoring(event.getInstanceId())) {
-      LOG.trace("Instance : " + event.getInstanceId() + " monitoring is not enabled");
-      return;
-    }
-
-    if (instanceInfoProvider.getInstanceId(event.getInstanceId()).equals(event.getInstanceId())
-        && instanceInfoProvider.getMonitoring(event.getInstanceId())) {
-
-      PutMetricDataType putMetricData = new PutMetricDataType();
-      MetricDatum metricDatum = new MetricDatum();
-      ArrayList<Dimension> dimArray = Lists.newArrayList();
-
-      if (event.getDimension() != null && event.getValue() != null) {
-
-        if (event.getDimension().startsWith("vol-")) {
-          putMetricData.setNamespace("AWS/EBS");
-          Dimension volDim = new Dimension();
-          volDim.setName("VolumeId");
-          volDim.setValue(event.getDimension());
-          dimArray.add(volDim);
-          // Need to replace metric name
-          if (event.getMetric().startsWith("Disk")) {
-            final String convertedEBSMetricName = event.getMetric()
-                .replace("Disk", "Volume");
-            metricDatum.setMetricName(convertedEBSMetricName);
-          } else {
-            metricDatum.setMetricName(event.getMetric());
-          }
-        } else {
-          putMetricData.setNamespace("AWS/EC2");
-          // get autoscaling group name if it exists
-          try {
-            String autoscalingGroupName = instanceInfoProvider.getAutoscalingGroupName(event.getInstanceId());
-            if (autoscalingGroupName != null) {
-              Dimension autoscalingGroupNameDim = new Dimension();
-              autoscalingGroupNameDim.setName("AutoScalingGroupName");
-              autoscalingGroupNameDim.setValue(autoscalingGroupName);
-              dimArray.add(autoscalingGroupNameDim);
-            }
-          } catch (Exception ex) {
-            ; // no autoscaling group, don't bother adding
-          }
-          Dimension instanceIdDim = new Dimension();
-          instanceIdDim.setName("InstanceId");
-          instanceIdDim.setValue(instanceInfoProvider.getInstanceId(event.getInstanceId()));
-          dimArray.add(instanceIdDim);
-
-          Dimension imageIdDim = new Dimension();
-          imageIdDim.setName("ImageId");
-          imageIdDim.setValue(instanceInfoProvider.getImageId(event.getInstanceId()));
-          dimArray.add(imageIdDim);
-
-          Dimension instanceTypeDim = new Dimension();
-          instanceTypeDim.setName("InstanceType");
-          instanceTypeDim.setValue(instanceInfoProvider.getVmTypeDisplayName(event.getInstanceId()));
-          dimArray.add(instanceTypeDim);
-          // convert ephemeral disks metrics
-          if (UNSUPPORTED_EC2_METRICS.contains(event.getMetric())) {
-            return;
-          } else {
-            metricDatum.setMetricName(event.getMetric());
-          }
-        }
+  private void addMetricDatum(Map<UserIdAndNamespace, List<MetricDatum>> metricDataMap,
+      InstanceMetricTarget target, String metricName, String dimensionName,
+      double value, long timestamp) {
+    final String namespace;
+    final MetricDatum metricDatum = new MetricDatum();
+    if (dimensionName.startsWith("vol-")) {
+      namespace = "AWS/EBS";
+      metricDatum.setDimensions(target.getVolumeDimensions(dimensionName));
+      // Need to replace metric name
+      if (metricName.startsWith("Disk")) {
+        metricDatum.setMetricName(metricName.replace("Disk", "Volume"));
       } else {
-        LOG.debug("Event does not contain a dimension");
+        metricDatum.setMetricName(metricName);
+      }
+    } else {
+      namespace = "AWS/EC2";
+      // convert ephemeral disks metrics
+      if (UNSUPPORTED_EC2_METRICS.contains(metricName)) {
         return;
       }
+      metricDatum.setDimensions(target.instanceDimensions);
+      metricDatum.setMetricName(metricName);
+    }
 
-      Dimensions dims = new Dimensions();
-      dims.setMember(dimArray);
-
-      MetricData metricData = new MetricData();
+    metricDatum.setTimestamp(new Date(timestamp));
+    metricDatum.setValue(value);
 
-      metricDatum.setTimestamp(new Date(event.getValueTimestamp()));
-      metricDatum.setDimensions(dims);
-      metricDatum.setValue(event.getValue());
+    try {
+      metricDatum.setUnit(containsUnitType(metricDatum.getMetricName()));
+    } catch (NoSuchElementException ex) {
+      LOG.debug("Unable to add system metric " + metricDatum.getMetricName(), ex);
+      return;
+    }
 
-      final String unitType = containsUnitType(metricDatum.getMetricName());
-      metricDatum.setUnit(unitType);
+    if (ABSOLUTE_METRICS.containsKey(metricDatum.getMetricName())) {
+      metricDatum.setMetricName(ABSOLUTE_METRICS.get(metricDatum.getMetricName()));
+    }
 
-      if (ABSOLUTE_METRICS.containsKey(metricDatum.getMetricName())) {
-        metricDatum.setMetricName(ABSOLUTE_METRICS.get(metricDatum.getMetricName()));
-      }
-      
-      metricData.setMember(Lists.newArrayList(metricDatum));
-      putMetricData.setMetricData(metricData);
-      putMetricData.setEffectiveUserId(instanceInfoProvider.getEffectiveUserId(event.getInstanceId()));
-      putMetricDataList.add(putMetricData);
+    UserIdAndNamespace userIdAndNamespace = new UserIdAndNamespace(target.userId, namespace);
+    List<MetricDatum> metricData = metricDataMap.get(userIdAndNamespace);
+    if (metricData == null) {
+      metricData = Lists.newArrayList();
+      metricDataMap.put(userIdAndNamespace, metricData);
     }
+    metricData.add(metricDatum);
   }
 
 
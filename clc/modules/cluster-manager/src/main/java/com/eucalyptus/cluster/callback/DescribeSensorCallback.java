@@ -37,7 +37,6 @@ import com.eucalyptus.cloudwatch.Dimension;
 import com.eucalyptus.cloudwatch.Dimensions;
 import com.eucalyptus.cloudwatch.MetricData;
 import com.eucalyptus.cloudwatch.MetricDatum;
-import com.eucalyptus.cloudwatch.PutMetricDataType;
 import com.eucalyptus.cloudwatch.PutMetricDataResponseType;
 
 import com.eucalyptus.util.EucalyptusCloudException;
@@ -57,7 +56,6 @@ import com.eucalyptus.auth.AuthException;
 import com.eucalyptus.auth.principal.Account;
 import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.component.ComponentIds;
-import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.ServiceConfigurations;
 import com.eucalyptus.entities.Transactions;
 import com.eucalyptus.event.EventFailedException;
@@ -145,11 +143,8 @@ public class DescribeSensorCallback extends
 
   private void processCloudWatchStats(final DescribeSensorsResponse msg) throws Exception {
     CloudWatchHelper cloudWatchHelper = new CloudWatchHelper(new CloudWatchHelper.DefaultInstanceInfoProvider());
-    List<PutMetricDataType> putMetricDataList = cloudWatchHelper.collectMetricData(msg);
-    ServiceConfiguration serviceConfiguration = CloudWatchHelper.createServiceConfiguration();
-    for (PutMetricDataType putMetricData: putMetricDataList) {
-      cloudWatchHelper.sendSystemMetric(serviceConfiguration, putMetricData);
-    }
+    CloudWatchHelper.SensorMetricData sensorMetricData = cloudWatchHelper.collectMetricData(msg);
+    cloudWatchHelper.sendMetricData(CloudWatchHelper.createServiceConfiguration(), sensorMetricData);
   }
 
 
@@ -62,18 +62,26 @@
 
 package com.eucalyptus.cluster.callback;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
+import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.bootstrap.Databases;
 import com.eucalyptus.cloud.CloudMetadatas;
 import com.eucalyptus.cluster.Cluster;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.TransactionException;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.util.async.FailedRequestException;
 import com.eucalyptus.util.async.SubjectMessageCallback;
 import com.eucalyptus.vm.VmBundleTask.BundleState;
@@ -84,11 +92,15 @@ import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmInstances.TerminatedInstanceException;
 import com.eucalyptus.vmtypes.VmType;
 import com.eucalyptus.vmtypes.VmTypes;
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.cloud.VmDescribeResponseType;
 import edu.ucsb.eucalyptus.cloud.VmDescribeType;
@@ -97,8 +109,16 @@ import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
 
 public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescribeType, VmDescribeResponseType> {
   private static Logger               LOG                       = Logger.getLogger( VmStateCallback.class );
+  private static final int            RECONCILE_BATCH_SIZE      = 100;
+  private static final ConcurrentMap<String, Cycle> lastCycles  = new ConcurrentHashMap<String, Cycle>( );
+  private static final AtomicLong     cycles                    = new AtomicLong( );
+  private static final ReconciliationStatistics statistics      = new ReconciliationStatistics( );
   private final Supplier<Set<String>> initialInstances;
   
+  static {
+    Mbeans.register( statistics );
+  }
+  
   public VmStateCallback( ) {
     super( new VmDescribeType( ) {
       {
@@ -142,39 +162,185 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     if ( Databases.isVolatile( ) ) {
       return;
     } else {
-      reply.setOriginCluster( this.getSubject( ).getConfiguration( ).getName( ) );
+      final long start = System.currentTimeMillis( );
+      final String clusterName = this.getSubject( ).getConfiguration( ).getName( );
+      final Cycle cycle = new Cycle( );
+      reply.setOriginCluster( clusterName );
       final Set<String> reportedInstances = Sets.newHashSet( );
+      Map<List<Integer>, String> vmTypeNames = null;
       for ( VmInfo vmInfo : reply.getVms( ) ) {
         reportedInstances.add( vmInfo.getInstanceId( ) );
-        vmInfo.setPlacement( this.getSubject( ).getConfiguration( ).getName( ) );
+        vmInfo.setPlacement( clusterName );
         VmTypeInfo typeInfo = vmInfo.getInstanceType( );
         if ( typeInfo.getName( ) == null || "".equals( typeInfo.getName( ) ) ) {
-          for ( VmType t : VmTypes.list( ) ) {
-            if ( t.getCpu( ).equals( typeInfo.getCores( ) ) && t.getDisk( ).equals( typeInfo.getDisk( ) ) && t.getMemory( ).equals( typeInfo.getMemory( ) ) ) {
-              typeInfo.setName( t.getName( ) );
-            }
+          if ( vmTypeNames == null ) {
+            vmTypeNames = vmTypeNames( );
+          }
+          final String typeName = vmTypeNames.get( Arrays.asList( typeInfo.getCores( ), typeInfo.getDisk( ), typeInfo.getMemory( ) ) );
+          if ( typeName != null ) {
+            typeInfo.setName( typeName );
           }
         }
       }
       
       final Set<String> unreportedInstances = Sets.newHashSet( Sets.difference( this.initialInstances.get( ), reportedInstances ) );
       final Set<String> restoreInstances = Sets.newHashSet( Sets.difference( reportedInstances, this.initialInstances.get( ) ) );
+      final List<VmInfo> knownReports = Lists.newArrayList( );
+      for ( final VmInfo runVm : reply.getVms( ) ) {
+        if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
+          knownReports.add( runVm );
+        }
+      }
+      cycle.reported = knownReports.size( );
+      for ( final List<VmInfo> batch : Lists.partition( knownReports, RECONCILE_BATCH_SIZE ) ) {
+        if ( Databases.isVolatile( ) ) {
+          return;
+        }
+        for ( final VmInfo runVm : VmStateCallback.handleReportedStates( batch, cycle ) ) {
+          if ( Databases.isVolatile( ) ) {
+            return;
+          } else {
+            cycle.individual++;
+            VmStateCallback.handleReportedState( runVm );
+          }
+        }
+      }
       for ( final VmInfo runVm : reply.getVms( ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
-        } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
         } else if ( restoreInstances.contains( runVm.getInstanceId( ) ) ) {
+          cycle.restored++;
           VmStateCallback.handleRestore( runVm );
         }
       }
-      for ( final String vmId : unreportedInstances ) {
+      cycle.unreported = unreportedInstances.size( );
+      for ( final List<String> batch : Iterables.partition( unreportedInstances, RECONCILE_BATCH_SIZE ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
+        }
+        for ( final String vmId : VmStateCallback.unreportedRequiringAction( batch ) ) {
+          if ( Databases.isVolatile( ) ) {
+            return;
+          } else {
+            cycle.individual++;
+            VmStateCallback.handleUnreported( vmId );
+          }
+        }
+      }
+      cycle.millis = System.currentTimeMillis( ) - start;
+      lastCycles.put( clusterName, cycle );
+      cycles.incrementAndGet( );
+      LOG.debug( "Instance state reconciliation for " + clusterName + ": " + cycle );
+    }
+  }
+  
+  private static Map<List<Integer>, String> vmTypeNames( ) {
+    final Map<List<Integer>, String> vmTypeNames = Maps.newHashMap( );
+    for ( VmType t : VmTypes.list( ) ) {
+      vmTypeNames.put( Arrays.asList( t.getCpu( ), t.getDisk( ), t.getMemory( ) ), t.getName( ) );
+    }
+    return vmTypeNames;
+  }
+  
+  /**
+   * Apply routine updates for instances that are running and reported as
+   * running in a single transaction.
+   *
+   * @return The reports that need individual handling
+   */
+  private static List<VmInfo> handleReportedStates( final List<VmInfo> reports, final Cycle cycle ) {
+    final List<VmInfo> individual = Lists.newArrayList( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String, VmInstance> instances = instancesById( Lists.transform( reports, VmInfoToInstanceId.INSTANCE ) );
+      int updated = 0;
+      for ( final VmInfo runVm : reports ) {
+        final VmInstance vm = instances.get( runVm.getInstanceId( ) );
+        if ( vm != null && isRoutineUpdate( vm, runVm ) ) {
+          vm.doUpdate( ).apply( runVm );
+          updated++;
         } else {
-          VmStateCallback.handleUnreported( vmId );
+          individual.add( runVm );
+        }
+      }
+      db.commit( );
+      cycle.updated += updated;
+      return individual;
+    } catch ( final Exception ex ) {
+      LOG.error( "Batched instance state update failed, updating individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+      cycle.failedBatches++;
+      return reports;
+    } finally {
+      if ( db.isActive() ) db.rollback();
+    }
+  }
+  
+  /**
+   * Matches the doUpdate case of handleReportedState
+   */
+  private static boolean isRoutineUpdate( final VmInstance vm, final VmInfo runVm ) {
+    return VmStateSet.RUN.apply( vm )
+           && !VmState.SHUTTING_DOWN.equals( VmState.Mapper.get( runVm.getStateName( ) ) )
+           && !VmInstances.Timeout.EXPIRED.apply( vm );
+  }
+  
+  /**
+   * Filter out unreported instances for which handleUnreported would do nothing.
+   */
+  private static List<String> unreportedRequiringAction( final List<String> vmIds ) {
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String, VmInstance> instances = instancesById( vmIds );
+      final List<String> requiringAction = Lists.newArrayList( );
+      for ( final String vmId : vmIds ) {
+        final VmInstance vm = instances.get( vmId );
+        if ( vm == null || unreportedAction( vm ) != UnreportedAction.NONE ) {
+          requiringAction.add( vmId );
         }
       }
+      return requiringAction;
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      return vmIds;
+    } finally {
+      db.rollback();
+    }
+  }
+  
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, VmInstance> instancesById( final Collection<String> vmIds ) {
+    final Map<String, VmInstance> instances = Maps.newHashMap( );
+    for ( final VmInstance vm : ( List<VmInstance> ) Entities.createCriteria( VmInstance.class )
+        .add( Restrictions.in( "displayName", vmIds ) )
+        .list( ) ) {
+      instances.put( vm.getInstanceId( ), vm );
+    }
+    return instances;
+  }
+  
+  private enum UnreportedAction { NONE, STOPPED, TERMINATED, DELETE }
+  
+  private static UnreportedAction unreportedAction( final VmInstance vm ) {
+    if ( VmState.PENDING.apply( vm ) && vm.lastUpdateMillis( ) < ( VmInstances.VM_INITIAL_REPORT_TIMEOUT * 1000 ) ) {
+      //do nothing during first VM_INITIAL_REPORT_TIMEOUT millis of instance life
+      return UnreportedAction.NONE;
+    } else if ( vm.isBlockStorage( ) && VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
+      return UnreportedAction.STOPPED;
+    } else if ( VmState.STOPPING.apply( vm ) ) {
+      return UnreportedAction.STOPPED;
+    } else if ( VmState.SHUTTING_DOWN.apply( vm ) ) {
+      return UnreportedAction.TERMINATED;
+    } else if ( VmInstances.Timeout.TERMINATED.apply( vm ) ) {
+      return UnreportedAction.DELETE;
+    } else if ( VmInstances.Timeout.SHUTTING_DOWN.apply( vm ) ) {
+      return UnreportedAction.TERMINATED;
+    } else if ( VmInstances.Timeout.STOPPING.apply( vm ) ) {
+      return UnreportedAction.STOPPED;
+    } else if ( VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
+      return UnreportedAction.TERMINATED;
+    } else {
+      return UnreportedAction.NONE;
     }
   }
   
@@ -182,25 +348,18 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     final EntityTransaction db1 = Entities.get( VmInstance.class );
     try {
       VmInstance vm = VmInstances.cachedLookup( vmId );
-      if ( VmState.PENDING.apply( vm ) && vm.lastUpdateMillis( ) < ( VmInstances.VM_INITIAL_REPORT_TIMEOUT * 1000 ) ) {
-        //do nothing during first VM_INITIAL_REPORT_TIMEOUT millis of instance life
-        return;
-      } else if ( vm.isBlockStorage( ) && VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmState.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmState.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
-      } else if ( VmInstances.Timeout.TERMINATED.apply( vm ) ) {
-        VmInstances.delete( vm );
-      } else if ( VmInstances.Timeout.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
-      } else if ( VmInstances.Timeout.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.terminated( vm );
-      } else {
-        return;
+      switch ( unreportedAction( vm ) ) {
+        case STOPPED:
+          VmInstances.stopped( vm );
+          break;
+        case TERMINATED:
+          VmInstances.terminated( vm );
+          break;
+        case DELETE:
+          VmInstances.delete( vm );
+          break;
+        default:
+          return;
       }
       Entities.commit( db1 );
     } catch ( final Exception ex ) {
@@ -351,11 +510,23 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     
     @Override
     public void fire( VmDescribeResponseType reply ) {
+      final Cycle cycle = new Cycle( );
+      final List<VmInfo> knownReports = Lists.newArrayList( );
       for ( final VmInfo runVm : reply.getVms( ) ) {
+        if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
+          knownReports.add( runVm );
+        }
+      }
+      for ( final List<VmInfo> batch : Lists.partition( knownReports, RECONCILE_BATCH_SIZE ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
-        } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
+        }
+        for ( final VmInfo runVm : VmStateCallback.handleReportedStates( batch, cycle ) ) {
+          if ( Databases.isVolatile( ) ) {
+            return;
+          } else {
+            VmStateCallback.handleReportedState( runVm );
+          }
         }
       }
     }
@@ -376,4 +547,47 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     super.setSubject( subject );
     this.initialInstances.get( );
   }
+  
+  private enum VmInfoToInstanceId implements Function<VmInfo, String> {
+    INSTANCE;
+    
+    @Override
+    public String apply( final VmInfo vmInfo ) {
+      return vmInfo.getInstanceId( );
+    }
+  }
+  
+  /**
+   * Counts and duration for a reconciliation of a cluster report.
+   */
+  private static final class Cycle {
+    private int  reported;
+    private int  updated;
+    private int  individual;
+    private int  restored;
+    private int  unreported;
+    private int  failedBatches;
+    private long millis;
+    
+    @Override
+    public String toString( ) {
+      return "reported=" + reported + " updated=" + updated + " individual=" + individual + " restored=" + restored
+             + " unreported=" + unreported + " failedBatches=" + failedBatches + " millis=" + millis;
+    }
+  }
+  
+  public static class ReconciliationStatistics {
+    
+    public long getCycleCount( ) {
+      return cycles.get( );
+    }
+    
+    public String[] getLastCycleByCluster( ) {
+      final List<String> lastCycleByCluster = Lists.newArrayList( );
+      for ( final Map.Entry<String, Cycle> entry : lastCycles.entrySet( ) ) {
+        lastCycleByCluster.add( entry.getKey( ) + ": " + entry.getValue( ) );
+      }
+      return lastCycleByCluster.toArray( new String[lastCycleByCluster.size( )] );
+    }
+  }
 }
@@ -63,6 +63,7 @@
 package com.eucalyptus.compute.metadata;
 
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import javax.persistence.EntityTransaction;
@@ -75,6 +76,7 @@ import com.eucalyptus.vm.MetadataRequest;
 import com.eucalyptus.vm.NetworkGroupsMetadata;
 import com.eucalyptus.vm.SensorsConfigMetadata;
 import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceIndex;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 
@@ -167,11 +169,21 @@ public class VmMetadata {
   public byte[] handle( String path ) {
     String[] parts = path.split( ":" );
     try {
-      MetadataRequest request = new MetadataRequest( parts[0], parts.length == 2
+      final MetadataRequest request = new MetadataRequest( parts[0], parts.length == 2
                                                                                 ? parts[1]
                                                                                 : "/" );
       if ( instanceMetadataEndpoints.containsKey( request.getMetadataName( ) ) && request.isInstance( ) ) {
-        return instanceMetadataEndpoints.get( request.getMetadataName( ) ).apply( request ).getBytes( );
+        final Function<MetadataRequest, ByteArray> endpoint = instanceMetadataEndpoints.get( request.getMetadataName( ) );
+        if ( isCacheable( request ) ) {
+          return VmInstanceIndex.document( request.getInstanceId( ), request.getGeneration( ), request.getMetadataName( ) + "/" + request.getLocalPath( ), new Callable<byte[]>( ) {
+            @Override
+            public byte[] call( ) {
+              return endpoint.apply( request ).getBytes( );
+            }
+          } );
+        } else {
+          return endpoint.apply( request ).getBytes( );
+        }
       } else if ( systemMetadataEndpoints.containsKey( request.getMetadataName( ) ) && request.isSystem( ) ) {
         return systemMetadataEndpoints.get( request.getMetadataName( ) ).apply( request ).getBytes( );
       } else if ( publicMetadataEndpoints.containsKey( request.getMetadataName( ) ) ) {
@@ -189,5 +201,12 @@ public class VmMetadata {
       throw Exceptions.toUndeclared( ex );
     }
   }
+
+  /**
+   * IAM metadata holds temporary credentials and is cached separately.
+   */
+  private static boolean isCacheable( final MetadataRequest request ) {
+    return !( "meta-data".equals( request.getMetadataName( ) ) && request.getLocalPath( ).startsWith( "iam" ) );
+  }
   
 }
@@ -24,14 +24,12 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.text.IsEmptyString.isEmptyOrNullString;
 import static com.eucalyptus.tags.FilterSupport.PersistenceFilter.persistenceFilter;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -587,16 +585,15 @@ public abstract class FilterSupport<RT> {
     // Construct collection filter
     final List<Predicate<Object>> and = Lists.newArrayList();
     for ( final Map.Entry<String,Set<String>> filter : Iterables.filter( filters.entrySet(), Predicates.not( isTagFilter() ) ) ) {
-      final List<Predicate<Object>> or = Lists.newArrayList();
+      final Function<? super String,Predicate<? super RT>> predicateFunction = predicateFunctions.get( filter.getKey() );
+      if ( predicateFunction == null || (!allowInternalFilters && internalFilters.contains( filter.getKey() ) ) ) {
+        throw InvalidFilterException.forName( filter.getKey() );
+      }
+      final List<Predicate<? super RT>> or = Lists.newArrayList();
       for ( final String value : filter.getValue() ) {
-        final Function<? super String,Predicate<? super RT>> predicateFunction = predicateFunctions.get( filter.getKey() );
-        if ( predicateFunction == null || (!allowInternalFilters && internalFilters.contains( filter.getKey() ) ) ) {
-          throw InvalidFilterException.forName( filter.getKey() );
-        }
-        final Predicate<? super RT> valuePredicate = predicateFunction.apply( value );
-        or.add( typedPredicate( valuePredicate ) );
+        or.add( predicateFunction.apply( value ) );
       }
-      and.add( Predicates.or( or ) );
+      and.add( typedPredicate( or.size() == 1 ? or.get( 0 ) : Predicates.or( or ) ) );
     }
 
     // Construct database filter and aliases
@@ -677,7 +674,18 @@ public abstract class FilterSupport<RT> {
   }
 
   private static <T> Function<? super String, Predicate<? super T>> stringFilter( final Function<? super T, String> extractor ) {
-    return stringSetFilter( Functions.compose( FilterSupport.<String>toSet(), extractor ) );
+    return new Function<String,Predicate<? super T>>() {
+      @Override
+      public Predicate<T> apply( final String filterValue ) {
+        final WildcardMatcher matcher = WildcardMatcher.compile( filterValue );
+        return new Predicate<T>() {
+          @Override
+          public boolean apply( final T resource ) {
+            return matcher.matches( extractor.apply( resource ) );
+          }
+        };
+      }
+    };
   }
 
   private static <T> Function<? super String, Predicate<? super T>> stringSetFilter( final Function<? super T, Set<String>> extractor ) {
@@ -697,7 +705,7 @@ public abstract class FilterSupport<RT> {
   }
 
   private static <T> Function<? super String, Predicate<? super T>> dateFilter( final Function<? super T, Date> extractor ) {
-    return dateSetFilter( Functions.compose( FilterSupport.<Date>toSet(), extractor ) );
+    return typedFilter( extractor, PersistenceFilter.Type.Date );
   }
 
   private static <T> Function<? super String, Predicate<? super T>> dateSetFilter( final Function<? super T, Set<Date>> extractor ) {
@@ -705,7 +713,7 @@ public abstract class FilterSupport<RT> {
   }
 
   private static <T> Function<? super String, Predicate<? super T>> booleanFilter( final Function<? super T, Boolean> extractor ) {
-    return booleanSetFilter( Functions.compose( FilterSupport.<Boolean>toSet(), extractor ) );
+    return typedFilter( extractor, PersistenceFilter.Type.Boolean );
   }
 
   private static <T> Function<? super String, Predicate<? super T>> booleanSetFilter( final Function<? super T, Set<Boolean>> extractor ) {
@@ -713,7 +721,7 @@ public abstract class FilterSupport<RT> {
   }
 
   private static <T> Function<? super String, Predicate<? super T>> intFilter( final Function<? super T, Integer> extractor ) {
-    return intSetFilter( Functions.compose( FilterSupport.<Integer>toSet(), extractor ) );
+    return typedFilter( extractor, PersistenceFilter.Type.Integer );
   }
 
   private static <T> Function<? super String, Predicate<? super T>> intSetFilter( final Function<? super T, Set<Integer>> extractor ) {
@@ -721,11 +729,30 @@ public abstract class FilterSupport<RT> {
   }
 
   private static <T> Function<? super String, Predicate<? super T>> longFilter( final Function<? super T, Long> extractor ) {
-    return longSetFilter( Functions.compose( FilterSupport.<Long>toSet(), extractor ) );
+    return typedFilter( extractor, PersistenceFilter.Type.Long );
   }
 
   private static <T> Function<? super String, Predicate<? super T>> longSetFilter( final Function<? super T, Set<Long>> extractor ) {
-    return typedSetFilter( extractor, PersistenceFilter.Type.Integer );
+    return typedSetFilter( extractor, PersistenceFilter.Type.Long );
+  }
+
+  private static <T,VT> Function<? super String, Predicate<? super T>> typedFilter( final Function<? super T, VT> extractor, final PersistenceFilter.Type type ) {
+    return new Function<String,Predicate<? super T>>() {
+      @Override
+      public Predicate<T> apply( final String filterValue ) {
+        final Object value = type.valueFunction().apply( filterValue );
+        if ( value == null ) {
+          return Predicates.alwaysFalse();
+        }
+        return new Predicate<T>() {
+          @Override
+          public boolean apply( final T resource ) {
+            final VT resourceValue = extractor.apply( resource );
+            return resourceValue != null && type.matches( value, resourceValue );
+          }
+        };
+      }
+    };
   }
 
   private static <T,VT> Function<? super String, Predicate<? super T>> typedSetFilter( final Function<? super T, Set<VT>> extractor, final PersistenceFilter.Type type ) {
@@ -769,17 +796,6 @@ public abstract class FilterSupport<RT> {
     };
   }
 
-  private static <T> Function<T,Set<T>> toSet() {
-    return new Function<T,Set<T>>() {
-      @Override
-      public Set<T> apply( final T value ) {
-        return value == null ?
-            Collections.<T>emptySet() :
-            Collections.singleton( value );
-      }
-    };
-  }
-
   private static <T> Function<String,T> likeWildFunction( final Function<String,T> delegate ) {
     return new Function<String, T>() {
       @Override
@@ -844,7 +860,7 @@ public abstract class FilterSupport<RT> {
   /**
    * Construct a predicate from a filter pattern.
    *
-   * A Pattern is constructed from the given filter, as per AWS:
+   * A matcher is compiled from the given filter, as per AWS:
    *
    *  Filters support the following wildcards:
    *
@@ -855,37 +871,29 @@ public abstract class FilterSupport<RT> {
    *   them with a backslash before the character. For example, a value of \*amazon\?\\ searches for
    *   the literal string *amazon?\.
    *
-   * Wildcards are translated to regular expression wildcards:
-   *
-   *   .*: Matches zero or more characters
-   *   . : Matches exactly one character
-   *
-   * Any other regular expression syntax from the filter value is escaped (Pattern.quote)
+   * @see WildcardMatcher
    */
   private static Predicate<Set<String>> resourceValueMatcher( final String filterPattern ) {
-    final StringBuilder regexBuilder = new StringBuilder();
-    if ( translateWildcards( filterPattern, regexBuilder, ".", ".*", SyntaxEscape.Regex ) ) {
+    final WildcardMatcher matcher = WildcardMatcher.compile( filterPattern );
+    final String literal = matcher.getLiteral();
+    if ( literal != null ) {
       return new Predicate<Set<String>>() {
-        private final Pattern pattern = Pattern.compile( regexBuilder.toString() );
         @Override
         public boolean apply( final Set<String> values ) {
-          return Iterables.any( values, new Predicate<String>() {
-            @Override
-            public boolean apply( final String value ) {
-              return value != null && pattern.matcher( value ).matches();
-            }
-          } );
+          return values.contains( literal );
         }
       };
     }
 
-    // even if no regex, may contain \ escapes that must be removed
-    final String processedFilterPattern = filterPattern.replaceAll( "\\\\", Matcher.quoteReplacement( "\\" ) );
-
     return new Predicate<Set<String>>() {
       @Override
       public boolean apply( final Set<String> values ) {
-        return values.contains( processedFilterPattern );
+        for ( final String value : values ) {
+          if ( matcher.matches( value ) ) {
+            return true;
+          }
+        }
+        return false;
       }
     };
   }
@@ -1089,6 +1097,10 @@ public abstract class FilterSupport<RT> {
             }
           };
         }
+        @Override
+        boolean matches( final Object targetValue, final Object resourceValue ) {
+          return matchesNumber( targetValue, resourceValue );
+        }
       },
       Long {
         @Override
@@ -1104,6 +1116,10 @@ public abstract class FilterSupport<RT> {
             }
           };
         }
+        @Override
+        boolean matches( final Object targetValue, final Object resourceValue ) {
+          return matchesNumber( targetValue, resourceValue );
+        }
       },
       Date {
         @Override
@@ -1152,6 +1168,13 @@ public abstract class FilterSupport<RT> {
                        final Object resourceValue  ) {
         return targetValue.equals( resourceValue );
       }
+
+      private static boolean matchesNumber( final Object targetValue,
+                                            final Object resourceValue ) {
+        return targetValue instanceof Number && resourceValue instanceof Number ?
+            ((Number) targetValue).longValue() == ((Number) resourceValue).longValue() :
+            targetValue.equals( resourceValue );
+      }
     }
 
     @Nonnull private final String property;
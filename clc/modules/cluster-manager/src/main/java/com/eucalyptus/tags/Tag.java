@@ -35,6 +35,7 @@ import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
 import com.eucalyptus.cloud.CloudMetadata.TagMetadata;
 import com.eucalyptus.component.ComponentIds;
 import com.eucalyptus.component.id.Eucalyptus;
@@ -51,6 +52,10 @@ import com.google.common.base.Preconditions;
 @Entity
 @PersistenceContext( name = "eucalyptus_cloud" )
 @Table( name = "metadata_tags" )
+@org.hibernate.annotations.Table( appliesTo = "metadata_tags", indexes = {
+    @Index( name = "metadata_tags_key_value_idx", columnNames = { "metadata_account_id", "metadata_display_name", "metadata_tag_value" } ),
+    @Index( name = "metadata_tags_resource_idx", columnNames = { "metadata_account_id", "metadata_resource_id" } )
+} )
 @Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
 @Inheritance( strategy = InheritanceType.JOINED )
 @DiscriminatorColumn( name="metadata_tag_resource_type", discriminatorType = DiscriminatorType.STRING, length = 32) // ignored by Hibernate (for JOINED)
@@ -28,9 +28,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
 import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.DetachedCriteria;
-import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.cloud.CloudMetadata;
 import com.eucalyptus.cloud.util.NoSuchMetadataException;
@@ -57,6 +54,7 @@ public abstract class TagSupport {
   private static final ConcurrentMap<String,TagSupport> supportByIdentifierPrefix = Maps.newConcurrentMap();
   private static final ConcurrentMap<Class<? extends CloudMetadata>,TagSupport> supportByClass = Maps.newConcurrentMap();
   private static final Splitter idSplitter = Splitter.on( '-' ).limit( 2 );
+  private static final int RESOURCE_TAG_BATCH_SIZE = 500;
 
   private final Class<? extends AbstractPersistent> resourceClass;
   private final Class<? extends CloudMetadata> cloudMetadataClass;
@@ -146,14 +144,17 @@ public abstract class TagSupport {
     }
     if ( !tagMap.isEmpty() ) {
       final Tag example = example( owner );
-      final DetachedCriteria detachedCriteria = DetachedCriteria.forClass( resourceClass )
-          .add( Restrictions.in( resourceClassIdField, Lists.newArrayList( identifiers ) ) )
-          .setProjection( Projections.id() );
-      final Criterion idRestriction = Property.forName( tagClassResourceField ).in( detachedCriteria );
       try {
-        final List<Tag> tags = Tags.list( example, Predicates.alwaysTrue(), idRestriction, Collections.<String,String>emptyMap()  );
-        for ( final Tag tag : tags ) {
-          tagMap.get( tag.getResourceId() ).add( tag );
+        // tags hold the resource identifier so no join with the resource is needed
+        for ( final List<String> batch : Iterables.partition( tagMap.keySet(), RESOURCE_TAG_BATCH_SIZE ) ) {
+          final Criterion idRestriction = Restrictions.in( "resourceId", batch );
+          final List<Tag> tags = Tags.list( example, Predicates.alwaysTrue(), idRestriction, Collections.<String,String>emptyMap()  );
+          for ( final Tag tag : tags ) {
+            final List<Tag> resourceTags = tagMap.get( tag.getResourceId() );
+            if ( resourceTags != null ) {
+              resourceTags.add( tag );
+            }
+          }
         }
       } catch ( NoSuchMetadataException e ) {
         log.error( e, e );
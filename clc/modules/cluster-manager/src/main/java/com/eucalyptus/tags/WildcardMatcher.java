@@ -0,0 +1,161 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.tags;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compiled matcher for an AWS filter value.
+ *
+ * <p>The filter value is compiled once and values are then matched without
+ * allocation. Wildcards have the same meaning as the regular expression
+ * translation (see FilterSupport#translateWildcards), values containing
+ * characters for which a per-char match could differ (line terminators,
+ * surrogates) are matched using the equivalent regular expression.</p>
+ */
+final class WildcardMatcher {
+  private static final byte LITERAL = 0;
+  private static final byte ONE = 1;
+  private static final byte ZERO_OR_MORE = 2;
+  private static final char LINE_SEPARATOR = (char) 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+
+  @Nullable private final String literal;
+  private final char[] characters;
+  private final byte[] kinds;
+  @Nullable private final Pattern pattern;
+
+  private WildcardMatcher( @Nullable final String literal,
+                           final char[] characters,
+                           final byte[] kinds,
+                           @Nullable final Pattern pattern ) {
+    this.literal = literal;
+    this.characters = characters;
+    this.kinds = kinds;
+    this.pattern = pattern;
+  }
+
+  /**
+   * Compile the given filter value.
+   *
+   * @param filterPattern The filter value, which may include wildcards
+   * @return The matcher
+   */
+  @Nonnull
+  static WildcardMatcher compile( @Nonnull final String filterPattern ) {
+    final StringBuilder regexBuilder = new StringBuilder();
+    if ( !FilterSupport.translateWildcards( filterPattern, regexBuilder, ".", ".*", FilterSupport.SyntaxEscape.Regex ) ) {
+      // even if no regex, may contain \ escapes that must be removed
+      final String processedFilterPattern = filterPattern.replaceAll( "\\\\", Matcher.quoteReplacement( "\\" ) );
+      return new WildcardMatcher( processedFilterPattern, new char[0], new byte[0], null );
+    }
+
+    final char[] characters = new char[ filterPattern.length() + 1 ];
+    final byte[] kinds = new byte[ filterPattern.length() + 1 ];
+    int length = 0;
+    boolean escaped = false;
+    for ( final char character : filterPattern.toCharArray() ) {
+      if ( !escaped && character == '\\' ) {
+        escaped = true;
+      } else if ( !escaped && character == '?' ) {
+        kinds[ length++ ] = ONE;
+      } else if ( !escaped && character == '*' ) {
+        kinds[ length++ ] = ZERO_OR_MORE;
+      } else {
+        if ( escaped && character != '\\' && character != '?' && character != '*' ) {
+          characters[ length++ ] = '\\';
+        }
+        escaped = false;
+        characters[ length++ ] = character;
+      }
+    }
+    if ( escaped ) {
+      characters[ length++ ] = '\\';
+    }
+    return new WildcardMatcher(
+        null,
+        Arrays.copyOf( characters, length ),
+        Arrays.copyOf( kinds, length ),
+        Pattern.compile( regexBuilder.toString() ) );
+  }
+
+  /**
+   * The literal value to match if the filter value has no wildcards.
+   */
+  @Nullable
+  String getLiteral() {
+    return literal;
+  }
+
+  boolean matches( @Nullable final String value ) {
+    if ( value == null ) {
+      return false;
+    } else if ( literal != null ) {
+      return literal.equals( value );
+    } else if ( requiresPattern( value ) ) {
+      return pattern.matcher( value ).matches();
+    }
+
+    final int valueLength = value.length();
+    final int patternLength = kinds.length;
+    int patternIndex = 0;
+    int valueIndex = 0;
+    int backtrackPatternIndex = -1;
+    int backtrackValueIndex = 0;
+    while ( valueIndex < valueLength ) {
+      if ( patternIndex < patternLength && ( kinds[ patternIndex ] == ONE ||
+          ( kinds[ patternIndex ] == LITERAL && characters[ patternIndex ] == value.charAt( valueIndex ) ) ) ) {
+        patternIndex++;
+        valueIndex++;
+      } else if ( patternIndex < patternLength && kinds[ patternIndex ] == ZERO_OR_MORE ) {
+        backtrackPatternIndex = patternIndex++;
+        backtrackValueIndex = valueIndex;
+      } else if ( backtrackPatternIndex >= 0 ) {
+        patternIndex = backtrackPatternIndex + 1;
+        valueIndex = ++backtrackValueIndex;
+      } else {
+        return false;
+      }
+    }
+    while ( patternIndex < patternLength && kinds[ patternIndex ] == ZERO_OR_MORE ) {
+      patternIndex++;
+    }
+    return patternIndex == patternLength;
+  }
+
+  /**
+   * Regular expression wildcards do not match line terminators and match
+   * surrogate pairs as a single character.
+   */
+  private static boolean requiresPattern( final String value ) {
+    for ( int i = 0; i < value.length(); i++ ) {
+      final char character = value.charAt( i );
+      if ( character == '\n' || character == '\r' || character == '\u0085' ||
+          character == LINE_SEPARATOR || character == PARAGRAPH_SEPARATOR || Character.isSurrogate( character ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -71,13 +71,16 @@ import com.eucalyptus.component.ServiceConfiguration;
 import com.eucalyptus.component.id.ClusterController;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.vm.VmInstance.VmState;
 
 public class MetadataRequest {
   private static Logger    LOG = Logger.getLogger( MetadataRequest.class );
   private final String     requestIp;
   private final String     metadataName;
   private final String     localPath;
-  private final VmInstance vm;
+  private final String     instanceId;
+  private long             generation = VmInstanceIndex.NOT_INDEXED;
+  private VmInstance       vm;
   
   public MetadataRequest( String requestIp, String requestUrl ) {
     try {
@@ -95,9 +98,9 @@ public class MetadataRequest {
         this.metadataName = "";
         this.localPath = "";
       }
-      this.vm = resolveVm( requestIp );
+      this.instanceId = resolveInstanceId( requestIp );
     } finally {
-      LOG.debug( ( this.vm != null
+      LOG.debug( ( this.instanceId != null
                                   ? "Instance"
                                   : "External" )
                  + " Metadata: requestIp=" + this.requestIp
@@ -108,7 +111,7 @@ public class MetadataRequest {
   }
 
   public boolean isInstance( ) {
-    return vm != null;
+    return instanceId != null;
   }
   
   /**
@@ -132,7 +135,21 @@ public class MetadataRequest {
     return this.localPath;
   }
   
+  public String getInstanceId( ) {
+    return this.instanceId;
+  }
+
+  /**
+   * The index generation for the instance, read before the instance was loaded.
+   */
+  public long getGeneration( ) {
+    return this.generation;
+  }
+
   public VmInstance getVmInstance( ) {
+    if ( this.vm == null && this.instanceId != null ) {
+      this.vm = VmInstances.lookup( this.instanceId );
+    }
     return this.vm;
   }
   
@@ -166,6 +183,30 @@ public class MetadataRequest {
     return false;
   }
 
+  private String resolveInstanceId( final String requestIp ) {
+    String indexedInstanceId = VmInstanceIndex.lookupInstanceIdByPublicIp( requestIp );
+    if ( indexedInstanceId == null ) {
+      indexedInstanceId = VmInstanceIndex.lookupInstanceIdByPrivateIp( requestIp );
+    }
+    if ( indexedInstanceId != null ) {
+      final long indexedGeneration = VmInstanceIndex.generation( indexedInstanceId );
+      try {
+        final VmInstance indexedVm = VmInstances.lookup( indexedInstanceId );
+        final VmState state = indexedVm.getState( );
+        if ( ( state == VmState.PENDING || state == VmState.RUNNING )
+             && ( requestIp.equals( indexedVm.getPublicAddress( ) ) || requestIp.equals( indexedVm.getPrivateAddress( ) ) ) ) {
+          this.vm = indexedVm;
+          this.generation = indexedGeneration;
+          return indexedInstanceId;
+        }
+      } catch ( Exception ex ) {
+        Logs.exhaust( ).debug( "Indexed instance " + indexedInstanceId + " not found for " + requestIp, ex );
+      }
+    }
+    this.vm = resolveVm( requestIp );
+    return this.vm == null ? null : this.vm.getInstanceId( );
+  }
+
   protected VmInstance resolveVm( final String requestIp ) {
     VmInstance findVm = null;
     if ( !Databases.isVolatile() ) {
@@ -240,9 +240,10 @@ public class VmControl {
     OwnerFullName ownerFullName = ( ctx.hasAdministrativePrivileges( ) && showAll )
       ? null
       : ctx.getUserFullName( ).asAccountFullName( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
     try {
       final List<VmInstance> instances =
-          VmInstances.list( ownerFullName, filter.asCriterion(), filter.getAliases(), Predicates.and( requestedAndAccessible, VmInstances.initialize( ) ) );
+          VmInstances.listForDescribe( ownerFullName, filter.asCriterion(), filter.getAliases(), Predicates.and( requestedAndAccessible, VmInstances.initialize( ) ) );
       final Map<String,List<Tag>> tagsMap = TagSupport.forResourceClass( VmInstance.class )
           .getResourceTagMap( AccountFullName.getInstance( ctx.getAccount() ),
               Iterables.transform( instances, CloudMetadatas.toDisplayName() ) );
@@ -251,35 +252,16 @@ public class VmControl {
         if ( !instancesSet.isEmpty( ) && !instancesSet.contains( vm.getInstanceId( ) ) ) {
           continue;
         }
-        final EntityTransaction db = Entities.get( VmInstance.class );
         try {
-          VmInstance v = VmState.TERMINATED.apply( vm ) ? vm : Entities.merge( vm );
-          if ( instanceMap.put( v.getReservationId( ), VmInstances.transform( v ) ) && !reservations.containsKey( v.getReservationId( ) ) ) {
-            reservations.put( v.getReservationId( ), new ReservationInfoType( v.getReservationId( ), v.getOwner( ).getAccountNumber( ), v.getNetworkMap( ) ) );
+          final RunningInstancesItemType instance = VmInstances.transform( vm );
+          if ( instance != null && vm.getReservationId( ) != null && instanceMap.put( vm.getReservationId( ), instance ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
+            reservations.put( vm.getReservationId( ), new ReservationInfoType( vm.getReservationId( ), vm.getOwner( ).getAccountNumber( ), vm.getNetworkMap( ) ) );
           }
         } catch ( Exception ex ) {
-          Logs.exhaust( ).error( ex, ex );
-          db.rollback( );
-          try {
-            if ( vm != null ) {
-              try {
-                RunningInstancesItemType ret = VmInstances.transform( vm );
-                if ( ret != null && vm.getReservationId( ) != null ) {
-                  if ( instanceMap.put( vm.getReservationId( ), VmInstances.transform( vm ) ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
-                    reservations.put( vm.getReservationId( ), TypeMappers.transform( vm, ReservationInfoType.class ) );
-                  }
-                }
-              } catch ( Exception ex1 ) {
-                LOG.error( ex1, ex1 );
-              }
-            }
-          } catch ( Exception ex1 ) {
-            LOG.error( ex1, ex1 );
-          }
-        } finally {
-          if (db.isActive()) db.rollback( );
+          LOG.error( ex, ex );
         }
       }
+      db.commit( );
       List<ReservationInfoType> replyReservations = reply.getReservationSet( );
       for ( ReservationInfoType r : reservations.values( ) ) {
         Collection<RunningInstancesItemType> instanceSet = instanceMap.get( r.getReservationId( ) );
@@ -295,6 +277,8 @@ public class VmControl {
       LOG.error( e );
       LOG.debug( e, e );
       throw new EucalyptusCloudException( e.getMessage( ) );
+    } finally {
+      if ( db.isActive() ) db.rollback( );
     }
     return reply;
   }
@@ -95,6 +95,10 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PreRemove;
 import javax.persistence.Table;
 import org.apache.log4j.Logger;
@@ -288,6 +292,22 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
     }
   }
 
+  @PostLoad
+  void loaded( ) {
+    VmInstanceIndex.loaded( this );
+  }
+
+  @PostPersist
+  @PostUpdate
+  void changed( ) {
+    VmInstanceIndex.changed( this );
+  }
+
+  @PostRemove
+  void removed( ) {
+    VmInstanceIndex.removed( this );
+  }
+
   public enum Filters implements Predicate<VmInstance> {
     BUNDLING {
       
@@ -2139,7 +2159,8 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
       } else {
         final EntityTransaction db = Entities.get( VmInstance.class );
         try {
-          final VmInstance input = Entities.merge( v );
+          // already in the session, merging would only cascade over the associations
+          final VmInstance input = v;
           RunningInstancesItemType runningInstance;
           runningInstance = new RunningInstancesItemType( );
           
@@ -0,0 +1,262 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.util.Exceptions;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Memory resident index of pending and running instances.
+ *
+ * The index maps private and public addresses to instance identifiers and is
+ * updated from the VmInstance entity lifecycle (load, persist, update and
+ * remove) so it follows every state transition without a separate hook in
+ * each caller. Changes are applied once the transaction commits. Index
+ * results are hints, the instance must be checked when it is loaded and an
+ * instance that is not indexed must be looked up in the database.
+ *
+ * Metadata documents for indexed instances are cached here and discarded
+ * whenever the instance is persisted, updated or removed. Each change starts
+ * a new generation for the instance, documents are only cached for the
+ * current generation.
+ */
+public class VmInstanceIndex {
+  private static final ConcurrentMap<String, IndexEntry> entries     = new ConcurrentHashMap<String, IndexEntry>( );
+  private static final ConcurrentMap<String, String>     byPrivateIp = new ConcurrentHashMap<String, String>( );
+  private static final ConcurrentMap<String, String>     byPublicIp  = new ConcurrentHashMap<String, String>( );
+  private static final Cache<String, DocumentSet>       documents   =
+      CacheBuilder.newBuilder( ).expireAfterWrite( 5, TimeUnit.MINUTES ).maximumSize( 10000 ).build( );
+  private static final AtomicLong                       generations = new AtomicLong( );
+
+  /**
+   * Generation for instances that are not indexed.
+   */
+  public static final long NOT_INDEXED = -1L;
+
+  /**
+   * Find the identifier of a pending or running instance with the given private address.
+   */
+  @Nullable
+  public static String lookupInstanceIdByPrivateIp( final String ip ) {
+    return ip == null ? null : byPrivateIp.get( ip );
+  }
+
+  /**
+   * Find the identifier of a pending or running instance with the given public address.
+   */
+  @Nullable
+  public static String lookupInstanceIdByPublicIp( final String ip ) {
+    return ip == null ? null : byPublicIp.get( ip );
+  }
+
+  /**
+   * Get the current generation for an instance.
+   *
+   * The generation must be read before the instance is loaded to build a
+   * document so that a document built from an older instance is not cached.
+   *
+   * @return The generation or NOT_INDEXED
+   */
+  public static long generation( final String instanceId ) {
+    final IndexEntry entry = instanceId == null ? null : entries.get( instanceId );
+    return entry == null ? NOT_INDEXED : entry.generation;
+  }
+
+  /**
+   * Get a metadata document for an indexed instance, loading it if necessary.
+   *
+   * Documents are only cached while the instance is indexed with the given
+   * generation so a document loaded during a state change is not retained.
+   */
+  public static byte[] document( final String instanceId, final long generation, final String path, final Callable<byte[]> loader ) throws Exception {
+    if ( generation == NOT_INDEXED || generation( instanceId ) != generation ) {
+      return loader.call( );
+    }
+    DocumentSet documentSet;
+    try {
+      documentSet = documents.get( instanceId, new Callable<DocumentSet>( ) {
+        @Override
+        public DocumentSet call( ) {
+          return new DocumentSet( generation );
+        }
+      } );
+    } catch ( ExecutionException e ) {
+      throw Exceptions.toUndeclared( e ); // Cache load exception not expected
+    }
+    if ( documentSet.generation < generation ) {
+      final DocumentSet newDocumentSet = new DocumentSet( generation );
+      documentSet = documents.asMap( ).replace( instanceId, documentSet, newDocumentSet ) ? newDocumentSet : null;
+    } else if ( documentSet.generation > generation ) {
+      documentSet = null;
+    }
+    byte[] document = documentSet == null ? null : documentSet.documents.get( path );
+    if ( document == null ) {
+      document = loader.call( );
+      if ( documentSet != null && generation( instanceId ) == generation ) {
+        documentSet.documents.put( path, document );
+      }
+    }
+    return document;
+  }
+
+  static void loaded( final VmInstance instance ) {
+    update( instance.getInstanceId( ), entry( instance ), false );
+  }
+
+  static void changed( final VmInstance instance ) {
+    final String instanceId = instance.getInstanceId( );
+    final IndexEntry entry = entry( instance );
+    afterCommit( new Runnable( ) {
+      @Override
+      public void run( ) {
+        update( instanceId, entry, true );
+        documents.invalidate( instanceId );
+      }
+    } );
+  }
+
+  static void removed( final VmInstance instance ) {
+    final String instanceId = instance.getInstanceId( );
+    afterCommit( new Runnable( ) {
+      @Override
+      public void run( ) {
+        update( instanceId, null, true );
+        documents.invalidate( instanceId );
+      }
+    } );
+  }
+
+  /**
+   * Run the task when the current instance transaction commits, or now if
+   * there is no transaction.
+   */
+  private static void afterCommit( final Runnable task ) {
+    try {
+      Entities.registerSynchronization( VmInstance.class, new Synchronization( ) {
+        @Override public void beforeCompletion( ) { }
+        @Override public void afterCompletion( final int status ) {
+          if ( status == Status.STATUS_COMMITTED ) {
+            task.run( );
+          }
+        }
+      } );
+    } catch ( final NoSuchElementException e ) {
+      task.run( );
+    }
+  }
+
+  /**
+   * Index entry for a pending or running instance, null otherwise.
+   */
+  @Nullable
+  private static IndexEntry entry( final VmInstance instance ) {
+    final VmState state = instance.getState( );
+    return state == VmState.PENDING || state == VmState.RUNNING ?
+        new IndexEntry( address( instance.getPrivateAddress( ) ), address( instance.getPublicAddress( ) ), generations.incrementAndGet( ) ) :
+        null;
+  }
+
+  /**
+   * Update the index, a load only replaces an entry if the addresses changed.
+   */
+  private static void update( final String instanceId, @Nullable final IndexEntry entry, final boolean changed ) {
+    if ( instanceId == null ) return;
+    if ( entry != null ) {
+      if ( changed || !entry.equals( entries.get( instanceId ) ) ) {
+        synchronized ( VmInstanceIndex.class ) {
+          unindex( instanceId, entries.put( instanceId, entry ) );
+          if ( entry.privateIp != null ) byPrivateIp.put( entry.privateIp, instanceId );
+          if ( entry.publicIp != null ) byPublicIp.put( entry.publicIp, instanceId );
+        }
+      }
+    } else if ( entries.containsKey( instanceId ) ) {
+      remove( instanceId );
+    }
+  }
+
+  private static void remove( final String instanceId ) {
+    synchronized ( VmInstanceIndex.class ) {
+      unindex( instanceId, entries.remove( instanceId ) );
+    }
+  }
+
+  private static void unindex( final String instanceId, @Nullable final IndexEntry entry ) {
+    if ( entry != null ) {
+      if ( entry.privateIp != null ) byPrivateIp.remove( entry.privateIp, instanceId );
+      if ( entry.publicIp != null ) byPublicIp.remove( entry.publicIp, instanceId );
+    }
+  }
+
+  @Nullable
+  private static String address( final String address ) {
+    return address == null || VmNetworkConfig.DEFAULT_IP.equals( address ) ? null : address;
+  }
+
+  private static final class DocumentSet {
+    private final long generation;
+    private final ConcurrentMap<String, byte[]> documents = new ConcurrentHashMap<String, byte[]>( );
+
+    private DocumentSet( final long generation ) {
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Addresses for an instance, the generation is not included in equality.
+   */
+  private static final class IndexEntry {
+    private final String privateIp;
+    private final String publicIp;
+    private final long generation;
+
+    private IndexEntry( final String privateIp, final String publicIp, final long generation ) {
+      this.privateIp = privateIp;
+      this.publicIp = publicIp;
+      this.generation = generation;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass() != o.getClass() ) return false;
+      final IndexEntry that = (IndexEntry) o;
+      return Objects.equal( privateIp, that.privateIp ) && Objects.equal( publicIp, that.publicIp );
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode( privateIp, publicIp );
+    }
+  }
+}
@@ -83,6 +83,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
@@ -348,6 +350,9 @@ public class VmInstances {
   
   private static Logger                                  LOG                    = Logger.getLogger( VmInstances.class );
   
+  private static final String[]                          DESCRIBE_FETCH_ASSOCIATIONS = {
+    "networkGroups", "bootRecord.persistentVolumes", "transientVolumeState.attachments" };
+  
   @QuantityMetricFunction( VmInstanceMetadata.class )
   public enum CountVmInstances implements Function<OwnerFullName, Long> {
     INSTANCE;
@@ -848,6 +853,44 @@ public class VmInstances {
     ) );
   }
 
+  /**
+   * List instances for describe.
+   *
+   * <p>Network groups and volume attachments are fetched in the instance
+   * query (unless aliased for filtering) and the results are read-only. The
+   * caller must have an active transaction for VmInstance and should
+   * transform the results within that transaction.</p>
+   */
+  public static List<VmInstance> listForDescribe( @Nullable final OwnerFullName ownerFullName,
+                                                  final Criterion criterion,
+                                                  final Map<String,String> aliases,
+                                                  @Nullable final Predicate<? super VmInstance> predicate ) {
+    return list( new Supplier<List<VmInstance>>() {
+      @SuppressWarnings( "unchecked" )
+      @Override
+      public List<VmInstance> get() {
+        final Criteria criteria = Entities.createCriteria( VmInstance.class )
+            .setReadOnly( true )
+            .setResultTransformer( Criteria.DISTINCT_ROOT_ENTITY )
+            .add( Example.create( VmInstance.named( ownerFullName, null ) ).enableLike( MatchMode.EXACT ) )
+            .add( criterion );
+        for ( final Map.Entry<String,String> aliasEntry : aliases.entrySet() ) {
+          criteria.createAlias( aliasEntry.getKey(), aliasEntry.getValue() );
+        }
+        for ( final String association : DESCRIBE_FETCH_ASSOCIATIONS ) {
+          // an aliased association is restricted by the filter so must not populate the collection
+          if ( !aliases.containsKey( association ) ) {
+            criteria.setFetchMode( association, FetchMode.JOIN );
+          }
+        }
+        return Lists.newArrayList( Sets.newLinkedHashSet( ( List<VmInstance> ) criteria.list( ) ) );
+      }
+    }, Predicates.and(
+        RestrictedTypes.filterByOwner( ownerFullName ),
+        checkPredicate( predicate )
+    ) );
+  }
+
   public static List<VmInstance> list( @Nullable String instanceId,
                                        @Nullable Predicate<? super VmInstance> predicate ) {
     return list( null, instanceId, predicate );
@@ -0,0 +1,100 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+import com.eucalyptus.cloud.util.NotEnoughResourcesException;
+import com.eucalyptus.vmtypes.VmType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import edu.ucsb.eucalyptus.msgs.ResourceType;
+import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
+
+public class ResourceLedgerTest {
+
+  @Test
+  public void testReserveAcrossTypes( ) throws Exception {
+    final ResourceLedger ledger = ledger( );
+    ledger.update( resources( 8, 4, 2 ) );
+
+    assertEquals( "Reserved", 2, ledger.reserve( "m1.small", 1, 2 ) );
+    assertEquals( "m1.small available", 6, ledger.availability( "m1.small" ).getAvailable( ) );
+    assertEquals( "m1.large available", 2, ledger.availability( "m1.large" ).getAvailable( ) );
+    assertEquals( "m1.xlarge available", 0, ledger.availability( "m1.xlarge" ).getAvailable( ) );
+
+    assertEquals( "Reserved", 2, ledger.reserve( "m1.large", 1, 5 ) );
+    assertEquals( "m1.small available", 0, ledger.availability( "m1.small" ).getAvailable( ) );
+    assertEquals( "m1.large available", 0, ledger.availability( "m1.large" ).getAvailable( ) );
+    assertEquals( "Outstanding", 4, ledger.capacity( ).getOutstanding( ) );
+  }
+
+  @Test( expected = NotEnoughResourcesException.class )
+  public void testReserveNotEnough( ) throws Exception {
+    final ResourceLedger ledger = ledger( );
+    ledger.update( resources( 8, 4, 2 ) );
+    ledger.reserve( "m1.xlarge", 3, 3 );
+  }
+
+  @Test
+  public void testUpdateExcludesOutstanding( ) throws Exception {
+    final ResourceLedger ledger = ledger( );
+    ledger.update( resources( 8, 4, 2 ) );
+    ledger.reserve( "m1.small", 3, 3 );
+    ledger.update( resources( 8, 4, 2 ) );
+    assertEquals( "m1.small available", 5, ledger.availability( "m1.small" ).getAvailable( ) );
+    assertEquals( "m1.xlarge available", 0, ledger.availability( "m1.xlarge" ).getAvailable( ) );
+    assertEquals( "m1.small max", 8, ledger.availability( "m1.small" ).getMax( ) );
+
+    ledger.release( 3 );
+    ledger.update( resources( 8, 4, 2 ) );
+    assertEquals( "m1.small available", 8, ledger.availability( "m1.small" ).getAvailable( ) );
+    assertEquals( "Outstanding", 0, ledger.capacity( ).getOutstanding( ) );
+  }
+
+  @Test
+  public void testUnknownType( ) {
+    assertNull( "Unknown type availability", ledger( ).availability( "m1.unknown" ) );
+  }
+
+  private static ResourceLedger ledger( ) {
+    return new ResourceLedger( ImmutableList.of(
+        VmType.create( "m1.small", 1, 5, 256 ),
+        VmType.create( "m1.large", 2, 10, 512 ),
+        VmType.create( "m1.xlarge", 4, 20, 1024 ) ) );
+  }
+
+  private static List<ResourceType> resources( final int small, final int large, final int xlarge ) {
+    return Lists.newArrayList(
+        resource( "m1.small", small ),
+        resource( "m1.large", large ),
+        resource( "m1.xlarge", xlarge ) );
+  }
+
+  private static ResourceType resource( final String name, final int available ) {
+    final ResourceType resource = new ResourceType( );
+    resource.setInstanceType( new VmTypeInfo( name, 0, 0, 0, "sda1" ) );
+    resource.setAvailableInstances( available );
+    resource.setMaxInstances( available );
+    return resource;
+  }
+}
@@ -0,0 +1,172 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster.callback
+
+import static org.junit.Assert.*
+import org.junit.Test
+import com.eucalyptus.cloudwatch.MetricDatum
+import com.eucalyptus.cloudwatch.PutMetricDataType
+import com.eucalyptus.component.ServiceConfiguration
+import edu.ucsb.eucalyptus.msgs.DescribeSensorsResponse
+import edu.ucsb.eucalyptus.msgs.MetricCounterType
+import edu.ucsb.eucalyptus.msgs.MetricDimensionsType
+import edu.ucsb.eucalyptus.msgs.MetricDimensionsValuesType
+import edu.ucsb.eucalyptus.msgs.MetricsResourceType
+import edu.ucsb.eucalyptus.msgs.SensorsResourceType
+
+/**
+ * Unit tests for CloudWatchHelper
+ */
+class CloudWatchHelperTest {
+
+  @Test
+  void testOnlyNewValuesCollected() {
+    CloudWatchHelper helper = new CloudWatchHelper( new TestInstanceInfoProvider( 'i-00000001' ) )
+
+    List<PutMetricDataType> first = collect( helper, response( 'i-00000001', 'CPUUtilization', 'default', [ 60000L: 1.0d, 120000L: 2.0d ] ) )
+    assertEquals( 'First poll datums', [ 60000L, 120000L ], timestamps( first ) )
+
+    List<PutMetricDataType> second = collect( helper, response( 'i-00000001', 'CPUUtilization', 'default', [ 60000L: 1.0d, 120000L: 2.0d, 180000L: 3.0d ] ) )
+    assertEquals( 'Second poll datums', [ 180000L ], timestamps( second ) )
+    assertEquals( 'Namespace', 'AWS/EC2', second[0].namespace )
+    assertEquals( 'Metric name', 'CPUUtilizationMSAbsolute', second[0].metricData.member[0].metricName )
+    assertEquals( 'User', 'user-i-00000001', second[0].effectiveUserId )
+  }
+
+  @Test
+  void testReadWriteCombinedAcrossPolls() {
+    CloudWatchHelper helper = new CloudWatchHelper( new TestInstanceInfoProvider( 'i-00000002' ) )
+
+    List<PutMetricDataType> first = collect( helper, response( 'i-00000002', 'VolumeReadOps', 'vol-00000001', [ 60000L: 5.0d ] ) )
+    assertEquals( 'First poll metrics', [ 'VolumeReadOpsAbsolute' ], metricNames( first, 'AWS/EBS' ) )
+
+    List<PutMetricDataType> second = collect( helper, response( 'i-00000002', 'VolumeWriteOps', 'vol-00000001', [ 60000L: 7.0d ] ) )
+    assertEquals( 'Second poll metrics', [ 'VolumeWriteOpsAbsolute', 'VolumeConsumedReadWriteOpsAbsolute' ], metricNames( second, 'AWS/EBS' ) )
+    assertEquals( 'Combined value', 12.0d, datums( second, 'AWS/EBS' )[1].value, 0.0d )
+  }
+
+  @Test
+  void testBatchedRequests() {
+    CloudWatchHelper helper = new CloudWatchHelper( new TestInstanceInfoProvider( 'i-00000003' ) )
+    Map<Long,Double> values = ( 1..45 ).collectEntries{ Integer minute -> [ 60000L * minute, (double) minute ] }
+
+    List<PutMetricDataType> putMetricData = collect( helper, response( 'i-00000003', 'NetworkIn', 'total', values ) )
+    assertEquals( 'Request count', 3, putMetricData.size() )
+    assertEquals( 'Datum count', 45, datums( putMetricData ).size() )
+  }
+
+  @Test
+  void testMonitoringDisabled() {
+    CloudWatchHelper helper = new CloudWatchHelper( new TestInstanceInfoProvider( 'i-00000004', false ) )
+    assertEquals( 'Datums', [], datums( collect( helper, response( 'i-00000004', 'CPUUtilization', 'default', [ 60000L: 1.0d ] ) ) ) )
+  }
+
+  @Test
+  void testValuesCollectedAgainAfterFailedSend() {
+    List<PutMetricDataType> sent = [ ]
+    Map<String,Boolean> send = [ fail: true ]
+    CloudWatchHelper helper = new CloudWatchHelper( new TestInstanceInfoProvider( 'i-00000005' ) ) {
+      @Override
+      void sendSystemMetric( ServiceConfiguration serviceConfiguration, PutMetricDataType putMetricData ) {
+        if ( send.fail ) throw new Exception( 'send failed' )
+        sent.add( putMetricData )
+      }
+    }
+
+    helper.sendMetricData( null, helper.collectMetricData( response( 'i-00000005', 'CPUUtilization', 'default', [ 60000L: 1.0d ] ) ) )
+    assertEquals( 'Sent after failure', [], sent )
+
+    send.fail = false
+    helper.sendMetricData( null, helper.collectMetricData( response( 'i-00000005', 'CPUUtilization', 'default', [ 60000L: 1.0d, 120000L: 2.0d ] ) ) )
+    assertEquals( 'Sent after retry', [ 60000L, 120000L ], timestamps( sent ) )
+
+    helper.sendMetricData( null, helper.collectMetricData( response( 'i-00000005', 'CPUUtilization', 'default', [ 60000L: 1.0d, 120000L: 2.0d ] ) ) )
+    assertEquals( 'Sent once', [ 60000L, 120000L ], timestamps( sent ) )
+  }
+
+  private static List<PutMetricDataType> collect( CloudWatchHelper helper, DescribeSensorsResponse response ) {
+    CloudWatchHelper.SensorMetricData sensorMetricData = helper.collectMetricData( response )
+    sensorMetricData.commit( [ ] as Set<String> )
+    sensorMetricData.putMetricDataList
+  }
+
+  private static DescribeSensorsResponse response( String instanceId, String metricName, String dimensionName, Map<Long,Double> values ) {
+    new DescribeSensorsResponse(
+        sensorsResources: [
+            new SensorsResourceType(
+                resourceName: instanceId,
+                resourceType: 'instance',
+                resourceUuid: instanceId,
+                metrics: [
+                    new MetricsResourceType(
+                        metricName: metricName,
+                        counters: [
+                            new MetricCounterType(
+                                type: 'summation',
+                                collectionIntervalMs: 60000L,
+                                dimensions: [
+                                    new MetricDimensionsType(
+                                        dimensionName: dimensionName,
+                                        sequenceNum: 0L,
+                                        values: values.collect{ Long timestamp, Double value ->
+                                          new MetricDimensionsValuesType( timestamp: new Date( timestamp ), value: value )
+                                        } as ArrayList<MetricDimensionsValuesType>
+                                    )
+                                ] as ArrayList<MetricDimensionsType>
+                            )
+                        ] as ArrayList<MetricCounterType>
+                    )
+                ] as ArrayList<MetricsResourceType>
+            )
+        ] as ArrayList<SensorsResourceType>
+    )
+  }
+
+  private static List<MetricDatum> datums( List<PutMetricDataType> putMetricData, String namespace = null ) {
+    putMetricData.findAll{ PutMetricDataType put -> namespace == null || put.namespace == namespace }
+        .collect{ PutMetricDataType put -> put.metricData.member }.flatten() as List<MetricDatum>
+  }
+
+  private static List<Long> timestamps( List<PutMetricDataType> putMetricData ) {
+    datums( putMetricData ).collect{ MetricDatum datum -> datum.timestamp.time }
+  }
+
+  private static List<String> metricNames( List<PutMetricDataType> putMetricData, String namespace ) {
+    datums( putMetricData, namespace ).collect{ MetricDatum datum -> datum.metricName }
+  }
+
+  private static final class TestInstanceInfoProvider implements CloudWatchHelper.InstanceInfoProvider {
+    private final String instanceId
+    private final boolean monitoring
+
+    TestInstanceInfoProvider( String instanceId, boolean monitoring = true ) {
+      this.instanceId = instanceId
+      this.monitoring = monitoring
+    }
+
+    @Override Iterable<String> getRunningInstanceUUIDList() { [ instanceId ] }
+    @Override String getAutoscalingGroupName( String instanceId ) { null }
+    @Override String getInstanceId( String instanceId ) { instanceId }
+    @Override String getImageId( String instanceId ) { 'emi-00000001' }
+    @Override String getVmTypeDisplayName( String instanceId ) { 'm1.small' }
+    @Override String getEffectiveUserId( String instanceId ) { "user-${instanceId}" as String }
+    @Override boolean getMonitoring( String instanceId ) { monitoring }
+  }
+}
@@ -62,6 +62,35 @@ class FilterSupportTest {
     assertEquals( "escape like", "\\_\\%\\\\", wildcard( "_%\\", false ) )
   }
 
+  @Test
+  void testWildcardMatching() {
+    assertMatches( "literal", "value", "value", true )
+    assertMatches( "literal mismatch", "value", "values", false )
+    assertMatches( "any", "*", "", true )
+    assertMatches( "one", "?", "", false )
+    assertMatches( "starts with", "value*", "value-1", true )
+    assertMatches( "ends with", "*value", "a-value", true )
+    assertMatches( "in string", "*val*ue*", "a-val-ue-b", true )
+    assertMatches( "backtrack", "*ab?", "aabab", false )
+    assertMatches( "backtrack match", "*ab?", "aababc", true )
+    assertMatches( "escaped *", "a\\**", "a*b", true )
+    assertMatches( "escaped * literal", "a\\**", "ab", false )
+    assertMatches( "escaped ?", "\\??", "?a", true )
+    assertMatches( "regex syntax", "a.b*", "axb", false )
+    assertMatches( "line terminator", "a*", "a\nb", false )
+    assertMatches( "null", "*", null, false )
+  }
+
+  private void assertMatches( String description, String filterValue, String value, boolean expected ) {
+    assertEquals( description, expected, WildcardMatcher.compile( filterValue ).matches( value ) )
+    if ( value != null ) {
+      StringBuilder regex = new StringBuilder()
+      if ( FilterSupport.translateWildcards( filterValue, regex, ".", ".*", FilterSupport.SyntaxEscape.Regex ) ) {
+        assertEquals( description + " (regex)", expected, value.matches( regex.toString() ) )
+      }
+    }
+  }
+
   @Test
   void testLikeLiteralEscaping() {
     // testWildcards also exercises this functionality
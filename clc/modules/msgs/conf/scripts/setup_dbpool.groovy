@@ -112,6 +112,11 @@ def setupDbPool = { String ctx_simplename ->
         'property'(name:'fetchSize', '1000')
         'property'(name:'maxBatchSize', '1000')
       }
+      sync(id:'diff') {
+        'property'(name:'fetchSize', '1000')
+        'property'(name:'maxBatchSize', '1000')
+        'property'(name:'versionPattern', '^version$')
+      }
       sync(id:'passive');
       state(id:'simple');
       cluster(
@@ -19,17 +19,33 @@
  ************************************************************************/
 package com.eucalyptus.auth;
 
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.eucalyptus.auth.principal.AccessKey;
+import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.auth.tokens.SecurityTokenManager;
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  *
  */
 public class AccessKeys {
 
+  /**
+   * Persistent access keys with their secret, status and user are cached
+   * briefly, changes made on this host invalidate the cache immediately.
+   */
+  private static final Cache<String,AccessKey> accessKeyCache = CacheBuilder.newBuilder()
+      .expireAfterWrite( 15, TimeUnit.SECONDS )
+      .maximumSize( 10000 )
+      .build();
+
   /**
    * Lookup an ephemeral or persistent access key.
    *
@@ -41,10 +57,28 @@ public class AccessKeys {
   public static AccessKey lookupAccessKey( @Nonnull  final String accessKeyId,
                                            @Nullable final String securityToken ) throws AuthException {
     return securityToken == null ?
-        Accounts.lookupAccessKeyById( accessKeyId ) :
+        lookupPersistentAccessKey( accessKeyId ) :
         SecurityTokenManager.lookupAccessKey( accessKeyId, securityToken );
   }
 
+  /**
+   * Discard any cached information for the given access key.
+   *
+   * @param accessKeyId The access key identifier
+   */
+  public static void invalidate( @Nullable final String accessKeyId ) {
+    if ( accessKeyId != null ) {
+      accessKeyCache.invalidate( accessKeyId );
+    }
+  }
+
+  /**
+   * Discard all cached access key information, for use on user or account changes.
+   */
+  public static void invalidateAll( ) {
+    accessKeyCache.invalidateAll( );
+  }
+
   /**
    * Predicate for active access keys.
    *
@@ -55,6 +89,91 @@ public class AccessKeys {
     return IS_ACTIVE.INSTANCE;
   }
 
+  private static AccessKey lookupPersistentAccessKey( final String accessKeyId ) throws AuthException {
+    if ( accessKeyId == null ) {
+      return Accounts.lookupAccessKeyById( accessKeyId );
+    }
+    try {
+      return accessKeyCache.get( accessKeyId, new Callable<AccessKey>() {
+        @Override
+        public AccessKey call( ) throws AuthException {
+          return new CachedAccessKey( Accounts.lookupAccessKeyById( accessKeyId ) );
+        }
+      } );
+    } catch ( final ExecutionException e ) {
+      if ( e.getCause( ) instanceof AuthException ) {
+        throw (AuthException) e.getCause( );
+      }
+      throw new AuthException( e.getCause( ) );
+    }
+  }
+
+  /**
+   * Snapshot of an access key, updates are passed through.
+   */
+  private static final class CachedAccessKey implements AccessKey {
+    private static final long serialVersionUID = 1L;
+
+    private final AccessKey delegate;
+    private final String accessKey;
+    private final String secretKey;
+    private final Boolean active;
+    private final Date createDate;
+    private final User user;
+
+    private CachedAccessKey( final AccessKey delegate ) throws AuthException {
+      this.delegate = delegate;
+      this.accessKey = delegate.getAccessKey( );
+      this.secretKey = delegate.getSecretKey( );
+      this.active = delegate.isActive( );
+      this.createDate = delegate.getCreateDate( );
+      this.user = delegate.getUser( );
+    }
+
+    @Override
+    public Boolean isActive( ) {
+      return active;
+    }
+
+    @Override
+    public void setActive( final Boolean active ) throws AuthException {
+      try {
+        delegate.setActive( active );
+      } finally {
+        invalidate( accessKey );
+      }
+    }
+
+    @Override
+    public String getAccessKey( ) {
+      return accessKey;
+    }
+
+    @Override
+    public String getSecretKey( ) {
+      return secretKey;
+    }
+
+    @Override
+    public Date getCreateDate( ) {
+      return createDate;
+    }
+
+    @Override
+    public void setCreateDate( final Date createDate ) throws AuthException {
+      try {
+        delegate.setCreateDate( createDate );
+      } finally {
+        invalidate( accessKey );
+      }
+    }
+
+    @Override
+    public User getUser( ) {
+      return user;
+    }
+  }
+
   private static enum IS_ACTIVE implements Predicate<AccessKey> {
     INSTANCE;
 
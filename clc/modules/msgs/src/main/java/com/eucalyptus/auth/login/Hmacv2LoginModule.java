@@ -94,26 +94,14 @@ public class Hmacv2LoginModule extends HmacLoginModuleSupport {
     String canonicalString = this.makeSubjectString( credentials.getVerb(), credentials.getHeaderHost(), credentials.getServicePath(), credentials.getParameters() );
     String canonicalStringWithPort = this.makeSubjectString( credentials.getVerb(), credentials.getHeaderHost() + ":" + credentials.getHeaderPort(), credentials.getServicePath(), credentials.getParameters() );
     String canonicalStringWithAwsCliPath = this.makeSubjectString( credentials.getVerb( ), credentials.getHeaderHost( ) + ":" + credentials.getHeaderPort( ), convertForAwsCli( credentials.getServicePath() ), credentials.getParameters( ) );
-    String computedSig = this.getSignature( secretKey, canonicalString, credentials.getSignatureMethod() );
-    String computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort, credentials.getSignatureMethod( ) );
-    String computedSigWithAwsCliPath = this.getSignature( secretKey, canonicalStringWithAwsCliPath, credentials.getSignatureMethod( ) );
-    if ( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) && !computedSigWithAwsCliPath.equals( sig ) ) {
+    String[] canonicalStrings = { canonicalString, canonicalStringWithPort, canonicalStringWithAwsCliPath };
+    Hmac signatureMethod = credentials.getSignatureMethod( );
+    if ( !signatureMatches( sig, secretKey, signatureMethod, canonicalStrings, null, null ) ) {
       sig = sanitize( urldecode( sig ) );
-      computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\+","%2B"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-      computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\+","%2B"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-      computedSigWithAwsCliPath = this.getSignature( secretKey, canonicalStringWithAwsCliPath.replaceAll("\\+","%2B"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-      if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) && !computedSigWithAwsCliPath.equals( sig ) ) {
-        computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\+","%20"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-        computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\+","%20"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-        computedSigWithAwsCliPath = this.getSignature( secretKey, canonicalStringWithAwsCliPath.replaceAll("\\+","%20"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-        if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) && !computedSigWithAwsCliPath.equals( sig ) ) {
-          computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\*","%2A"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-          computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\*","%2A"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-          computedSigWithAwsCliPath = this.getSignature( secretKey, canonicalStringWithAwsCliPath.replaceAll("\\*","%2A"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-          if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) && !computedSigWithAwsCliPath.equals( sig ) ) {
-            return false;
-          }
-        }
+      if ( !signatureMatches( sig, secretKey, signatureMethod, canonicalStrings, "\\+", "%2B" ) &&
+           !signatureMatches( sig, secretKey, signatureMethod, canonicalStrings, "\\+", "%20" ) &&
+           !signatureMatches( sig, secretKey, signatureMethod, canonicalStrings, "\\*", "%2A" ) ) {
+        return false;
       }
     }
     super.setCredential( credentials.getQueryIdCredential( ) );
@@ -149,6 +137,26 @@ public class Hmacv2LoginModule extends HmacLoginModuleSupport {
     return subject;
   }
 
+  /**
+   * Check the signature against each canonical string, stopping at the first match.
+   */
+  private boolean signatureMatches( final String signature,
+                                    final String secretKey,
+                                    final Hmac signatureMethod,
+                                    final String[] canonicalStrings,
+                                    final String regex,
+                                    final String replacement ) throws AuthenticationException {
+    for ( final String canonicalString : canonicalStrings ) {
+      final String computedSig = regex == null ?
+          this.getSignature( secretKey, canonicalString, signatureMethod ) :
+          this.getSignature( secretKey, canonicalString.replaceAll( regex, replacement ), signatureMethod ).replaceAll( "\\+", " " );
+      if ( computedSig.equals( signature ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public String getSignature( final String queryKey, final String subject, final Hmac mac ) throws AuthenticationException {
     SecretKeySpec signingKey = new SecretKeySpec( queryKey.getBytes( ), mac.toString( ) );
     try {
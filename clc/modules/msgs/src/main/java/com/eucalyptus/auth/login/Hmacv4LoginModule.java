@@ -30,6 +30,7 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -47,6 +48,8 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
@@ -54,6 +57,15 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
   private static final Logger LOG = Logger.getLogger( Hmacv4LoginModule.class );
   private static final String V4_TERMINATOR = "aws4_request";
 
+  /**
+   * Signing keys are derived per key/date/region/service so are cached
+   * rather than recomputed with four HMACs for every request.
+   */
+  private static final Cache<String,SigningKey> signingKeyCache = CacheBuilder.newBuilder()
+      .expireAfterAccess( 1, TimeUnit.HOURS )
+      .maximumSize( 10000 )
+      .build();
+
   public Hmacv4LoginModule() {
     super(4);
   }
@@ -74,8 +86,7 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
     final Date date = HmacUtils.getSignatureDate( EnumSet.of(HmacUtils.SignatureVersion.SignatureV4), headerLookup, parameterLookup );
     signatureCredential.verify( date, null, null, V4_TERMINATOR ); //TODO Do we want to validate region and service name?
     final User user = accessKey.getUser( );
-    final String secretKey = accessKey.getSecretKey( );
-    final byte[] signatureKey = getSignatureKey( secretKey, signatureCredential );
+    final byte[] signatureKey = getSignatureKey( accessKey.getSecretKey( ), signatureCredential );
     final String canonicalString = this.makeSubjectString( credentials, signatureCredential, authorizationParameters, date, false );
     final byte[] computedSig = this.getHmacSHA256( signatureKey, canonicalString );
     final byte[] providedSig = Hex.decode( sig );
@@ -169,8 +180,25 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
     }
   }
 
-  private byte[] getSignatureKey( final String key,
+  private byte[] getSignatureKey( final String secretKey,
                                   final SignatureCredential credential ) throws Exception {
+    final String cacheKey = Joiner.on( '/' ).join(
+        credential.getAccessKeyId( ),
+        credential.getDate( ),
+        credential.getRegion( ),
+        credential.getServiceName( ),
+        credential.getTerminator( ) );
+    final SigningKey cached = signingKeyCache.getIfPresent( cacheKey );
+    if ( cached != null && cached.secretKey.equals( secretKey ) ) {
+      return cached.signingKey;
+    }
+    final byte[] signingKey = deriveSignatureKey( secretKey, credential );
+    signingKeyCache.put( cacheKey, new SigningKey( secretKey, signingKey ) );
+    return signingKey;
+  }
+
+  private byte[] deriveSignatureKey( final String key,
+                                     final SignatureCredential credential ) throws Exception {
     return getHmacSHA256(
         getHmacSHA256(
             getHmacSHA256(
@@ -179,4 +207,14 @@ public class Hmacv4LoginModule extends HmacLoginModuleSupport {
             credential.getServiceName() ),
         credential.getTerminator() );
   }
+
+  private static final class SigningKey {
+    private final String secretKey;
+    private final byte[] signingKey;
+
+    private SigningKey( final String secretKey, final byte[] signingKey ) {
+      this.secretKey = secretKey;
+      this.signingKey = signingKey;
+    }
+  }
 }
@@ -0,0 +1,110 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.login;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Detection of replayed signatures.
+ *
+ * <p>Signatures are tracked by a 64 bit fingerprint in a ring of time
+ * buckets, a bucket is discarded as a whole once all its entries are older
+ * than the replay window so there is no per signature eviction work and
+ * memory use is a fixed cost per signature seen within the window.</p>
+ */
+class ReplayDetector {
+  private static final int BUCKETS = 16;
+  private static final HashFunction fingerprintFunction = Hashing.murmur3_128( );
+
+  private final long originNanos;
+  private final long windowNanos;
+  private final long bucketNanos;
+  private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>( BUCKETS );
+
+  ReplayDetector( final long window, final TimeUnit unit ) {
+    this( System.nanoTime( ), unit.toNanos( window ) );
+  }
+
+  ReplayDetector( final long originNanos, final long windowNanos ) {
+    this.originNanos = originNanos;
+    this.windowNanos = windowNanos;
+    this.bucketNanos = Math.max( 1L, ( windowNanos + BUCKETS - 2 ) / ( BUCKETS - 1 ) );
+  }
+
+  long getWindowNanos( ) {
+    return windowNanos;
+  }
+
+  /**
+   * Record use of a signature.
+   *
+   * @param signature The signature
+   * @param nowNanos The current time
+   * @param allowedReuseNanos Period after first use during which the signature may be reused
+   * @return false if the signature is replayed
+   */
+  boolean accept( final String signature, final long nowNanos, final long allowedReuseNanos ) {
+    final Long fingerprint = fingerprintFunction.hashString( signature, Charsets.UTF_8 ).asLong( );
+    final long epoch = ( nowNanos - originNanos ) / bucketNanos;
+    Long firstUse = null;
+    for ( int i = 0; i < BUCKETS && firstUse == null; i++ ) {
+      final Bucket bucket = buckets.get( i );
+      if ( bucket != null && epoch - bucket.epoch < BUCKETS ) {
+        firstUse = bucket.fingerprints.get( fingerprint );
+      }
+    }
+    if ( firstUse == null ) {
+      firstUse = bucket( epoch ).fingerprints.putIfAbsent( fingerprint, nowNanos );
+      if ( firstUse == null ) {
+        return true;
+      }
+    }
+    return allowedReuseNanos > 0 && nowNanos - firstUse <= allowedReuseNanos;
+  }
+
+  private Bucket bucket( final long epoch ) {
+    final int index = (int) ( epoch % BUCKETS );
+    while ( true ) {
+      final Bucket bucket = buckets.get( index );
+      if ( bucket != null && bucket.epoch >= epoch ) {
+        return bucket;
+      }
+      final Bucket created = new Bucket( epoch );
+      if ( buckets.compareAndSet( index, bucket, created ) ) {
+        return created;
+      }
+    }
+  }
+
+  private static final class Bucket {
+    private final long epoch;
+    private final ConcurrentMap<Long,Long> fingerprints = new ConcurrentHashMap<Long,Long>( );
+
+    private Bucket( final long epoch ) {
+      this.epoch = epoch;
+    }
+  }
+}
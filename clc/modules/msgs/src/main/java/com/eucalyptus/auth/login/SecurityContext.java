@@ -77,7 +77,6 @@ import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
 import javax.security.auth.spi.LoginModule;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.ServiceJarDiscovery;
-import com.eucalyptus.util.TimedEvictionSet;
 import com.google.common.collect.Lists;
 import com.eucalyptus.ws.StackConfiguration;
 
@@ -89,12 +88,12 @@ public class SecurityContext extends Configuration {
   // For AWS query interface, default expiration time is 15 mins
   // we cache for 15 mins 20 secs to allow for some clock drift
   // (in case creation Timestamp is up to 20 secs in the future)
-  private static TimedEvictionSet<String> replayQueue = new TimedEvictionSet<String>(TimeUnit.MILLISECONDS.convert(900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS));
+  private static ReplayDetector replayDetector = new ReplayDetector( 900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS );
   private List<String> loginModules = Lists.newArrayList( );
   private SecurityContext( ) {}
   
   public static void enqueueSignature( String signature ) throws AuthenticationException {
-    if( !SecurityContext.replayQueue.add( signature ) ) {
+    if( !SecurityContext.replayDetector.accept( signature, System.nanoTime( ), TimeUnit.SECONDS.toNanos( StackConfiguration.REPLAY_SKEW_WINDOW_SEC ) ) ) {
     	LOG.info("Replay detected for " + signature);
     	throw new AuthenticationException( "Message replay detected.  Same signature was used within the last 15 minutes");
     }
@@ -113,7 +112,7 @@ public class SecurityContext extends Configuration {
    * @return
    */
   public static boolean validateTimestampPeriod(Date expires) {
-	 Long nanoLimit = replayQueue.getEvictionNanos();
+	 Long nanoLimit = replayDetector.getWindowNanos();
 	 
 	 Date currentDate = new Date();
 	 if((currentDate.getTime() + (nanoLimit / 1000000)) < expires.getTime())
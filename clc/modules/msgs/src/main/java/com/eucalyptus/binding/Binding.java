@@ -62,7 +62,6 @@
 
 package com.eucalyptus.binding;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -82,6 +81,10 @@ import org.apache.axiom.soap.SOAPFaultCode;
 import org.apache.axiom.soap.SOAPFaultDetail;
 import org.apache.axiom.soap.SOAPFaultReason;
 import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jibx.runtime.BindingDirectory;
 import org.jibx.runtime.IBindingFactory;
@@ -100,6 +103,7 @@ import edu.ucsb.eucalyptus.msgs.BaseMessage;
 public class Binding {
   
   private static Logger       LOG                 = Logger.getLogger( Binding.class );
+  public static final int     INITIAL_BUFFER_SIZE = 4096;
   private final String        name;
   private IBindingFactory     bindingFactory;
   private Map<String, Class>  elementToClassMap   = Maps.newHashMap( );
@@ -208,12 +212,12 @@ public class Binding {
   }
 
   public OMElement toOM( final Object param, final String altNs ) throws BindingException {
-    final ByteArrayOutputStream bos = new ByteArrayOutputStream( );
-    final String useNs = toStream( bos, param, altNs );
+    final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( INITIAL_BUFFER_SIZE );
+    final String useNs = toStream( new ChannelBufferOutputStream( buffer ), param, altNs );
     final OMElement retVal;
     HoldMe.canHas.lock( );
     try {
-      final StAXOMBuilder stAXOMBuilder = HoldMe.getStAXOMBuilder( HoldMe.getXMLStreamReader( bos.toString() ) );
+      final StAXOMBuilder stAXOMBuilder = HoldMe.getStAXOMBuilder( HoldMe.getXMLStreamReader( new ChannelBufferInputStream( buffer ) ) );
       retVal = stAXOMBuilder.getDocumentElement( );
     } catch ( XMLStreamException e ) {
       LOG.error( e, e );
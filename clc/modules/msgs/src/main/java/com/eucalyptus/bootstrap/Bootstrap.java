@@ -67,7 +67,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
@@ -91,8 +93,10 @@ import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.util.LogUtil;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * Mechanism for setting up and progressing through the sequence of stages the system goes through
@@ -297,10 +301,13 @@ public class Bootstrap {
     public void load( ) {
       this.updateBootstrapDependencies( );
       this.printAgenda( );
+      final long stageStart = System.nanoTime( );
       for ( Bootstrapper b : this.bootstrappers ) {
         try {
           EventRecord.here( Bootstrap.class, EventType.BOOTSTRAPPER_LOAD, this.name( ), b.getClass( ).getCanonicalName( ) ).info( );
+          final long start = System.nanoTime( );
           boolean result = b.load( );
+          LOG.debug( b.getClass( ).getSimpleName( ) + ".load( ) completed in " + elapsedMillis( start ) + "ms" );
           if ( !result ) {
             throw BootstrapException.throwFatal( b.getClass( ).getSimpleName( ) + " returned 'false' from load( ): terminating bootstrap." );
           }
@@ -310,15 +317,21 @@ public class Bootstrap {
                                                + e.getMessage( ), e );
         }
       }
+      if ( !this.bootstrappers.isEmpty( ) ) {
+        recordTiming( this.name( ) + ".load()", stageStart );
+      }
     }
     
     public void start( ) {
       this.updateBootstrapDependencies( );
       this.printAgenda( );
+      final long stageStart = System.nanoTime( );
       for ( Bootstrapper b : this.bootstrappers ) {
         try {
           EventRecord.here( Bootstrap.class, EventType.BOOTSTRAPPER_START, this.name( ), b.getClass( ).getCanonicalName( ) ).info( );
+          final long start = System.nanoTime( );
           boolean result = b.start( );
+          LOG.debug( b.getClass( ).getSimpleName( ) + ".start( ) completed in " + elapsedMillis( start ) + "ms" );
           if ( !result ) {
             throw BootstrapException.throwFatal( b.getClass( ).getSimpleName( ) + " returned 'false' from start( ): terminating bootstrap." );
           }
@@ -328,6 +341,9 @@ public class Bootstrap {
                                                + e.getMessage( ), e );
         }
       }
+      if ( !this.bootstrappers.isEmpty( ) ) {
+        recordTiming( this.name( ) + ".start()", stageStart );
+      }
     }
     
     public String describe( ) {
@@ -345,6 +361,35 @@ public class Bootstrap {
   private static Boolean finished     = false;
   private static Stage   currentStage = Stage.SystemInit;
   static Boolean         shutdown     = false;
+  private static final Map<String, Long> phaseTimings = Collections.synchronizedMap( Maps.<String, Long>newLinkedHashMap( ) );
+  
+  /**
+   * Get the elapsed time for each completed bootstrap phase.
+   * 
+   * @return Map of phase name to elapsed milliseconds, in completion order
+   */
+  public static Map<String, Long> getPhaseTimings( ) {
+    synchronized ( phaseTimings ) {
+      return ImmutableMap.copyOf( phaseTimings );
+    }
+  }
+  
+  private static long elapsedMillis( final long startNanos ) {
+    return TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - startNanos );
+  }
+  
+  private static void recordTiming( final String phase, final long startNanos ) {
+    final long millis = elapsedMillis( startNanos );
+    phaseTimings.put( phase, millis );
+    LOG.info( "Bootstrap phase " + phase + " completed in " + millis + "ms" );
+  }
+  
+  private static void logTimings( ) {
+    LOG.info( LogUtil.subheader( "Bootstrap phase timings" ) );
+    for ( final Map.Entry<String, Long> entry : getPhaseTimings( ).entrySet( ) ) {
+      LOG.info( String.format( "%-48s %8dms", entry.getKey( ), entry.getValue( ) ) );
+    }
+  }
   
   /**
    * @return Bootstrap.currentStage
@@ -458,6 +503,7 @@ public class Bootstrap {
           loading = true;
           starting = true;
           finished = true;
+          logTimings( );
         }
         return currentStage;
       }
@@ -553,7 +599,9 @@ public class Bootstrap {
      * Populate the binding cache.  Skip it when running the upgrade.
      */
     LOG.info( LogUtil.header( "Populating binding cache." ) );
+    long start = System.nanoTime( );
     BindingCache.compileBindings( );
+    recordTiming( "BindingCache", start );
     /**
      * run discovery to find (primarily) bootstrappers, msg typs, bindings, util-providers, etc. See
      * the descendants of {@link ServiceJarDiscovery}.
@@ -561,9 +609,12 @@ public class Bootstrap {
      * @see ServiceJarDiscovery
      */
     LOG.info( LogUtil.header( "Initializing discoverable bootstrap resources." ) );
+    start = System.nanoTime( );
     Bootstrap.doDiscovery( );
+    recordTiming( "Discovery", start );
     
     LOG.info( LogUtil.header( "Initializing component identifiers:" ) );
+    start = System.nanoTime( );
     for ( ComponentId compId : ComponentIds.list( ) ) {
       Components.create( compId );
     }
@@ -583,9 +634,12 @@ public class Bootstrap {
     
     LOG.info( LogUtil.header( "Initializing component resources:" ) );
     Bootstrap.applyTransition( Component.State.INITIALIZED, Components.whichCanLoad( ) );
+    recordTiming( "ComponentInitialization", start );
     
     LOG.info( LogUtil.header( "Initializing bootstrappers." ) );
+    start = System.nanoTime( );
     Bootstrap.initBootstrappers( );
+    recordTiming( "BootstrapperInitialization", start );
     
     LOG.info( LogUtil.header( "System ready: starting bootstrap." ) );
     for ( Component c : Components.list( ) ) {
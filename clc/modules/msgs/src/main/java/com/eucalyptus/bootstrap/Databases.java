@@ -148,6 +148,10 @@ public class Databases {
       Threads.filterStackByQualifiedName( "com\\.eucalyptus\\.bootstrap\\.Databases.*" ) );
   private static Predicate<StackTraceElement> stackFilter                    = Predicates.not( notStackFilterYouAreLookingFor );
 
+  private static final String FULL_SYNC_STRATEGY = "full";
+  private static final String DIFF_SYNC_STRATEGY = "diff";
+  private static final String SYNC_STRATEGY_PROPERTY = "euca.db.sync.strategy";
+
   private static final int DATABASE_WEIGHT_PRIMARY = 100;
   private static final int DATABASE_WEIGHT_SECONDARY = 1;
 
@@ -297,6 +301,36 @@ public class Databases {
     }
   }
   
+  /**
+   * Progress of the synchronization of databases on this host.
+   */
+  static class SyncProgress {
+    private static final Map<String, String> status    = Maps.newConcurrentMap( );
+    private static final AtomicInteger       completed = new AtomicInteger( );
+
+    static void started( final String contextName, final String strategy ) {
+      status.put( contextName, "SYNCING using " + strategy );
+    }
+
+    static void completed( final String contextName, final String strategy, final long startMillis ) {
+      final long elapsed = System.currentTimeMillis( ) - startMillis;
+      status.put( contextName, "SYNCED using " + strategy + " in " + elapsed + "ms" );
+      LOG.info( "Database sync progress: " + completed.incrementAndGet( ) + " of " + listDatabases( ).size( )
+                + " synchronized (" + contextName + " in " + elapsed + "ms using " + strategy + ")" );
+    }
+
+    static void failed( final String contextName, final String strategy, final Throwable cause ) {
+      status.put( contextName, "FAILED using " + strategy + ": " + cause.getMessage( ) );
+    }
+  }
+
+  /**
+   * Status of the synchronization of each database on this host.
+   */
+  public static Map<String, String> getSyncStatus( ) {
+    return ImmutableMap.copyOf( SyncProgress.status );
+  }
+
   enum ExecuteRunnable implements Function<Runnable, Future<Runnable>> {
     INSTANCE;
     @Override
@@ -523,6 +557,106 @@ public class Databases {
   
   enum ActivateHostFunction implements Function<Host, Function<String, Runnable>> {
     INSTANCE;
+
+    /**
+     * Strategy for synchronizing a joining host, differential by default
+     * so that only changed rows (by entity version) are copied.
+     */
+    private static String fullSyncStrategy( final DatabaseClusterMBean cluster ) {
+      final Set<String> strategies = cluster.getsynchronizationStrategies( );
+      final String configured = System.getProperty( SYNC_STRATEGY_PROPERTY, DIFF_SYNC_STRATEGY );
+      if ( strategies.contains( configured ) ) {
+        return configured;
+      } else {
+        return strategies.contains( FULL_SYNC_STRATEGY ) ?
+          FULL_SYNC_STRATEGY :
+          Iterables.getFirst( Sets.difference(
+            strategies,
+            Collections.singleton( cluster.getdefaultSynchronizationStrategy( ) ) ), FULL_SYNC_STRATEGY );
+      }
+    }
+
+    /**
+     * Activate with the given strategy, falling back to a full sync if
+     * the strategy fails (e.g. a table without a primary key)
+     */
+    private static void activateWithSync( final DatabaseClusterMBean cluster,
+                                          final String hostName,
+                                          final String contextName,
+                                          final String strategy ) {
+      final long start = System.currentTimeMillis( );
+      SyncProgress.started( contextName, strategy );
+      try {
+        cluster.activate( hostName, strategy );
+        SyncProgress.completed( contextName, strategy, start );
+      } catch ( final RuntimeException ex ) {
+        if ( FULL_SYNC_STRATEGY.equals( strategy ) || !cluster.getsynchronizationStrategies( ).contains( FULL_SYNC_STRATEGY ) ) {
+          SyncProgress.failed( contextName, strategy, ex );
+          throw ex;
+        }
+        LOG.warn( "Sync of database " + contextName + " using " + strategy + " failed, retrying using " + FULL_SYNC_STRATEGY + ": " + ex.getMessage( ) );
+        activateWithSync( cluster, hostName, contextName, FULL_SYNC_STRATEGY );
+      }
+    }
+    /**
+     * Create child tables (e.g. daily partitions declared with INHERITS) that
+     * exist on an active database but not on the database being activated,
+     * synchronization copies rows but does not create tables.
+     */
+    private static void createInheritedTables( final Host host, final String contextName ) {
+      Host source = null;
+      for ( final Host activeHost : Hosts.listActiveDatabases( ) ) {
+        if ( !activeHost.equals( host ) ) {
+          source = activeHost;
+          break;
+        }
+      }
+      if ( source == null ) return;
+      final String inheritedTablesSql =
+          "select c.oid, c.relname, p.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid" +
+          " join pg_class p on p.oid = i.inhparent join pg_namespace n on n.oid = c.relnamespace" +
+          " where n.nspname = current_schema() order by c.relname";
+      try {
+        final Connection sourceConn = DriverManager.getConnection( String.format( "jdbc:%s", ServiceUris.remote( Database.class, source.getBindAddress( ), contextName ) ),
+                                                                   Databases.getUserName( ), Databases.getPassword( ) );
+        try {
+          final Connection targetConn = DriverManager.getConnection( String.format( "jdbc:%s", ServiceUris.remote( Database.class, host.getBindAddress( ), contextName ) ),
+                                                                     Databases.getUserName( ), Databases.getPassword( ) );
+          try {
+            final Set<String> existing = Sets.newHashSet( );
+            final ResultSet targetTables = targetConn.prepareStatement( inheritedTablesSql ).executeQuery( );
+            while ( targetTables.next( ) ) {
+              existing.add( targetTables.getString( 2 ) );
+            }
+            final ResultSet sourceTables = sourceConn.prepareStatement( inheritedTablesSql ).executeQuery( );
+            final PreparedStatement constraints = sourceConn.prepareStatement(
+                "select conname, pg_get_constraintdef(oid) from pg_constraint where conrelid = ? and contype = 'c' and conislocal" );
+            while ( sourceTables.next( ) ) {
+              final String table = sourceTables.getString( 2 );
+              if ( existing.contains( table ) ) continue;
+              final StringBuilder create = new StringBuilder( "create table if not exists " ).append( table )
+                  .append( " (like " ).append( sourceTables.getString( 3 ) ).append( " including defaults including indexes" );
+              constraints.setLong( 1, sourceTables.getLong( 1 ) );
+              final ResultSet tableConstraints = constraints.executeQuery( );
+              while ( tableConstraints.next( ) ) {
+                create.append( ", constraint " ).append( tableConstraints.getString( 1 ) ).append( ' ' ).append( tableConstraints.getString( 2 ) );
+              }
+              create.append( ") inherits (" ).append( sourceTables.getString( 3 ) ).append( ")" );
+              targetConn.createStatement( ).execute( create.toString( ) );
+              LOG.info( "Created inherited table " + table + " in database " + contextName + " on: " + host );
+            }
+          } finally {
+            targetConn.close( );
+          }
+        } finally {
+          sourceConn.close( );
+        }
+      } catch ( final Exception ex ) {
+        LOG.error( "Error creating inherited tables in database " + contextName + " on: " + host + ": " + ex.getMessage( ) );
+        Logs.extreme( ).error( ex, ex );
+      }
+    }
+
     private static void prepareConnections( final Host host, final String contextName ) throws NoSuchElementException {
       final String dbUrl = "jdbc:" + ServiceUris.remote( Database.class, host.getBindAddress( ), contextName );
       final String hostName = host.getDisplayName();
@@ -556,9 +690,7 @@ public class Databases {
                   final boolean activated = cluster.getactiveDatabases().contains( hostName );
                   final boolean deactivated = cluster.getinactiveDatabases().contains( hostName );
                   final String passiveStrategy = cluster.getdefaultSynchronizationStrategy();
-                  final String fullStrategy = Iterables.getFirst( Sets.difference( 
-                      cluster.getsynchronizationStrategies(), 
-                      Collections.singleton( passiveStrategy ) ), "full" );
+                  final String fullStrategy = fullSyncStrategy( cluster );
                   final String syncStrategy = fullSync ? fullStrategy : passiveStrategy;
                   if ( activated ) {
                     resetDatabaseWeights( contextName );
@@ -600,13 +732,15 @@ public class Databases {
                     }
                   }
 
+                  createInheritedTables( host, contextName );
                   try {
                     if ( fullSync ) {
                       LOG.info( "Full sync of database " + ctx + " on: " + host + " using: " + fullStrategy );
+                      activateWithSync( cluster, hostName, contextName, fullStrategy );
                     } else {
                       LOG.info( "Passive activation of database " + ctx + " connections to: " + host );
+                      cluster.activate( hostName, syncStrategy );
                     }
-                    cluster.activate( hostName, syncStrategy );
                     if ( fullSync ) {
                       LOG.info( "Full sync of database " + ctx + " on: " + host + " using " + cluster.getactiveDatabases() );
                     } else {
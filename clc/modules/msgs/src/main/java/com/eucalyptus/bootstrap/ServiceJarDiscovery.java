@@ -85,8 +85,13 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 import javax.persistence.PersistenceContext;
 import org.apache.bcel.util.ClassPath;
 import org.apache.log4j.Logger;
@@ -129,6 +134,7 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
 
 /**
  * TODO: DOCUMENT
@@ -138,18 +144,21 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
   private static SortedSet<ServiceJarDiscovery> discovery = Sets.newTreeSet( );
   private static Multimap<Class, String>        classList = ArrayListMultimap.create( );
   
+  private static final Pattern                  CLASS_ENTRY             = Pattern.compile( ".*\\.class.{0,1}" );
+  private static final Pattern                  CLASS_SUFFIX            = Pattern.compile( "\\.class.{0,1}" );
+  private static final List<Class>              pendingDiscovery        = Collections.synchronizedList( Lists.<Class>newArrayList( ) );
+  
   enum JarFilePass {
     CLASSES {
       @Override
       public void process( File f ) throws Exception {
         final JarFile jar = new JarFile( f );
-        final Properties props = new Properties( );
         final List<JarEntry> jarList = Collections.list( jar.entries( ) );
         LOG.trace( "-> Trying to load component info from " + f.getAbsolutePath( ) );
         for ( final JarEntry j : jarList ) {
           try {
-            if ( j.getName( ).matches( ".*\\.class.{0,1}" ) ) {
-              handleClassFile( f, j );
+            if ( CLASS_ENTRY.matcher( j.getName( ) ).matches( ) ) {
+              handleClass( f, CLASS_SUFFIX.matcher( j.getName( ).replace( '/', '.' ) ).replaceAll( "" ) );
             }
           } catch ( RuntimeException ex ) {
             LOG.error( ex, ex );
@@ -159,63 +168,6 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
         }
         jar.close( );
       }
-      
-      private void handleClassFile( final File f, final JarEntry j ) throws IOException, RuntimeException {
-        final String classGuess = j.getName( ).replaceAll( "/", "." ).replaceAll( "\\.class.{0,1}", "" );
-        try {
-          final Class candidate = ClassLoader.getSystemClassLoader( ).loadClass( classGuess );
-          classList.put( candidate, f.getAbsolutePath( ) );
-          if ( ServiceJarDiscovery.class.isAssignableFrom( candidate ) && !ServiceJarDiscovery.class.equals( candidate ) && !candidate.isAnonymousClass( ) ) {
-            try {
-              final ServiceJarDiscovery discover = ( ServiceJarDiscovery ) candidate.newInstance( );
-              discovery.add( discover );
-            } catch ( final Exception e ) {
-              LOG.fatal( e, e );
-              throw new RuntimeException( e );
-            }
-          } else if ( Ats.from( candidate ).has( Bootstrap.Discovery.class ) && Predicate.class.isAssignableFrom( candidate ) ) {
-            try {
-              @SuppressWarnings( { "rawtypes",
-                  "unchecked" } )
-              final ServiceJarDiscovery discover = new ServiceJarDiscovery( ) {
-                final Bootstrap.Discovery annote   = Ats.from( candidate ).get( Bootstrap.Discovery.class );
-                final Predicate<Class>    instance = ( Predicate<Class> ) Classes.builder( candidate ).newInstance( );
-                
-                @Override
-                public boolean processClass( Class discoveryCandidate ) throws Exception {
-                  boolean classFiltered =
-                    this.annote.value( ).length != 0 ? Iterables.any( Arrays.asList( this.annote.value( ) ), Classes.assignableTo( discoveryCandidate ) )
-                                                    : true;
-                  if ( classFiltered ) {
-                    boolean annotationFiltered =
-                      this.annote.annotations( ).length != 0 ? Iterables.any( Arrays.asList( this.annote.annotations( ) ), Ats.from( discoveryCandidate ) )
-                                                            : true;
-                    if ( annotationFiltered ) {
-                      return this.instance.apply( discoveryCandidate );
-                    } else {
-                      return false;
-                    }
-                  } else {
-                    return false;
-                  }
-                }
-                
-                @Override
-                public Double getPriority( ) {
-                  return this.annote.priority( );
-                }
-              };
-              discovery.add( discover );
-            } catch ( final Exception e ) {
-              LOG.fatal( e, e );
-              throw new RuntimeException( e );
-            }
-          }
-        } catch ( final ClassNotFoundException e ) {
-          LOG.debug( e, e );
-        }
-      }
-      
     };
     
     JarFilePass( ) {}
@@ -223,11 +175,87 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
     public abstract void process( final File f ) throws Exception;
   }
   
+  private static void handleClass( final File f, final String className ) {
+    try {
+      final Class candidate = ClassLoader.getSystemClassLoader( ).loadClass( className );
+      synchronized ( classList ) {
+        classList.put( candidate, f.getAbsolutePath( ) );
+      }
+      if ( ( ServiceJarDiscovery.class.isAssignableFrom( candidate ) && !ServiceJarDiscovery.class.equals( candidate ) && !candidate.isAnonymousClass( ) )
+           || ( Ats.from( candidate ).has( Bootstrap.Discovery.class ) && Predicate.class.isAssignableFrom( candidate ) ) ) {
+        pendingDiscovery.add( candidate );
+      }
+    } catch ( final ClassNotFoundException e ) {
+      LOG.debug( e, e );
+    }
+  }
+  
+  /**
+   * Instantiate the discovery implementations found while processing jars.
+   * 
+   * Instantiation is deferred so that static initialization does not happen
+   * on the threads used to load classes.
+   */
+  private static void registerDiscovery( ) {
+    final List<Class> candidates;
+    synchronized ( pendingDiscovery ) {
+      candidates = Lists.newArrayList( pendingDiscovery );
+      pendingDiscovery.clear( );
+    }
+    for ( final Class candidate : candidates ) {
+      try {
+        discovery.add( createDiscovery( candidate ) );
+      } catch ( final Exception e ) {
+        LOG.fatal( e, e );
+        LOG.error( "Failed to create discovery for " + candidate.getName( ) + ": " + e.getMessage( ) );
+      }
+    }
+  }
+  
+  @SuppressWarnings( { "rawtypes", "unchecked" } )
+  private static ServiceJarDiscovery createDiscovery( final Class candidate ) throws Exception {
+    if ( ServiceJarDiscovery.class.isAssignableFrom( candidate ) ) {
+      return ( ServiceJarDiscovery ) candidate.newInstance( );
+    } else {
+      return new ServiceJarDiscovery( ) {
+        final Bootstrap.Discovery annote   = Ats.from( candidate ).get( Bootstrap.Discovery.class );
+        final Predicate<Class>    instance = ( Predicate<Class> ) Classes.builder( candidate ).newInstance( );
+        
+        @Override
+        public boolean processClass( Class discoveryCandidate ) throws Exception {
+          boolean classFiltered =
+            this.annote.value( ).length != 0 ? Iterables.any( Arrays.asList( this.annote.value( ) ), Classes.assignableTo( discoveryCandidate ) )
+                                            : true;
+          if ( classFiltered ) {
+            boolean annotationFiltered =
+              this.annote.annotations( ).length != 0 ? Iterables.any( Arrays.asList( this.annote.annotations( ) ), Ats.from( discoveryCandidate ) )
+                                                    : true;
+            if ( annotationFiltered ) {
+              return this.instance.apply( discoveryCandidate );
+            } else {
+              return false;
+            }
+          } else {
+            return false;
+          }
+        }
+        
+        @Override
+        public Double getPriority( ) {
+          return this.annote.priority( );
+        }
+      };
+    }
+  }
+  
+  private static boolean isComponentJar( final File f ) {
+    return f.getName( ).startsWith( "eucalyptus" ) && f.getName( ).endsWith( ".jar" ) && !f.getName( ).matches( ".*-ext-.*" );
+  }
+  
   private static void doDiscovery( ) {
     final File libDir = new File( BaseDirectory.LIB.toString( ) );
     for ( final File f : libDir.listFiles( ) ) {
-      if ( f.getName( ).startsWith( "eucalyptus" ) && f.getName( ).endsWith( ".jar" )
-           && !f.getName( ).matches( ".*-ext-.*" ) ) {
+      if ( isComponentJar( f ) ) {
         LOG.debug( "Found eucalyptus component jar: " + f.getName( ) );
         try {
           ServiceJarDiscovery.JarFilePass.CLASSES.process( f );
@@ -237,14 +265,14 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
         }
       }
     }
+    ServiceJarDiscovery.registerDiscovery( );
     ServiceJarDiscovery.runDiscovery( );
   }
   
   public static void doSingleDiscovery( final ServiceJarDiscovery s ) {
     final File libDir = new File( BaseDirectory.LIB.toString( ) );
     for ( final File f : libDir.listFiles( ) ) {
-      if ( f.getName( ).startsWith( "eucalyptus" ) && f.getName( ).endsWith( ".jar" )
-             && !f.getName( ).matches( ".*-ext-.*" ) ) {
+      if ( isComponentJar( f ) ) {
         LOG.debug( "Found eucalyptus component jar: " + f.getName( ) );
         try {
           ServiceJarDiscovery.JarFilePass.CLASSES.process( f );
@@ -254,6 +282,7 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
         }
       }
     }
+    ServiceJarDiscovery.registerDiscovery( );
     ServiceJarDiscovery.runDiscovery( s );
   }
   
@@ -323,20 +352,43 @@ public abstract class ServiceJarDiscovery implements Comparable<ServiceJarDiscov
     return this.getDistinctPriority( ).compareTo( that.getDistinctPriority( ) );
   }
   
+  /**
+   * Load classes from the component jars in parallel.
+   */
   public static void processLibraries( ) {
     final File libDir = new File( BaseDirectory.LIB.toString( ) );
+    final List<File> jars = Lists.newArrayList( );
     for ( final File f : libDir.listFiles( ) ) {
-      if ( f.getName( ).startsWith( "eucalyptus" ) && f.getName( ).endsWith( ".jar" )
-           && !f.getName( ).matches( ".*-ext-.*" ) ) {
+      if ( isComponentJar( f ) ) {
         EventRecord.here( ServiceJarDiscovery.class, EventType.BOOTSTRAP_INIT_SERVICE_JAR, f.getName( ) ).info( );
-        try {
-          ServiceJarDiscovery.JarFilePass.CLASSES.process( f );
-        } catch ( final Throwable e ) {
-          Bootstrap.LOG.error( e.getMessage( ) );
-          continue;
-        }
+        jars.add( f );
       }
     }
+    final long start = System.nanoTime( );
+    final ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( jars.size( ), Runtime.getRuntime( ).availableProcessors( ) ) ) );
+    try {
+      final List<Future<?>> futures = Lists.newArrayList( );
+      for ( final File f : jars ) {
+        futures.add( executor.submit( new Runnable( ) {
+          @Override
+          public void run( ) {
+            try {
+              ServiceJarDiscovery.JarFilePass.CLASSES.process( f );
+            } catch ( final Throwable e ) {
+              LOG.error( "Failed to load classes from " + f.getName( ) + ": " + e.getMessage( ), e );
+            }
+          }
+        } ) );
+      }
+      for ( final Future<?> future : futures ) {
+        Futures.getUnchecked( future );
+      }
+    } finally {
+      executor.shutdown( );
+    }
+    registerDiscovery( );
+    LOG.info( "Loaded " + classList.keySet( ).size( ) + " classes from " + jars.size( ) + " jars in "
+              + TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - start ) + "ms" );
   }
   
   public static URLClassLoader makeClassLoader( final File libDir ) {
@@ -80,6 +80,7 @@ import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.util.FullName;
 import com.eucalyptus.util.HasName;
 import com.eucalyptus.util.Internets;
+import com.eucalyptus.util.async.ClientChannelPool;
 import com.eucalyptus.util.fsm.Automata;
 import com.eucalyptus.util.fsm.StateMachine;
 import com.eucalyptus.util.fsm.TransitionException;
@@ -239,6 +240,7 @@ public class Component implements HasName<Component> {
         EventRecord.caller( Component.class, EventType.COMPONENT_SERVICE_DESTROY, this.getName( ), configuration.getFullName( ),
                             ServiceUris.remote( configuration ).toASCIIString( ) ).info( );
         this.serviceRegistry.deregister( configuration );
+        ClientChannelPool.remove( configuration );
       } catch ( Exception ex ) {
         throw new ServiceRegistrationException( "Failed to destroy service: " + configuration
                                                 + " because of: "
@@ -397,6 +397,13 @@ public abstract class ComponentId implements HasName<ComponentId>, HasFullName<C
     return this.ats.has( AdminService.class );
   }
   
+  /**
+   * @return true if client connections to this service may be kept alive and reused, false otherwise.
+   */
+  public boolean isClientChannelPooled( ) {
+    return true;
+  }
+  
   /**
    * @return
    */
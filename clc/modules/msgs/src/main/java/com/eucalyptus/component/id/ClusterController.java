@@ -142,6 +142,11 @@ public class ClusterController extends ComponentId {
       return "/axis2/services/EucalyptusGL";
     }
     
+    @Override
+    public boolean isClientChannelPooled( ) {
+      return false;
+    }
+    
     @Override
     public String getInternalServicePath( final String... pathParts ) {
       return this.getServicePath( pathParts );
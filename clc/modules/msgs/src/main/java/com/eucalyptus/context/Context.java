@@ -195,11 +195,21 @@ public class Context {
   public User getUser( ) {
     return check( this.user );
   }
+
+  /**
+   * Check if the request has been authenticated, anonymous requests have no user.
+   */
+  public boolean hasUser( ) {
+    return this.user != null;
+  }
   
   void setMuleEvent( MuleEvent event ) {
     if ( event != null && this.muleEvent.get( ) == null ) {
 //      LOG.debug( EventType.CONTEXT_EVENT + " associated event context found for " + this.correlationId + " other corrId: " + event.getId( ) );
       this.muleEvent = new WeakReference<MuleEvent>( event );
+      if ( this.channel != null && !this.channelManaged ) {
+        Statistics.serviceStarted( this.channel );
+      }
     }
   }
   
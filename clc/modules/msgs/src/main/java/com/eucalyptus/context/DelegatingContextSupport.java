@@ -46,6 +46,11 @@ abstract class DelegatingContextSupport extends Context implements Wrapper<Conte
     return this.delegate.getUser();
   }
 
+  @Override
+  public boolean hasUser( ) {
+    return this.delegate.hasUser();
+  }
+
   @Override
   public Account getAccount( ) {
     return this.delegate.getAccount();
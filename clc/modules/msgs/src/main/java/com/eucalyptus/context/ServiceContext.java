@@ -62,12 +62,17 @@
 
 package com.eucalyptus.context;
 
-import java.util.concurrent.Callable;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.log4j.Logger;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.mule.DefaultMuleEvent;
 import org.mule.RequestContext;
 import org.mule.api.MuleContext;
@@ -95,9 +100,8 @@ import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.configurable.ConfigurableProperty;
 import com.eucalyptus.configurable.ConfigurablePropertyException;
 import com.eucalyptus.configurable.PropertyChangeListener;
-import com.eucalyptus.empyrean.Empyrean;
-import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Exceptions;
+import com.google.common.collect.Maps;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 @ConfigurableClass( root = "bootstrap.servicebus", description = "Parameters having to do with the service bus." )
@@ -124,6 +128,9 @@ public class ServiceContext {
   
   private static final VMMessageDispatcherFactory  dispatcherFactory = new VMMessageDispatcherFactory( );
   private static final AtomicReference<MuleClient> client            = new AtomicReference<MuleClient>( null );
+  private static final AtomicReference<DispatcherCache> dispatchers   = new AtomicReference<DispatcherCache>( null );
+  private static final long                        CONTEXT_EXPIRY_SECS = 60;
+  private static final HashedWheelTimer            contextExpiryTimer = new HashedWheelTimer( 1, TimeUnit.SECONDS );
   private static final BootstrapException          failEx            = new BootstrapException(
                                                                                                     "Attempt to use esb client before the service bus has been started." );
   
@@ -137,9 +144,10 @@ public class ServiceContext {
       throw new ServiceDispatchException( "Failed to dispatch message to " + dest + " caused by failure to obtain service context reference: "
                                           + ex.getMessage( ), ex );
     }
+    final DispatcherCache dispatcherCache = dispatcherCache( muleCtx );
     OutboundEndpoint endpoint;
     try {
-      endpoint = muleCtx.getEndpointFactory( ).getOutboundEndpoint( dest );
+      endpoint = dispatcherCache.getEndpoint( dest );
       perhapsConfigureConnector( endpoint.getConnector( ) );
     } catch ( MuleException ex ) {
       LOG.error( ex, ex );
@@ -151,13 +159,13 @@ public class ServiceContext {
       ? Contexts.createWrapped( dest, ( BaseMessage ) msg )
       : null;
     MessageDispatcher dispatcher = null;
+    boolean dispatched = false;
     try {
-      dispatcher = dispatcherFactory.create( endpoint );
-      dispatcher.initialise( );
-      dispatcher.start( );
+      dispatcher = dispatcherCache.borrowDispatcher( dest, endpoint );
       MuleMessage muleMsg = dispatcher.createMuleMessage( msg );
       MuleEvent muleEvent = new DefaultMuleEvent( muleMsg, endpoint.getExchangePattern(), (FlowConstruct) null, muleSession );
       dispatcher.process( muleEvent );
+      dispatched = true;
     } catch ( DispatchException ex ) {
       LOG.error( ex, ex );
       throw new ServiceDispatchException( "Error while dispatching message (" + msg + ") to " + dest + " caused by: " + ex.getMessage( ), ex );
@@ -166,20 +174,105 @@ public class ServiceContext {
       throw new ServiceDispatchException( "Failed to dispatch message to " + dest + " caused by failure to obtain service dispatcher reference: "
                                           + ex.getMessage( ), ex );
     } finally {
-      if ( dispatcher != null ) dispatcher.dispose( );
+      if ( dispatcher != null ) {
+        if ( dispatched ) {
+          dispatcherCache.returnDispatcher( dest, dispatcher );
+        } else {
+          dispatcher.dispose( );
+        }
+      }
     }
-    Threads.enqueue( Empyrean.class, ServiceContext.class, new Callable<Boolean>( ) {
-      @Override
-      public Boolean call( ) {
-        try {
-          TimeUnit.SECONDS.sleep( 60 );
+    if ( ctx != null ) {
+      contextExpiryTimer.newTimeout( new TimerTask( ) {
+        @Override
+        public void run( final Timeout timeout ) {
           Contexts.clear( ctx );
-        } catch ( InterruptedException ex ) {
-          Thread.currentThread( ).interrupt( );
         }
-        return true;
+      }, CONTEXT_EXPIRY_SECS, TimeUnit.SECONDS );
+    }
+  }
+  
+  private static DispatcherCache dispatcherCache( final MuleContext muleCtx ) {
+    DispatcherCache cache;
+    while ( ( cache = dispatchers.get( ) ) == null || cache.muleContext != muleCtx ) {
+      final DispatcherCache newCache = new DispatcherCache( muleCtx );
+      if ( dispatchers.compareAndSet( cache, newCache ) ) {
+        if ( cache != null ) {
+          cache.dispose( );
+        }
+        return newCache;
+      }
+    }
+    return cache;
+  }
+  
+  /**
+   * Outbound endpoints and idle dispatchers for a mule context.
+   * 
+   * Dispatchers are borrowed for each message and returned once the message
+   * is dispatched so the dispatcher lifecycle is not repeated per message.
+   */
+  private static final class DispatcherCache {
+    private final MuleContext                                      muleContext;
+    private final ConcurrentMap<String, OutboundEndpoint>          endpoints        = Maps.newConcurrentMap( );
+    private final ConcurrentMap<String, Queue<MessageDispatcher>>  idleDispatchers  = Maps.newConcurrentMap( );
+    
+    private DispatcherCache( final MuleContext muleContext ) {
+      this.muleContext = muleContext;
+    }
+    
+    private OutboundEndpoint getEndpoint( final String dest ) throws MuleException {
+      OutboundEndpoint endpoint = this.endpoints.get( dest );
+      if ( endpoint == null ) {
+        endpoint = this.muleContext.getEndpointFactory( ).getOutboundEndpoint( dest );
+        final OutboundEndpoint existing = this.endpoints.putIfAbsent( dest, endpoint );
+        if ( existing != null ) {
+          endpoint = existing;
+        }
       }
-    } );
+      return endpoint;
+    }
+    
+    private MessageDispatcher borrowDispatcher( final String dest, final OutboundEndpoint endpoint ) throws MuleException {
+      final Queue<MessageDispatcher> idle = this.idleDispatchers.get( dest );
+      MessageDispatcher dispatcher = idle == null ? null : idle.poll( );
+      if ( dispatcher == null ) {
+        dispatcher = dispatcherFactory.create( endpoint );
+        dispatcher.initialise( );
+        dispatcher.start( );
+      }
+      return dispatcher;
+    }
+    
+    private void returnDispatcher( final String dest, final MessageDispatcher dispatcher ) {
+      Queue<MessageDispatcher> idle = this.idleDispatchers.get( dest );
+      if ( idle == null ) {
+        final Queue<MessageDispatcher> newIdle = new ArrayBlockingQueue<MessageDispatcher>( Math.max( 1, WORKERS_PER_STAGE ) );
+        idle = this.idleDispatchers.putIfAbsent( dest, newIdle );
+        if ( idle == null ) {
+          idle = newIdle;
+        }
+      }
+      if ( dispatchers.get( ) != this || !idle.offer( dispatcher ) ) {
+        dispatcher.dispose( );
+      } else if ( dispatchers.get( ) != this && idle.remove( dispatcher ) ) {
+        // cache was replaced during the offer and its dispose may have missed the dispatcher
+        dispatcher.dispose( );
+      }
+    }
+    
+    private void dispose( ) {
+      for ( final Queue<MessageDispatcher> idle : this.idleDispatchers.values( ) ) {
+        MessageDispatcher dispatcher;
+        while ( ( dispatcher = idle.poll( ) ) != null ) {
+          try {
+            dispatcher.dispose( );
+          } catch ( Exception ex ) {
+            LOG.error( ex, ex );
+          }
+        }
+      }
+    }
   }
   
   public static <T> T send( ComponentId dest, Object msg ) throws Exception {
@@ -95,6 +95,7 @@ import org.hibernate.criterion.Restrictions;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.jdbc.Work;
 import org.hibernate.proxy.HibernateProxy;
 import com.eucalyptus.bootstrap.Databases;
 import com.eucalyptus.configurable.ConfigurableClass;
@@ -777,6 +778,20 @@ public class Entities {
     }
   }
 
+  /**
+   * Perform JDBC work on the connection for the current transaction.
+   *
+   * <p>Intended for bulk operations where per entity persistence is too
+   * costly, the work bypasses the session and the second level cache.</p>
+   *
+   * @param workClass The entity class used to locate the transaction
+   * @param work The work to perform
+   */
+  public static void doWork( final Class<?> workClass,
+                             final Work work ) {
+    getTransaction( workClass ).getTxState( ).getSession( ).doWork( work );
+  }
+
   /**
    * Count the matching entities for the given example.
    * 
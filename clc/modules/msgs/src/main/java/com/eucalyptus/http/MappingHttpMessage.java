@@ -65,6 +65,7 @@ package com.eucalyptus.http;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.DefaultHttpMessage;
@@ -77,6 +78,7 @@ public abstract class MappingHttpMessage extends DefaultHttpMessage implements H
   private static Logger LOG = Logger.getLogger( MappingHttpMessage.class );
   private String       correlationId;
   private String       messageString;
+  private String       contentString; // decoded content, cleared when content is set
   private SOAPEnvelope soapEnvelope;
   private OMElement    omMessage;
   protected Object       message;
@@ -115,14 +117,28 @@ public abstract class MappingHttpMessage extends DefaultHttpMessage implements H
     this.message = message;
   }
 
+  /**
+   * Get the message text, decoded from the content if not explicitly set.
+   *
+   * <p>The decoded content is cached until the content is next set.</p>
+   */
   public String getMessageString( ) {
-    return messageString;
+    if ( messageString == null && contentString == null && this.getContent( ).readable( ) ) {
+      contentString = this.getContent( ).toString( "UTF-8" );
+    }
+    return messageString != null ? messageString : contentString;
   }
 
   public void setMessageString( String messageString ) {
     this.messageString = messageString;
   }
 
+  @Override
+  public void setContent( ChannelBuffer content ) {
+    super.setContent( content );
+    this.contentString = null;
+  }
+
   public User getUser( ) {
     return user;
   }
@@ -65,8 +65,6 @@ package com.eucalyptus.records;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 import javax.persistence.Column;
 import javax.persistence.DiscriminatorColumn;
 import javax.persistence.DiscriminatorType;
@@ -130,18 +128,6 @@ public class BaseRecord extends AbstractPersistent implements Serializable, Reco
   private transient String                  lead;
   @Transient
   private Class                             realCreator;
-  @Transient
-  private static BlockingQueue<EventRecord> trace  = new LinkedBlockingDeque<EventRecord>( );
-  @Transient
-  private static BlockingQueue<EventRecord> debug  = new LinkedBlockingDeque<EventRecord>( );
-  @Transient
-  private static BlockingQueue<EventRecord> info   = new LinkedBlockingDeque<EventRecord>( );
-  @Transient
-  private static BlockingQueue<EventRecord> warn   = new LinkedBlockingDeque<EventRecord>( );
-  @Transient
-  private static BlockingQueue<EventRecord> error  = new LinkedBlockingDeque<EventRecord>( );
-  @Transient
-  private static BlockingQueue<EventRecord> fatal  = new LinkedBlockingDeque<EventRecord>( );
   
   public BaseRecord( EventType type, EventClass clazz, Class creator, StackTraceElement codeLocation, String userId, String correlationId, String other ) {
     this.type = type;
@@ -0,0 +1,185 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.records;
+
+import java.util.Collections;
+import java.util.List;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import com.google.common.collect.Lists;
+
+/**
+ * Record that does no work until it is logged at an enabled level.
+ *
+ * Most records are created for levels that are not enabled so the message,
+ * caller location and user lookup are deferred until a level method finds
+ * the level enabled.  Enabled records are then formatted and appended by the
+ * EventRecordWriter rather than on the calling thread.
+ */
+class DeferredRecord implements Record {
+  private static final String RECORDS_PACKAGE = DeferredRecord.class.getPackage( ).getName( ) + ".";
+  private final Class         component;
+  private final EventClass    eventClass;
+  private final EventType     type;
+  private final int           dist;
+  private Object[]            other;
+  private List<Object>        appended;
+  private String[]            details;
+  private String              userId;
+  private String              correlationId;
+  
+  DeferredRecord( final Class component, final EventClass eventClass, final EventType type, final Object[] other, final int dist ) {
+    this.component = component;
+    this.eventClass = eventClass;
+    this.type = type;
+    this.other = other;
+    this.dist = dist;
+  }
+  
+  @Override
+  public Record info( ) {
+    return this.log( Logger.getLogger( this.component ), Level.INFO );
+  }
+  
+  @Override
+  public Record error( ) {
+    return this.log( Logger.getLogger( this.component ), Level.ERROR );
+  }
+  
+  @Override
+  public Record trace( ) {
+    return this.log( Logger.getLogger( this.component ), Level.TRACE );
+  }
+  
+  @Override
+  public Record debug( ) {
+    return this.log( Logger.getLogger( this.component ), Level.DEBUG );
+  }
+  
+  @Override
+  public Record extreme( ) {
+    return this.log( Logs.extreme( ), Level.TRACE );
+  }
+  
+  @Override
+  public Record exhaust( ) {
+    return this.log( Logs.exhaust( ), Level.TRACE );
+  }
+  
+  @Override
+  public Record warn( ) {
+    return this.log( Logger.getLogger( this.component ), Level.WARN );
+  }
+  
+  @Override
+  public Record next( ) {
+    final DeferredRecord next = new DeferredRecord( this.component, this.eventClass, this.type, null, this.dist );
+    next.userId = this.userId;
+    next.correlationId = this.correlationId;
+    return next;
+  }
+  
+  @Override
+  public Record append( final Object... obj ) {
+    if ( this.appended == null ) {
+      this.appended = Lists.newArrayList( );
+    }
+    Collections.addAll( this.appended, obj );
+    return this;
+  }
+  
+  @Override
+  public Record withDetails( final String key, final String value ) {
+    this.other = null;
+    this.appended = null;
+    this.details = new String[] { key, value };
+    this.info( );
+    return this.next( );
+  }
+  
+  @Override
+  public Record withDetails( final String userId, final String primaryInfo, final String key, final String value ) {
+    this.userId = userId;
+    this.correlationId = primaryInfo;
+    return this.withDetails( key, value );
+  }
+  
+  @Override
+  public EventType getType( ) {
+    return this.type;
+  }
+  
+  @Override
+  public EventClass getEventClass( ) {
+    return this.eventClass;
+  }
+  
+  /**
+   * Records are also passed directly to loggers, in which case the record is
+   * formatted by the appender on the logging thread.
+   */
+  @Override
+  public String toString( ) {
+    return this.toRecord( Logs.isExtrrreeeme( ) ? this.callSite( ) : null ).toString( );
+  }
+  
+  private Record log( final Logger logger, final Level level ) {
+    if ( logger.isEnabledFor( level ) ) {
+      final StackTraceElement callSite = Logs.isExtrrreeeme( ) ? this.callSite( ) : null;
+      EventRecordWriter.write( logger, level, this.component, callSite, this.toRecord( callSite ) );
+    }
+    return this;
+  }
+  
+  private LogFileRecord toRecord( final StackTraceElement callSite ) {
+    final LogFileRecord record = EventRecord.createRecord( this.component, this.eventClass, this.type, callSite,
+                                                           this.userId, this.correlationId, EventRecord.getMessageString( this.other ) );
+    if ( this.details != null ) {
+      record.getOthers( ).clear( );
+      Collections.addAll( record.getOthers( ), this.details );
+    }
+    if ( this.appended != null ) {
+      record.append( this.appended.toArray( ) );
+    }
+    return record;
+  }
+  
+  /**
+   * The first frame outside of the records and logging code, or the frame
+   * that called it when the record was created with EventRecord.caller
+   */
+  private StackTraceElement callSite( ) {
+    final StackTraceElement[] stack = Thread.currentThread( ).getStackTrace( );
+    int skip = this.dist - 1;
+    for ( final StackTraceElement element : stack ) {
+      final String className = element.getClassName( );
+      if ( className.startsWith( RECORDS_PACKAGE )
+           || className.startsWith( "org.apache.log4j." )
+           || className.startsWith( "com.eucalyptus.system.log." )
+           || className.equals( Thread.class.getName( ) ) ) {
+        continue;
+      }
+      if ( skip-- <= 0 ) {
+        return element;
+      }
+    }
+    return stack.length > 0 ? stack[stack.length - 1] : null;
+  }
+}
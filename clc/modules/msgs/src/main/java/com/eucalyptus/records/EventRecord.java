@@ -79,34 +79,44 @@ public class EventRecord extends BaseMessage {
   private static final BaseMessage           BOGUS           = getBogusMessage( );
   private static final Supplier<BaseMessage> messageSupplier = getCurrentBaseMessageSupplier();
   
-  private static Record create( final Class component, final EventClass eventClass, final EventType eventName, final String other, int dist ) {
+  private static Record create( final Class component, final EventClass eventClass, final EventType eventName, final Object[] other, int dist ) {
+    return new DeferredRecord( component, eventClass, eventName, other, dist );
+  }
+
+  /**
+   * Create the record for a deferred record that is being logged, must be
+   * called on the thread that is logging the record.
+   */
+  static LogFileRecord createRecord( final Class component, final EventClass eventClass, final EventType eventName,
+                                     final StackTraceElement ste, final String userId, final String correlationId, final String other ) {
     BaseMessage msg = tryForMessage( );
-    StackTraceElement[] stack = Thread.currentThread( ).getStackTrace( );
-    StackTraceElement ste = stack[dist+3<stack.length?dist+3:stack.length-1];
-    String userFn = Bootstrap.isFinished( ) ? "" : "bootstrap";
-    try {
-      Context ctx = Contexts.lookup( msg.getCorrelationId( ) );
-      userFn = ctx.getUserFullName( ).toString( );
-    } catch ( Exception ex ) {
+    String userFn = userId;
+    if ( userFn == null ) {
+      userFn = Bootstrap.isFinished( ) ? "" : "bootstrap";
+      try {
+        Context ctx = Contexts.lookup( msg.getCorrelationId( ) );
+        userFn = ctx.getUserFullName( ).toString( );
+      } catch ( Exception ex ) {
+      }
     }
     
-    return new LogFileRecord( eventClass, eventName, component, ste, userFn, msg.getCorrelationId( ), other );
+    return new LogFileRecord( eventClass, eventName, component, ste, userFn, correlationId != null ? correlationId : msg.getCorrelationId( ), other );
   }
 
   public static Record here( final Class component, final EventClass eventClass, final EventType eventName, final String... other ) {
-    return create( component, eventClass, eventName, getMessageString( other ), 1 );
+    return create( component, eventClass, eventName, other, 1 );
   }
     
   public static Record caller( final Class component, final EventClass eventClass, final EventType eventName, final Object... other ) {
-    return create( component, eventClass, eventName, getMessageString( other ), 2 );
+    return create( component, eventClass, eventName, other, 2 );
   }
 
   public static Record here( final Class component, final EventType eventName, final String... other ) {
-    return create( component, EventClass.ORPHAN, eventName, getMessageString( other ), 1 );
+    return create( component, EventClass.ORPHAN, eventName, other, 1 );
   }
     
   public static Record caller( final Class component, final EventType eventName, final Object... other ) {
-    return create( component, EventClass.ORPHAN, eventName, getMessageString( other ), 2 );
+    return create( component, EventClass.ORPHAN, eventName, other, 2 );
   }
 
   public static boolean isTraceEnabled( final Class component ) {
@@ -122,7 +132,7 @@ public class EventRecord extends BaseMessage {
     return Logger.getLogger( component ).isEnabledFor( level );
   }
 
-  private static String getMessageString( final Object[] other ) {
+  static String getMessageString( final Object[] other ) {
     StringBuffer last = new StringBuffer( );
     if( other != null ) {
       for ( Object x : other ) {
@@ -0,0 +1,141 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.records;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LocationInfo;
+import com.eucalyptus.system.log.EucaLoggingEvent;
+import com.google.common.collect.Lists;
+
+/**
+ * Appends event records from a bounded queue on a background thread.
+ *
+ * Records at INFO and above are appended on the calling thread so they are
+ * never discarded and stay ordered with other logging at the default level.
+ * Only TRACE and DEBUG records are queued, the timestamp, thread and caller
+ * location are captured when the record is written so the logged event
+ * matches a synchronous one.  When the queue is full these records are
+ * discarded (and the discard count logged).
+ */
+final class EventRecordWriter {
+  private static final Logger                      LOG       = Logger.getLogger( EventRecordWriter.class );
+  private static final String                      FQCN      = EventRecordWriter.class.getName( );
+  private static final int                         CAPACITY  = 4096;
+  private static final int                         BATCH     = 256;
+  private static final BlockingQueue<PendingEvent> pending   = new ArrayBlockingQueue<PendingEvent>( CAPACITY );
+  private static final AtomicLong                  discarded = new AtomicLong( );
+  
+  static {
+    final Thread writer = new Thread( new Writer( ), "EventRecordWriter" );
+    writer.setDaemon( true );
+    writer.start( );
+    Runtime.getRuntime( ).addShutdownHook( new Thread( "EventRecordWriter-shutdown" ) {
+      @Override
+      public void run( ) {
+        final List<PendingEvent> remaining = Lists.newArrayList( );
+        pending.drainTo( remaining );
+        append( remaining );
+      }
+    } );
+  }
+  
+  private EventRecordWriter( ) {}
+  
+  static void write( final Logger logger, final Level level, final Class component, final StackTraceElement callSite, final Record record ) {
+    final Thread thread = Thread.currentThread( );
+    final PendingEvent event = new PendingEvent( logger, level, component, callSite, record,
+                                                 System.currentTimeMillis( ), thread.getName( ), thread.getId( ) );
+    if ( level.isGreaterOrEqual( Level.INFO ) ) {
+      event.append( );
+    } else if ( !pending.offer( event ) ) {
+      discarded.incrementAndGet( );
+    }
+  }
+  
+  private static void append( final List<PendingEvent> events ) {
+    for ( final PendingEvent event : events ) {
+      try {
+        event.append( );
+      } catch ( final Exception ex ) {
+        LOG.error( "Error appending event record: " + ex.getMessage( ), ex );
+      }
+    }
+  }
+  
+  private static final class Writer implements Runnable {
+    @Override
+    public void run( ) {
+      final List<PendingEvent> batch = Lists.newArrayListWithCapacity( BATCH );
+      while ( true ) {
+        try {
+          batch.add( pending.take( ) );
+          pending.drainTo( batch, BATCH - 1 );
+          append( batch );
+        } catch ( final InterruptedException ex ) {
+          Thread.currentThread( ).interrupt( );
+          return;
+        } finally {
+          batch.clear( );
+        }
+        final long count = discarded.getAndSet( 0 );
+        if ( count > 0 ) {
+          LOG.warn( "Discarded " + count + " event records, writer queue full" );
+        }
+      }
+    }
+  }
+  
+  private static final class PendingEvent {
+    private final Logger            logger;
+    private final Level             level;
+    private final Class             component;
+    private final StackTraceElement callSite;
+    private final Record            record;
+    private final long              timestamp;
+    private final String            threadName;
+    private final long              threadId;
+    
+    private PendingEvent( final Logger logger, final Level level, final Class component, final StackTraceElement callSite,
+                          final Record record, final long timestamp, final String threadName, final long threadId ) {
+      this.logger = logger;
+      this.level = level;
+      this.component = component;
+      this.callSite = callSite;
+      this.record = record;
+      this.timestamp = timestamp;
+      this.threadName = threadName;
+      this.threadId = threadId;
+    }
+    
+    private void append( ) {
+      final LocationInfo location = this.callSite != null
+        ? new LocationInfo( this.callSite.getFileName( ), this.callSite.getClassName( ),
+                            this.callSite.getMethodName( ), String.valueOf( this.callSite.getLineNumber( ) ) )
+        : new LocationInfo( LocationInfo.NA, this.component.getName( ), LocationInfo.NA, LocationInfo.NA );
+      this.logger.callAppenders( new EucaLoggingEvent( FQCN, this.logger, this.timestamp, this.level, this.record,
+                                                       this.threadName, this.threadId, null, null, location, null ) );
+    }
+  }
+}
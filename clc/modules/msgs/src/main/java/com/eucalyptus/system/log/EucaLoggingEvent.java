@@ -52,6 +52,15 @@ public class EucaLoggingEvent extends LoggingEvent {
 		super(fqnOfCategoryClass, logger, timeStamp, level, message,
 				threadName, throwable, ndc, info, properties);
 	}
+
+	public EucaLoggingEvent(String fqnOfCategoryClass,
+			Category logger, long timeStamp, Level level, Object message,
+			String threadName, long threadId, ThrowableInformation throwable,
+			String ndc, LocationInfo info, Map properties) {
+		super(fqnOfCategoryClass, logger, timeStamp, level, message,
+				threadName, throwable, ndc, info, properties);
+		this.threadId = threadId;
+	}
 	
 	public long getThreadId() {
 		if (threadId == null) {
@@ -0,0 +1,148 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed exponential buckets.
+ *
+ * Recording is a few atomic increments so histograms can be used on hot
+ * paths.  Percentiles are estimated as the upper bound of the bucket
+ * containing the percentile.  Snapshots can be subtracted to obtain the
+ * values for an interval.
+ */
+public class LatencyHistogram {
+  private static final long[] BUCKET_BOUNDS_MILLIS = {
+      1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000, 300000 };
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMillis = new AtomicLong();
+  private final AtomicLong maxMillis = new AtomicLong();
+
+  public void record(long millis) {
+    if (millis < 0) millis = 0;
+    bucketCounts.incrementAndGet(bucketFor(millis));
+    count.incrementAndGet();
+    totalMillis.addAndGet(millis);
+    long max;
+    while ((max = maxMillis.get()) < millis) {
+      if (maxMillis.compareAndSet(max, millis)) break;
+    }
+  }
+
+  public void recordSince(long startMillis) {
+    record(System.currentTimeMillis() - startMillis);
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[bucketCounts.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = bucketCounts.get(i);
+    }
+    return new Snapshot(counts, count.get(), totalMillis.get(), maxMillis.get());
+  }
+
+  private static int bucketFor(long millis) {
+    for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+      if (millis <= BUCKET_BOUNDS_MILLIS[i]) return i;
+    }
+    return BUCKET_BOUNDS_MILLIS.length;
+  }
+
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long totalMillis;
+    private final long maxMillis;
+
+    private Snapshot(long[] counts, long count, long totalMillis, long maxMillis) {
+      this.counts = counts;
+      this.count = count;
+      this.totalMillis = totalMillis;
+      this.maxMillis = maxMillis;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    public double getMeanMillis() {
+      return count == 0 ? 0.0 : (double) totalMillis / count;
+    }
+
+    /**
+     * The lower bound of the lowest non-empty bucket.
+     */
+    public long getMinMillis() {
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) return i == 0 ? 0 : BUCKET_BOUNDS_MILLIS[i - 1];
+      }
+      return 0;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    /**
+     * Estimate a percentile
+     *
+     * @param percentile The percentile, 0 to 100
+     * @return The bucket upper bound (or maximum) for the percentile
+     */
+    public long getPercentileMillis(double percentile) {
+      if (count == 0) return 0;
+      long threshold = (long) Math.ceil(count * percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= threshold && seen > 0) {
+          return i < BUCKET_BOUNDS_MILLIS.length ? Math.min(BUCKET_BOUNDS_MILLIS[i], maxMillis) : maxMillis;
+        }
+      }
+      return maxMillis;
+    }
+
+    /**
+     * The values recorded since an earlier snapshot.
+     *
+     * The maximum is an estimate from the bucket bounds.
+     */
+    public Snapshot minus(Snapshot earlier) {
+      long[] intervalCounts = new long[counts.length];
+      long intervalMax = 0;
+      for (int i = 0; i < counts.length; i++) {
+        intervalCounts[i] = counts[i] - earlier.counts[i];
+        if (intervalCounts[i] > 0) {
+          intervalMax = i < BUCKET_BOUNDS_MILLIS.length ? BUCKET_BOUNDS_MILLIS[i] : maxMillis;
+        }
+      }
+      return new Snapshot(intervalCounts, count - earlier.count,
+          totalMillis - earlier.totalMillis, Math.min(intervalMax, maxMillis));
+    }
+  }
+}
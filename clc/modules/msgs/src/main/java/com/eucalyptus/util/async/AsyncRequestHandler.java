@@ -80,6 +80,7 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpVersion;
@@ -105,7 +106,12 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   private static Logger                LOG           = Logger.getLogger( AsyncRequestHandler.class );
   
   private ClientBootstrap              clientBootstrap;
-  private ChannelFuture                connectFuture;
+  private ClientChannelPool            channelPool;
+  private volatile ChannelFuture       connectFuture;
+  private volatile boolean             reuseChannel  = false;
+  private volatile boolean             retried       = false;
+  private volatile boolean             responseStarted = false;
+  private ClientChannelPool.AcquireListener connectListener;
   
   private final AtomicBoolean          writeComplete = new AtomicBoolean( false );
   private final CheckedListenableFuture<R>   response;
@@ -130,25 +136,19 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       final SocketAddress serviceSocketAddress = config.getSocketAddress( );
       final ChannelPipelineFactory factory = config.getComponentId( ).getClientPipeline( );
       try {
-        this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
-          @Override
-          public ChannelPipeline getPipeline( ) throws Exception {
-            final ChannelPipeline pipeline = factory.getPipeline( );
-            pipeline.addLast( "request-handler", AsyncRequestHandler.this );
-            return pipeline;
-          }
-        } );
 //TODO:GRZE: better logging here        LOG.debug( request.getClass( ).getSimpleName( ) + ":" + request.getCorrelationId( ) + " connecting to " + serviceSocketAddress );
         Logs.extreme( ).debug( EventRecord.here( request.getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_OPENING, request.getClass( ).getSimpleName( ),
                           request.getCorrelationId( ), serviceSocketAddress.toString( ) ) );
-        this.connectFuture = this.clientBootstrap.connect( serviceSocketAddress );
         final HttpRequest httpRequest = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, config, this.request.get( ) );
         
-        this.connectFuture.addListener( new ChannelFutureListener( ) {
+        final ClientChannelPool.AcquireListener connectListener = new ClientChannelPool.AcquireListener( ) {
           @Override
           public void operationComplete( final ChannelFuture future ) throws Exception {
+            AsyncRequestHandler.this.connectFuture = future;
             try {
-              if ( future.isSuccess( ) ) {
+              if ( future.isSuccess( ) && AsyncRequestHandler.this.channelPool != null && AsyncRequestHandler.this.response.isDone( ) ) {
+                AsyncRequestHandler.this.channelPool.release( future.getChannel( ) );
+              } else if ( future.isSuccess( ) ) {
                 Logs.extreme( ).debug( "Connected as: " + future.getChannel( ).getLocalAddress( ) );
                 
                 final InetAddress localAddr = ( ( InetSocketAddress ) future.getChannel( ).getLocalAddress( ) ).getAddress( );
@@ -171,6 +171,9 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
                 future.getChannel( ).write( httpRequest ).addListener( new ChannelFutureListener( ) {
                   @Override
                   public void operationComplete( final ChannelFuture future ) throws Exception {
+                    if ( !AsyncRequestHandler.this.isCurrent( future.getChannel( ) ) ) {
+                      return; // write on a channel abandoned for retry
+                    }
                     AsyncRequestHandler.this.writeComplete.set( true );
                     
                     Logs.extreme( ).debug(
@@ -193,7 +196,36 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
               AsyncRequestHandler.this.teardown( ex );
             }
           }
-        } );
+          
+          @Override
+          public void acquireFailed( final String message ) {
+            AsyncRequestHandler.this.teardown( new RetryableConnectionException( message, request ) );
+          }
+        };
+        this.connectListener = connectListener;
+        if ( ClientChannelPool.isPooled( config ) ) {
+          final ClientChannelPool channelPool = ClientChannelPool.lookup( config, factory );
+          this.channelPool = channelPool;
+          channelPool.acquire( this, connectListener );
+          this.response.addListener( new Runnable( ) {
+            @Override
+            public void run( ) {
+              channelPool.cancel( AsyncRequestHandler.this ); // stop waiting for a channel if cancelled or timed out
+            }
+          } );
+        } else {
+          this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
+            @Override
+            public ChannelPipeline getPipeline( ) throws Exception {
+              final ChannelPipeline pipeline = factory.getPipeline( );
+              pipeline.addLast( "request-handler", AsyncRequestHandler.this );
+              return pipeline;
+            }
+          } );
+          final ChannelFuture connectFuture = this.clientBootstrap.connect( serviceSocketAddress );
+          this.connectFuture = connectFuture;
+          connectFuture.addListener( connectListener );
+        }
         return true;
       } catch ( final Exception t ) {
         LOG.error( t, t );
@@ -241,6 +273,41 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     }
   }
 
+  private boolean isCurrent( final Channel channel ) {
+    final ChannelFuture connectFuture = this.connectFuture;
+    return connectFuture != null && connectFuture.getChannel( ) == channel;
+  }
+  
+  /**
+   * Retry once on a new channel if a reused keep-alive channel failed, the
+   * remote side may have closed the channel while it was idle.
+   * 
+   * A request that was written may already have been processed so it is only
+   * retried if no response was received and the request is idempotent.
+   */
+  private boolean maybeRetry( final ChannelHandlerContext ctx ) {
+    final Channel channel = ctx.getChannel( );
+    if ( this.channelPool == null || this.retried || this.response.isDone( )
+         || !this.isCurrent( channel ) || !ClientChannelPool.isReused( channel ) ) {
+      return false;
+    }
+    if ( this.writeComplete.get( ) && ( this.responseStarted || !isIdempotent( this.request.get( ) ) ) ) {
+      return false;
+    }
+    this.retried = true;
+    this.connectFuture = null;
+    this.writeComplete.set( false );
+    Logs.extreme( ).debug( "Retrying request " + this.request.get( ).getClass( ).getSimpleName( ) + " on a new channel, reused channel failed: " + channel );
+    ctx.getPipeline( ).remove( this );
+    channel.close( );
+    this.channelPool.acquireNew( this, this.connectListener );
+    return true;
+  }
+  
+  private static boolean isIdempotent( final BaseMessage request ) {
+    return request != null && request.getClass( ).getSimpleName( ).startsWith( "Describe" );
+  }
+  
   private void logRequestFailure( Throwable t ) {
     try {
       Logs.extreme( ).debug( "RESULT:" + t.getMessage( )
@@ -261,6 +328,7 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   @Override
   public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
     if ( e instanceof MessageEvent ) {
+      this.responseStarted = true;
       this.messageReceived( ctx, ( MessageEvent ) e );
     } else if ( e instanceof ChannelStateEvent ) {
       final ChannelStateEvent evt = ( ChannelStateEvent ) e;
@@ -280,6 +348,10 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       this.exceptionCaught( ctx, ( ExceptionEvent ) e );
     }
     ctx.sendUpstream( e );
+    if ( this.reuseChannel && e instanceof MessageEvent ) {
+      this.reuseChannel = false;
+      this.channelPool.release( ctx.getChannel( ) );
+    }
   }
   
   private void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
@@ -291,9 +363,12 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
           if ( !msg.get_return( ) ) {
             this.teardown( new FailedRequestException( "Cluster response includes _return=false", msg ) );
           } else {
+            this.reuseChannel = this.channelPool != null && HttpHeaders.isKeepAlive( response );
             this.response.set( msg );
           }
-          e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
+          if ( !this.reuseChannel ) {
+            e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
+          }
         } catch ( final Exception e1 ) {
           LOG.error( e1, e1 );
           this.teardown( e1 );
@@ -316,7 +391,9 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   }
   
   private void checkFinished( final ChannelHandlerContext ctx, final ChannelStateEvent evt ) {
-    if ( ( this.connectFuture != null ) && !this.connectFuture.isSuccess( )
+    if ( !this.response.isDone( ) && this.maybeRetry( ctx ) ) {
+      return;
+    } else if ( ( this.connectFuture != null ) && !this.connectFuture.isSuccess( )
          && ( this.connectFuture.getCause( ) instanceof IOException ) ) {
       final Throwable ioError = this.connectFuture.getCause( );
       if ( !this.writeComplete.get( ) ) {
@@ -340,7 +417,7 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     if ( cause instanceof EucalyptusRemoteFault ) {//GRZE: treat this like a normal response, set the response and close the channel.
       this.response.setException( cause );
       e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
-    } else {
+    } else if ( !( cause instanceof IOException ) || !this.maybeRetry( ctx ) ) {
       this.teardown( cause );
     }
   }
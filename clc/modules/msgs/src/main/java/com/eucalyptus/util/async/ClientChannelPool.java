@@ -0,0 +1,577 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import com.eucalyptus.component.ServiceConfiguration;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.ws.StackConfiguration;
+import com.eucalyptus.ws.WebServices;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Pool of keep-alive client channels for requests to a remote service.
+ *
+ * There is a pool for each component and socket address. Channels are
+ * returned to the pool after a keep-alive response and reused for later
+ * requests, idle channels are discarded when closed by the remote side or
+ * when idle for longer than the configured time. The number of channels for
+ * a pool is bounded, requests wait for a channel when the limit is reached.
+ * The number of waiting requests and the time they wait are also bounded,
+ * requests that cannot get a channel fail without being sent.
+ *
+ * Pooling is enabled per component (see ComponentId#isClientChannelPooled)
+ * and a pool is removed when the service it is for is destroyed.
+ */
+public class ClientChannelPool {
+  private static final Logger LOG = Logger.getLogger( ClientChannelPool.class );
+  private static final String POOL_HANDLER = "pool-handler";
+  private static final String REQUEST_HANDLER = "request-handler";
+  private static final ConcurrentMap<String, ClientChannelPool> pools = Maps.newConcurrentMap( );
+  private static final Statistics statistics = new Statistics( );
+  private static final HashedWheelTimer timer = new HashedWheelTimer( );
+
+  private final SocketAddress address;
+  private final ClientBootstrap clientBootstrap;
+  // guarded by this
+  private final Deque<Channel> idleChannels = Lists.newLinkedList( );
+  private final Queue<Waiter> waiters = Lists.newLinkedList( );
+  private int leasedChannels = 0;
+  private boolean closed = false;
+
+  private ClientChannelPool( final SocketAddress address, final ChannelPipelineFactory factory ) {
+    this.address = address;
+    this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
+      @Override
+      public ChannelPipeline getPipeline( ) throws Exception {
+        final ChannelPipeline pipeline = factory.getPipeline( );
+        pipeline.addLast( POOL_HANDLER, new PooledChannelHandler( ) );
+        return pipeline;
+      }
+    } );
+  }
+
+  /**
+   * Check if requests for the given configuration should use a pooled channel.
+   */
+  static boolean isPooled( final ServiceConfiguration config ) {
+    return Boolean.TRUE.equals( StackConfiguration.CLIENT_POOL_KEEP_ALIVE ) &&
+        config.getComponentId( ).isClientChannelPooled( );
+  }
+
+  static ClientChannelPool lookup( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+    final SocketAddress address = config.getSocketAddress( );
+    final String key = key( config );
+    ClientChannelPool pool = pools.get( key );
+    if ( pool == null ) {
+      final ClientChannelPool newPool = new ClientChannelPool( address, factory );
+      pool = pools.putIfAbsent( key, newPool );
+      if ( pool == null ) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Remove the pool for a service, idle channels are closed, leased channels
+   * are closed when released and waiting requests fail.
+   */
+  public static void remove( final ServiceConfiguration config ) {
+    final ClientChannelPool pool = pools.remove( key( config ) );
+    if ( pool != null ) {
+      pool.close( );
+    }
+  }
+
+  /**
+   * Check if the channel was used for an earlier request.
+   */
+  static boolean isReused( final Channel channel ) {
+    final PooledChannelHandler handler = ( PooledChannelHandler ) channel.getPipeline( ).get( POOL_HANDLER );
+    return handler != null && handler.leases > 1;
+  }
+
+  private static String key( final ServiceConfiguration config ) {
+    return config.getComponentId( ).name( ) + "@" + config.getSocketAddress( );
+  }
+
+  public static Statistics getStatistics( ) {
+    return statistics;
+  }
+
+  /**
+   * Acquire a channel for the given request handler.
+   *
+   * The listener is notified with the connect future for a new channel or a
+   * succeeded future for a pooled channel. On success the request handler is
+   * in the channels pipeline and the channel must be passed to release(...)
+   * once the response is received or closed on failure.
+   *
+   * If no channel is available and the wait queue is full, the wait times out
+   * or the pool is removed the listener is notified of the failure instead.
+   */
+  void acquire( final ChannelHandler requestHandler, final AcquireListener listener ) {
+    statistics.acquisitions.incrementAndGet( );
+    Channel channel = null;
+    String failure = null;
+    synchronized ( this ) {
+      if ( this.closed ) {
+        failure = "Service channel pool removed";
+      } else if ( ( channel = this.pollIdle( ) ) != null ) {
+        // reuse idle channel
+      } else if ( this.leasedChannels + this.idleChannels.size( ) >= Math.max( 1, StackConfiguration.CLIENT_POOL_MAX_CHANNELS ) ) {
+        if ( this.waiters.size( ) >= StackConfiguration.CLIENT_POOL_MAX_WAITERS ) {
+          statistics.rejections.incrementAndGet( );
+          failure = "Too many requests waiting for a service channel";
+        } else {
+          statistics.waits.incrementAndGet( );
+          final Waiter waiter = new Waiter( requestHandler, listener );
+          this.waiters.add( waiter );
+          waiter.timeout = timer.newTimeout( new TimerTask( ) {
+            @Override
+            public void run( final Timeout timeout ) {
+              ClientChannelPool.this.expired( waiter );
+            }
+          }, Math.max( 1L, StackConfiguration.CLIENT_POOL_WAIT_MILLIS ), TimeUnit.MILLISECONDS );
+          return;
+        }
+      } else {
+        this.leasedChannels++;
+      }
+    }
+    if ( failure != null ) {
+      failed( listener, failure );
+    } else if ( channel != null ) {
+      statistics.hits.incrementAndGet( );
+      this.lease( channel, requestHandler, listener );
+    } else {
+      this.connect( requestHandler, listener );
+    }
+  }
+
+  /**
+   * Acquire a new channel for the given request handler, used to retry a
+   * request that failed on a reused channel. The new channel is connected
+   * even if the pool is at its channel limit.
+   */
+  void acquireNew( final ChannelHandler requestHandler, final AcquireListener listener ) {
+    statistics.acquisitions.incrementAndGet( );
+    final boolean closed;
+    synchronized ( this ) {
+      if ( !( closed = this.closed ) ) {
+        this.leasedChannels++;
+      }
+    }
+    if ( closed ) {
+      failed( listener, "Service channel pool removed" );
+    } else {
+      this.connect( requestHandler, listener );
+    }
+  }
+
+  /**
+   * Stop waiting for a channel for the given request handler, if waiting.
+   */
+  void cancel( final ChannelHandler requestHandler ) {
+    synchronized ( this ) {
+      for ( final Iterator<Waiter> iterator = this.waiters.iterator( ); iterator.hasNext( ); ) {
+        final Waiter waiter = iterator.next( );
+        if ( waiter.requestHandler == requestHandler ) {
+          iterator.remove( );
+          waiter.waited( );
+          return;
+        }
+      }
+    }
+  }
+
+  private void expired( final Waiter waiter ) {
+    synchronized ( this ) {
+      if ( !this.waiters.remove( waiter ) ) return;
+    }
+    statistics.timeouts.incrementAndGet( );
+    waiter.waited( );
+    failed( waiter.listener, "Timed out waiting for a service channel" );
+  }
+
+  private void close( ) {
+    final List<Channel> channels;
+    final List<Waiter> failedWaiters;
+    synchronized ( this ) {
+      this.closed = true;
+      channels = Lists.newArrayList( this.idleChannels );
+      failedWaiters = Lists.newArrayList( this.waiters );
+      this.waiters.clear( );
+    }
+    for ( final Channel channel : channels ) {
+      channel.close( );
+    }
+    for ( final Waiter waiter : failedWaiters ) {
+      waiter.waited( );
+      failed( waiter.listener, "Service channel pool removed" );
+    }
+  }
+
+  /**
+   * Release a channel after a keep-alive response was received.
+   */
+  void release( final Channel channel ) {
+    try {
+      channel.getPipeline( ).remove( REQUEST_HANDLER );
+    } catch ( final NoSuchElementException ex ) {
+      // already removed
+    }
+    final PooledChannelHandler handler = ( PooledChannelHandler ) channel.getPipeline( ).get( POOL_HANDLER );
+    if ( handler == null || !channel.isConnected( ) ) {
+      channel.close( );
+      return;
+    }
+    final Waiter waiter;
+    synchronized ( this ) {
+      if ( handler.state != ChannelState.LEASED ) return;
+      if ( this.closed ) {
+        channel.close( ); // discarded when closed
+        return;
+      }
+      waiter = this.waiters.poll( );
+      if ( waiter == null ) {
+        handler.state = ChannelState.IDLE;
+        handler.idleSince = System.currentTimeMillis( );
+        this.leasedChannels--;
+        this.idleChannels.push( channel );
+        this.expireIdle( );
+      }
+    }
+    if ( waiter != null ) {
+      statistics.hits.incrementAndGet( );
+      waiter.waited( );
+      this.lease( channel, waiter.requestHandler, waiter.listener );
+    }
+  }
+
+  private void discarded( final Channel channel, final PooledChannelHandler handler ) {
+    Waiter waiter = null;
+    synchronized ( this ) {
+      switch ( handler.state ) {
+        case LEASED:
+          this.leasedChannels--;
+          break;
+        case IDLE:
+          this.idleChannels.remove( channel );
+          break;
+        case CLOSED:
+          return;
+      }
+      handler.state = ChannelState.CLOSED;
+      statistics.discards.incrementAndGet( );
+      if ( !this.closed && !this.waiters.isEmpty( ) &&
+          this.leasedChannels + this.idleChannels.size( ) < Math.max( 1, StackConfiguration.CLIENT_POOL_MAX_CHANNELS ) ) {
+        waiter = this.waiters.poll( );
+        this.leasedChannels++;
+      }
+    }
+    if ( waiter != null ) {
+      waiter.waited( );
+      this.connect( waiter.requestHandler, waiter.listener );
+    }
+  }
+
+  /**
+   * Caller must hold the pool lock.
+   */
+  private Channel pollIdle( ) {
+    this.expireIdle( );
+    Channel channel;
+    while ( ( channel = this.idleChannels.poll( ) ) != null ) {
+      final PooledChannelHandler handler = ( PooledChannelHandler ) channel.getPipeline( ).get( POOL_HANDLER );
+      if ( channel.isConnected( ) ) {
+        handler.state = ChannelState.LEASED;
+        this.leasedChannels++;
+        return channel;
+      }
+      this.close( channel, handler );
+    }
+    return null;
+  }
+
+  /**
+   * Caller must hold the pool lock.
+   */
+  private void expireIdle( ) {
+    final long idleExpiry = System.currentTimeMillis( ) - StackConfiguration.CLIENT_POOL_IDLE_MILLIS;
+    // most recently used channels are first, discard expired channels from the end
+    for ( final Iterator<Channel> iterator = this.idleChannels.descendingIterator( ); iterator.hasNext( ); ) {
+      final Channel channel = iterator.next( );
+      final PooledChannelHandler handler = ( PooledChannelHandler ) channel.getPipeline( ).get( POOL_HANDLER );
+      if ( handler.idleSince >= idleExpiry && channel.isConnected( ) ) break;
+      iterator.remove( );
+      this.close( channel, handler );
+    }
+  }
+
+  /**
+   * Caller must hold the pool lock, channel must not be leased.
+   */
+  private void close( final Channel channel, final PooledChannelHandler handler ) {
+    handler.state = ChannelState.CLOSED;
+    statistics.discards.incrementAndGet( );
+    channel.close( );
+  }
+
+  private void lease( final Channel channel, final ChannelHandler requestHandler, final ChannelFutureListener listener ) {
+    final ChannelFuture future;
+    if ( channel.isConnected( ) ) {
+      ( ( PooledChannelHandler ) channel.getPipeline( ).get( POOL_HANDLER ) ).leases++;
+      channel.getPipeline( ).addBefore( POOL_HANDLER, REQUEST_HANDLER, requestHandler );
+      future = Channels.succeededFuture( channel );
+    } else {
+      future = Channels.failedFuture( channel, new ClosedChannelException( ) );
+      channel.close( );
+    }
+    notify( listener, future );
+  }
+
+  private void connect( final ChannelHandler requestHandler, final ChannelFutureListener listener ) {
+    statistics.connects.incrementAndGet( );
+    final ChannelFuture connectFuture;
+    try {
+      connectFuture = this.clientBootstrap.connect( this.address );
+    } catch ( final RuntimeException ex ) {
+      synchronized ( this ) {
+        this.leasedChannels--;
+      }
+      throw ex;
+    }
+    connectFuture.addListener( new ChannelFutureListener( ) {
+      @Override
+      public void operationComplete( final ChannelFuture future ) throws Exception {
+        final PooledChannelHandler handler = ( PooledChannelHandler ) future.getChannel( ).getPipeline( ).get( POOL_HANDLER );
+        if ( future.isSuccess( ) ) {
+          if ( handler != null ) {
+            handler.leases++;
+          }
+          future.getChannel( ).getPipeline( ).addBefore( POOL_HANDLER, REQUEST_HANDLER, requestHandler );
+        } else if ( handler != null ) {
+          ClientChannelPool.this.discarded( future.getChannel( ), handler );
+        }
+        ClientChannelPool.notify( listener, future );
+      }
+    } );
+  }
+
+  private static void notify( final ChannelFutureListener listener, final ChannelFuture future ) {
+    try {
+      listener.operationComplete( future );
+    } catch ( final Exception ex ) {
+      LOG.error( ex, ex );
+    }
+  }
+
+  private static void failed( final AcquireListener listener, final String message ) {
+    try {
+      listener.acquireFailed( message );
+    } catch ( final Exception ex ) {
+      LOG.error( ex, ex );
+    }
+  }
+
+  /**
+   * Listener for channel acquisition.
+   */
+  interface AcquireListener extends ChannelFutureListener {
+    /**
+     * Called when no channel was acquired, the request was not sent.
+     */
+    void acquireFailed( String message );
+  }
+
+  private enum ChannelState { LEASED, IDLE, CLOSED }
+
+  private static final class Waiter {
+    private final long created = System.currentTimeMillis( );
+    private final ChannelHandler requestHandler;
+    private final AcquireListener listener;
+    private volatile Timeout timeout;
+
+    private Waiter( final ChannelHandler requestHandler, final AcquireListener listener ) {
+      this.requestHandler = requestHandler;
+      this.listener = listener;
+    }
+
+    private void waited( ) {
+      final Timeout timeout = this.timeout;
+      if ( timeout != null ) {
+        timeout.cancel( );
+      }
+      statistics.waitTimes.recordSince( this.created );
+    }
+  }
+
+  /**
+   * Last handler in a pooled channels pipeline, tracks channel closure and
+   * closes idle channels on errors (e.g. read timeout)
+   */
+  private final class PooledChannelHandler extends SimpleChannelUpstreamHandler {
+    // guarded by the pool
+    private ChannelState state = ChannelState.LEASED;
+    private volatile long idleSince;
+    // requests the channel was leased for, only updated by the leasing thread
+    private volatile int leases;
+
+    @Override
+    public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
+      if ( e instanceof ChannelStateEvent || e instanceof ExceptionEvent ) {
+        super.handleUpstream( ctx, e );
+      } // else message or idle events, handled by the request handler if any
+    }
+
+    @Override
+    public void channelClosed( final ChannelHandlerContext ctx, final ChannelStateEvent e ) throws Exception {
+      ClientChannelPool.this.discarded( ctx.getChannel( ), this );
+    }
+
+    @Override
+    public void exceptionCaught( final ChannelHandlerContext ctx, final ExceptionEvent e ) throws Exception {
+      if ( ctx.getPipeline( ).get( REQUEST_HANDLER ) == null ) {
+        Logs.extreme( ).debug( "Closing pooled channel " + ctx.getChannel( ) + " due to: " + e.getCause( ) );
+        ctx.getChannel( ).close( );
+      } // else handled by the request handler
+    }
+  }
+
+  /**
+   * Client channel pool statistics for all pools.
+   */
+  public static class Statistics {
+    private final AtomicLong acquisitions = new AtomicLong( );
+    private final AtomicLong hits = new AtomicLong( );
+    private final AtomicLong waits = new AtomicLong( );
+    private final AtomicLong connects = new AtomicLong( );
+    private final AtomicLong discards = new AtomicLong( );
+    private final AtomicLong rejections = new AtomicLong( );
+    private final AtomicLong timeouts = new AtomicLong( );
+    private final LatencyHistogram waitTimes = new LatencyHistogram( );
+
+    public long getAcquisitions( ) {
+      return this.acquisitions.get( );
+    }
+
+    public long getHits( ) {
+      return this.hits.get( );
+    }
+
+    public double getHitRatePercent( ) {
+      final long acquisitions = this.acquisitions.get( );
+      return acquisitions == 0 ? 0d : ( 100d * this.hits.get( ) ) / acquisitions;
+    }
+
+    public long getWaits( ) {
+      return this.waits.get( );
+    }
+
+    public double getMeanWaitMillis( ) {
+      return this.waitTimes.snapshot( ).getMeanMillis( );
+    }
+
+    public long getP99WaitMillis( ) {
+      return this.waitTimes.snapshot( ).getPercentileMillis( 99 );
+    }
+
+    public long getConnects( ) {
+      return this.connects.get( );
+    }
+
+    public long getDiscards( ) {
+      return this.discards.get( );
+    }
+
+    /**
+     * Requests failed because too many requests were waiting for a channel.
+     */
+    public long getRejections( ) {
+      return this.rejections.get( );
+    }
+
+    /**
+     * Requests failed because they waited too long for a channel.
+     */
+    public long getTimeouts( ) {
+      return this.timeouts.get( );
+    }
+
+    public int getPools( ) {
+      return pools.size( );
+    }
+
+    public int getLeasedChannels( ) {
+      int leased = 0;
+      for ( final ClientChannelPool pool : pools.values( ) ) {
+        synchronized ( pool ) {
+          leased += pool.leasedChannels;
+        }
+      }
+      return leased;
+    }
+
+    public int getIdleChannels( ) {
+      int idle = 0;
+      for ( final ClientChannelPool pool : pools.values( ) ) {
+        synchronized ( pool ) {
+          idle += pool.idleChannels.size( );
+        }
+      }
+      return idle;
+    }
+
+    @Override
+    public String toString( ) {
+      return "Client channel pool statistics";
+    }
+  }
+}
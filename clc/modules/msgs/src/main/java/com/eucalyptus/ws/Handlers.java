@@ -133,6 +133,7 @@ import com.eucalyptus.ws.handlers.http.HttpUtils;
 import com.eucalyptus.ws.handlers.http.NioHttpDecoder;
 import com.eucalyptus.ws.protocol.AddressingHandler;
 import com.eucalyptus.ws.protocol.SoapHandler;
+import com.eucalyptus.ws.server.AdmissionControlHandler;
 import com.eucalyptus.ws.server.NioServerHandler;
 import com.eucalyptus.ws.server.ServiceAccessLoggingHandler;
 import com.eucalyptus.ws.server.ServiceContextHandler;
@@ -524,6 +525,7 @@ public class Handlers {
 
   public static void addSystemHandlers( final ChannelPipeline pipeline ) {
     pipeline.addLast( "service-state-check", internalServiceStateHandler( ) );
+    pipeline.addLast( "admission-control", AdmissionControlHandler.INSTANCE );
     pipeline.addLast( "service-specific-mangling", ServiceHackeryHandler.INSTANCE );
     if ( StackConfiguration.ASYNC_OPERATIONS ) {
       pipeline.addLast( "async-operations-execution-handler", serviceExecutionHandler( ) );
@@ -162,6 +162,24 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "Execute internal service operations out of band from the normal service bus." )
   public static Boolean       OOB_INTERNAL_OPERATIONS           = Boolean.TRUE;
   
+  @ConfigurableField( description = "Enable per-account request rate limiting and per-component load shedding." )
+  public static Boolean       ADMISSION_CONTROL                 = Boolean.FALSE;
+
+  @ConfigurableField( description = "Sustained read (Describe/List/Get) requests per second allowed for each account." )
+  public static Integer       ADMISSION_READ_RATE               = 50;
+
+  @ConfigurableField( description = "Burst of read (Describe/List/Get) requests allowed for each account." )
+  public static Integer       ADMISSION_READ_BURST              = 100;
+
+  @ConfigurableField( description = "Sustained mutating requests per second allowed for each account." )
+  public static Integer       ADMISSION_WRITE_RATE              = 10;
+
+  @ConfigurableField( description = "Burst of mutating requests allowed for each account." )
+  public static Integer       ADMISSION_WRITE_BURST             = 20;
+
+  @ConfigurableField( description = "Maximum requests pending for each component before requests are rejected." )
+  public static Integer       ADMISSION_MAX_PENDING             = 500;
+
   @ConfigurableField( description = "Client idle timeout (secs)." )
   public static Long          CLIENT_IDLE_TIMEOUT_SECS          = 30L;
   
@@ -191,7 +209,22 @@ public class StackConfiguration extends AbstractPersistent {
   
   @ConfigurableField( description = "Client socket select timeout (ms)." )
   public static Long          CLIENT_POOL_TIMEOUT_MILLIS        = 500L;
-  
+
+  @ConfigurableField( description = "Reuse keep-alive connections for internal service requests." )
+  public static Boolean       CLIENT_POOL_KEEP_ALIVE            = Boolean.TRUE;
+
+  @ConfigurableField( description = "Maximum connections per service for internal service requests." )
+  public static Integer       CLIENT_POOL_MAX_CHANNELS          = 32;
+
+  @ConfigurableField( description = "Idle time after which a keep-alive connection is not reused (ms)." )
+  public static Long          CLIENT_POOL_IDLE_MILLIS           = 2000L;
+
+  @ConfigurableField( description = "Maximum requests per service waiting for a connection for internal service requests." )
+  public static Integer       CLIENT_POOL_MAX_WAITERS           = 256;
+
+  @ConfigurableField( description = "Maximum time a request waits for a connection for internal service requests (ms)." )
+  public static Long          CLIENT_POOL_WAIT_MILLIS           = 30000L;
+
   @ConfigurableField( description = "Maximum HTTP chunk size (bytes)." )
   public static Integer       HTTP_MAX_CHUNK_BYTES              = 10 * 10 * 1024;
   
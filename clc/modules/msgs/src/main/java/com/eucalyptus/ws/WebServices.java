@@ -97,6 +97,10 @@ import com.eucalyptus.empyrean.Empyrean;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.LogUtil;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.util.async.ClientChannelPool;
+import com.eucalyptus.ws.server.AdmissionControlHandler;
+import com.eucalyptus.ws.server.Statistics;
 
 public class WebServices {
   
@@ -110,6 +114,9 @@ public class WebServices {
     @Override
     public boolean load( ) throws Exception {
       WebServices.restart( );
+      Mbeans.register( ClientChannelPool.getStatistics( ) );
+      Mbeans.register( Statistics.getOperationLatencies( ) );
+      Mbeans.register( AdmissionControlHandler.getStatistics( ) );
       return true;
     }
     
@@ -63,7 +63,6 @@
 package com.eucalyptus.ws.handlers;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.MissingFormatArgumentException;
@@ -72,6 +71,7 @@ import java.util.zip.GZIPOutputStream;
 import javax.annotation.Nonnull;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
@@ -170,7 +170,8 @@ public abstract class RestfulMarshallingHandler extends MessageStackHandler {
   public void outgoingMessage( ChannelHandlerContext ctx, MessageEvent event ) throws Exception {
     if ( event.getMessage( ) instanceof MappingHttpResponse ) {
       MappingHttpResponse httpResponse = ( MappingHttpResponse ) event.getMessage( );
-      ByteArrayOutputStream byteOut = new ByteArrayOutputStream( );
+      ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( Binding.INITIAL_BUFFER_SIZE );
+      ChannelBufferOutputStream byteOut = new ChannelBufferOutputStream( buffer );
       HoldMe.canHas.lock( );
       try {
         if ( httpResponse.getMessage( ) == null ) {
@@ -200,9 +201,11 @@ public abstract class RestfulMarshallingHandler extends MessageStackHandler {
             this.binding.toStream( byteOut, message );
           } catch ( BindingException ex ) {
             Logs.extreme( ).error( ex, ex );
+            buffer.clear( );
             try {//use default binding with request namespace
               getDefaultBinding( ).toStream( byteOut, message, this.namespace );
             } catch ( BindingException ex1 ) {//use default binding
+              buffer.clear( );
               BindingManager.getDefaultBinding( ).toStream( byteOut, message );
             }
           } catch ( Exception e ) {
@@ -211,8 +214,6 @@ public abstract class RestfulMarshallingHandler extends MessageStackHandler {
             throw e;
           }
         }
-        byte[] req = byteOut.toByteArray( );
-        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( req );
         httpResponse.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf( buffer.readableBytes( ) ) );
         httpResponse.addHeader( HttpHeaders.Names.CONTENT_TYPE, "application/xml; charset=UTF-8" );
         httpResponse.setContent( buffer );
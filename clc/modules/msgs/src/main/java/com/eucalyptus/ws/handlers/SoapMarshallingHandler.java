@@ -62,7 +62,6 @@
 
 package com.eucalyptus.ws.handlers;
 
-import java.io.ByteArrayOutputStream;
 import org.apache.axiom.soap.SOAP11Constants;
 import org.apache.axiom.soap.SOAP12Constants;
 import org.apache.axiom.soap.SOAPEnvelope;
@@ -70,11 +69,14 @@ import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
+import com.eucalyptus.binding.Binding;
 import com.eucalyptus.binding.HoldMe;
 import com.eucalyptus.http.MappingHttpMessage;
 import com.eucalyptus.ws.WebServicesException;
@@ -87,24 +89,24 @@ public class SoapMarshallingHandler extends MessageStackHandler {
   public void incomingMessage( final MessageEvent event ) throws Exception {
     if ( event.getMessage( ) instanceof MappingHttpMessage ) {
       MappingHttpMessage httpMessage = ( MappingHttpMessage ) event.getMessage( );
-      String content = httpMessage.getContent( ).toString( "UTF-8" );
-      httpMessage.setMessageString( content );
+      ChannelBuffer content = httpMessage.getContent( );
       HoldMe.canHas.lock( );
       SOAPEnvelope env = null;
       try {
         StAXSOAPModelBuilder soapBuilder = null;
         try {
           SOAPFactory factory = HoldMe.getOMSOAP11Factory( );
-          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( content ), factory , SOAP11Constants.SOAP_ENVELOPE_NAMESPACE_URI );
+          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( new ChannelBufferInputStream( content.duplicate( ) ) ), factory , SOAP11Constants.SOAP_ENVELOPE_NAMESPACE_URI );
         } catch ( Exception e ) {
           SOAPFactory factory = HoldMe.getOMSOAP12Factory( );
-          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( content ), factory , SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI );
+          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( new ChannelBufferInputStream( content.duplicate( ) ) ), factory , SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI );
         }
         env = ( SOAPEnvelope ) soapBuilder.getDocumentElement( );
       } catch( Exception ex ) {
-        LOG.error( "Failed to marshall response: " + content );
+        final String messageString = httpMessage.getMessageString( );
+        LOG.error( "Failed to marshall response: " + messageString );
         LOG.error( ex, ex );
-        throw new WebServicesException( "Failed to marshall response: " + content, ex );
+        throw new WebServicesException( "Failed to marshall response: " + messageString, ex );
       } finally {
         HoldMe.canHas.unlock( );
       }
@@ -116,14 +118,13 @@ public class SoapMarshallingHandler extends MessageStackHandler {
   public void outgoingMessage( final ChannelHandlerContext ctx, final MessageEvent event ) throws Exception {
     if ( event.getMessage( ) instanceof MappingHttpMessage ) {
       MappingHttpMessage httpMessage = ( MappingHttpMessage ) event.getMessage( );
-      ByteArrayOutputStream byteOut = new ByteArrayOutputStream( );
+      ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( Binding.INITIAL_BUFFER_SIZE );
       HoldMe.canHas.lock( );
       try {
-        httpMessage.getSoapEnvelope( ).serialize( byteOut );//HACK: does this need fixing for xml brokeness?
+        httpMessage.getSoapEnvelope( ).serialize( new ChannelBufferOutputStream( buffer ) );//HACK: does this need fixing for xml brokeness?
       } finally {
         HoldMe.canHas.unlock( );
       }
-      ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( byteOut.toByteArray( ) );
       httpMessage.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf( buffer.readableBytes( ) ) );
       httpMessage.addHeader( HttpHeaders.Names.CONTENT_TYPE, "text/xml; charset=UTF-8" );
       httpMessage.setContent( buffer );
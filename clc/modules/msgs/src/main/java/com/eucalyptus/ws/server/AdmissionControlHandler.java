@@ -0,0 +1,294 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.ws.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import com.eucalyptus.component.ComponentId;
+import com.eucalyptus.component.ComponentIds;
+import com.eucalyptus.component.ComponentMessages;
+import com.eucalyptus.component.id.Eucalyptus;
+import com.eucalyptus.context.Context;
+import com.eucalyptus.context.Contexts;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.ws.EucalyptusWebServiceException;
+import com.eucalyptus.ws.Role;
+import com.eucalyptus.ws.StackConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import edu.ucsb.eucalyptus.msgs.BaseMessage;
+import edu.ucsb.eucalyptus.msgs.ExceptionResponseType;
+
+/**
+ * Admission control for service requests.
+ * 
+ * <p>Requests are rate limited using a token bucket for each account and
+ * operation class, requests are rejected with a throttling error when the
+ * bucket is empty. Admitted requests are counted against a limit on pending
+ * requests for the target component and are shed when the limit is
+ * reached.</p>
+ * 
+ * <p>Internal requests are not subject to admission control and requests
+ * from system administrators are not rate limited.</p>
+ * 
+ * @see StackConfiguration#ADMISSION_CONTROL
+ */
+@ChannelHandler.Sharable
+public enum AdmissionControlHandler implements ChannelUpstreamHandler, ChannelDownstreamHandler {
+  INSTANCE;
+  private static Logger                                    LOG         = Logger.getLogger( AdmissionControlHandler.class );
+  private static final AdmissionStatistics                 statistics  = new AdmissionStatistics( );
+  private static final AtomicLong                          admitted    = new AtomicLong( );
+  private static final AtomicLong                          throttled   = new AtomicLong( );
+  private static final AtomicLong                          shed        = new AtomicLong( );
+  private static final ConcurrentMap<String, AtomicInteger> pending    = Maps.newConcurrentMap( );
+  private static final ChannelLocal<AtomicInteger>         permits     = new ChannelLocal<AtomicInteger>( );
+  private static final Cache<String, TokenBucket>          buckets     = CacheBuilder.newBuilder( )
+                                                                                     .expireAfterAccess( 10, TimeUnit.MINUTES )
+                                                                                     .maximumSize( 10000 )
+                                                                                     .build( );
+  
+  /**
+   * Classification of operations for rate limiting.
+   */
+  enum OperationClass {
+    READ,
+    WRITE;
+    
+    static OperationClass of( final BaseMessage msg ) {
+      final String name = msg.getClass( ).getSimpleName( );
+      return name.startsWith( "Describe" ) || name.startsWith( "List" ) || name.startsWith( "Get" )
+        ? READ
+        : WRITE;
+    }
+    
+    int rate( ) {
+      return this == READ
+        ? StackConfiguration.ADMISSION_READ_RATE
+        : StackConfiguration.ADMISSION_WRITE_RATE;
+    }
+    
+    int burst( ) {
+      return this == READ
+        ? StackConfiguration.ADMISSION_READ_BURST
+        : StackConfiguration.ADMISSION_WRITE_BURST;
+    }
+  }
+  
+  public static AdmissionStatistics getStatistics( ) {
+    return statistics;
+  }
+  
+  @Override
+  public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
+    if ( e instanceof ChannelStateEvent
+         && ChannelState.OPEN.equals( ( ( ChannelStateEvent ) e ).getState( ) )
+         && !Boolean.TRUE.equals( ( ( ChannelStateEvent ) e ).getValue( ) ) ) {
+      release( ctx );
+      ctx.sendUpstream( e );
+    } else {
+      final BaseMessage msg = BaseMessage.extractMessage( e );
+      if ( msg == null
+           || !StackConfiguration.ADMISSION_CONTROL
+           || ctx.getPipeline( ).get( "internal-only-restriction" ) != null
+           || admit( ctx, msg ) ) {
+        ctx.sendUpstream( e );
+      }
+    }
+  }
+  
+  @Override
+  public void handleDownstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
+    if ( e instanceof MessageEvent ) {
+      release( ctx );
+    }
+    ctx.sendDownstream( e );
+  }
+  
+  /**
+   * Admit the request or respond with an error.
+   * 
+   * @return true if the request was admitted
+   */
+  private static boolean admit( final ChannelHandlerContext ctx, final BaseMessage msg ) {
+    final ComponentId compId;
+    try {
+      compId = ComponentIds.lookup( ComponentMessages.lookup( msg ) );
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      return true;
+    }
+    final String accountNumber = accountNumber( msg );
+    if ( accountNumber != null ) {
+      final OperationClass operationClass = OperationClass.of( msg );
+      if ( !bucket( accountNumber, operationClass ).tryAcquire( System.nanoTime( ), operationClass.rate( ), operationClass.burst( ) ) ) {
+        throttled.incrementAndGet( );
+        final boolean compute = Eucalyptus.class.equals( compId.getClass( ) );
+        reject( msg,
+                compute ? "RequestLimitExceeded" : "Throttling",
+                Role.Sender,
+                "Rate exceeded",
+                compute ? HttpResponseStatus.SERVICE_UNAVAILABLE : HttpResponseStatus.BAD_REQUEST );
+        return false;
+      }
+    }
+    final AtomicInteger componentPending = pending( compId.name( ) );
+    if ( componentPending.incrementAndGet( ) > StackConfiguration.ADMISSION_MAX_PENDING ) {
+      componentPending.decrementAndGet( );
+      shed.incrementAndGet( );
+      reject( msg,
+              "ServiceUnavailable",
+              Role.Receiver,
+              "Service is unable to handle request",
+              HttpResponseStatus.SERVICE_UNAVAILABLE );
+      return false;
+    }
+    final AtomicInteger previous = permits.set( ctx.getChannel( ), componentPending );
+    if ( previous != null ) {
+      previous.decrementAndGet( );
+    }
+    admitted.incrementAndGet( );
+    return true;
+  }
+  
+  private static void release( final ChannelHandlerContext ctx ) {
+    final AtomicInteger componentPending = permits.remove( ctx.getChannel( ) );
+    if ( componentPending != null ) {
+      componentPending.decrementAndGet( );
+    }
+  }
+  
+  private static void reject( final BaseMessage msg,
+                              final String code,
+                              final Role role,
+                              final String message,
+                              final HttpResponseStatus status ) {
+    LOG.debug( "Rejected " + msg.getClass( ).getSimpleName( ) + " " + msg.getCorrelationId( ) + ": " + code );
+    Contexts.response( new ExceptionResponseType( msg, code, message, status, new EucalyptusWebServiceException( code, role, message ) ) );
+  }
+  
+  private static String accountNumber( final BaseMessage msg ) {
+    try {
+      final Context context = Contexts.lookup( msg.getCorrelationId( ) );
+      if ( context.hasUser( ) && !context.hasAdministrativePrivileges( ) ) {
+        return context.getAccount( ).getAccountNumber( );
+      }
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+    }
+    return null;
+  }
+  
+  private static TokenBucket bucket( final String accountNumber, final OperationClass operationClass ) {
+    try {
+      return buckets.get( accountNumber + ":" + operationClass, new Callable<TokenBucket>( ) {
+        @Override
+        public TokenBucket call( ) {
+          return new TokenBucket( System.nanoTime( ), operationClass.burst( ) );
+        }
+      } );
+    } catch ( final ExecutionException ex ) {
+      throw new IllegalStateException( ex.getCause( ) );
+    }
+  }
+  
+  private static AtomicInteger pending( final String componentName ) {
+    AtomicInteger componentPending = pending.get( componentName );
+    if ( componentPending == null ) {
+      final AtomicInteger created = new AtomicInteger( );
+      componentPending = pending.putIfAbsent( componentName, created );
+      if ( componentPending == null ) {
+        componentPending = created;
+      }
+    }
+    return componentPending;
+  }
+  
+  /**
+   * Token bucket refilled at a configurable rate up to the burst size.
+   */
+  static final class TokenBucket {
+    private long   updated;
+    private double tokens;
+    
+    TokenBucket( final long nanos, final int burst ) {
+      this.updated = nanos;
+      this.tokens = burst;
+    }
+    
+    synchronized boolean tryAcquire( final long nanos, final int rate, final int burst ) {
+      if ( nanos > this.updated ) {
+        this.tokens = Math.min( burst, this.tokens + ( ( nanos - this.updated ) * ( double ) rate / TimeUnit.SECONDS.toNanos( 1 ) ) );
+        this.updated = nanos;
+      } else if ( this.tokens > burst ) {
+        this.tokens = burst;
+      }
+      if ( this.tokens >= 1d ) {
+        this.tokens -= 1d;
+        return true;
+      } else {
+        return false;
+      }
+    }
+  }
+  
+  public static class AdmissionStatistics {
+    
+    public long getAdmittedCount( ) {
+      return admitted.get( );
+    }
+    
+    public long getThrottledCount( ) {
+      return throttled.get( );
+    }
+    
+    public long getShedCount( ) {
+      return shed.get( );
+    }
+    
+    public String[] getPendingByComponent( ) {
+      final List<String> pendingByComponent = Lists.newArrayList( );
+      for ( final Map.Entry<String, AtomicInteger> entry : pending.entrySet( ) ) {
+        pendingByComponent.add( entry.getKey( ) + "=" + entry.getValue( ).get( ) );
+      }
+      return pendingByComponent.toArray( new String[pendingByComponent.size( )] );
+    }
+  }
+}
@@ -64,8 +64,11 @@ package com.eucalyptus.ws.server;
 
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.log4j.Logger;
@@ -101,6 +104,9 @@ import com.eucalyptus.ws.protocol.BaseQueryBinding;
 import com.eucalyptus.ws.protocol.OperationParameter;
 import com.eucalyptus.ws.protocol.SoapHandler;
 import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.cloud.entities.SystemConfiguration;
@@ -110,14 +116,15 @@ public class Pipelines {
   private static final Set<FilteredPipeline>                                     internalPipelines = Sets.newHashSet( );
   private static final Set<FilteredPipeline>                                     pipelines         = Sets.newHashSet( );
   private static final Map<Class<? extends ComponentId>, ChannelPipelineFactory> clientPipelines   = Maps.newHashMap( );
-  private static final Supplier<String> subDomain = new Supplier<String>() {
+  private static volatile RoutingIndex                                           routingIndex;
+  private static final Supplier<String> subDomain = Suppliers.memoizeWithExpiration( new Supplier<String>() {
 
     @Override
     public String get( ) {
       return SystemConfiguration.getSystemConfiguration( ).getDnsDomain( );//GRZE:TODO: this is not happy ==> {@link DomainNames}
     }
     
-  };
+  }, 15, TimeUnit.SECONDS );
   
   public static ChannelPipelineFactory lookup( Class<? extends ComponentId> compId ) {
     return clientPipelines.get( compId );
@@ -146,45 +153,143 @@ public class Pipelines {
   }
   
   private static FilteredPipeline findAccepting( final HttpRequest request ) {
-    final FilteredPipeline candidate = null;
-    for ( final FilteredPipeline f : pipelines ) {
+    final RoutingIndex index = routingIndex( );
+    for ( final FilteredPipeline f : index.pipelines ) {
       if ( f.checkAccepts( request ) ) {
         return f;
       }
     }
-    if ( request.getHeader(HttpHeaders.Names.HOST).contains( "amazonaws.com" ) 
-        || request.getHeader(HttpHeaders.Names.HOST).contains( subDomain.get( ) ) ) {
-      String hostHeader = request.getHeader(HttpHeaders.Names.HOST);
-      LOG.debug( "Trying to intercept request for " + hostHeader );
+    final String hostHeader = request.getHeader( HttpHeaders.Names.HOST );
+    final boolean soapRequest = request.getHeaderNames( ).contains( "SOAPAction" );
+    if ( hostHeader != null ) {
+      final String domain = subDomain.get( );
+      if ( hostHeader.contains( "amazonaws.com" ) || hostHeader.contains( domain ) ) {
+        LOG.debug( "Trying to intercept request for " + hostHeader );
+        for ( final InterceptRoute route : soapRequest ? index.soapInterceptRoutes : index.queryInterceptRoutes ) {
+          LOG.debug( "Maybe intercepting: " + hostHeader + " using " + route.pipeline.getClass( ) );
+          if ( route.matches( hostHeader, domain ) ) {
+            return route.pipeline;
+          }
+        }
+      }
+    }
+    if ( soapRequest ) {
+      for ( final FilteredPipeline f : index.internalSoapPipelines ) {
+        if ( f.checkAccepts( request ) ) {
+          return f;
+        }
+      }
+    }
+    for ( final FilteredPipeline f : index.internalQueryPipelines ) {
+      if ( f.checkAccepts( request ) ) {
+        return f;
+      }
+    }
+    return null;
+  }
+
+  private static RoutingIndex routingIndex( ) {
+    RoutingIndex index = routingIndex;
+    if ( index == null ) {
+      synchronized ( Pipelines.class ) {
+        if ( ( index = routingIndex ) == null ) {
+          routingIndex = index = new RoutingIndex( pipelines, internalPipelines );
+        }
+      }
+    }
+    return index;
+  }
+
+  private static void addPipeline( final Set<FilteredPipeline> pipelineSet, final FilteredPipeline pipeline ) {
+    synchronized ( Pipelines.class ) {
+      pipelineSet.add( pipeline );
+      routingIndex = null;
+    }
+  }
+
+  /**
+   * Routing information precomputed from the registered pipelines.
+   *
+   * Pipelines that can only be intercepted by host name are split by SOAP
+   * support and have their host patterns compiled, internal pipelines are
+   * split by protocol so SOAP pipelines are only checked for SOAP requests.
+   */
+  private static final class RoutingIndex {
+    private final List<FilteredPipeline> pipelines;
+    private final List<InterceptRoute>   soapInterceptRoutes;
+    private final List<InterceptRoute>   queryInterceptRoutes;
+    private final List<FilteredPipeline> internalSoapPipelines;
+    private final List<FilteredPipeline> internalQueryPipelines;
+
+    private RoutingIndex( final Set<FilteredPipeline> pipelines,
+                          final Set<FilteredPipeline> internalPipelines ) {
+      final List<InterceptRoute> soapRoutes = Lists.newArrayList( );
+      final List<InterceptRoute> queryRoutes = Lists.newArrayList( );
       for ( final FilteredPipeline f : pipelines ) {
         if ( Ats.from( f ).has( ComponentPart.class ) ) {
-          Class<? extends ComponentId> compIdClass = Ats.from( f ).get( ComponentPart.class ).value( );
-          ComponentId compId = ComponentIds.lookup( compIdClass );
+          final Class<? extends ComponentId> compIdClass = Ats.from( f ).get( ComponentPart.class ).value( );
           if ( Ats.from( compIdClass ).has( PublicService.class ) ) {
-            if ( request.getHeaderNames().contains( "SOAPAction" ) && f.addHandlers( Channels.pipeline( ) ).get( SoapHandler.class ) == null ) {
-              continue;//Skip pipeline which doesn't handle SOAP for this SOAP request
-            } else if ( !request.getHeaderNames().contains( "SOAPAction" ) && f.addHandlers( Channels.pipeline( ) ).get( SoapHandler.class ) != null ) {
-              continue;//Skip pipeline which handles SOAP for this non-SOAP request
-            }
-            LOG.debug( "Maybe intercepting: " + hostHeader + " using " + f.getClass( ) );
-            if ( Ats.from( compIdClass ).has( AwsServiceName.class ) 
-                && request.getHeader(HttpHeaders.Names.HOST).matches( "[\\w\\.-_]*" + compId.getAwsServiceName( ) + "\\.\\w+\\.amazonaws.com" ) ) {
-              return f;//Return pipeline which can handle the request for ${service}.${region}.amazonaws.com
-            } else if ( request.getHeader(HttpHeaders.Names.HOST).matches( "[\\w\\.-_]*" + compId.name( ) + "\\." + subDomain.get( ) ) ) {
-              return f;//Return pipeline which can handle the request for ${service}.${system.dns.dnsdomain}
+            final InterceptRoute route = new InterceptRoute( f, ComponentIds.lookup( compIdClass ) );
+            if ( f.addHandlers( Channels.pipeline( ) ).get( SoapHandler.class ) != null ) {
+              soapRoutes.add( route );
+            } else {
+              queryRoutes.add( route );
             }
           }
         }
       }
-    }
-    if ( candidate == null ) {
+      final List<FilteredPipeline> internalSoap = Lists.newArrayList( );
+      final List<FilteredPipeline> internalQuery = Lists.newArrayList( );
       for ( final FilteredPipeline f : internalPipelines ) {
-        if ( f.checkAccepts( request ) ) {
-          return f;
+        if ( f instanceof InternalSoapPipeline ) {
+          internalSoap.add( f );
+        } else {
+          internalQuery.add( f );
         }
       }
+      this.pipelines = ImmutableList.copyOf( pipelines );
+      this.soapInterceptRoutes = ImmutableList.copyOf( soapRoutes );
+      this.queryInterceptRoutes = ImmutableList.copyOf( queryRoutes );
+      this.internalSoapPipelines = ImmutableList.copyOf( internalSoap );
+      this.internalQueryPipelines = ImmutableList.copyOf( internalQuery );
+    }
+  }
+
+  private static final class InterceptRoute {
+    private final FilteredPipeline pipeline;
+    private final String           componentName;
+    private final Pattern          awsHostPattern;
+    private volatile DomainPattern domainPattern;
+
+    private InterceptRoute( final FilteredPipeline pipeline, final ComponentId compId ) {
+      this.pipeline = pipeline;
+      this.componentName = compId.name( );
+      this.awsHostPattern = Ats.from( compId.getClass( ) ).has( AwsServiceName.class )
+        ? Pattern.compile( "[\\w\\.-_]*" + compId.getAwsServiceName( ) + "\\.\\w+\\.amazonaws.com" )
+        : null;
+    }
+
+    private boolean matches( final String host, final String domain ) {
+      if ( this.awsHostPattern != null && this.awsHostPattern.matcher( host ).matches( ) ) {
+        return true;//Matches request for ${service}.${region}.amazonaws.com
+      }
+      DomainPattern domainPattern = this.domainPattern;
+      if ( domainPattern == null || !domainPattern.domain.equals( domain ) ) {
+        this.domainPattern = domainPattern = new DomainPattern( domain,
+            Pattern.compile( "[\\w\\.-_]*" + this.componentName + "\\." + domain ) );
+      }
+      return domainPattern.pattern.matcher( host ).matches( );//Matches request for ${service}.${system.dns.dnsdomain}
+    }
+  }
+
+  private static final class DomainPattern {
+    private final String  domain;
+    private final Pattern pattern;
+
+    private DomainPattern( final String domain, final Pattern pattern ) {
+      this.domain = domain;
+      this.pattern = pattern;
     }
-    return candidate;
   }
   
   @Provides( Empyrean.class )
@@ -194,8 +299,8 @@ public class Pipelines {
     @Override
     public boolean load( ) throws Exception {
       for ( final ComponentId comp : ComponentIds.list( ) ) {
-        Pipelines.internalPipelines.add( new InternalQueryPipeline( comp ) );
-        Pipelines.internalPipelines.add( new InternalSoapPipeline( comp ) );
+        Pipelines.addPipeline( Pipelines.internalPipelines, new InternalQueryPipeline( comp ) );
+        Pipelines.addPipeline( Pipelines.internalPipelines, new InternalSoapPipeline( comp ) );
       }
       return true;
     }
@@ -213,7 +318,7 @@ public class Pipelines {
           final ComponentId compId = Ats.from( candidate ).get( ComponentPart.class ).value( ).newInstance( );
           final Class<? extends FilteredPipeline> pipelineClass = candidate;
           final FilteredPipeline pipeline = Classes.newInstance( pipelineClass );
-          Pipelines.pipelines.add( pipeline );
+          Pipelines.addPipeline( Pipelines.pipelines, pipeline );
           return true;
         } catch ( final Exception ex ) {
           LOG.trace( ex, ex );
@@ -303,7 +408,8 @@ public class Pipelines {
     
     @Override
     public boolean checkAccepts( final HttpRequest message ) {
-      if ( message instanceof MappingHttpRequest ) {
+      if ( message instanceof MappingHttpRequest
+          && ( message.getUri( ).startsWith( this.servicePath ) || message.getUri( ).startsWith( this.internalServicePath ) ) ) {
         final MappingHttpRequest httpRequest = ( MappingHttpRequest ) message;
         if ( httpRequest.getMethod( ).equals( HttpMethod.POST ) ) {
           final Map<String, String> parameters = new HashMap<String, String>( httpRequest.getParameters( ) );
@@ -340,7 +446,7 @@ public class Pipelines {
             }
           }
         }
-        return ( message.getUri( ).startsWith( this.servicePath ) || message.getUri( ).startsWith( this.internalServicePath ) );
+        return true;
       }
       return false;
     }
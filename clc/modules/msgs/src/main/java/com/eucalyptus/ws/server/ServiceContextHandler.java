@@ -151,6 +151,7 @@ public class ServiceContextHandler implements ChannelUpstreamHandler, ChannelDow
       final DownstreamMessageEvent newEvent = new DownstreamMessageEvent( ctx.getChannel( ), e.getFuture( ), response, null );
       response.setMessage( reply );
       setStatus( response, e );
+      Statistics.replied( ctx.getChannel( ), e.getFuture( ) );
       return newEvent;
     } else {
       final MappingHttpResponse response = new MappingHttpResponse( HttpVersion.HTTP_1_1 );
@@ -215,6 +216,7 @@ public class ServiceContextHandler implements ChannelUpstreamHandler, ChannelDow
     this.startTime.set( ctx.getChannel( ), System.currentTimeMillis( ) );
     this.messageType.set( ctx.getChannel( ), msg );
     EventRecord.here( ServiceContextHandler.class, EventType.MSG_RECEIVED, msg.getClass( ).getSimpleName( ) ).trace( );
+    Statistics.dispatched( ctx.getChannel( ), msg );
     ServiceOperations.dispatch( msg );
   }
   
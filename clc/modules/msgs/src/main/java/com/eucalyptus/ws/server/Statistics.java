@@ -63,24 +63,60 @@
 package com.eucalyptus.ws.server;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandler;
+import com.eucalyptus.component.ComponentIds;
+import com.eucalyptus.component.annotation.ComponentMessage;
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.system.Ats;
+import com.eucalyptus.util.LatencyHistogram;
 import com.eucalyptus.ws.StackConfiguration;
+import com.eucalyptus.ws.handlers.BindingHandler;
+import com.eucalyptus.ws.handlers.MessageStackHandler;
+import com.eucalyptus.ws.handlers.RestfulMarshallingHandler;
+import com.eucalyptus.ws.handlers.SoapMarshallingHandler;
+import com.eucalyptus.ws.protocol.AddressingHandler;
+import com.eucalyptus.ws.protocol.SoapHandler;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.Callables;
+import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 public class Statistics {
   private static Logger                            LOG               = Logger.getLogger( Statistics.class );
   private static final Map<Integer, RequestRecord> requestStatistics = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<Integer, RequestTimings>        requestTimings      = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<Class<?>, OperationStatistics>  operationStatistics = Maps.newConcurrentMap( );
+  private static final OperationLatencies                            operationLatencies  = new OperationLatencies( );
+
+  /**
+   * Request processing phases for which latencies are always recorded.
+   */
+  public enum Phase {
+    /** Authentication and other request verification handlers */
+    AUTHENTICATION,
+    /** Request deserialization and binding handlers */
+    BINDING,
+    /** Dispatch until the service first looks up the request context */
+    QUEUE_WAIT,
+    /** Service execution until the reply is available */
+    SERVICE,
+    /** Response marshalling handlers */
+    MARSHALLING,
+  }
   
   private static class HandlerRecord implements Callable<Long> {
     private final String handlerClassName;
@@ -133,7 +169,20 @@ public class Statistics {
     
   }
   
+  public static OperationLatencies getOperationLatencies( ) {
+    return operationLatencies;
+  }
+
   public static final void startRequest( final Channel channel ) {
+    if ( requestTimings.put( channel.getId( ), new RequestTimings( ) ) == null ) {
+      channel.getCloseFuture( ).addListener( new ChannelFutureListener( ) {
+        
+        @Override
+        public void operationComplete( ChannelFuture future ) throws Exception {
+          requestTimings.remove( channel.getId( ) );
+        }
+      } );
+    }
     if ( StackConfiguration.STATISTICS ) {
       final RequestRecord record = new RequestRecord( );
       requestStatistics.put( channel.getId( ), record );
@@ -148,6 +197,78 @@ public class Statistics {
   }
   
   public static final <T extends ChannelHandler> Callable<Long> startUpstream( Channel channel, T handler ) {
+    return phaseTimer( channel, upstreamPhase( handler ), startUpstreamRecord( channel, handler ) );
+  }
+
+  public static final <T extends ChannelHandler> Callable<Long> startDownstream( Channel channel, T handler ) {
+    return phaseTimer( channel, handler instanceof MessageStackHandler ? Phase.MARSHALLING : null, startDownstreamRecord( channel, handler ) );
+  }
+
+  /**
+   * Record dispatch of the bound request to the service.
+   */
+  public static final void dispatched( final Channel channel, final BaseMessage request ) {
+    final RequestTimings timings = requestTimings.get( channel.getId( ) );
+    if ( timings != null ) {
+      timings.requestType = request.getClass( );
+      timings.dispatchNanos = System.nanoTime( );
+    }
+  }
+
+  /**
+   * Record that the service has started processing the request.
+   */
+  public static final void serviceStarted( final Channel channel ) {
+    final RequestTimings timings = requestTimings.get( channel.getId( ) );
+    if ( timings != null && timings.dispatchNanos != 0 && timings.serviceStartNanos == 0 ) {
+      timings.serviceStartNanos = System.nanoTime( );
+    }
+  }
+
+  /**
+   * Record the reply for the request, latencies are recorded once the reply is written.
+   */
+  public static final void replied( final Channel channel, final ChannelFuture writeFuture ) {
+    final RequestTimings timings = requestTimings.get( channel.getId( ) );
+    if ( timings != null && timings.requestType != null && timings.replyNanos == 0 ) {
+      timings.replyNanos = System.nanoTime( );
+      writeFuture.addListener( new ChannelFutureListener( ) {
+        
+        @Override
+        public void operationComplete( ChannelFuture future ) throws Exception {
+          operationStatistics( timings.requestType ).record( timings );
+        }
+      } );
+    }
+  }
+
+  private static Phase upstreamPhase( final ChannelHandler handler ) {
+    if ( handler instanceof BindingHandler || handler instanceof RestfulMarshallingHandler
+        || handler instanceof SoapMarshallingHandler || handler instanceof SoapHandler
+        || handler instanceof AddressingHandler ) {
+      return Phase.BINDING;
+    } else if ( handler instanceof MessageStackHandler ) {
+      return Phase.AUTHENTICATION;
+    } else {
+      return null;
+    }
+  }
+
+  private static Callable<Long> phaseTimer( final Channel channel, final Phase phase, final Callable<Long> delegate ) {
+    final RequestTimings timings = phase == null ? null : requestTimings.get( channel.getId( ) );
+    return timings == null ? delegate : new PhaseTimer( timings, phase, delegate );
+  }
+
+  private static OperationStatistics operationStatistics( final Class<?> requestType ) {
+    OperationStatistics statistics = operationStatistics.get( requestType );
+    if ( statistics == null ) {
+      final OperationStatistics newStatistics = new OperationStatistics( requestType );
+      statistics = Objects.firstNonNull( operationStatistics.putIfAbsent( requestType, newStatistics ), newStatistics );
+    }
+    return statistics;
+  }
+
+  private static <T extends ChannelHandler> Callable<Long> startUpstreamRecord( Channel channel, T handler ) {
     Integer correlationId = channel.getId( );
     if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
       RequestRecord record = requestStatistics.get( correlationId );
@@ -164,7 +285,7 @@ public class Statistics {
     }
   }
   
-  public static final <T extends ChannelHandler> Callable<Long> startDownstream( Channel channel, T handler ) {
+  private static <T extends ChannelHandler> Callable<Long> startDownstreamRecord( Channel channel, T handler ) {
     Integer correlationId = channel.getId( );
     if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
       RequestRecord record = requestStatistics.get( correlationId );
@@ -175,5 +296,118 @@ public class Statistics {
       return Callables.returning( 0L );
     }
   }
+
+  /**
+   * Per request phase timings, shared by the I/O and service threads.
+   */
+  private static final class RequestTimings {
+    private final AtomicLongArray phaseNanos = new AtomicLongArray( Phase.values( ).length );
+    private volatile Class<?>     requestType;
+    private volatile long         dispatchNanos;
+    private volatile long         serviceStartNanos;
+    private volatile long         replyNanos;
+  }
+
+  private static final class PhaseTimer implements Callable<Long> {
+    private final RequestTimings timings;
+    private final Phase          phase;
+    private final Callable<Long> delegate;
+    private final long           startNanos = System.nanoTime( );
+    private boolean              complete;
+    
+    private PhaseTimer( final RequestTimings timings, final Phase phase, final Callable<Long> delegate ) {
+      this.timings = timings;
+      this.phase = phase;
+      this.delegate = delegate;
+    }
+    
+    @Override
+    public Long call( ) throws Exception {
+      if ( !this.complete ) {
+        this.complete = true;
+        this.timings.phaseNanos.addAndGet( this.phase.ordinal( ), System.nanoTime( ) - this.startNanos );
+      }
+      return this.delegate.call( );
+    }
+  }
+
+  private static final class OperationStatistics {
+    private final String             component;
+    private final String             operation;
+    private final LatencyHistogram[] phaseLatencies = new LatencyHistogram[Phase.values( ).length];
+    
+    private OperationStatistics( final Class<?> requestType ) {
+      final Ats ats = Ats.inClassHierarchy( requestType );
+      this.component = ats.has( ComponentMessage.class )
+        ? ComponentIds.lookup( ats.get( ComponentMessage.class ).value( ) ).name( )
+        : "unknown";
+      this.operation = requestType.getSimpleName( );
+      for ( int i = 0; i < this.phaseLatencies.length; i++ ) {
+        this.phaseLatencies[i] = new LatencyHistogram( );
+      }
+    }
+    
+    private void record( final RequestTimings timings ) {
+      for ( final Phase phase : new Phase[] { Phase.AUTHENTICATION, Phase.BINDING, Phase.MARSHALLING } ) {
+        record( phase, timings.phaseNanos.get( phase.ordinal( ) ) );
+      }
+      final long serviceStartNanos = timings.serviceStartNanos;
+      if ( serviceStartNanos != 0 ) {
+        record( Phase.QUEUE_WAIT, serviceStartNanos - timings.dispatchNanos );
+        record( Phase.SERVICE, timings.replyNanos - serviceStartNanos );
+      } else {// service did not look up the context, all time is service time
+        record( Phase.SERVICE, timings.replyNanos - timings.dispatchNanos );
+      }
+    }
+    
+    private void record( final Phase phase, final long nanos ) {
+      this.phaseLatencies[phase.ordinal( )].record( TimeUnit.NANOSECONDS.toMillis( nanos ) );
+    }
+    
+    private String describe( final Phase phase ) {
+      final LatencyHistogram.Snapshot snapshot = this.phaseLatencies[phase.ordinal( )].snapshot( );
+      return String.format( "%s %s %s count=%d mean=%.1fms p50=%dms p99=%dms max=%dms",
+                            this.component, this.operation, phase, snapshot.getCount( ), snapshot.getMeanMillis( ),
+                            snapshot.getPercentileMillis( 50 ), snapshot.getPercentileMillis( 99 ), snapshot.getMaxMillis( ) );
+    }
+  }
+
+  /**
+   * Per operation latency histograms for the web services stack.
+   */
+  public static class OperationLatencies {
+
+    public int getOperationCount( ) {
+      return operationStatistics.size( );
+    }
+
+    public String[] getOperationSummaries( ) {
+      return describe( null );
+    }
+
+    /**
+     * Describe the latencies for the given operation, e.g. RunInstancesType
+     */
+    public String[] describeOperation( final String operation ) {
+      return describe( operation );
+    }
+
+    private String[] describe( final String operation ) {
+      final List<String> descriptions = Lists.newArrayList( );
+      for ( final OperationStatistics statistics : operationStatistics.values( ) ) {
+        if ( operation == null || statistics.operation.equals( operation ) ) {
+          for ( final Phase phase : Phase.values( ) ) {
+            descriptions.add( statistics.describe( phase ) );
+          }
+        }
+      }
+      return Ordering.natural( ).sortedCopy( descriptions ).toArray( new String[descriptions.size( )] );
+    }
+
+    @Override
+    public String toString( ) {
+      return "Web services operation latencies";
+    }
+  }
   
 }
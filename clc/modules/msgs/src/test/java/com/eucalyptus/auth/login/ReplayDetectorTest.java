@@ -0,0 +1,57 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.login;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Unit tests for signature replay detection
+ */
+public class ReplayDetectorTest {
+
+  private static final long WINDOW = TimeUnit.MINUTES.toNanos( 15 );
+  private static final long REUSE = TimeUnit.SECONDS.toNanos( 3 );
+
+  @Test
+  public void testReplayDetected() {
+    final ReplayDetector detector = new ReplayDetector( 0L, WINDOW );
+    assertTrue( "First use accepted", detector.accept( "signature", 0L, 0L ) );
+    assertTrue( "Other signature accepted", detector.accept( "other", 0L, 0L ) );
+    assertFalse( "Replay detected", detector.accept( "signature", TimeUnit.MINUTES.toNanos( 10 ), 0L ) );
+  }
+
+  @Test
+  public void testReuseWithinSkewWindow() {
+    final ReplayDetector detector = new ReplayDetector( 0L, WINDOW );
+    assertTrue( "First use accepted", detector.accept( "signature", 0L, REUSE ) );
+    assertTrue( "Reuse accepted", detector.accept( "signature", TimeUnit.SECONDS.toNanos( 2 ), REUSE ) );
+    assertFalse( "Reuse after skew window detected", detector.accept( "signature", TimeUnit.SECONDS.toNanos( 4 ), REUSE ) );
+  }
+
+  @Test
+  public void testExpiry() {
+    final ReplayDetector detector = new ReplayDetector( 0L, WINDOW );
+    assertTrue( "First use accepted", detector.accept( "signature", 0L, 0L ) );
+    assertFalse( "Replay at window end detected", detector.accept( "signature", WINDOW - 1, 0L ) );
+    assertTrue( "Use after window accepted", detector.accept( "signature", 2 * WINDOW, 0L ) );
+  }
+}
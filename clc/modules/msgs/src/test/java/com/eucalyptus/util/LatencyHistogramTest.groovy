@@ -0,0 +1,56 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util
+
+import static org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * 
+ */
+class LatencyHistogramTest {
+
+  @Test
+  void testSnapshot() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    ( 1..100 ).each { histogram.record( it ) }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot( )
+    assertEquals( "count", 100L, snapshot.count )
+    assertEquals( "total", 5050L, snapshot.totalMillis )
+    assertEquals( "mean", 50.5d, snapshot.meanMillis, 0.0001d )
+    assertEquals( "max", 100L, snapshot.maxMillis )
+    assertEquals( "p50", 50L, snapshot.getPercentileMillis( 50 ) )
+    assertEquals( "p99", 100L, snapshot.getPercentileMillis( 99 ) )
+  }
+
+  @Test
+  void testInterval() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    histogram.record( 1000 )
+    LatencyHistogram.Snapshot first = histogram.snapshot( )
+    histogram.record( 3 )
+    histogram.record( 4 )
+    LatencyHistogram.Snapshot interval = histogram.snapshot( ).minus( first )
+    assertEquals( "count", 2L, interval.count )
+    assertEquals( "total", 7L, interval.totalMillis )
+    assertEquals( "min", 2L, interval.minMillis )
+    assertEquals( "max", 5L, interval.maxMillis )
+  }
+}
@@ -0,0 +1,57 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import com.eucalyptus.ws.server.AdmissionControlHandler.OperationClass
+import com.eucalyptus.ws.server.AdmissionControlHandler.TokenBucket
+import edu.ucsb.eucalyptus.msgs.BaseMessage
+
+/**
+ * 
+ */
+class AdmissionControlHandlerTest {
+
+  @Test
+  void testTokenBucketBurstAndRefill() {
+    long now = 0
+    TokenBucket bucket = new TokenBucket( now, 5 )
+    5.times { assertTrue( "Burst token " + it, bucket.tryAcquire( now, 1, 5 ) ) }
+    assertFalse( "Burst exhausted", bucket.tryAcquire( now, 1, 5 ) )
+    now += TimeUnit.MILLISECONDS.toNanos( 500 )
+    assertFalse( "Partial refill", bucket.tryAcquire( now, 1, 5 ) )
+    now += TimeUnit.MILLISECONDS.toNanos( 500 )
+    assertTrue( "Refilled token", bucket.tryAcquire( now, 1, 5 ) )
+    now += TimeUnit.HOURS.toNanos( 1 )
+    5.times { assertTrue( "Refilled burst token " + it, bucket.tryAcquire( now, 1, 5 ) ) }
+    assertFalse( "Refill limited to burst", bucket.tryAcquire( now, 1, 5 ) )
+  }
+
+  @Test
+  void testOperationClass() {
+    assertEquals( OperationClass.READ, OperationClass.of( new DescribeThingsType( ) ) )
+    assertEquals( OperationClass.WRITE, OperationClass.of( new CreateThingType( ) ) )
+  }
+
+  static class DescribeThingsType extends BaseMessage { }
+  static class CreateThingType extends BaseMessage { }
+}
@@ -0,0 +1,58 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import org.jboss.netty.channel.Channel
+import org.jboss.netty.channel.DefaultChannelFuture
+import org.junit.Test
+import com.eucalyptus.ws.handlers.MessageStackHandler
+import edu.ucsb.eucalyptus.msgs.BaseMessage
+
+/**
+ * 
+ */
+class StatisticsTest {
+
+  @Test
+  void testOperationLatenciesRecordedOnWrite() {
+    Channel channel = [
+        getId: { 7331 },
+        getCloseFuture: { new DefaultChannelFuture( null, false ) }
+    ] as Channel
+    Statistics.startRequest( channel )
+    Statistics.startUpstream( channel, new MessageStackHandler( ) { } ).call( )
+    Statistics.dispatched( channel, new StatisticsTestMessage( ) )
+    Statistics.serviceStarted( channel )
+    DefaultChannelFuture writeFuture = new DefaultChannelFuture( channel, false )
+    Statistics.replied( channel, writeFuture )
+    Statistics.startDownstream( channel, new MessageStackHandler( ) { } ).call( )
+    assertEquals( "Recorded before write", 0, Statistics.getOperationLatencies( ).describeOperation( "StatisticsTestMessage" ).length )
+    writeFuture.setSuccess( )
+
+    String[] descriptions = Statistics.getOperationLatencies( ).describeOperation( "StatisticsTestMessage" )
+    assertEquals( "Phase count", Statistics.Phase.values( ).length, descriptions.length )
+    descriptions.each { String description ->
+      assertTrue( "Recorded once: " + description, description.contains( "count=1 " ) )
+    }
+  }
+
+  static class StatisticsTestMessage extends BaseMessage { }
+}